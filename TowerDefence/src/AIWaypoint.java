@@ -12,6 +12,10 @@ public class AIWaypoint extends Rectangle {
      * Reference to the next waypoint or null if this is the end of the path.
      */
     private AIWaypoint nextWaypoint;
+    /**
+     * Distance along the path from the start to this waypoint.
+     */
+    private int pathProgress;
 
     /**
      * Creates a waypoint that references the next waypoint.
@@ -33,6 +37,24 @@ public class AIWaypoint extends Rectangle {
         return nextWaypoint;
     }
 
+    /**
+     * Sets the distance along the path from the start to this waypoint.
+     *
+     * @param pathProgress Distance from the start.
+     */
+    public void setPathProgress(int pathProgress) {
+        this.pathProgress = pathProgress;
+    }
+
+    /**
+     * Gets the distance along the path from the start to this waypoint.
+     *
+     * @return Distance from the start.
+     */
+    public int getPathProgress() {
+        return pathProgress;
+    }
+
     /**
      * Draw a debug marker to show where the waypoint is.
      *
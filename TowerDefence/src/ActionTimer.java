@@ -46,6 +46,16 @@ public class ActionTimer {
         }
     }
 
+    /**
+     * Converts a time to the number of fixed updates it would take a timer with that time to trigger.
+     *
+     * @param time Time in milliseconds.
+     * @return Number of updates, at least 1.
+     */
+    public static int toTicks(int time) {
+        return Math.max((time + GamePanel.TIME_BETWEEN_UPDATES - 1) / GamePanel.TIME_BETWEEN_UPDATES, 1);
+    }
+
     /**
      * Gets the current triggered state of the timer.
      *
@@ -1,4 +1,3 @@
-import java.awt.*;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,6 +10,11 @@ import java.util.List;
  * the enemy target and will deal damage to everything around the target.
  */
 class AttackAoEAtTargetBehaviour implements AttackTargetBehaviour {
+    /**
+     * Colour of the projectiles as 0xRRGGBB.
+     */
+    private static final int PROJECTILE_COLOUR = 0x522901;
+
     /**
      * Reference to the tower that will be using this behaviour.
      */
@@ -35,7 +39,7 @@ class AttackAoEAtTargetBehaviour implements AttackTargetBehaviour {
     public List<Projectile> fireProjectiles(List<EnemyUnit> targets) {
         List<Projectile> result = new ArrayList<>();
         for(EnemyUnit target : targets) {
-            result.add(new Projectile(towerReference.getCentre(),target, this, new Color(82, 41, 1)));
+            result.add(new Projectile(towerReference.getCentre(),target, this, PROJECTILE_COLOUR));
         }
         return result;
     }
@@ -52,16 +56,19 @@ class AttackAoEAtTargetBehaviour implements AttackTargetBehaviour {
     }
 
     /**
-     * Finds all enemies in a range from the enemy and deals damage equally to all of them.
+     * Queues an explosion at the enemy that will deal damage equally to everything within
+     * the tower's blast radius. All explosions are resolved together on the next enemy update.
+     * An explosion effect the size of the blast is shown straight away.
      *
      * @param target Reference to the enemy enemy to apply a hit on.
      */
     @Override
     public void handleProjectileHit(EnemyUnit target) {
-        List<EnemyUnit> allNearby = TowerAI.getTargetsInRange(target.getCentre(), towerReference.getRange());
-        for(EnemyUnit nearby : allNearby) {
-            nearby.damage(70);
-        }
+        Position centre = target.getCentre();
+        EnemyUnitManager enemyUnitManager = towerReference.getEnemyUnitManager();
+        enemyUnitManager.queueExplosion(centre, towerReference.getBlastRadius(), towerReference.getDamage());
+        enemyUnitManager.getSimulation().spawnEffect(GameSimulation.EFFECT_EXPLOSION, centre.x, centre.y,
+                                                     towerReference.getBlastRadius(), PROJECTILE_COLOUR);
     }
 }
 
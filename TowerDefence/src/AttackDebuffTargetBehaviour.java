@@ -0,0 +1,78 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * AttackDebuffTargetBehaviour class:
+ * Defines a behaviour that fires projectiles that move directly toward
+ * the enemy target and apply a debuff to the target on hit.
+ * Used by the burn, poison, shred and stun towers, which rely on the debuff rather than the hit.
+ */
+class AttackDebuffTargetBehaviour implements AttackTargetBehaviour {
+    /**
+     * Reference to the tower that will be using this behaviour.
+     */
+    private Tower towerReference;
+    /**
+     * The type of debuff applied on hit.
+     */
+    private Debuff.DebuffType debuffType;
+    /**
+     * Colour of the projectiles.
+     */
+    private int projectileColour;
+
+    /**
+     * Creates the behaviour ready to use.
+     *
+     * @param towerReference Reference to the tower that will be using this behaviour.
+     * @param debuffType The type of debuff applied on hit.
+     * @param projectileColour Colour of the projectiles as 0xRRGGBB.
+     */
+    public AttackDebuffTargetBehaviour(Tower towerReference, Debuff.DebuffType debuffType, int projectileColour) {
+        this.towerReference = towerReference;
+        this.debuffType = debuffType;
+        this.projectileColour = projectileColour;
+    }
+
+    /**
+     * Fires projectiles at all the specified targets.
+     *
+     * @param targets All targets to fire a projectile at.
+     * @return A list of the projectiles fired at the list of targets.
+     */
+    @Override
+    public List<Projectile> fireProjectiles(List<EnemyUnit> targets) {
+        List<Projectile> result = new ArrayList<>();
+        for(EnemyUnit target : targets) {
+            result.add(new Projectile(towerReference.getCentre(),target, this, projectileColour));
+        }
+        return result;
+    }
+
+    /**
+     * Moves the projectile directly toward the target.
+     *
+     * @param projectileToMove Reference to the projectile to update.
+     * @param deltaTime Time since last update.
+     */
+    @Override
+    public void updateProjectileMovement(Projectile projectileToMove, int deltaTime) {
+        projectileToMove.moveDirectlyToTarget(deltaTime);
+    }
+
+    /**
+     * Applies the debuff to the target for the tower's effect duration.
+     *
+     * @param target Reference to the enemy enemy to apply a hit on.
+     */
+    @Override
+    public void handleProjectileHit(EnemyUnit target) {
+        target.applyDebuff(debuffType, towerReference.getEffectDuration());
+        towerReference.getEnemyUnitManager().getSimulation().spawnEffect(GameSimulation.EFFECT_IMPACT,
+                target.getPosition().x + target.getWidth() / 2, target.getPosition().y + target.getHeight() / 2,
+                0, projectileColour);
+    }
+}
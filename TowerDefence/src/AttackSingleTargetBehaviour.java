@@ -1,4 +1,3 @@
-import java.awt.*;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,6 +10,11 @@ import java.util.List;
  * the enemy target and will deal damage to the target on hit.
  */
 public class AttackSingleTargetBehaviour implements AttackTargetBehaviour {
+    /**
+     * Colour of the projectiles as 0xRRGGBB.
+     */
+    private static final int PROJECTILE_COLOUR = 0x67126C;
+
     /**
      * Reference to the tower that will be using this behaviour.
      */
@@ -35,7 +39,7 @@ public class AttackSingleTargetBehaviour implements AttackTargetBehaviour {
     public List<Projectile> fireProjectiles(List<EnemyUnit> targets) {
         List<Projectile> result = new ArrayList<>();
         for(EnemyUnit target : targets) {
-            result.add(new Projectile(towerReference.getCentre(),target, this, new Color(103, 18, 108)));
+            result.add(new Projectile(towerReference.getCentre(),target, this, PROJECTILE_COLOUR));
         }
         return result;
     }
@@ -58,6 +62,9 @@ public class AttackSingleTargetBehaviour implements AttackTargetBehaviour {
      */
     @Override
     public void handleProjectileHit(EnemyUnit target) {
-        target.damage(15);
+        target.damage(towerReference.getDamage());
+        towerReference.getEnemyUnitManager().getSimulation().spawnEffect(GameSimulation.EFFECT_IMPACT,
+                target.getPosition().x + target.getWidth() / 2, target.getPosition().y + target.getHeight() / 2,
+                0, PROJECTILE_COLOUR);
     }
 }
\ No newline at end of file
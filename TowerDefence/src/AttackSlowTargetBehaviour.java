@@ -1,4 +1,3 @@
-import java.awt.*;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,6 +10,11 @@ import java.util.List;
  * the enemy target and slow the target for a period on hit.
  */
 class AttackSlowTargetBehaviour implements AttackTargetBehaviour {
+    /**
+     * Colour of the projectiles as 0xRRGGBB.
+     */
+    private static final int PROJECTILE_COLOUR = 0x1C3EA3;
+
     /**
      * Reference to the tower that will be using this behaviour.
      */
@@ -35,7 +39,7 @@ class AttackSlowTargetBehaviour implements AttackTargetBehaviour {
     public List<Projectile> fireProjectiles(List<EnemyUnit> targets) {
         List<Projectile> result = new ArrayList<>();
         for(EnemyUnit target : targets) {
-            result.add(new Projectile(towerReference.getCentre(),target, this, new Color(28, 62, 163)));
+            result.add(new Projectile(towerReference.getCentre(),target, this, PROJECTILE_COLOUR));
         }
         return result;
     }
@@ -58,6 +62,9 @@ class AttackSlowTargetBehaviour implements AttackTargetBehaviour {
      */
     @Override
     public void handleProjectileHit(EnemyUnit target) {
-        target.applyDebuff(new Debuff(Debuff.DebuffType.Slow, 3000));
+        target.applyDebuff(Debuff.DebuffType.Slow, towerReference.getEffectDuration());
+        towerReference.getEnemyUnitManager().getSimulation().spawnEffect(GameSimulation.EFFECT_SLOW,
+                target.getPosition().x + target.getWidth() / 2, target.getPosition().y + target.getHeight() / 2,
+                0, PROJECTILE_COLOUR);
     }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * BitReader class:
+ * Reads values packed by a BitWriter. The reader can be pointed at a new message
+ * without allocating so the same one can be used for every message received.
+ */
+public class BitReader {
+    /**
+     * Data being read.
+     */
+    private byte[] data;
+    /**
+     * Number of bytes of data that can be read.
+     */
+    private int length;
+    /**
+     * Number of bits read.
+     */
+    private int bitPosition;
+
+    /**
+     * Points the reader at the start of a new message.
+     *
+     * @param data Data to read.
+     * @param length Number of bytes of data that can be read.
+     */
+    public void setData(byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+        bitPosition = 0;
+    }
+
+    /**
+     * Reads a value written by BitWriter.writeBits().
+     *
+     * @param bitCount Number of bits to read, from 1 to 32.
+     * @return The value.
+     * @throws IndexOutOfBoundsException If the message ends first.
+     */
+    public int readBits(int bitCount) {
+        if(bitPosition + bitCount > length * 8) {
+            throw new IndexOutOfBoundsException("Read past the end of the message");
+        }
+        int value = 0;
+        for(int i = 0; i < bitCount; i++) {
+            value = (value << 1) | ((data[bitPosition >> 3] >>> (7 - (bitPosition & 7))) & 1);
+            bitPosition++;
+        }
+        return value;
+    }
+
+    /**
+     * Reads a single bit.
+     *
+     * @return The bit.
+     */
+    public boolean readBoolean() {
+        return readBits(1) != 0;
+    }
+
+    /**
+     * Reads a value written by BitWriter.writeVarUnsigned().
+     *
+     * @return The value.
+     */
+    public int readVarUnsigned() {
+        return readBits(BitWriter.VAR_SIZE_BITS[readBits(2)]);
+    }
+
+    /**
+     * Reads a value written by BitWriter.writeVarSigned().
+     *
+     * @return The value.
+     */
+    public int readVarSigned() {
+        int encoded = readVarUnsigned();
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+}
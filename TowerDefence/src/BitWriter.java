@@ -0,0 +1,125 @@
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * BitWriter class:
+ * Packs values into a reusable byte array using only as many bits as each needs.
+ * Variable sized values start with a 2 bit size class so small numbers, which are
+ * the common case for changes between updates, only take a few bits.
+ */
+public class BitWriter {
+    /**
+     * Number of bits for each size class of writeVarUnsigned().
+     */
+    static final int[] VAR_SIZE_BITS = { 4, 8, 16, 32 };
+
+    /**
+     * Bytes written so far. Grows when needed and is reused for every message.
+     */
+    private byte[] data;
+    /**
+     * Number of bits written.
+     */
+    private int bitPosition;
+
+    /**
+     * Creates a writer with room for the given number of bytes before it needs to grow.
+     *
+     * @param initialCapacity Starting size in bytes.
+     */
+    public BitWriter(int initialCapacity) {
+        data = new byte[Math.max(initialCapacity, 16)];
+        bitPosition = 0;
+    }
+
+    /**
+     * Empties the writer ready for a new message, keeping the array.
+     */
+    public void reset() {
+        int usedBytes = getLength();
+        for(int i = 0; i < usedBytes; i++) {
+            data[i] = 0;
+        }
+        bitPosition = 0;
+    }
+
+    /**
+     * Writes the lowest bits of a value.
+     *
+     * @param value Value to write.
+     * @param bitCount Number of bits to write, from 1 to 32.
+     */
+    public void writeBits(int value, int bitCount) {
+        ensureCapacity(bitPosition + bitCount);
+        for(int i = bitCount - 1; i >= 0; i--) {
+            if(((value >>> i) & 1) != 0) {
+                data[bitPosition >> 3] |= 0x80 >>> (bitPosition & 7);
+            }
+            bitPosition++;
+        }
+    }
+
+    /**
+     * Writes a single bit.
+     *
+     * @param value The bit to write.
+     */
+    public void writeBoolean(boolean value) {
+        writeBits(value ? 1 : 0, 1);
+    }
+
+    /**
+     * Writes a value that is treated as unsigned, using the smallest size class it fits in.
+     *
+     * @param value Value to write.
+     */
+    public void writeVarUnsigned(int value) {
+        int sizeClass = 0;
+        while(sizeClass < VAR_SIZE_BITS.length - 1 && (value >>> VAR_SIZE_BITS[sizeClass]) != 0) {
+            sizeClass++;
+        }
+        writeBits(sizeClass, 2);
+        writeBits(value, VAR_SIZE_BITS[sizeClass]);
+    }
+
+    /**
+     * Writes a value that may be negative. Values near zero either side take the fewest bits.
+     *
+     * @param value Value to write.
+     */
+    public void writeVarSigned(int value) {
+        writeVarUnsigned((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Gets the array holding the written bytes. Only the first getLength() bytes are used.
+     *
+     * @return The data.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Gets the number of bytes used, including the partly filled last byte.
+     *
+     * @return Length in bytes.
+     */
+    public int getLength() {
+        return (bitPosition + 7) >> 3;
+    }
+
+    /**
+     * Grows the array if it can not hold the given number of bits.
+     *
+     * @param bitsNeeded Total number of bits that need to fit.
+     */
+    private void ensureCapacity(int bitsNeeded) {
+        int bytesNeeded = (bitsNeeded + 7) >> 3;
+        if(bytesNeeded > data.length) {
+            byte[] newData = new byte[Math.max(bytesNeeded, data.length * 2)];
+            System.arraycopy(data, 0, newData, 0, data.length);
+            data = newData;
+        }
+    }
+}
@@ -23,6 +23,38 @@ public class BuyTowerPanel extends JPanel implements ActionListener {
      * Clicked to purchase a aoe tower.
      */
     private JButton buyAoETowerButton;
+    /**
+     * Clicked to purchase a burn tower.
+     */
+    private JButton buyBurnTowerButton;
+    /**
+     * Clicked to purchase a poison tower.
+     */
+    private JButton buyPoisonTowerButton;
+    /**
+     * Clicked to purchase a support tower.
+     */
+    private JButton buySupportTowerButton;
+    /**
+     * Clicked to purchase a shred tower.
+     */
+    private JButton buyShredTowerButton;
+    /**
+     * Clicked to purchase a stun tower.
+     */
+    private JButton buyStunTowerButton;
+    /**
+     * Clicked to upgrade the selected tower.
+     */
+    private JButton upgradeTowerButton;
+    /**
+     * Clicked to sell the selected tower.
+     */
+    private JButton sellTowerButton;
+    /**
+     * Clicked to change how the selected tower chooses targets.
+     */
+    private JButton targetingModeButton;
     /**
      * Clicked to cancel the purchase of a tower.
      */
@@ -51,38 +83,78 @@ public class BuyTowerPanel extends JPanel implements ActionListener {
         setPreferredSize(new Dimension(200,500));
         buyNormalTowerButton = new JButton("Buy Normal Tower ($"+Tower.NORMAL_COST+")");
         buyNormalTowerButton.addActionListener(this);
-        buyNormalTowerButton.setPreferredSize(new Dimension(200,50));
+        buyNormalTowerButton.setPreferredSize(new Dimension(200,28));
         buyNormalTowerButton.setActionCommand("Normal");
         buySlowTowerButton = new JButton("Buy Slow Tower ($"+Tower.SLOW_COST+")");
         buySlowTowerButton.addActionListener(this);
-        buySlowTowerButton.setPreferredSize(new Dimension(200,50));
+        buySlowTowerButton.setPreferredSize(new Dimension(200,28));
         buySlowTowerButton.setActionCommand("Slow");
         buyAoETowerButton = new JButton("Buy AoE Tower ($"+Tower.AOE_COST+")");
         buyAoETowerButton.addActionListener(this);
-        buyAoETowerButton.setPreferredSize(new Dimension(200,50));
+        buyAoETowerButton.setPreferredSize(new Dimension(200,28));
         buyAoETowerButton.setActionCommand("AoE");
+        buyBurnTowerButton = new JButton("Buy Burn Tower ($"+Tower.BURN_COST+")");
+        buyBurnTowerButton.addActionListener(this);
+        buyBurnTowerButton.setPreferredSize(new Dimension(200,28));
+        buyBurnTowerButton.setActionCommand("Burn");
+        buyPoisonTowerButton = new JButton("Buy Poison Tower ($"+Tower.POISON_COST+")");
+        buyPoisonTowerButton.addActionListener(this);
+        buyPoisonTowerButton.setPreferredSize(new Dimension(200,28));
+        buyPoisonTowerButton.setActionCommand("Poison");
+        buySupportTowerButton = new JButton("Buy Support Tower ($"+Tower.SUPPORT_COST+")");
+        buySupportTowerButton.addActionListener(this);
+        buySupportTowerButton.setPreferredSize(new Dimension(200,28));
+        buySupportTowerButton.setActionCommand("Support");
+        buyShredTowerButton = new JButton("Buy Shred Tower ($"+Tower.SHRED_COST+")");
+        buyShredTowerButton.addActionListener(this);
+        buyShredTowerButton.setPreferredSize(new Dimension(200,28));
+        buyShredTowerButton.setActionCommand("Shred");
+        buyStunTowerButton = new JButton("Buy Stun Tower ($"+Tower.STUN_COST+")");
+        buyStunTowerButton.addActionListener(this);
+        buyStunTowerButton.setPreferredSize(new Dimension(200,28));
+        buyStunTowerButton.setActionCommand("Stun");
+        upgradeTowerButton = new JButton("Upgrade Tower");
+        upgradeTowerButton.addActionListener(this);
+        upgradeTowerButton.setPreferredSize(new Dimension(200,28));
+        upgradeTowerButton.setActionCommand("Upgrade");
+        sellTowerButton = new JButton("Sell Tower");
+        sellTowerButton.addActionListener(this);
+        sellTowerButton.setPreferredSize(new Dimension(200,28));
+        sellTowerButton.setActionCommand("Sell");
+        targetingModeButton = new JButton("Targeting");
+        targetingModeButton.addActionListener(this);
+        targetingModeButton.setPreferredSize(new Dimension(200,28));
+        targetingModeButton.setActionCommand("Targeting");
         cancelBuyButton = new JButton("Cancel Purchase");
         cancelBuyButton.addActionListener(this);
-        cancelBuyButton.setPreferredSize(new Dimension(200,50));
+        cancelBuyButton.setPreferredSize(new Dimension(200,28));
         cancelBuyButton.setActionCommand("Cancel");
         restartButton = new JButton("Restart Game");
         restartButton.addActionListener(this);
-        restartButton.setPreferredSize(new Dimension(200,50));
+        restartButton.setPreferredSize(new Dimension(200,28));
         restartButton.setActionCommand("Restart");
         quitButton = new JButton("Quit Game");
         quitButton.addActionListener(this);
-        quitButton.setPreferredSize(new Dimension(200,50));
+        quitButton.setPreferredSize(new Dimension(200,28));
         quitButton.setActionCommand("Quit");
         updateButtonStates();
 
         JPanel topPanel = new JPanel();
-        topPanel.setPreferredSize(new Dimension(200,60));
+        topPanel.setPreferredSize(new Dimension(200,10));
 
         JPanel centrePanel = new JPanel();
-        centrePanel.setPreferredSize(new Dimension(200,400));
+        centrePanel.setPreferredSize(new Dimension(200,470));
         centrePanel.add(buyNormalTowerButton);
         centrePanel.add(buyAoETowerButton);
         centrePanel.add(buySlowTowerButton);
+        centrePanel.add(buyBurnTowerButton);
+        centrePanel.add(buyPoisonTowerButton);
+        centrePanel.add(buySupportTowerButton);
+        centrePanel.add(buyShredTowerButton);
+        centrePanel.add(buyStunTowerButton);
+        centrePanel.add(upgradeTowerButton);
+        centrePanel.add(sellTowerButton);
+        centrePanel.add(targetingModeButton);
         centrePanel.add(cancelBuyButton);
         centrePanel.add(restartButton);
         centrePanel.add(quitButton);
@@ -103,6 +175,32 @@ public class BuyTowerPanel extends JPanel implements ActionListener {
                                         && gamePanel.canPurchaseTower(Tower.TowerType.AoE));
         buySlowTowerButton.setEnabled(curState == GamePanel.GameState.Playing
                                         && gamePanel.canPurchaseTower(Tower.TowerType.Slow));
+        buyBurnTowerButton.setEnabled(curState == GamePanel.GameState.Playing
+                                        && gamePanel.canPurchaseTower(Tower.TowerType.Burn));
+        buyPoisonTowerButton.setEnabled(curState == GamePanel.GameState.Playing
+                                        && gamePanel.canPurchaseTower(Tower.TowerType.Poison));
+        buySupportTowerButton.setEnabled(curState == GamePanel.GameState.Playing
+                                        && gamePanel.canPurchaseTower(Tower.TowerType.Support));
+        buyShredTowerButton.setEnabled(curState == GamePanel.GameState.Playing
+                                        && gamePanel.canPurchaseTower(Tower.TowerType.Shred));
+        buyStunTowerButton.setEnabled(curState == GamePanel.GameState.Playing
+                                        && gamePanel.canPurchaseTower(Tower.TowerType.Stun));
+
+        Tower selectedTower = gamePanel.getSelectedTower();
+        if(selectedTower == null) {
+            upgradeTowerButton.setText("Upgrade Tower");
+            sellTowerButton.setText("Sell Tower");
+            targetingModeButton.setText("Targeting");
+        } else {
+            targetingModeButton.setText("Targeting: " + selectedTower.getTargetingMode());
+            upgradeTowerButton.setText(selectedTower.getLevel() >= Tower.MAX_LEVEL ? "Max Level"
+                    : "Upgrade Tower ($"+gamePanel.getUpgradeCost(selectedTower)+")");
+            sellTowerButton.setText("Sell Tower ($"+gamePanel.getSellValue(selectedTower)+")");
+        }
+        upgradeTowerButton.setEnabled(gamePanel.canUpgradeSelectedTower());
+        sellTowerButton.setEnabled(curState == GamePanel.GameState.Playing && selectedTower != null);
+        targetingModeButton.setEnabled(curState == GamePanel.GameState.Playing && selectedTower != null
+                                       && selectedTower.canChangeTargetingMode());
     }
 
     /**
@@ -122,6 +220,30 @@ public class BuyTowerPanel extends JPanel implements ActionListener {
             case "Slow":
                 gamePanel.setTowerTypeToPlace(Tower.TowerType.Slow);
                 break;
+            case "Burn":
+                gamePanel.setTowerTypeToPlace(Tower.TowerType.Burn);
+                break;
+            case "Poison":
+                gamePanel.setTowerTypeToPlace(Tower.TowerType.Poison);
+                break;
+            case "Support":
+                gamePanel.setTowerTypeToPlace(Tower.TowerType.Support);
+                break;
+            case "Shred":
+                gamePanel.setTowerTypeToPlace(Tower.TowerType.Shred);
+                break;
+            case "Stun":
+                gamePanel.setTowerTypeToPlace(Tower.TowerType.Stun);
+                break;
+            case "Upgrade":
+                gamePanel.upgradeSelectedTower();
+                break;
+            case "Sell":
+                gamePanel.sellSelectedTower();
+                break;
+            case "Targeting":
+                gamePanel.cycleSelectedTargetingMode();
+                break;
             case "Cancel":
                 gamePanel.cancelTowerPlacement();
                 break;
@@ -3,80 +3,102 @@
  * Author: Peter Mitchell (2021)
  *
  * Debuff class:
- * Defines a debuff that can be used to store a type of debuff for a specified period of time.
+ * Defines the types of debuffs and the rules for how each type stacks when it is
+ * applied to an enemy that already has it. Enemies store their debuffs as a bitmask
+ * with one bit per type, so no objects are needed for an active debuff.
  */
 public class Debuff {
     /**
      * Defines the types of debuffs.
      * Slow: Used to apply a slow to the target it is on.
+     * Burn: Deals damage over time for each stack.
+     * ArmorShred: Increases damage taken for each stack.
+     * Stun: Stops the target from moving.
+     * Poison: Deals damage over time, with repeat applications extending the duration.
      */
-    public enum DebuffType { Slow }
+    public enum DebuffType { Slow, Burn, ArmorShred, Stun, Poison }
 
     /**
-     * Timer to track when the debuff should expire.
+     * Defines what happens when a debuff is applied to an enemy that already has that debuff.
+     * Refresh: The duration is reset to the full duration.
+     * Extend: The duration is added on to the time remaining, up to the maximum duration for the type.
+     * Stack: Another stack is added up to the maximum and the duration is reset.
+     * Ignore: Nothing happens until the existing debuff has expired.
      */
-    private ActionTimer durationTimer;
+    public enum StackRule { Refresh, Extend, Stack, Ignore }
+
     /**
-     * The type of debuff used to apply any effects.
+     * Number of debuff types. Used to size the per enemy debuff arrays.
      */
-    private DebuffType debuffType;
-
+    public static final int TYPE_COUNT = DebuffType.values().length;
     /**
-     * Creates the debuff with an effect and duration.
-     *
-     * @param type The type of debuff used to apply any effects.
-     * @param duration Time till the debuff expires.
+     * Damage per second dealt by each stack of burn.
      */
-    public Debuff(DebuffType type, int duration) {
-        durationTimer = new ActionTimer(duration);
-        debuffType = type;
-    }
+    public static final int BURN_DAMAGE_PER_SECOND = 20;
+    /**
+     * Damage per second dealt by poison.
+     */
+    public static final int POISON_DAMAGE_PER_SECOND = 35;
+    /**
+     * Bits for every debuff type that deals damage over time.
+     */
+    public static final int DAMAGE_OVER_TIME_MASK = getBit(DebuffType.Burn) | getBit(DebuffType.Poison);
+    /**
+     * Percent extra damage taken for each stack of armor shred.
+     */
+    public static final int ARMOR_SHRED_PERCENT = 15;
 
     /**
-     * Updates the timer to move it toward expiring.
-     *
-     * @param deltaTime Time since last update.
+     * The stacking rule for each type, indexed by the type's ordinal.
      */
-    public void update(int deltaTime) {
-        durationTimer.update(deltaTime);
-    }
+    private static final StackRule[] stackRules = { StackRule.Refresh, StackRule.Stack,
+                                                    StackRule.Stack, StackRule.Ignore, StackRule.Extend };
+    /**
+     * The most stacks each type can reach, indexed by the type's ordinal.
+     */
+    private static final int[] maxStacks = { 1, 5, 3, 1, 1 };
+    /**
+     * The longest time each type can be extended to, or 0 for no limit, indexed by the type's ordinal.
+     */
+    private static final int[] maxDurations = { 0, 0, 0, 0, 8000 };
 
     /**
-     * Resets the duration timer back to the full time.
+     * Gets the bit used to represent the debuff type in an enemy's debuff mask.
+     *
+     * @param type The type of debuff.
+     * @return A single bit for the type.
      */
-    public void refresh() {
-        durationTimer.reset();
+    public static int getBit(DebuffType type) {
+        return 1 << type.ordinal();
     }
 
     /**
-     * Test if the debuff should no longer be active.
+     * Gets what should happen when the debuff is applied again.
      *
-     * @return True if the debuff has run the full duration.
+     * @param type The type of debuff.
+     * @return The stacking rule for the type.
      */
-    public boolean isExpired() {
-        return durationTimer.isTriggered();
+    public static StackRule getStackRule(DebuffType type) {
+        return stackRules[type.ordinal()];
     }
 
     /**
-     * Gets the type of debuff to check what effect should be applied.
+     * Gets the most stacks the debuff type can have.
      *
-     * @return The type of debuff.
+     * @param type The type of debuff.
+     * @return The maximum number of stacks.
      */
-    public DebuffType getDebuffType() {
-        return debuffType;
+    public static int getMaxStacks(DebuffType type) {
+        return maxStacks[type.ordinal()];
     }
 
     /**
-     * Test if the debuff type is the same as another object.
+     * Gets the longest time the debuff type can be extended to.
      *
-     * @param o Reference to an object to compare against for equality.
-     * @return True if the object is a Debuff and has a matching debuff type.
+     * @param type The type of debuff.
+     * @return The maximum duration, or 0 if there is no limit.
      */
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Debuff otherDebuff = (Debuff) o;
-        return debuffType == otherDebuff.debuffType;
+    public static int getMaxDuration(DebuffType type) {
+        return maxDurations[type.ordinal()];
     }
 }
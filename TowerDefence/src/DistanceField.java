@@ -0,0 +1,370 @@
+import java.util.Arrays;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * DistanceField class:
+ * Stores the walking distance from every grid cell to the goal cell so that
+ * enemies can path through a maze of towers by stepping to a neighbour with a lower distance.
+ * Blocking or unblocking a single cell repairs only the region of the field that depended
+ * on that cell instead of rebuilding the whole field.
+ */
+public class DistanceField {
+    /**
+     * Distance used for any cell that can not reach the goal.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /**
+     * Number of cells horizontally.
+     */
+    private int width;
+    /**
+     * Number of cells vertically.
+     */
+    private int height;
+    /**
+     * Index of the cell that all distances are measured to.
+     */
+    private int goalIndex;
+    /**
+     * Index of the cell where enemies enter the field.
+     */
+    private int startIndex;
+    /**
+     * Distance to the goal for each cell stored as x+y*width.
+     */
+    private int[] distance;
+    /**
+     * True for any cell that can not be walked through.
+     */
+    private boolean[] blocked;
+    /**
+     * Shared queue of cell indices used by all the searches to avoid allocating.
+     */
+    private int[] queue;
+    /**
+     * Cells invalidated by the most recent block, used for repairing or rolling back.
+     */
+    private int[] affected;
+    /**
+     * Distances of the affected cells before they were invalidated.
+     */
+    private int[] affectedOldDistance;
+    /**
+     * Number of valid entries in affected.
+     */
+    private int affectedCount;
+    /**
+     * Repair seeds packed as distance in the high bits and cell in the low bits so a single sort orders them.
+     */
+    private long[] seeds;
+    /**
+     * Marks cells visited by the current search when equal to currentStamp.
+     */
+    private int[] visitStamp;
+    /**
+     * Incremented for every search so visitStamp never needs clearing.
+     */
+    private int currentStamp;
+
+    /**
+     * Creates the distance field with every cell open and then blocks all
+     * cells that are marked as not walkable.
+     *
+     * @param walkable Grid of [x][y] that is true for cells enemies can walk on.
+     * @param goal Cell position of the goal.
+     * @param start Cell position of the start.
+     */
+    public DistanceField(boolean[][] walkable, Position goal, Position start) {
+        width = walkable.length;
+        height = walkable[0].length;
+        goalIndex = goal.x + goal.y * width;
+        startIndex = start.x + start.y * width;
+        distance = new int[width*height];
+        blocked = new boolean[width*height];
+        queue = new int[width*height];
+        affected = new int[width*height];
+        affectedOldDistance = new int[width*height];
+        seeds = new long[width*height];
+        visitStamp = new int[width*height];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                blocked[x + y * width] = !walkable[x][y];
+            }
+        }
+        recompute();
+    }
+
+    /**
+     * Rebuilds the entire field with a breadth first search out from the goal.
+     */
+    public void recompute() {
+        Arrays.fill(distance, UNREACHABLE);
+        distance[goalIndex] = 0;
+        int head = 0, tail = 0;
+        queue[tail++] = goalIndex;
+        while(head < tail) {
+            int cell = queue[head++];
+            int cellX = cell % width, cellY = cell / width;
+            for(int i = 0; i < 4; i++) {
+                int neighbour = getNeighbour(cellX, cellY, i);
+                if(neighbour != -1 && !blocked[neighbour] && distance[neighbour] == UNREACHABLE) {
+                    distance[neighbour] = distance[cell] + 1;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the distance to the goal from the specified cell.
+     *
+     * @param x X cell coordinate.
+     * @param y Y cell coordinate.
+     * @return Number of cells to walk to the goal, or UNREACHABLE.
+     */
+    public int getDistance(int x, int y) {
+        return distance[x + y * width];
+    }
+
+    /**
+     * Tests if the cell can not be walked through.
+     *
+     * @param x X cell coordinate.
+     * @param y Y cell coordinate.
+     * @return True if the cell is blocked.
+     */
+    public boolean isBlocked(int x, int y) {
+        return blocked[x + y * width];
+    }
+
+    /**
+     * Finds the neighbour cell to walk to next when travelling toward the goal.
+     * A unit standing on a blocked cell (a tower was placed while it was walking in)
+     * will step off to the best open neighbour.
+     *
+     * @param x X cell coordinate.
+     * @param y Y cell coordinate.
+     * @return The next cell to move to, the same cell if there is nowhere better to go, or null at the goal.
+     */
+    public Position getNextStep(int x, int y) {
+        int cell = x + y * width;
+        if(cell == goalIndex) return null;
+
+        int bestCell = cell;
+        int bestDistance = blocked[cell] ? UNREACHABLE : distance[cell];
+        for(int i = 0; i < 4; i++) {
+            int neighbour = getNeighbour(x, y, i);
+            if(neighbour != -1 && !blocked[neighbour] && distance[neighbour] < bestDistance) {
+                bestCell = neighbour;
+                bestDistance = distance[neighbour];
+            }
+        }
+        return new Position(bestCell % width, bestCell / width);
+    }
+
+    /**
+     * Attempts to block the specified cell and repair the distances around it.
+     * The placement is refused, leaving the field unchanged, if the cell is the start or goal,
+     * or if blocking it would leave the start or any cell that could reach the goal cut off.
+     *
+     * @param x X cell coordinate.
+     * @param y Y cell coordinate.
+     * @return True if the cell was blocked.
+     */
+    public boolean tryBlockCell(int x, int y) {
+        int cell = x + y * width;
+        if(cell == goalIndex || cell == startIndex || blocked[cell]) return false;
+
+        blocked[cell] = true;
+        int oldDistance = distance[cell];
+        distance[cell] = UNREACHABLE;
+        affectedCount = 0;
+        if(oldDistance == UNREACHABLE) return true;
+
+        invalidateDependents(x, y, oldDistance);
+        repairAffected();
+
+        // Any cell that had a route before but now does not means the block cut the path.
+        for(int i = 0; i < affectedCount; i++) {
+            if(distance[affected[i]] == UNREACHABLE) {
+                rollbackBlock(cell, oldDistance);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Unblocks the specified cell and lowers distances outward from it where it creates a shorter path.
+     *
+     * @param x X cell coordinate.
+     * @param y Y cell coordinate.
+     */
+    public void unblockCell(int x, int y) {
+        int cell = x + y * width;
+        if(!blocked[cell]) return;
+        blocked[cell] = false;
+
+        int best = UNREACHABLE;
+        for(int i = 0; i < 4; i++) {
+            int neighbour = getNeighbour(x, y, i);
+            if(neighbour != -1 && !blocked[neighbour] && distance[neighbour] != UNREACHABLE) {
+                best = Math.min(best, distance[neighbour] + 1);
+            }
+        }
+        distance[cell] = best;
+        if(best == UNREACHABLE) return;
+
+        int head = 0, tail = 0;
+        queue[tail++] = cell;
+        while(head < tail) {
+            int current = queue[head++];
+            int currentX = current % width, currentY = current / width;
+            for(int i = 0; i < 4; i++) {
+                int neighbour = getNeighbour(currentX, currentY, i);
+                if(neighbour != -1 && !blocked[neighbour] && distance[current] + 1 < distance[neighbour]) {
+                    distance[neighbour] = distance[current] + 1;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks outward from a newly blocked cell in order of distance and invalidates every cell
+     * that no longer has a valid neighbour one step closer to the goal.
+     * Processing in distance order means each cell is only checked once all closer cells are settled.
+     *
+     * @param x X coordinate of the blocked cell.
+     * @param y Y coordinate of the blocked cell.
+     * @param oldDistance Distance the blocked cell had before it was blocked.
+     */
+    private void invalidateDependents(int x, int y, int oldDistance) {
+        currentStamp++;
+        int head = 0, tail = 0;
+        for(int i = 0; i < 4; i++) {
+            int neighbour = getNeighbour(x, y, i);
+            if(neighbour != -1 && !blocked[neighbour] && distance[neighbour] == oldDistance + 1) {
+                visitStamp[neighbour] = currentStamp;
+                queue[tail++] = neighbour;
+            }
+        }
+        while(head < tail) {
+            int cell = queue[head++];
+            int cellX = cell % width, cellY = cell / width;
+            int cellDistance = distance[cell];
+            if(hasSupport(cellX, cellY, cellDistance)) continue;
+
+            affected[affectedCount] = cell;
+            affectedOldDistance[affectedCount] = cellDistance;
+            affectedCount++;
+            distance[cell] = UNREACHABLE;
+            for(int i = 0; i < 4; i++) {
+                int neighbour = getNeighbour(cellX, cellY, i);
+                if(neighbour != -1 && !blocked[neighbour] && visitStamp[neighbour] != currentStamp
+                        && distance[neighbour] == cellDistance + 1) {
+                    visitStamp[neighbour] = currentStamp;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests if a cell still has an open neighbour exactly one step closer to the goal.
+     *
+     * @param x X cell coordinate.
+     * @param y Y cell coordinate.
+     * @param cellDistance The current distance of the cell.
+     * @return True if the cell's distance is still correct.
+     */
+    private boolean hasSupport(int x, int y, int cellDistance) {
+        for(int i = 0; i < 4; i++) {
+            int neighbour = getNeighbour(x, y, i);
+            if(neighbour != -1 && !blocked[neighbour] && distance[neighbour] == cellDistance - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Recalculates distances for only the affected cells. Each affected cell is seeded from its
+     * best unaffected neighbour, the seeds are sorted by distance, and then a breadth first search
+     * restricted to the affected cells is merged with the sorted seeds.
+     */
+    private void repairAffected() {
+        int seedCount = 0;
+        for(int i = 0; i < affectedCount; i++) {
+            int cell = affected[i];
+            int cellX = cell % width, cellY = cell / width;
+            int best = UNREACHABLE;
+            for(int n = 0; n < 4; n++) {
+                int neighbour = getNeighbour(cellX, cellY, n);
+                if(neighbour != -1 && !blocked[neighbour] && distance[neighbour] != UNREACHABLE) {
+                    best = Math.min(best, distance[neighbour] + 1);
+                }
+            }
+            if(best != UNREACHABLE) {
+                distance[cell] = best;
+                seeds[seedCount++] = ((long)best << 32) | cell;
+            }
+        }
+        Arrays.sort(seeds, 0, seedCount);
+
+        int head = 0, tail = 0, nextSeed = 0;
+        while(nextSeed < seedCount || head < tail) {
+            int cell;
+            if(head == tail || (nextSeed < seedCount && (int)(seeds[nextSeed] >>> 32) <= distance[queue[head]])) {
+                cell = (int)seeds[nextSeed++];
+            } else {
+                cell = queue[head++];
+            }
+            int cellX = cell % width, cellY = cell / width;
+            for(int i = 0; i < 4; i++) {
+                int neighbour = getNeighbour(cellX, cellY, i);
+                // Only cells that were invalidated can change, everything else is still correct.
+                if(neighbour != -1 && !blocked[neighbour] && visitStamp[neighbour] == currentStamp
+                        && distance[cell] + 1 < distance[neighbour]) {
+                    distance[neighbour] = distance[cell] + 1;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reverses a block by reopening the cell and restoring the previous distance of all affected cells.
+     *
+     * @param cell The cell that was blocked.
+     * @param oldDistance The distance the blocked cell had before.
+     */
+    private void rollbackBlock(int cell, int oldDistance) {
+        blocked[cell] = false;
+        distance[cell] = oldDistance;
+        for(int i = 0; i < affectedCount; i++) {
+            distance[affected[i]] = affectedOldDistance[i];
+        }
+        affectedCount = 0;
+    }
+
+    /**
+     * Gets the index of the neighbour in one of four directions.
+     *
+     * @param x X cell coordinate.
+     * @param y Y cell coordinate.
+     * @param direction 0 right, 1 left, 2 up, 3 down.
+     * @return The index of the neighbouring cell, or -1 if it would be off the grid.
+     */
+    private int getNeighbour(int x, int y, int direction) {
+        switch(direction) {
+            case 0: return x+1 < width ? x+1 + y * width : -1;
+            case 1: return x > 0 ? x-1 + y * width : -1;
+            case 2: return y > 0 ? x + (y-1) * width : -1;
+            default: return y+1 < height ? x + (y+1) * width : -1;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * EndlessSoakHarness class:
+ * Checks that endless mode can run for a very long time without its memory growing.
+ * One game plays endless waves with a tower on every open position for millions of
+ * updates. The base is healed whenever it is hit so the game never ends. The used heap
+ * after a garbage collection, the size of the enemy pool, and the number of enemy objects
+ * ever created are sampled at regular points. The first quarter of the samples is warm up
+ * while the waves scale up. The run fails if the lowest heap in the last quarter is well
+ * above the highest heap in the middle half, if the pool grows past its largest size in
+ * the middle half, or if enemy objects are still being created in the last quarter.
+ */
+public class EndlessSoakHarness {
+    /**
+     * Number of samples taken over the run.
+     */
+    private static final int SAMPLES = 40;
+    /**
+     * Heap growth allowed between the middle half and the last quarter before it counts as growing.
+     */
+    private static final long HEAP_SLACK_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * Runs the soak test.
+     *
+     * @param args Number of updates to run, and the endless mode seed.
+     */
+    public static void main(String[] args) {
+        long ticks = args.length > 0 ? Long.parseLong(args[0]) : 3000000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 2021;
+
+        GameSimulation simulation = new GameSimulation();
+        EnemyUnitManager enemyUnitManager = simulation.getEnemyUnitManager();
+        enemyUnitManager.setEndlessWaves(seed);
+        simulation.reset();
+        simulation.gainCash(1000000);
+        for(Position tile : simulation.getMap().getOpenTowerTiles()) {
+            simulation.applyInput(GameSimulation.INPUT_PLACE_TOWER, tile.x, tile.y, 0);
+        }
+
+        long[] heapSamples = new long[SAMPLES];
+        int[] poolSamples = new int[SAMPLES];
+        long[] createdSamples = new long[SAMPLES];
+        long sampleInterval = Math.max(ticks / SAMPLES, 1);
+        int sampleCount = 0;
+        Runtime runtime = Runtime.getRuntime();
+        long startTime = System.nanoTime();
+        for(long tick = 1; tick <= ticks && sampleCount < SAMPLES; tick++) {
+            simulation.update(GamePanel.TIME_BETWEEN_UPDATES);
+            if(simulation.getBaseHealth() < GameSimulation.STARTING_BASE_HEALTH) {
+                simulation.damageBase(simulation.getBaseHealth() - GameSimulation.STARTING_BASE_HEALTH);
+            }
+            if(simulation.isGameOver()) {
+                System.out.println("ERROR: GAME ENDED AT TICK " + tick);
+                System.out.println("FAILED");
+                return;
+            }
+            if(tick % sampleInterval == 0) {
+                System.gc();
+                heapSamples[sampleCount] = runtime.totalMemory() - runtime.freeMemory();
+                poolSamples[sampleCount] = enemyUnitManager.getPooledEnemyCount();
+                createdSamples[sampleCount] = enemyUnitManager.getEnemiesCreated();
+                System.out.printf("tick %d: heap %d KB, %d active, %d pooled, %d created, %d spawned%n", tick,
+                                  heapSamples[sampleCount] / 1024, enemyUnitManager.getActiveEnemies().size(),
+                                  poolSamples[sampleCount], createdSamples[sampleCount],
+                                  enemyUnitManager.getTotalEnemiesSpawned());
+                sampleCount++;
+            }
+        }
+        System.out.printf("ran %d updates in %.1fs%n", ticks, (System.nanoTime() - startTime) / 1e9);
+
+        int secondQuarter = sampleCount / 4, lastQuarter = sampleCount * 3 / 4;
+        long baselineHeap = 0, finalHeap = Long.MAX_VALUE;
+        int baselinePool = 0, finalPool = 0;
+        for(int i = secondQuarter; i < lastQuarter; i++) {
+            baselineHeap = Math.max(baselineHeap, heapSamples[i]);
+            baselinePool = Math.max(baselinePool, poolSamples[i]);
+        }
+        for(int i = lastQuarter; i < sampleCount; i++) {
+            finalHeap = Math.min(finalHeap, heapSamples[i]);
+            finalPool = Math.max(finalPool, poolSamples[i]);
+        }
+        boolean heapFlat = finalHeap <= baselineHeap + HEAP_SLACK_BYTES;
+        boolean poolFlat = finalPool <= baselinePool;
+        boolean noNewEnemies = createdSamples[sampleCount - 1] == createdSamples[lastQuarter];
+        System.out.printf("heap: %d KB then %d KB, pool: %d then %d, enemies created in the last quarter: %d%n",
+                          baselineHeap / 1024, finalHeap / 1024, baselinePool, finalPool,
+                          createdSamples[sampleCount - 1] - createdSamples[lastQuarter]);
+        System.out.println(heapFlat && poolFlat && noNewEnemies ? "PASSED" : "FAILED");
+    }
+}
@@ -0,0 +1,133 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * EndlessWaveGenerator class:
+ * Generates a never ending series of waves from a seed. Waves are emitted straight
+ * into the WaveProgram only when the previous chunk has been used up, so no matter how long
+ * the game runs only a few waves are ever held in memory.
+ * Difficulty scales with the wave number by adding more enemies, boosting their health
+ * and speed, and shortening the time between spawns.
+ */
+public class EndlessWaveGenerator implements WaveSource {
+    /**
+     * Time between spawns for the very first wave.
+     */
+    private static final int START_INTERVAL = 2000;
+    /**
+     * Shortest time between spawns that waves will scale down to.
+     */
+    private static final int MIN_INTERVAL = 300;
+    /**
+     * Highest health percent that waves will scale up to.
+     */
+    private static final int MAX_HEALTH_PERCENT = 5000;
+    /**
+     * Highest speed percent that waves will scale up to.
+     */
+    private static final int MAX_SPEED_PERCENT = 200;
+    /**
+     * Most spawn groups in a single wave.
+     */
+    private static final int MAX_GROUPS = 12;
+    /**
+     * Most enemies in a single spawn group.
+     */
+    private static final int MAX_GROUP_SIZE = 20;
+
+    /**
+     * Seeded generator that decides the content of each wave.
+     */
+    private GameRandom rand;
+    /**
+     * Number of waves generated so far.
+     */
+    private int waveNumber;
+
+    /**
+     * Creates a generator that will always produce the same waves for the same seed.
+     *
+     * @param seed Seed to generate waves from.
+     */
+    public EndlessWaveGenerator(long seed) {
+        rand = new GameRandom(seed);
+        waveNumber = 0;
+    }
+
+    /**
+     * Gets the number of waves that have been generated.
+     *
+     * @return The number of waves generated so far.
+     */
+    public int getWaveNumber() {
+        return waveNumber;
+    }
+
+    /**
+     * Emits the next wave. A wave is made up of a wave marker, the modifiers
+     * for the wave, and a number of groups of enemies.
+     *
+     * @param program Program to append the wave to.
+     * @return Always true as there is always another wave.
+     */
+    @Override
+    public boolean compileNextStatement(WaveProgram program) {
+        waveNumber++;
+        program.emit(WaveProgram.OP_WAVE);
+        program.emit(WaveProgram.OP_HEALTH);
+        program.emit(Math.min(100 + waveNumber * 8, MAX_HEALTH_PERCENT));
+        program.emit(WaveProgram.OP_SPEED);
+        program.emit(Math.min(100 + waveNumber, MAX_SPEED_PERCENT));
+        program.emit(WaveProgram.OP_INTERVAL);
+        program.emit(Math.max(START_INTERVAL - waveNumber * 30, MIN_INTERVAL));
+
+        int groups = Math.min(2 + waveNumber / 3, MAX_GROUPS);
+        for(int i = 0; i < groups; i++) {
+            program.emit(WaveProgram.OP_SPAWN);
+            program.emit(getRandomEnemyType().ordinal());
+            program.emit(Math.min(1 + rand.nextInt(3 + waveNumber / 5), MAX_GROUP_SIZE));
+        }
+        // Every fifth wave finishes with bosses.
+        if(waveNumber % 5 == 0) {
+            program.emit(WaveProgram.OP_SPAWN);
+            program.emit(EnemyUnit.EnemyType.Boss.ordinal());
+            program.emit(Math.min(waveNumber / 5, MAX_GROUP_SIZE));
+        }
+        return true;
+    }
+
+    /**
+     * Writes the generator state to a snapshot so it can continue with the same waves.
+     *
+     * @param buffer Buffer to write to.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putLong(rand.getState()).putInt(waveNumber);
+    }
+
+    /**
+     * Creates a generator from the state written by writeTo().
+     *
+     * @param buffer Buffer to read from.
+     * @return A generator that continues from the saved wave.
+     */
+    public static EndlessWaveGenerator readFrom(ByteBuffer buffer) {
+        EndlessWaveGenerator generator = new EndlessWaveGenerator(0);
+        generator.rand.setState(buffer.getLong());
+        generator.waveNumber = buffer.getInt();
+        return generator;
+    }
+
+    /**
+     * Randomly selects between the normal and fast enemy types, with fast enemies
+     * becoming more common as the waves progress.
+     *
+     * @return A random enemy type.
+     */
+    private EnemyUnit.EnemyType getRandomEnemyType() {
+        return rand.nextInt(100) < Math.min(20 + waveNumber * 2, 70) ? EnemyUnit.EnemyType.Fast
+                                                                       : EnemyUnit.EnemyType.Normal;
+    }
+}
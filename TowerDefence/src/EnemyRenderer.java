@@ -0,0 +1,244 @@
+import java.awt.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * EnemyRenderer class:
+ * Draws the enemies with less detail where there are too many to tell apart. Once there
+ * are at least LOD_MIN_ENEMIES enemies, they are counted per tile, and any tile holding
+ * more than TILE_DETAIL_LIMIT of them is drawn as a red tint that gets stronger with the
+ * count, with a badge showing the count, instead of drawing each enemy. This keeps the
+ * time to draw a frame tied to the number of tiles rather than the number of enemies.
+ * Everything else is drawn in batches: all the bodies of one enemy type, then all the
+ * health bars, then each tint level, then the badges. Only used from the thread that paints.
+ */
+public class EnemyRenderer {
+    /**
+     * Fewest enemies before tiles are checked for being crowded.
+     */
+    public static final int LOD_MIN_ENEMIES = 64;
+    /**
+     * Most enemies on one tile that are still drawn one by one.
+     */
+    public static final int TILE_DETAIL_LIMIT = 4;
+    /**
+     * Number of different strengths of tint.
+     */
+    private static final int HEAT_LEVELS = 8;
+    /**
+     * Enemies on a tile that give the strongest tint.
+     */
+    private static final int HEAT_FULL_COUNT = 64;
+    /**
+     * Largest count shown on a badge. Anything more shows this number with a +.
+     */
+    private static final int MAX_BADGE_COUNT = 999;
+
+    /**
+     * Tiles across the map, plus a tile each side for enemies walking on or off it.
+     */
+    private int columns;
+    /**
+     * Tiles down the map, plus a tile each side.
+     */
+    private int rows;
+    /**
+     * Number of enemies on each tile this frame, indexed by column + row * columns.
+     */
+    private int[] tileCounts;
+    /**
+     * Tint colour for each level, strongest last.
+     */
+    private Color[] heatColours;
+    /**
+     * Colour behind the count on each badge.
+     */
+    private Color badgeColour;
+    /**
+     * Font for the counts on the badges.
+     */
+    private Font badgeFont;
+    /**
+     * Text for each count, made the first time it is shown.
+     */
+    private String[] badgeText;
+    /**
+     * When false every enemy is always drawn one by one.
+     */
+    private boolean lodEnabled;
+
+    /**
+     * Prepares to draw enemies on a map of the specified size.
+     *
+     * @param widthInTiles Number of tiles across the map.
+     * @param heightInTiles Number of tiles down the map.
+     */
+    public EnemyRenderer(int widthInTiles, int heightInTiles) {
+        columns = widthInTiles + 2;
+        rows = heightInTiles + 2;
+        tileCounts = new int[columns * rows];
+        heatColours = new Color[HEAT_LEVELS + 1];
+        for(int level = 1; level <= HEAT_LEVELS; level++) {
+            heatColours[level] = new Color(220, 20, 20, 60 + level * 150 / HEAT_LEVELS);
+        }
+        badgeColour = new Color(0, 0, 0, 180);
+        badgeFont = new Font("Arial", Font.BOLD, 12);
+        badgeText = new String[MAX_BADGE_COUNT + 2];
+        lodEnabled = true;
+    }
+
+    /**
+     * Turns the crowded tile tint on or off.
+     *
+     * @param lodEnabled True to tint crowded tiles instead of drawing their enemies.
+     */
+    public void setLodEnabled(boolean lodEnabled) {
+        this.lodEnabled = lodEnabled;
+    }
+
+    /**
+     * Draws all the enemies, tinting crowded tiles instead when there are enough enemies.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param enemies The enemies to draw.
+     * @param spriteAtlas Atlas to copy the enemy sprites from.
+     */
+    public void paint(Graphics g, List<EnemyUnit> enemies, SpriteAtlas spriteAtlas) {
+        boolean useLod = lodEnabled && enemies.size() >= LOD_MIN_ENEMIES;
+        if(useLod) {
+            countEnemiesPerTile(enemies);
+        }
+        for(EnemyUnit.EnemyType enemyType : EnemyUnit.EnemyType.values()) {
+            for(EnemyUnit enemy : enemies) {
+                if(enemy.getEnemyType() == enemyType && (!useLod || !isCrowded(enemy))) {
+                    enemy.paintBody(g, spriteAtlas);
+                }
+            }
+        }
+        for(EnemyUnit enemy : enemies) {
+            if(!useLod || !isCrowded(enemy)) {
+                enemy.paintHealthBar(g, spriteAtlas);
+            }
+        }
+        if(useLod) {
+            paintCrowdedTiles(g);
+        }
+    }
+
+    /**
+     * Counts how many enemies have their centre on each tile.
+     *
+     * @param enemies The enemies to count.
+     */
+    private void countEnemiesPerTile(List<EnemyUnit> enemies) {
+        Arrays.fill(tileCounts, 0);
+        for(EnemyUnit enemy : enemies) {
+            int tile = getTileIndex(enemy);
+            if(tile >= 0) tileCounts[tile]++;
+        }
+    }
+
+    /**
+     * Tests if an enemy is on a tile that is drawn as a tint this frame.
+     *
+     * @param enemy The enemy to test.
+     * @return True if the enemy should not be drawn itself.
+     */
+    private boolean isCrowded(EnemyUnit enemy) {
+        int tile = getTileIndex(enemy);
+        return tile >= 0 && tileCounts[tile] > TILE_DETAIL_LIMIT;
+    }
+
+    /**
+     * Finds the tile the centre of an enemy is on.
+     *
+     * @param enemy The enemy to find.
+     * @return Index into tileCounts, or -1 if the enemy is too far off the map to be seen.
+     */
+    private int getTileIndex(EnemyUnit enemy) {
+        Position position = enemy.getPosition();
+        int column = Math.floorDiv(position.x + enemy.getWidth() / 2, Map.BLOCK_SIZE) + 1;
+        int row = Math.floorDiv(position.y + enemy.getHeight() / 2, Map.BLOCK_SIZE) + 1;
+        if(column < 0 || column >= columns || row < 0 || row >= rows) return -1;
+        return column + row * columns;
+    }
+
+    /**
+     * Draws the tint for each crowded tile one level at a time, and then all the count badges.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     */
+    private void paintCrowdedTiles(Graphics g) {
+        for(int level = 1; level <= HEAT_LEVELS; level++) {
+            g.setColor(heatColours[level]);
+            for(int tile = 0; tile < tileCounts.length; tile++) {
+                if(tileCounts[tile] > TILE_DETAIL_LIMIT && getHeatLevel(tileCounts[tile]) == level) {
+                    g.fillRect(getTileX(tile), getTileY(tile), Map.BLOCK_SIZE, Map.BLOCK_SIZE);
+                }
+            }
+        }
+        g.setColor(badgeColour);
+        for(int tile = 0; tile < tileCounts.length; tile++) {
+            if(tileCounts[tile] > TILE_DETAIL_LIMIT) {
+                g.fillRect(getTileX(tile) + Map.BLOCK_SIZE / 2 - 16, getTileY(tile) + Map.BLOCK_SIZE / 2 - 8, 32, 16);
+            }
+        }
+        g.setColor(Color.WHITE);
+        g.setFont(badgeFont);
+        FontMetrics metrics = g.getFontMetrics();
+        for(int tile = 0; tile < tileCounts.length; tile++) {
+            if(tileCounts[tile] > TILE_DETAIL_LIMIT) {
+                String text = getBadgeText(tileCounts[tile]);
+                g.drawString(text, getTileX(tile) + Map.BLOCK_SIZE / 2 - metrics.stringWidth(text) / 2,
+                             getTileY(tile) + Map.BLOCK_SIZE / 2 + 5);
+            }
+        }
+    }
+
+    /**
+     * Gets the tint level for a crowded tile.
+     *
+     * @param count Number of enemies on the tile.
+     * @return Level from 1 to HEAT_LEVELS.
+     */
+    private int getHeatLevel(int count) {
+        return Math.max(1, Math.min(HEAT_LEVELS, count * HEAT_LEVELS / HEAT_FULL_COUNT));
+    }
+
+    /**
+     * Gets the text to show for a count, making it the first time that count is shown.
+     *
+     * @param count Number of enemies on the tile.
+     * @return The text for the badge.
+     */
+    private String getBadgeText(int count) {
+        int index = Math.min(count, MAX_BADGE_COUNT + 1);
+        if(badgeText[index] == null) {
+            badgeText[index] = count > MAX_BADGE_COUNT ? MAX_BADGE_COUNT + "+" : String.valueOf(count);
+        }
+        return badgeText[index];
+    }
+
+    /**
+     * Gets the left edge of a tile on screen.
+     *
+     * @param tile Index into tileCounts.
+     * @return X coordinate of the tile.
+     */
+    private int getTileX(int tile) {
+        return (tile % columns - 1) * Map.BLOCK_SIZE;
+    }
+
+    /**
+     * Gets the top edge of a tile on screen.
+     *
+     * @param tile Index into tileCounts.
+     * @return Y coordinate of the tile.
+     */
+    private int getTileY(int tile) {
+        return (tile / columns - 1) * Map.BLOCK_SIZE;
+    }
+}
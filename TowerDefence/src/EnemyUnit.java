@@ -1,5 +1,5 @@
 import java.awt.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
@@ -10,7 +10,7 @@ import java.util.List;
  * Defines an enemy that will move between a series of waypoints,
  * either until it dies, or until it reaches the last waypoint.
  */
-public class EnemyUnit extends Rectangle {
+public class EnemyUnit extends Rectangle implements SpriteRenderer {
     /**
      * Types of enemies.
      * Normal: Is a medium speed medium health enemy.
@@ -27,6 +27,10 @@ public class EnemyUnit extends Rectangle {
      * The next waypoint to travel to, or null if the last point has been reached.
      */
     private AIWaypoint movingToWaypoint;
+    /**
+     * Distance field to follow in maze mode, or null to follow the waypoints.
+     */
+    private DistanceField distanceField;
     /**
      * An enemy is expired when it reaches the last waypoint.
      */
@@ -54,16 +58,47 @@ public class EnemyUnit extends Rectangle {
     /**
      * Colour of the enemy. Changes depending on enemy type.
      */
-    private Color unitColour;
+    private int unitColour;
     /**
-     * List of active debuffs on the enemy.
+     * One bit for each type of debuff that is currently active on the enemy.
      */
-    private List<Debuff> debuffList;
-
+    private int debuffMask;
+    /**
+     * The tick each debuff type expires on, indexed by the type's ordinal.
+     */
+    private int[] debuffExpiryTick;
+    /**
+     * Number of stacks of each debuff type, indexed by the type's ordinal.
+     */
+    private int[] debuffStacks;
+    /**
+     * Number of updates since the enemy was spawned. Used to time debuffs.
+     */
+    private int currentTick;
+    /**
+     * Damage over time that has built up but is not yet a whole point of damage, in thousandths.
+     */
+    private int damageOverTimeAccumulator;
     /**
-     * Boolean variable to keep the state based on the slow debuff.
+     * Damage from explosions this update that has not been applied yet.
      */
-    private boolean isSlowed;
+    private int pendingExplosionDamage;
+    /**
+     * Increased every time this enemy is respawned from the pool.
+     */
+    private int generation;
+    /**
+     * Stamp of the snapshot that last numbered this enemy, used to tell if snapshotIndex is current.
+     */
+    private int snapshotStamp;
+    /**
+     * Index of this enemy in the snapshot with snapshotStamp.
+     */
+    private int snapshotIndex;
+    /**
+     * The game this enemy belongs to, told about kills and damage to the base.
+     */
+    private GameSimulation simulation;
 
     /**
      * Sets the enemy up ready to begin moving to the next waypoint with configuration based
@@ -72,16 +107,41 @@ public class EnemyUnit extends Rectangle {
      * @param enemyType Type of the enemy
      * @param firstWaypoint First waypoint to begin movement toward.
      * @param startPosition Position to start at.
+     * @param distanceField Distance field to follow in maze mode, or null to follow the waypoints.
+     * @param simulation The game this enemy belongs to.
      */
-    public EnemyUnit(EnemyUnit.EnemyType enemyType, AIWaypoint firstWaypoint, Position startPosition) {
-        super(startPosition, Map.BLOCK_SIZE, Map.BLOCK_SIZE);
+    public EnemyUnit(EnemyUnit.EnemyType enemyType, AIWaypoint firstWaypoint, Position startPosition,
+                     DistanceField distanceField, GameSimulation simulation) {
+        super(new Position(startPosition), Map.BLOCK_SIZE, Map.BLOCK_SIZE);
+        this.distanceField = distanceField;
+        this.simulation = simulation;
+        debuffExpiryTick = new int[Debuff.TYPE_COUNT];
+        debuffStacks = new int[Debuff.TYPE_COUNT];
+        healthBar = new HealthBar(new Position(startPosition), Map.BLOCK_SIZE, 7);
+        generation = 0;
+        respawn(enemyType, firstWaypoint, startPosition);
+    }
+
+    /**
+     * Reuses this enemy as if it was newly created so that enemies can be recycled
+     * instead of allocated. The generation is increased so anything still holding
+     * on to the old enemy can tell it has been reused.
+     *
+     * @param enemyType Type of the enemy
+     * @param firstWaypoint First waypoint to begin movement toward.
+     * @param startPosition Position to start at.
+     */
+    public void respawn(EnemyUnit.EnemyType enemyType, AIWaypoint firstWaypoint, Position startPosition) {
         this.enemyType = enemyType;
         this.movingToWaypoint = firstWaypoint;
-        debuffList = new ArrayList<>();
+        position.setPosition(startPosition.x, startPosition.y);
+        healthBar.getPosition().setPosition(startPosition.x, startPosition.y);
+        healthBar.setPercent(100);
+        clearDebuffs();
         setupEnemyUnit();
-        healthBar = new HealthBar(new Position(startPosition), Map.BLOCK_SIZE, 7);
         expired = false;
         dead = false;
+        generation++;
     }
 
     /**
@@ -96,13 +156,49 @@ public class EnemyUnit extends Rectangle {
 
     /**
      * Paints a circle to represent the enemy, and a health bar above to show current health.
+     * Both are copied from the sprite atlas.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param spriteAtlas Atlas to copy the sprites from.
+     */
+    public void paint(Graphics g, SpriteAtlas spriteAtlas) {
+        paintBody(g, spriteAtlas);
+        paintHealthBar(g, spriteAtlas);
+    }
+
+    /**
+     * Paints the circle that represents the enemy by copying it from the sprite atlas.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param spriteAtlas Atlas to copy the sprite from.
+     */
+    public void paintBody(Graphics g, SpriteAtlas spriteAtlas) {
+        spriteAtlas.draw(g, SpriteAtlas.key(SpriteAtlas.SPRITE_ENEMY, unitColour, width),
+                         position.x, position.y, width, height, this);
+    }
+
+    /**
+     * Paints the health bar, unless the enemy is at full health and there is nothing to show.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param spriteAtlas Atlas to copy the sprite from.
+     */
+    public void paintHealthBar(Graphics g, SpriteAtlas spriteAtlas) {
+        if(healthCurrent < healthMax) {
+            healthBar.paint(g, spriteAtlas);
+        }
+    }
+
+    /**
+     * Draws the circle for the enemy for the sprite atlas.
      *
      * @param g Reference to the Graphics object for rendering.
+     * @param palette Colours to draw with.
      */
-    public void paint(Graphics g) {
-        g.setColor(unitColour);
-        g.fillOval(position.x, position.y, width, height);
-        healthBar.paint(g);
+    @Override
+    public void renderSprite(Graphics g, Palette palette) {
+        g.setColor(palette.get(unitColour));
+        g.fillOval(0, 0, width, height);
     }
 
     /**
@@ -115,21 +211,273 @@ public class EnemyUnit extends Rectangle {
     }
 
     /**
-     * Applies the specified debuff. If the debuff is already on this enemy it will refresh the
-     * duration timer instead.
+     * Gets the number of times this enemy has been spawned. Used to detect that a reference
+     * to a recycled enemy no longer points at the same enemy.
      *
-     * @param newDebuff The debuff to apply.
+     * @return The current generation of the enemy.
      */
-    public void applyDebuff(Debuff newDebuff) {
-        for(Debuff debuff : debuffList) {
-            if(debuff.equals(newDebuff)) {
-                debuff.refresh();
-                return;
-            }
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Numbers the enemy for a snapshot so that towers and projectiles can refer to it by index.
+     *
+     * @param stamp Stamp unique to the snapshot being taken.
+     * @param index Index of the enemy in the snapshot.
+     */
+    public void setSnapshotIndex(int stamp, int index) {
+        snapshotStamp = stamp;
+        snapshotIndex = index;
+    }
+
+    /**
+     * Gets the index of the enemy in a snapshot.
+     *
+     * @param stamp Stamp of the snapshot being taken.
+     * @return The index, or -1 if the enemy is not part of the snapshot.
+     */
+    public int getSnapshotIndex(int stamp) {
+        return snapshotStamp == stamp ? snapshotIndex : -1;
+    }
+
+    /**
+     * Writes the full state of the enemy to a snapshot.
+     *
+     * @param buffer Buffer to write to.
+     * @param waypoints Waypoints used to store the next waypoint as an index.
+     */
+    public void writeTo(ByteBuffer buffer, List<AIWaypoint> waypoints) {
+        buffer.put((byte)enemyType.ordinal());
+        buffer.putInt(position.x).putInt(position.y);
+        int waypointIndex = movingToWaypoint == null ? -1 : waypoints.indexOf(movingToWaypoint);
+        buffer.putInt(movingToWaypoint != null && waypointIndex == -1 ? -2 : waypointIndex);
+        if(movingToWaypoint != null && waypointIndex == -1) {
+            // A single step from the distance field in maze mode.
+            buffer.putInt(movingToWaypoint.getPosition().x).putInt(movingToWaypoint.getPosition().y);
+        }
+        buffer.put((byte)((expired ? 1 : 0) | (dead ? 2 : 0)));
+        buffer.putInt(speed).putInt(healthMax).putInt(healthCurrent);
+        buffer.putInt(debuffMask).putInt(currentTick);
+        for(int i = 0; i < Debuff.TYPE_COUNT; i++) {
+            buffer.putInt(debuffExpiryTick[i]).putInt(debuffStacks[i]);
         }
-        // Was not found, so just insert the new debuff
-        debuffList.add(newDebuff);
-        applyDebuffEffect(newDebuff);
+        buffer.putInt(damageOverTimeAccumulator).putInt(pendingExplosionDamage).putInt(generation);
+    }
+
+    /**
+     * Replaces the full state of the enemy with the state written by writeTo().
+     *
+     * @param buffer Buffer to read from.
+     * @param waypoints Waypoints used to find the next waypoint from its index.
+     */
+    public void readFrom(ByteBuffer buffer, List<AIWaypoint> waypoints) {
+        enemyType = EnemyType.values()[buffer.get()];
+        setupEnemyUnit();
+        position.setPosition(buffer.getInt(), buffer.getInt());
+        healthBar.getPosition().setPosition(position.x, position.y);
+        int waypointIndex = buffer.getInt();
+        if(waypointIndex == -2) {
+            movingToWaypoint = new AIWaypoint(new Position(buffer.getInt(), buffer.getInt()), null);
+        } else {
+            movingToWaypoint = waypointIndex == -1 ? null : waypoints.get(waypointIndex);
+        }
+        byte flags = buffer.get();
+        expired = (flags & 1) != 0;
+        dead = (flags & 2) != 0;
+        speed = buffer.getInt();
+        healthMax = buffer.getInt();
+        healthCurrent = buffer.getInt();
+        healthBar.setPercent(healthCurrent*100/healthMax);
+        debuffMask = buffer.getInt();
+        currentTick = buffer.getInt();
+        for(int i = 0; i < Debuff.TYPE_COUNT; i++) {
+            debuffExpiryTick[i] = buffer.getInt();
+            debuffStacks[i] = buffer.getInt();
+        }
+        damageOverTimeAccumulator = buffer.getInt();
+        pendingExplosionDamage = buffer.getInt();
+        generation = buffer.getInt();
+    }
+
+    /**
+     * Applies the specified debuff. If the debuff is already on this enemy the stacking
+     * rule for the type decides whether the duration is refreshed, extended, stacked, or ignored.
+     *
+     * @param type The type of debuff to apply.
+     * @param duration Time the debuff should last.
+     */
+    public void applyDebuff(Debuff.DebuffType type, int duration) {
+        int bit = Debuff.getBit(type);
+        int index = type.ordinal();
+        int expiryTick = currentTick + ActionTimer.toTicks(duration);
+        if((debuffMask & bit) == 0) {
+            debuffMask |= bit;
+            debuffStacks[index] = 1;
+            debuffExpiryTick[index] = expiryTick;
+            return;
+        }
+        switch(Debuff.getStackRule(type)) {
+            case Refresh:
+                debuffExpiryTick[index] = Math.max(debuffExpiryTick[index], expiryTick);
+                break;
+            case Extend:
+                debuffExpiryTick[index] += ActionTimer.toTicks(duration);
+                if(Debuff.getMaxDuration(type) > 0) {
+                    debuffExpiryTick[index] = Math.min(debuffExpiryTick[index],
+                                                       currentTick + ActionTimer.toTicks(Debuff.getMaxDuration(type)));
+                }
+                break;
+            case Stack:
+                debuffStacks[index] = Math.min(debuffStacks[index] + 1, Debuff.getMaxStacks(type));
+                debuffExpiryTick[index] = Math.max(debuffExpiryTick[index], expiryTick);
+                break;
+            case Ignore:
+                break;
+        }
+    }
+
+    /**
+     * Tests if the specified debuff is currently active.
+     *
+     * @param type The type of debuff to check.
+     * @return True if the debuff is active.
+     */
+    public boolean hasDebuff(Debuff.DebuffType type) {
+        return (debuffMask & Debuff.getBit(type)) != 0;
+    }
+
+    /**
+     * Gets the number of stacks of the specified debuff.
+     *
+     * @param type The type of debuff to check.
+     * @return The number of stacks, or 0 if the debuff is not active.
+     */
+    public int getDebuffStacks(Debuff.DebuffType type) {
+        return hasDebuff(type) ? debuffStacks[type.ordinal()] : 0;
+    }
+
+    /**
+     * Scales the health and speed of the enemy. Should be used before the enemy takes any damage.
+     *
+     * @param healthPercent Percent of the normal health for the type.
+     * @param speedPercent Percent of the normal speed for the type.
+     */
+    public void applyModifiers(int healthPercent, int speedPercent) {
+        healthMax = healthCurrent = Math.max(healthMax * healthPercent / 100, 1);
+        speed = speed * speedPercent / 100;
+    }
+
+    /**
+     * Tests if any damage over time debuff is active.
+     *
+     * @return True if the enemy is burning or poisoned.
+     */
+    public boolean hasDamageOverTime() {
+        return (debuffMask & Debuff.DAMAGE_OVER_TIME_MASK) != 0;
+    }
+
+    /**
+     * Adds this update's damage from all damage over time debuffs to the accumulator and
+     * applies any whole points of damage that have built up. The game is not notified of a kill,
+     * so the caller can resolve rewards for all kills together.
+     *
+     * @param deltaTime Time since last update.
+     * @return True if this killed the enemy.
+     */
+    public boolean applyDamageOverTime(int deltaTime) {
+        if(dead) return false;
+        int damagePerSecond = Debuff.BURN_DAMAGE_PER_SECOND * getDebuffStacks(Debuff.DebuffType.Burn);
+        if(hasDebuff(Debuff.DebuffType.Poison)) {
+            damagePerSecond += Debuff.POISON_DAMAGE_PER_SECOND;
+        }
+        damageOverTimeAccumulator += damagePerSecond * deltaTime;
+        if(damageOverTimeAccumulator < 1000) return false;
+        int amount = damageOverTimeAccumulator / 1000;
+        damageOverTimeAccumulator %= 1000;
+        return applyDamage(amount);
+    }
+
+    /**
+     * Adds damage from an explosion to be applied later with applyExplosionDamage().
+     *
+     * @param amount Amount of damage from the explosion.
+     * @return True if this is the first explosion to hit the enemy since damage was last applied.
+     */
+    public boolean addExplosionDamage(int amount) {
+        boolean firstHit = pendingExplosionDamage == 0;
+        pendingExplosionDamage += amount;
+        return firstHit;
+    }
+
+    /**
+     * Applies all the damage from explosions that has built up as a single hit. The game
+     * is not notified of a kill, so the caller can resolve rewards for all kills together.
+     *
+     * @return True if this killed the enemy.
+     */
+    public boolean applyExplosionDamage() {
+        int amount = pendingExplosionDamage;
+        pendingExplosionDamage = 0;
+        return applyDamage(amount);
+    }
+
+    /**
+     * Gets how far the enemy has travelled along the path, where a larger value is closer to the end.
+     * Following waypoints this is the distance from the start of the path. In maze mode it is
+     * the negative of the remaining distance to the end from the distance field.
+     *
+     * @return Progress along the path.
+     */
+    public int getPathProgress() {
+        if(movingToWaypoint == null) {
+            return Integer.MAX_VALUE;
+        }
+        Position target = movingToWaypoint.getPosition();
+        int remaining = Math.abs(target.x - position.x) + Math.abs(target.y - position.y);
+        if(distanceField == null) {
+            return movingToWaypoint.getPathProgress() - remaining;
+        }
+        int cellDistance = Math.min(distanceField.getDistance(target.x / Map.BLOCK_SIZE, target.y / Map.BLOCK_SIZE),
+                                    Integer.MAX_VALUE / Map.BLOCK_SIZE / 2);
+        return -(cellDistance * Map.BLOCK_SIZE + remaining);
+    }
+
+    /**
+     * Gets the current health of the enemy.
+     *
+     * @return Current health.
+     */
+    public int getHealth() {
+        return healthCurrent;
+    }
+
+    /**
+     * Gets the health the enemy started with.
+     *
+     * @return Maximum health.
+     */
+    public int getMaxHealth() {
+        return healthMax;
+    }
+
+    /**
+     * Gets the speed the enemy is currently moving at including any slow.
+     *
+     * @return Distance travelled per second.
+     */
+    public int getCurrentSpeed() {
+        if(hasDebuff(Debuff.DebuffType.Stun)) return 0;
+        return hasDebuff(Debuff.DebuffType.Slow) ? speed / 2 : speed;
+    }
+
+    /**
+     * Gets the type of this enemy.
+     *
+     * @return The type of this enemy.
+     */
+    public EnemyType getEnemyType() {
+        return enemyType;
     }
 
     /**
@@ -140,15 +488,31 @@ public class EnemyUnit extends Rectangle {
      * @param amount Amount of damage to remove from current health.
      */
     public void damage(int amount) {
-        if(dead) return;
+        if(applyDamage(amount)) {
+            simulation.gainCash(EnemyUnitManager.CASH_PER_KILL);
+            simulation.gainScore(enemyType);
+        }
+    }
 
+    /**
+     * Does nothing if already dead. Reduces health by amount specified, increased by any
+     * armor shred, capping at a minimum of 0. The enemy is marked as dead when it reaches 0.
+     *
+     * @param amount Amount of damage to remove from current health.
+     * @return True if this damage killed the enemy.
+     */
+    private boolean applyDamage(int amount) {
+        if(dead) return false;
+
+        if(hasDebuff(Debuff.DebuffType.ArmorShred)) {
+            amount = amount * (100 + Debuff.ARMOR_SHRED_PERCENT * getDebuffStacks(Debuff.DebuffType.ArmorShred)) / 100;
+        }
         healthCurrent = Math.max(healthCurrent-amount, 0);
         healthBar.setPercent(healthCurrent*100/healthMax);
         if(healthCurrent == 0) {
-            GamePanel.instance.gainCash(10);
-            GamePanel.instance.gainScore(enemyType);
             dead = true;
         }
+        return dead;
     }
 
     /**
@@ -162,22 +526,26 @@ public class EnemyUnit extends Rectangle {
             return;
         }
 
-        // Get movement in direction toward target position
-        int actualMoveSpeed = isSlowed ? speed / 2 : speed;
-        Position directionVector = new Position(movingToWaypoint.getPosition());
-        directionVector.subtract(getPosition());
-        directionVector.toUnitVector();
-        directionVector.multiply(actualMoveSpeed * deltaTime / 1000);
+        if(hasDebuff(Debuff.DebuffType.Stun)) return;
+
+        // Get movement in direction toward target position. Only whole numbers are used so
+        // lockstep games stay identical. A diagonal direction has always truncated to no movement.
+        int actualMoveSpeed = hasDebuff(Debuff.DebuffType.Slow) ? speed / 2 : speed;
+        int moveDistance = actualMoveSpeed * deltaTime / 1000;
+        Position target = movingToWaypoint.getPosition();
+        int directionX = target.y == position.y ? Integer.signum(target.x - position.x) : 0;
+        int directionY = target.x == position.x ? Integer.signum(target.y - position.y) : 0;
 
-        position.add(directionVector);
+        position.setPosition(position.x + directionX * moveDistance, position.y + directionY * moveDistance);
         healthBar.getPosition().setPosition(position.x, position.y);
         // Has reached point?
-        if(position.distanceTo(movingToWaypoint.getPosition()) <= actualMoveSpeed * deltaTime / 1000) {
+        long remainingX = target.x - position.x, remainingY = target.y - position.y;
+        if(remainingX * remainingX + remainingY * remainingY <= (long)moveDistance * moveDistance) {
             position.setPosition(movingToWaypoint.getPosition().x, movingToWaypoint.getPosition().y);
-            movingToWaypoint = movingToWaypoint.getNextWaypoint();
+            movingToWaypoint = getNextWaypoint();
             if(movingToWaypoint == null) {
                 // Reached the end of the waypoint list
-                GamePanel.instance.damageBase(5);
+                simulation.damageBase(5);
             }
             if(EnemyUnitManager.AI_DEBUG_MODE) {
                 if (movingToWaypoint == null) System.out.println("Movement ended.");
@@ -187,45 +555,52 @@ public class EnemyUnit extends Rectangle {
     }
 
     /**
-     * Updates the timer on all debuffs. If the debuff has expired it will be removed and
-     * any status effects are also removed.
+     * Gets the next waypoint to move to. In maze mode this is a single step to the
+     * neighbouring cell that is closest to the end based on the distance field.
      *
-     * @param deltaTime Time since last update.
+     * @return The next waypoint to move toward, or null if the end has been reached.
      */
-    private void updateDebuffs(int deltaTime) {
-        for(int i = 0; i < debuffList.size(); i++) {
-            debuffList.get(i).update(deltaTime);
-            if(debuffList.get(i).isExpired()) {
-                removeDebuffEffect(debuffList.get(i));
-                debuffList.remove(i);
-                i--;
-            }
+    private AIWaypoint getNextWaypoint() {
+        if(distanceField == null) {
+            return movingToWaypoint.getNextWaypoint();
         }
+        Position nextCell = distanceField.getNextStep(position.x / Map.BLOCK_SIZE, position.y / Map.BLOCK_SIZE);
+        if(nextCell == null) {
+            return null;
+        }
+        return new AIWaypoint(new Position(nextCell.x * Map.BLOCK_SIZE, nextCell.y * Map.BLOCK_SIZE), null);
     }
 
     /**
-     * Applies a status change to the EnemyUnit based on a debuff type.
+     * Advances the debuff clock and removes any debuffs that have reached their expiry tick.
+     * Only the bits that are set are visited.
      *
-     * @param debuff The debuff to apply an effect from.
+     * @param deltaTime Time since last update.
      */
-    private void applyDebuffEffect(Debuff debuff) {
-        switch(debuff.getDebuffType()) {
-            case Slow:
-                isSlowed = true;
-                break;
+    private void updateDebuffs(int deltaTime) {
+        currentTick++;
+        int remaining = debuffMask;
+        while(remaining != 0) {
+            int index = Integer.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            if(debuffExpiryTick[index] <= currentTick) {
+                debuffMask &= ~(1 << index);
+                debuffStacks[index] = 0;
+            }
         }
     }
 
     /**
-     * Removes a status change to the EnemyUnit based on a debuff type.
-     *
-     * @param debuff The debuff to remove an effect from.
+     * Removes every debuff.
      */
-    private void removeDebuffEffect(Debuff debuff) {
-        switch(debuff.getDebuffType()) {
-            case Slow:
-                isSlowed = false;
-                break;
+    private void clearDebuffs() {
+        debuffMask = 0;
+        currentTick = 0;
+        damageOverTimeAccumulator = 0;
+        pendingExplosionDamage = 0;
+        for(int i = 0; i < Debuff.TYPE_COUNT; i++) {
+            debuffStacks[i] = 0;
+            debuffExpiryTick[i] = 0;
         }
     }
 
@@ -238,17 +613,17 @@ public class EnemyUnit extends Rectangle {
             case Normal:
                 healthMax = healthCurrent = 400;
                 speed = 150;
-                unitColour = Color.ORANGE;
+                unitColour = 0xFFC800;
                 break;
             case Fast:
                 healthMax = healthCurrent = 300;
                 speed = 200;
-                unitColour = Color.BLUE;
+                unitColour = 0x0000FF;
                 break;
             case Boss:
                 healthMax = healthCurrent = 600;
                 speed = 100;
-                unitColour = Color.BLACK;
+                unitColour = 0x000000;
                 break;
         }
     }
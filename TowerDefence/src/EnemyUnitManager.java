@@ -1,7 +1,8 @@
 import java.awt.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
 /**
  * Tower Defence
@@ -12,22 +13,39 @@ import java.util.Random;
  */
 public class EnemyUnitManager {
     /**
-     * The default time between enemy unit spawns.
+     * Cash gained for each enemy that is killed.
      */
-    private static final int TIME_BETWEEN_SPAWNS = 3000;
+    public static final int CASH_PER_KILL = 10;
     /**
      * When true additional debug information will be shown.
      */
     public static final boolean AI_DEBUG_MODE = false;
     /**
-     * When true it will use the spawn manager to spawn enemies until it runs out.
-     * When false it will just keep spawning random enemies infinitely.
+     * When false it will use the spawn manager to spawn enemies from the example commands until it runs out.
+     * When true it will keep spawning procedurally generated waves that get harder forever.
      */
-    private static final boolean SPAWN_USING_SPAWN_MANAGER = true;
+    private static final boolean ENDLESS_MODE = false;
     /**
-     * Reference to this object as a singleton.
+     * Seed used to generate the waves in endless mode.
      */
-    private static EnemyUnitManager instance;
+    private static final long ENDLESS_SEED = 2021;
+    /**
+     * Most expired enemies to keep around for reuse.
+     */
+    private static final int MAX_POOLED_ENEMIES = 256;
+    /**
+     * Number of ints stored for each queued explosion: x, y, radius, and damage.
+     */
+    private static final int EXPLOSION_STRIDE = 4;
+    /**
+     * Buffer for collecting the enemies hit by all explosions in an update. One per thread
+     * so it is never shared between games that are updated on different threads.
+     */
+    private static final ThreadLocal<List<EnemyUnit>> explosionHits = ThreadLocal.withInitial(ArrayList::new);
+    /**
+     * Buffer for collecting the enemies inside a single explosion, one per thread.
+     */
+    private static final ThreadLocal<List<EnemyUnit>> explosionNearby = ThreadLocal.withInitial(ArrayList::new);
 
     /**
      * Position to use as the start for all enemy spawns.
@@ -37,18 +55,22 @@ public class EnemyUnitManager {
      * A list of all the waypoints for AI to use.
      */
     private List<AIWaypoint> waypoints;
+    /**
+     * Distance field for enemies to follow in maze mode, or null to follow the waypoints.
+     */
+    private DistanceField distanceField;
     /**
      * A list of all active enemies that can be updated.
      */
     private List<EnemyUnit> activeEnemies;
     /**
-     * A shared reference to the random object for spawning random enemies.
+     * Expired enemies that can be respawned instead of creating new ones.
      */
-    private Random rand;
+    private List<EnemyUnit> enemyPool;
     /**
-     * Timer for spawning random enemy units.
+     * Number of enemy objects this manager has ever created, including those made for snapshots.
      */
-    private ActionTimer spawnTimer;
+    private long enemiesCreated;
     /**
      * Manager to control spawning of enemies.
      */
@@ -57,22 +79,87 @@ public class EnemyUnitManager {
      * True when the spawn manager has run out of enemies to spawn.
      */
     private boolean finishedSpawning;
+    /**
+     * Total number of enemies spawned since the last reset.
+     */
+    private long totalEnemiesSpawned;
+    /**
+     * Kills for each enemy type that have not been rewarded yet, reused every update.
+     */
+    private int[] pendingKills;
+    /**
+     * Total kills that have not been rewarded yet.
+     */
+    private int pendingKillCount;
+    /**
+     * Grid of enemy positions used to find enemies near an explosion.
+     */
+    private SpatialHash spatialHash;
+    /**
+     * Active enemies ordered by progress along the path for towers to choose targets from.
+     */
+    private TargetIndex targetIndex;
+    /**
+     * True when enemies have moved, spawned, or been removed since the spatial hash was built.
+     */
+    private boolean spatialHashDirty;
+    /**
+     * Explosions waiting to be resolved, stored as EXPLOSION_STRIDE ints each.
+     */
+    private int[] queuedExplosions;
+    /**
+     * Number of explosions waiting to be resolved.
+     */
+    private int queuedExplosionCount;
+    /**
+     * Increased for every snapshot so enemies can tell if their snapshot index is current.
+     */
+    private int snapshotStamp;
+    /**
+     * Every enemy in the last snapshot that was read, in snapshot index order.
+     */
+    private List<EnemyUnit> snapshotEnemies;
+    /**
+     * The game these enemies belong to, told about kills and damage to the base.
+     */
+    private GameSimulation simulation;
+    /**
+     * Wave script applied on each reset, or null for the example commands.
+     */
+    private String waveScript;
+    /**
+     * True when endless waves are generated on each reset instead of using a script.
+     */
+    private boolean endlessWaves;
+    /**
+     * Seed the endless waves are generated from.
+     */
+    private long endlessSeed;
 
     /**
      * Initialises the manager ready to spawn enemy units and manage their status.
      *
+     * @param simulation The game these enemies belong to.
      * @param enemyStartPosition Position to use as the start for all enemy spawns.
      * @param waypoints A list of all the waypoints for AI to use.
+     * @param distanceField Distance field for enemies to follow in maze mode, or null to follow the waypoints.
      */
-    public EnemyUnitManager(Position enemyStartPosition, List<AIWaypoint> waypoints) {
+    public EnemyUnitManager(GameSimulation simulation, Position enemyStartPosition, List<AIWaypoint> waypoints,
+                            DistanceField distanceField) {
+        this.simulation = simulation;
         this.enemyStartPosition = enemyStartPosition;
         this.waypoints = waypoints;
+        this.distanceField = distanceField;
         activeEnemies = new ArrayList<>();
-        rand = new Random();
-        spawnTimer = new ActionTimer(TIME_BETWEEN_SPAWNS);
+        enemyPool = new ArrayList<>();
+        pendingKills = new int[EnemyUnit.EnemyType.values().length];
+        spatialHash = createSpatialHash(enemyStartPosition, waypoints);
+        targetIndex = new TargetIndex();
+        snapshotEnemies = new ArrayList<>();
+        queuedExplosions = new int[EXPLOSION_STRIDE * 16];
+        endlessWaves = ENDLESS_MODE;
+        endlessSeed = ENDLESS_SEED;
         spawnManager = new SpawnManager(this);
-        spawnManager.applyExampleCommandList();
-        instance = this;
         reset();
     }
 
@@ -81,46 +168,78 @@ public class EnemyUnitManager {
      */
     public void reset() {
         finishedSpawning = false;
+        totalEnemiesSpawned = 0;
+        for(EnemyUnit enemyUnit : activeEnemies) {
+            recycleEnemy(enemyUnit);
+        }
         activeEnemies.clear();
-        spawnManager.applyExampleCommandList();
+        spatialHashDirty = true;
+        targetIndex.rebuild(activeEnemies);
+        queuedExplosionCount = 0;
+        if(endlessWaves) {
+            spawnManager.applyEndlessWaves(endlessSeed);
+        } else if(waveScript != null) {
+            spawnManager.clearCommands();
+            spawnManager.addCommandsFromString(waveScript);
+        } else {
+            spawnManager.applyExampleCommandList();
+        }
+    }
+
+    /**
+     * Plays the supplied wave script from the next reset onwards.
+     *
+     * @param waveScript Commands in the format described in SpawnManager, or null for the example commands.
+     */
+    public void setWaveScript(String waveScript) {
+        this.waveScript = waveScript;
+        endlessWaves = false;
+    }
+
+    /**
+     * Plays endless generated waves from the next reset onwards.
+     *
+     * @param seed Seed used to generate the waves.
+     */
+    public void setEndlessWaves(long seed) {
+        endlessSeed = seed;
+        endlessWaves = true;
     }
 
     /**
-     * Updates the spawner to check if a new enemy should be spawned.
-     * Then updates all active enemies and removes any that have expired.
+     * Updates the spawner to check if a new enemy should be spawned. Then resolves explosions,
+     * applies damage over time, updates all active enemies and removes any that have expired.
+     * Finally the target index is rebuilt for the towers to use on the next update.
      *
      * @param deltaTime Time since last update.
      */
     public void update(int deltaTime) {
-        if(SPAWN_USING_SPAWN_MANAGER) {
-            spawnManager.update(deltaTime);
-            finishedSpawning = !spawnManager.hasMoreSpawnCommands();
-        } else {
-            spawnTimer.update(deltaTime);
-            if (spawnTimer.isTriggered()) {
-                spawnRandomEnemy();
-                spawnTimer.reset();
-            }
-        }
+        spawnManager.update(deltaTime);
+        finishedSpawning = !spawnManager.hasMoreSpawnCommands();
+        resolveExplosions();
+        applyDamageOverTime(deltaTime);
+        payKillRewards();
 
         for(int i = 0; i < activeEnemies.size(); i++) {
             activeEnemies.get(i).update(deltaTime);
             if(activeEnemies.get(i).isExpired()) {
-                activeEnemies.remove(i);
+                recycleEnemy(activeEnemies.remove(i));
                 i--;
             }
         }
+        spatialHashDirty = true;
+        targetIndex.rebuild(activeEnemies);
     }
 
     /**
      * Draws all the enemies. Will also draw all the waypoints if the AI_DEBUG_MODE is true.
      *
      * @param g Reference to the Graphics object for rendering.
+     * @param enemyRenderer Renderer that decides how much detail to draw the enemies with.
+     * @param spriteAtlas Atlas to copy the enemy sprites from.
      */
-    public void paint(Graphics g) {
-        for(EnemyUnit enemy : activeEnemies) {
-            enemy.paint(g);
-        }
+    public void paint(Graphics g, EnemyRenderer enemyRenderer, SpriteAtlas spriteAtlas) {
+        enemyRenderer.paint(g, activeEnemies, spriteAtlas);
         if(AI_DEBUG_MODE) {
             for (AIWaypoint aiWaypoint : waypoints) {
                 aiWaypoint.paint(g);
@@ -147,19 +266,58 @@ public class EnemyUnitManager {
     }
 
     /**
-     * Gets the singleton for this object.
+     * Gets the game these enemies belong to.
+     *
+     * @return The simulation.
+     */
+    public GameSimulation getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * Gets the index of active enemies ordered by progress, rebuilt at the end of every update.
      *
-     * @return A singleton representing the EnemyUnitManager.
+     * @return The index for towers to choose targets from.
      */
-    public static EnemyUnitManager getInstance() {
-        return instance;
+    public TargetIndex getTargetIndex() {
+        return targetIndex;
     }
 
     /**
-     * Spawns a new random enemy and adds it to the activeEnemies list.
+     * Gets the total number of enemies spawned since the last reset.
+     *
+     * @return Number of enemies spawned.
+     */
+    public long getTotalEnemiesSpawned() {
+        return totalEnemiesSpawned;
+    }
+
+    /**
+     * Gets the number of expired enemies waiting to be reused.
+     *
+     * @return Size of the enemy pool.
+     */
+    public int getPooledEnemyCount() {
+        return enemyPool.size();
+    }
+
+    /**
+     * Gets the number of enemy objects that have been created. This stops rising once
+     * the pool holds enough enemies to cover what is spawned.
+     *
+     * @return Number of enemy objects created since the manager was made.
+     */
+    public long getEnemiesCreated() {
+        return enemiesCreated;
+    }
+
+    /**
+     * Gets the seed the waves were generated from.
+     *
+     * @return The endless mode seed, or 0 when the fixed example waves are used.
      */
-    public void spawnRandomEnemy() {
-        spawnEnemy(getRandomEnemyType());
+    public long getWaveSeed() {
+        return endlessWaves ? endlessSeed : 0;
     }
 
     /**
@@ -168,27 +326,244 @@ public class EnemyUnitManager {
      * @param enemyType Type of enemy to spawn.
      */
     public void spawnEnemy(EnemyUnit.EnemyType enemyType) {
-        activeEnemies.add(new EnemyUnit(enemyType,waypoints.get(waypoints.size()-1),new Position(enemyStartPosition)));
+        spawnEnemy(enemyType, 100, 100, 0);
+    }
+
+    /**
+     * Spawns an enemy of the specified type with its health and speed scaled by wave modifiers.
+     * Enemies can start part way along the path to allow for multiple spawn lanes.
+     * An expired enemy is reused from the pool if there is one available.
+     *
+     * @param enemyType Type of enemy to spawn.
+     * @param healthPercent Percent of the normal health for the type.
+     * @param speedPercent Percent of the normal speed for the type.
+     * @param startWaypointIndex Number of waypoints along the path from the start to spawn at.
+     */
+    public void spawnEnemy(EnemyUnit.EnemyType enemyType, int healthPercent, int speedPercent, int startWaypointIndex) {
+        int waypointIndex = Math.max(waypoints.size()-1-startWaypointIndex, 0);
+        AIWaypoint firstWaypoint = waypoints.get(waypointIndex);
+        Position startPosition = waypointIndex == waypoints.size()-1 ? enemyStartPosition : firstWaypoint.getPosition();
+        EnemyUnit enemyUnit;
+        if(enemyPool.isEmpty()) {
+            enemyUnit = new EnemyUnit(enemyType, firstWaypoint, startPosition, distanceField, simulation);
+            enemiesCreated++;
+        } else {
+            enemyUnit = enemyPool.remove(enemyPool.size()-1);
+            enemyUnit.respawn(enemyType, firstWaypoint, startPosition);
+        }
+        if(healthPercent != 100 || speedPercent != 100) {
+            enemyUnit.applyModifiers(healthPercent, speedPercent);
+        }
+        activeEnemies.add(enemyUnit);
+        totalEnemiesSpawned++;
+    }
+
+    /**
+     * Writes every enemy, including the pooled ones that projectiles may still refer to,
+     * the queued explosions, and the spawn manager to a snapshot. Enemies are numbered
+     * as they are written so getSnapshotIndex() can be used for references to them.
+     *
+     * @param buffer Buffer to write to.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        snapshotStamp++;
+        buffer.put((byte)(finishedSpawning ? 1 : 0)).putLong(totalEnemiesSpawned);
+        buffer.putInt(activeEnemies.size()).putInt(enemyPool.size());
+        int index = 0;
+        for(EnemyUnit enemyUnit : activeEnemies) {
+            enemyUnit.setSnapshotIndex(snapshotStamp, index++);
+            enemyUnit.writeTo(buffer, waypoints);
+        }
+        for(EnemyUnit enemyUnit : enemyPool) {
+            enemyUnit.setSnapshotIndex(snapshotStamp, index++);
+            enemyUnit.writeTo(buffer, waypoints);
+        }
+        buffer.putInt(queuedExplosionCount);
+        for(int i = 0; i < queuedExplosionCount * EXPLOSION_STRIDE; i++) {
+            buffer.putInt(queuedExplosions[i]);
+        }
+        spawnManager.writeTo(buffer);
+    }
+
+    /**
+     * Replaces every enemy, the queued explosions, and the spawn manager with the state written
+     * by writeTo(). Existing enemy objects are reused before any new ones are created.
+     *
+     * @param buffer Buffer to read from.
+     */
+    public void readFrom(ByteBuffer buffer) {
+        finishedSpawning = buffer.get() != 0;
+        totalEnemiesSpawned = buffer.getLong();
+        int activeCount = buffer.getInt(), pooledCount = buffer.getInt();
+        snapshotEnemies.clear();
+        snapshotEnemies.addAll(activeEnemies);
+        snapshotEnemies.addAll(enemyPool);
+        while(snapshotEnemies.size() < activeCount + pooledCount) {
+            snapshotEnemies.add(new EnemyUnit(EnemyUnit.EnemyType.Normal, waypoints.get(waypoints.size()-1),
+                                              enemyStartPosition, distanceField, simulation));
+            enemiesCreated++;
+        }
+        while(snapshotEnemies.size() > activeCount + pooledCount) {
+            snapshotEnemies.remove(snapshotEnemies.size()-1);
+        }
+        activeEnemies.clear();
+        enemyPool.clear();
+        for(int i = 0; i < snapshotEnemies.size(); i++) {
+            snapshotEnemies.get(i).readFrom(buffer, waypoints);
+            if(i < activeCount) activeEnemies.add(snapshotEnemies.get(i));
+            else enemyPool.add(snapshotEnemies.get(i));
+        }
+        queuedExplosionCount = buffer.getInt();
+        if(queuedExplosionCount * EXPLOSION_STRIDE > queuedExplosions.length) {
+            queuedExplosions = new int[queuedExplosionCount * EXPLOSION_STRIDE * 2];
+        }
+        for(int i = 0; i < queuedExplosionCount * EXPLOSION_STRIDE; i++) {
+            queuedExplosions[i] = buffer.getInt();
+        }
+        spawnManager.readFrom(buffer);
+        spatialHashDirty = true;
+        targetIndex.rebuild(activeEnemies);
+    }
+
+    /**
+     * Gets the index of an enemy in the snapshot currently being written.
+     *
+     * @param enemyUnit The enemy to look up, or null.
+     * @return The index, or -1 if there is no enemy or it is not part of the snapshot.
+     */
+    public int getSnapshotIndex(EnemyUnit enemyUnit) {
+        return enemyUnit == null ? -1 : enemyUnit.getSnapshotIndex(snapshotStamp);
+    }
+
+    /**
+     * Gets an enemy from the snapshot that was last read.
+     *
+     * @param index Index of the enemy in the snapshot.
+     * @return The enemy, or null if the index is -1.
+     */
+    public EnemyUnit getSnapshotEnemy(int index) {
+        return index < 0 ? null : snapshotEnemies.get(index);
+    }
+
+    /**
+     * Queues an explosion that damages every enemy with a centre inside the radius.
+     * Explosions are resolved together at the start of the next update.
+     *
+     * @param centre Centre of the explosion.
+     * @param radius Radius of the explosion.
+     * @param damage Damage dealt to each enemy inside the radius.
+     */
+    public void queueExplosion(Position centre, int radius, int damage) {
+        int offset = queuedExplosionCount * EXPLOSION_STRIDE;
+        if(offset + EXPLOSION_STRIDE > queuedExplosions.length) {
+            queuedExplosions = Arrays.copyOf(queuedExplosions, queuedExplosions.length * 2);
+        }
+        queuedExplosions[offset] = centre.x;
+        queuedExplosions[offset+1] = centre.y;
+        queuedExplosions[offset+2] = radius;
+        queuedExplosions[offset+3] = damage;
+        queuedExplosionCount++;
+    }
+
+    /**
+     * Resolves all queued explosions in one pass. Each explosion only looks at the nearby
+     * cells of the spatial hash, and the damage from every explosion that hit an enemy
+     * is added up so each enemy only takes a single hit.
+     */
+    private void resolveExplosions() {
+        if(queuedExplosionCount == 0) return;
+        if(spatialHashDirty) {
+            spatialHash.rebuild(activeEnemies);
+            spatialHashDirty = false;
+        }
+
+        List<EnemyUnit> hits = explosionHits.get();
+        List<EnemyUnit> nearby = explosionNearby.get();
+        for(int i = 0; i < queuedExplosionCount; i++) {
+            int offset = i * EXPLOSION_STRIDE;
+            spatialHash.query(queuedExplosions[offset], queuedExplosions[offset+1], queuedExplosions[offset+2], nearby);
+            for(EnemyUnit enemyUnit : nearby) {
+                if(enemyUnit.addExplosionDamage(queuedExplosions[offset+3])) {
+                    hits.add(enemyUnit);
+                }
+            }
+            nearby.clear();
+        }
+        queuedExplosionCount = 0;
+
+        for(EnemyUnit enemyUnit : hits) {
+            if(enemyUnit.applyExplosionDamage()) {
+                countKill(enemyUnit);
+            }
+        }
+        hits.clear();
+    }
+
+    /**
+     * Applies burn and poison damage to every affected enemy in a single pass.
+     * Kills are only counted during the pass so they can be rewarded together.
+     *
+     * @param deltaTime Time since last update.
+     */
+    private void applyDamageOverTime(int deltaTime) {
+        for(EnemyUnit enemyUnit : activeEnemies) {
+            if(enemyUnit.hasDamageOverTime() && enemyUnit.applyDamageOverTime(deltaTime)) {
+                countKill(enemyUnit);
+            }
+        }
+    }
+
+    /**
+     * Counts a kill to be rewarded with the next call to payKillRewards().
+     *
+     * @param enemyUnit The enemy that was killed.
+     */
+    private void countKill(EnemyUnit enemyUnit) {
+        pendingKills[enemyUnit.getEnemyType().ordinal()]++;
+        pendingKillCount++;
+    }
+
+    /**
+     * Gives the cash and score for all counted kills, so the game is notified
+     * at most once per enemy type no matter how many enemies died.
+     */
+    private void payKillRewards() {
+        if(pendingKillCount == 0) return;
+
+        simulation.gainCash(CASH_PER_KILL * pendingKillCount);
+        for(EnemyUnit.EnemyType enemyType : EnemyUnit.EnemyType.values()) {
+            if(pendingKills[enemyType.ordinal()] > 0) {
+                simulation.gainScore(enemyType, pendingKills[enemyType.ordinal()]);
+                pendingKills[enemyType.ordinal()] = 0;
+            }
+        }
+        pendingKillCount = 0;
+    }
+
+    /**
+     * Creates a spatial hash large enough to cover the whole path.
+     *
+     * @param enemyStartPosition Position to use as the start for all enemy spawns.
+     * @param waypoints A list of all the waypoints for AI to use.
+     * @return A spatial hash covering every position enemies can reach.
+     */
+    private static SpatialHash createSpatialHash(Position enemyStartPosition, List<AIWaypoint> waypoints) {
+        int maxX = enemyStartPosition.x, maxY = enemyStartPosition.y;
+        for(AIWaypoint waypoint : waypoints) {
+            maxX = Math.max(maxX, waypoint.getPosition().x);
+            maxY = Math.max(maxY, waypoint.getPosition().y);
+        }
+        return new SpatialHash(maxX + Map.BLOCK_SIZE, maxY + Map.BLOCK_SIZE, Map.BLOCK_SIZE * 2);
     }
 
     /**
-     * Randomly selects between the valid enemy types.
+     * Stores an expired enemy so it can be respawned later, up to a fixed limit.
      *
-     * @return A random enemy type.
+     * @param enemyUnit The enemy that is no longer active.
      */
-    private EnemyUnit.EnemyType getRandomEnemyType() {
-        EnemyUnit.EnemyType enemyType = EnemyUnit.EnemyType.Normal;
-        switch(rand.nextInt(3)) {
-            case 0:
-                enemyType = EnemyUnit.EnemyType.Normal;
-                break;
-            case 1:
-                enemyType = EnemyUnit.EnemyType.Fast;
-                break;
-            case 2:
-                enemyType = EnemyUnit.EnemyType.Boss;
-                break;
+    private void recycleEnemy(EnemyUnit enemyUnit) {
+        if(enemyPool.size() < MAX_POOLED_ENEMIES) {
+            enemyPool.add(enemyUnit);
         }
-        return enemyType;
     }
 }
@@ -0,0 +1,63 @@
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * FixedPoint class:
+ * Whole number maths for movement that has to give exactly the same result on every machine,
+ * so two games running in lockstep never drift apart. Values are pixels scaled by ONE.
+ */
+public class FixedPoint {
+    /**
+     * Number of fractional bits.
+     */
+    public static final int SHIFT = 8;
+    /**
+     * The value 1.0 in fixed point.
+     */
+    public static final int ONE = 1 << SHIFT;
+
+    /**
+     * Converts whole pixels to fixed point.
+     *
+     * @param value Value in pixels.
+     * @return The value in fixed point.
+     */
+    public static int fromInt(int value) {
+        return value << SHIFT;
+    }
+
+    /**
+     * Converts fixed point to whole pixels, rounding toward negative infinity.
+     *
+     * @param value Value in fixed point.
+     * @return The value in pixels.
+     */
+    public static int toInt(int value) {
+        return value >> SHIFT;
+    }
+
+    /**
+     * Finds the largest whole number whose square is no more than the value.
+     *
+     * @param value A value that is zero or more.
+     * @return The whole part of the square root.
+     */
+    public static long sqrt(long value) {
+        if(value <= 0) return 0;
+        long result = 0;
+        long bit = 1L << 62;
+        while(bit > value) {
+            bit >>= 2;
+        }
+        while(bit != 0) {
+            if(value >= result + bit) {
+                value -= result + bit;
+                result = (result >> 1) + bit;
+            } else {
+                result >>= 1;
+            }
+            bit >>= 2;
+        }
+        return result;
+    }
+}
@@ -12,13 +12,21 @@ import java.awt.event.KeyListener;
  * and populating it with a GamePanel.
  */
 public class Game implements KeyListener {
+    /**
+     * Argument that prints the time taken to show the first frame and then exits. Used by StartupBenchmark.
+     */
+    public static final String EXIT_AFTER_FIRST_FRAME_ARG = "--exit-after-first-frame";
+
     /**
      * Entry point for the application to create an instance of the Game class.
+     * The frame is built on the Swing event thread.
      *
-     * @param args Not used.
+     * @param args Optionally EXIT_AFTER_FIRST_FRAME_ARG.
      */
     public static void main(String[] args) {
-        Game game = new Game();
+        long launchTime = System.nanoTime();
+        boolean exitAfterFirstFrame = args.length > 0 && args[0].equals(EXIT_AFTER_FIRST_FRAME_ARG);
+        SwingUtilities.invokeLater(() -> new Game(launchTime, exitAfterFirstFrame));
     }
 
     /**
@@ -34,12 +42,25 @@ public class Game implements KeyListener {
      * Reference to the buyTowerPanel to modify which buttons are available.
      */
     private BuyTowerPanel buyTowerPanel;
+    /**
+     * Value of System.nanoTime() when main() started.
+     */
+    private long launchTime;
+    /**
+     * True when the game should print the time to the first frame and exit once it has been drawn.
+     */
+    private boolean exitAfterFirstFrame;
 
     /**
      * Creates the JFrame with a GamePanel inside it, attaches a key listener,
      * and makes everything visible.
+     *
+     * @param launchTime Value of System.nanoTime() when main() started.
+     * @param exitAfterFirstFrame True to print the time to the first frame and exit once it has been drawn.
      */
-    public Game() {
+    public Game(long launchTime, boolean exitAfterFirstFrame) {
+        this.launchTime = launchTime;
+        this.exitAfterFirstFrame = exitAfterFirstFrame;
         JFrame frame = new JFrame("Tower Defence");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setResizable(false);
@@ -93,6 +114,17 @@ public class Game implements KeyListener {
         buyTowerPanel.updateButtonStates();
     }
 
+    /**
+     * Called by the GamePanel once it has drawn its first frame. When started with
+     * EXIT_AFTER_FIRST_FRAME_ARG this prints how long it took from main() and exits.
+     */
+    public void firstFrameDrawn() {
+        if(!exitAfterFirstFrame) return;
+        System.out.println("FIRST_FRAME_MS " + (System.nanoTime() - launchTime) / 1000000);
+        // Exit after the paint has finished so the frame really was shown.
+        SwingUtilities.invokeLater(() -> System.exit(0));
+    }
+
     /**
      * Called when the key is pressed down. Passes the key press on to the GamePanel.
      *
@@ -0,0 +1,49 @@
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * GameListener interface:
+ * Receives changes from a GameSimulation so they can be shown to the player.
+ * Simulations running without any display do not have a listener.
+ */
+public interface GameListener {
+    /**
+     * Called when the amount of cash changes.
+     *
+     * @param cash The new amount of cash.
+     */
+    void cashChanged(int cash);
+
+    /**
+     * Called when the score changes.
+     *
+     * @param score The new score.
+     */
+    void scoreChanged(int score);
+
+    /**
+     * Called when the base health changes.
+     *
+     * @param baseHealth The new base health percent.
+     */
+    void baseHealthChanged(int baseHealth);
+
+    /**
+     * Called once when the game has been won or lost.
+     *
+     * @param won True if the game was won, false if the base was destroyed.
+     */
+    void gameEnded(boolean won);
+
+    /**
+     * Called when something happens that can be shown with a visual effect, such as a projectile hitting.
+     * Effects do not change the game.
+     *
+     * @param effectType One of the GameSimulation EFFECT constants.
+     * @param x X coordinate of the centre of the effect.
+     * @param y Y coordinate of the centre of the effect.
+     * @param radius Radius the effect reaches, or 0 for a small effect.
+     * @param colour Colour of the effect as 0xRRGGBB.
+     */
+    void effectSpawned(int effectType, int x, int y, int radius, int colour);
+}
@@ -1,7 +1,12 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tower Defence
@@ -11,7 +16,7 @@ import java.util.List;
  * Controls the primary structure of the game maintaining overall
  * game state and managing the timers/mouse interactions.
  */
-public class GamePanel extends JPanel implements ActionListener, MouseListener {
+public class GamePanel extends JPanel implements ActionListener, MouseListener, GameListener {
     /**
      * GameState defines the state of the game.
      * Playing: Default state when everything is just running.
@@ -23,23 +28,51 @@ public class GamePanel extends JPanel implements ActionListener, MouseListener {
      * The timer interval to control deltaTime.
      */
     public static final int TIME_BETWEEN_UPDATES = 20;
-
     /**
-     * Singleton reference for this class.
+     * How far back the game can be rewound.
+     */
+    private static final int REWIND_RETENTION_SECONDS = 30;
+    /**
+     * How far back each press of the rewind key goes.
+     */
+    private static final int REWIND_STEP_SECONDS = 5;
+    /**
+     * Number of updates between the keyframes saved for rewinding.
      */
-    public static GamePanel instance;
+    private static final int KEYFRAME_INTERVAL_TICKS = 50;
+    /**
+     * Directory the match history files are kept in.
+     */
+    private static final String MATCH_HISTORY_DIRECTORY = ".";
+    /**
+     * Most milliseconds to wait on exit for matches still being saved.
+     */
+    private static final int MATCH_HISTORY_CLOSE_TIMEOUT = 5000;
+
     /**
      * Reference to the Game object for passing messages to the other panels.
      */
     private Game game;
     /**
-     * Reference to the Map for managing the towers and scene elements.
+     * The game being shown, including the map, enemies, cash, score and base health.
+     */
+    private GameSimulation simulation;
+    /**
+     * Draws the enemies with less detail when there are too many of them.
+     */
+    private EnemyRenderer enemyRenderer;
+    /**
+     * Colours used by everything drawn on this panel.
+     */
+    private Palette palette;
+    /**
+     * Sprites for the towers, enemies, projectiles and health bars drawn on this panel.
      */
-    private Map map;
+    private SpriteAtlas spriteAtlas;
     /**
-     * Reference to the manager responsible for everything to do with enemies.
+     * Particles for hits, explosions and slows.
      */
-    private EnemyUnitManager enemyUnitManager;
+    private ParticleSystem particleSystem;
     /**
      * Timer responsible for keeping consistent updates ticking.
      */
@@ -53,21 +86,44 @@ public class GamePanel extends JPanel implements ActionListener, MouseListener {
      */
     private Tower.TowerType towerTypeToPlace;
     /**
-     * Amount of cash remaining.
+     * Tower that was last clicked on while playing, or null if none is selected.
+     */
+    private Tower selectedTower;
+    /**
+     * Message to display for the game over state.
      */
-    private int cash;
+    private String gameOverMessage;
     /**
-     * Amount of score that has been gained.
+     * Quick save that can be restored at any time, or null until the first quick save.
      */
-    private int score;
+    private GameSnapshot quickSave;
     /**
-     * Current total base health percent.
+     * Recent keyframes and inputs used to rewind the game.
      */
-    private int baseHealth;
+    private RewindBuffer rewindBuffer;
     /**
-     * Message to display for the game over state.
+     * Every finished match, or null until the first match ends or if the history files could not be opened.
+     * Only used from the matchHistoryWriter thread.
      */
-    private String gameOverMessage;
+    private MatchHistory matchHistory;
+    /**
+     * True once opening the match history has been tried, so a failure is only reported once.
+     * Only used from the matchHistoryWriter thread.
+     */
+    private boolean matchHistoryOpened;
+    /**
+     * Thread that opens the match history and saves matches to it, so the disk is never waited on
+     * while painting. Null until the first match ends.
+     */
+    private ExecutorService matchHistoryWriter;
+    /**
+     * True once the first frame has been drawn.
+     */
+    private boolean firstFrameDrawn;
+    /**
+     * True once the current match has been added to the history, so rewinding past the end does not add it twice.
+     */
+    private boolean matchRecorded;
 
     /**
      * Sets up the default game state ready to start.
@@ -76,14 +132,18 @@ public class GamePanel extends JPanel implements ActionListener, MouseListener {
      */
     public GamePanel(Game game) {
         this.game = game;
-        this.instance = this;
         setPreferredSize(new Dimension(500,500));
         setBackground(new Color(199, 112, 27));
 
-        map = new Map(this);
-        List<AIWaypoint> waypointList = map.getWaypoints();
-        enemyUnitManager = new EnemyUnitManager(waypointList.get(waypointList.size()-1).getPosition(),waypointList);
+        simulation = new GameSimulation();
+        simulation.setListener(this);
+        enemyRenderer = new EnemyRenderer(simulation.getMap().getWidthInTiles(), simulation.getMap().getHeightInTiles());
+        particleSystem = new ParticleSystem();
+        palette = new Palette();
+        spriteAtlas = new SpriteAtlas(palette);
 
+        rewindBuffer = new RewindBuffer(REWIND_RETENTION_SECONDS * 1000 / TIME_BETWEEN_UPDATES,
+                                        KEYFRAME_INTERVAL_TICKS);
         gameTimer = new Timer(TIME_BETWEEN_UPDATES, this);
         addMouseListener(this);
     }
@@ -101,45 +161,91 @@ public class GamePanel extends JPanel implements ActionListener, MouseListener {
      */
     public void restart() {
         gameState = GameState.Playing;
-        cash = 150;
-        score = 0;
-        baseHealth = 100;
-        game.setScore(score);
-        game.setCash(cash);
-        game.setBaseHealth(baseHealth);
-        map.reset();
-        enemyUnitManager.reset();
+        selectedTower = null;
+        matchRecorded = false;
+        simulation.reset();
+        particleSystem.clear();
+        rewindBuffer.clear();
+        rewindBuffer.onTick(simulation);
     }
 
     /**
-     * Updates the map and enemyUnitManager.
+     * Updates the simulation and the particles, then lets the rewind buffer save a keyframe if one is due.
      */
     public void update() {
         if(gameState == GameState.GameOver) return;
-        map.update(TIME_BETWEEN_UPDATES);
-        enemyUnitManager.update(TIME_BETWEEN_UPDATES);
-        if(enemyUnitManager.hasGameEnded()) {
-            gameState = GameState.GameOver;
-            game.updateOptions();
-            gameOverMessage = "Game Won!";
-        }
+        simulation.update(TIME_BETWEEN_UPDATES);
+        particleSystem.update(TIME_BETWEEN_UPDATES);
+        rewindBuffer.onTick(simulation);
         repaint();
     }
 
+    /**
+     * Gets the game being shown.
+     *
+     * @return The simulation.
+     */
+    public GameSimulation getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * Rewinds the game to an earlier tick and continues from there, discarding everything after it.
+     * Limited to the retention window of the rewind buffer. If a keyframe turns out to be damaged
+     * the game has been reset by the failed restore, so it is restarted.
+     *
+     * @param ticks Number of updates to go back.
+     * @return True if the game was rewound.
+     */
+    public boolean rewind(int ticks) {
+        if(rewindBuffer.getOldestTick() == -1) return false;
+        boolean rewound = rewindBuffer.seek(simulation, Math.max(simulation.getCurrentTick() - ticks, 0));
+        if(rewound) {
+            showRestoredState();
+        } else {
+            // Keyframes can only fail part way through, which leaves the game reset.
+            restart();
+        }
+        return rewound;
+    }
+
+    /**
+     * Applies a player input to the simulation and records it so it can be replayed after rewinding.
+     *
+     * @param inputType One of the GameSimulation INPUT constants.
+     * @param tileX X tile coordinate of the tower.
+     * @param tileY Y tile coordinate of the tower.
+     * @param value Extra value for the input type.
+     * @return True if the input changed the game.
+     */
+    public boolean applyInput(int inputType, int tileX, int tileY, int value) {
+        if(!simulation.applyInput(inputType, tileX, tileY, value)) return false;
+        rewindBuffer.recordInput(simulation.getCurrentTick(), inputType, tileX, tileY, value);
+        return true;
+    }
+
     /**
      * Draws the background colour, the map including towers, the enemies,
-     * and last of all the projectiles on top of everything.
+     * and last of all the projectiles and particles on top of everything.
      *
      * @param g Reference to the Graphics object for rendering.
      */
     public void paint(Graphics g) {
         super.paint(g);
-        map.paint(g);
-        enemyUnitManager.paint(g);
-        map.paintProjectiles(g);
+        simulation.getMap().paint(g, gameState == GameState.PlaceTower, spriteAtlas);
+        simulation.getEnemyUnitManager().paint(g, enemyRenderer, spriteAtlas);
+        simulation.getMap().paintProjectiles(g, spriteAtlas);
+        particleSystem.paint(g, palette);
+        if(selectedTower != null) {
+            selectedTower.paintRange(g);
+        }
         if(gameState == GameState.GameOver) {
             drawGameOverMessage(g);
         }
+        if(!firstFrameDrawn) {
+            firstFrameDrawn = true;
+            game.firstFrameDrawn();
+        }
     }
 
     /**
@@ -150,6 +256,7 @@ public class GamePanel extends JPanel implements ActionListener, MouseListener {
      */
     public void setTowerTypeToPlace(Tower.TowerType type) {
         this.towerTypeToPlace = type;
+        selectedTower = null;
         gameState = GameState.PlaceTower;
         game.updateOptions();
     }
@@ -172,58 +279,176 @@ public class GamePanel extends JPanel implements ActionListener, MouseListener {
     }
 
     /**
-     * Modifies the base health by a specified amount.
-     * If the health drops to 0 it will trigger the game over state.
+     * Shows the new amount of cash.
      *
-     * @param percentChange Amount to remove from the base health.
+     * @param cash The new amount of cash.
      */
-    public void damageBase(int percentChange) {
-        baseHealth = Math.max(baseHealth - percentChange, 0);
+    @Override
+    public void cashChanged(int cash) {
+        game.setCash(cash);
+    }
+
+    /**
+     * Shows the new score.
+     *
+     * @param score The new score.
+     */
+    @Override
+    public void scoreChanged(int score) {
+        game.setScore(score);
+    }
+
+    /**
+     * Shows the new base health.
+     *
+     * @param baseHealth The new base health percent.
+     */
+    @Override
+    public void baseHealthChanged(int baseHealth) {
         game.setBaseHealth(baseHealth);
-        if(baseHealth == 0) {
-            gameState = GameState.GameOver;
-            game.updateOptions();
-            gameOverMessage = "Game Over! You Lost! :(";
-        }
     }
 
     /**
-     * Adds the specified amount of cash and displays it.
+     * Changes to the game over state with a message to say whether the game was won or lost.
      *
-     * @param cashToGain The amount of cash to add.
+     * @param won True if the game was won.
      */
-    public void gainCash(int cashToGain) {
-        cash += cashToGain;
-        game.setCash(cash);
+    @Override
+    public void gameEnded(boolean won) {
+        gameState = GameState.GameOver;
+        gameOverMessage = won ? "Game Won!" : "Game Over! You Lost! :(";
+        recordMatch();
+        game.updateOptions();
     }
 
     /**
-     * Increases the score based on the type of enemy.
+     * Shows the particles for an effect.
      *
-     * @param enemyType Gains score depending on the type of enemy.
-     */
-    public void gainScore(EnemyUnit.EnemyType enemyType) {
-        switch(enemyType) {
-            case Normal:
-            case Fast:
-                score += 1;
-            case Boss:
-                score += 2;
+     * @param effectType One of the GameSimulation EFFECT constants.
+     * @param x X coordinate of the centre of the effect.
+     * @param y Y coordinate of the centre of the effect.
+     * @param radius Radius the effect reaches, or 0 for a small effect.
+     * @param colour Colour of the effect as 0xRRGGBB.
+     */
+    @Override
+    public void effectSpawned(int effectType, int x, int y, int radius, int colour) {
+        particleSystem.spawnEffect(effectType, x, y, radius, colour);
+    }
+
+    /**
+     * Adds the finished match to the match history under the name of the logged in user.
+     * The record is taken from the game here, then saved on the matchHistoryWriter thread so
+     * writing and syncing the log never holds up the game. The writer is started the first time
+     * a match ends rather than while the game is starting.
+     */
+    private void recordMatch() {
+        if(matchRecorded) return;
+        matchRecorded = true;
+        MatchRecord record = MatchRecord.fromGame(simulation, System.getProperty("user.name", "player"));
+        if(matchHistoryWriter == null) {
+            matchHistoryWriter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "MatchHistory");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Every way of quitting ends in System.exit(), which runs this on the way out.
+            Runtime.getRuntime().addShutdownHook(new Thread(this::closeMatchHistory));
+        }
+        matchHistoryWriter.execute(() -> saveMatch(record));
+    }
+
+    /**
+     * Opens the match history if it has not been opened yet and adds a match to it.
+     * Runs on the matchHistoryWriter thread.
+     *
+     * @param record The finished match.
+     */
+    private void saveMatch(MatchRecord record) {
+        if(!matchHistoryOpened) {
+            matchHistoryOpened = true;
+            try {
+                matchHistory = new MatchHistory(Paths.get(MATCH_HISTORY_DIRECTORY));
+            } catch(IOException e) {
+                System.out.println("ERROR: FAILED TO OPEN MATCH HISTORY");
+                e.printStackTrace();
+            }
+        }
+        if(matchHistory == null) return;
+        try {
+            matchHistory.append(record);
+            matchHistory.sync();
+        } catch(IOException e) {
+            System.out.println("ERROR: FAILED TO SAVE MATCH HISTORY");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Waits for any matches still being saved and then closes the match history.
+     * Runs from a shutdown hook.
+     */
+    private void closeMatchHistory() {
+        matchHistoryWriter.execute(() -> {
+            if(matchHistory == null) return;
+            try {
+                matchHistory.close();
+            } catch(IOException e) {
+                System.out.println("ERROR: FAILED TO CLOSE MATCH HISTORY");
+                e.printStackTrace();
+            }
+        });
+        matchHistoryWriter.shutdown();
+        try {
+            matchHistoryWriter.awaitTermination(MATCH_HISTORY_CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        game.setScore(score);
     }
 
     /**
      * Exits the game when Escape is pressed.
+     * F5 quick saves the game and F9 restores the quick save. Backspace rewinds a few seconds.
      *
      * @param keyCode Key that was pressed.
      */
     public void handleInput(int keyCode) {
         if(keyCode == KeyEvent.VK_ESCAPE) {
             System.exit(0);
+        } else if(keyCode == KeyEvent.VK_F5) {
+            if(quickSave == null) quickSave = new GameSnapshot();
+            quickSave.capture(simulation);
+        } else if(keyCode == KeyEvent.VK_F9) {
+            if(quickSave == null) return;
+            if(quickSave.restore(simulation)) {
+                rewindBuffer.clear();
+                rewindBuffer.onTick(simulation);
+                showRestoredState();
+            } else {
+                // A quick save can only fail part way through, which leaves the game reset.
+                restart();
+            }
+        } else if(keyCode == KeyEvent.VK_BACK_SPACE) {
+            rewind(REWIND_STEP_SECONDS * 1000 / TIME_BETWEEN_UPDATES);
         }
     }
 
+    /**
+     * Updates the state and display after the simulation has been replaced by a snapshot or rewound.
+     * Any tower placement in progress or tower selection is cancelled.
+     */
+    private void showRestoredState() {
+        selectedTower = null;
+        // Replaying up to the restored tick spawns effects that already happened.
+        particleSystem.clear();
+        if(simulation.isGameOver()) {
+            gameEnded(simulation.isGameWon());
+        } else {
+            gameState = GameState.Playing;
+            game.updateOptions();
+        }
+        repaint();
+    }
+
     /**
      * Checks if there is enough cash to purchase the specified tower type.
      *
@@ -231,7 +456,7 @@ public class GamePanel extends JPanel implements ActionListener, MouseListener {
      * @return True if the specified tower type can be purchased.
      */
     public boolean canPurchaseTower(Tower.TowerType towerType) {
-        return cash >= getTowerCost(towerType);
+        return simulation.getCash() >= simulation.getTowerCost(towerType);
     }
 
     /**
@@ -241,14 +466,78 @@ public class GamePanel extends JPanel implements ActionListener, MouseListener {
      * @return Amount the specified tower costs.
      */
     public int getTowerCost(Tower.TowerType towerType) {
-        if(towerType == Tower.TowerType.Normal) {
-            return Tower.NORMAL_COST;
-        } else if(towerType == Tower.TowerType.AoE) {
-            return Tower.AOE_COST;
-        } else if(towerType == Tower.TowerType.Slow) {
-            return Tower.SLOW_COST;
+        return simulation.getTowerCost(towerType);
+    }
+
+    /**
+     * Gets the tower that is currently selected.
+     *
+     * @return The selected tower, or null if none is selected.
+     */
+    public Tower getSelectedTower() {
+        return selectedTower;
+    }
+
+    /**
+     * Gets the cost to upgrade a tower to the next level. Each level costs the
+     * price of the tower multiplied by the level it is being upgraded from.
+     *
+     * @param tower The tower to check.
+     * @return The cost of the next upgrade, or 0 if it is already at the maximum level.
+     */
+    public int getUpgradeCost(Tower tower) {
+        return simulation.getUpgradeCost(tower);
+    }
+
+    /**
+     * Gets the cash given back for selling a tower, based on everything spent on buying and upgrading it.
+     *
+     * @param tower The tower to check.
+     * @return Cash gained from selling the tower.
+     */
+    public int getSellValue(Tower tower) {
+        return simulation.getSellValue(tower);
+    }
+
+    /**
+     * Checks if the selected tower can be upgraded and there is enough cash to pay for it.
+     *
+     * @return True if the selected tower can be upgraded.
+     */
+    public boolean canUpgradeSelectedTower() {
+        return selectedTower != null && gameState == GameState.Playing
+                && selectedTower.getLevel() < Tower.MAX_LEVEL && simulation.getCash() >= getUpgradeCost(selectedTower);
+    }
+
+    /**
+     * Upgrades the selected tower if possible and deducts the cost.
+     */
+    public void upgradeSelectedTower() {
+        if(!canUpgradeSelectedTower()) return;
+        applyInput(GameSimulation.INPUT_UPGRADE_TOWER, selectedTower.getPosition().x / Map.BLOCK_SIZE,
+                   selectedTower.getPosition().y / Map.BLOCK_SIZE, 0);
+    }
+
+    /**
+     * Sells the selected tower, gaining back part of what was spent on it.
+     */
+    public void sellSelectedTower() {
+        if(selectedTower == null || gameState != GameState.Playing) return;
+        if(applyInput(GameSimulation.INPUT_SELL_TOWER, selectedTower.getPosition().x / Map.BLOCK_SIZE,
+                      selectedTower.getPosition().y / Map.BLOCK_SIZE, 0)) {
+            selectedTower = null;
         }
-        return 0;
+    }
+
+    /**
+     * Changes the selected tower to the next targeting mode, going back to the first after the last.
+     */
+    public void cycleSelectedTargetingMode() {
+        if(selectedTower == null || !selectedTower.canChangeTargetingMode()) return;
+        int nextMode = (selectedTower.getTargetingMode().ordinal() + 1) % Tower.TargetingMode.values().length;
+        applyInput(GameSimulation.INPUT_TARGETING_MODE, selectedTower.getPosition().x / Map.BLOCK_SIZE,
+                   selectedTower.getPosition().y / Map.BLOCK_SIZE, nextMode);
+        game.updateOptions();
     }
 
     /**
@@ -262,8 +551,8 @@ public class GamePanel extends JPanel implements ActionListener, MouseListener {
     }
 
     /**
-     * Only does anything when in the PlaceTower state.
-     * Will attempt to place the tower at the specified mouse click.
+     * In the Playing state this selects the tower that was clicked on, or clears the selection.
+     * In the PlaceTower state it will attempt to place the tower at the specified mouse click.
      * If it was successfully placed the state changes back to playing,
      * cash is deducted based on the cost of the tower.
      *
@@ -271,14 +560,42 @@ public class GamePanel extends JPanel implements ActionListener, MouseListener {
      */
     @Override
     public void mouseClicked(MouseEvent e) {
-        if(gameState != GameState.PlaceTower) return;
         Position mouseClickPosition = new Position(e.getX(), e.getY());
-        boolean placingSuccess = map.placeTower(mouseClickPosition, towerTypeToPlace);
+        if(gameState == GameState.Playing) {
+            selectedTower = simulation.getMap().getTowerAt(mouseClickPosition);
+            game.updateOptions();
+            return;
+        }
+        if(gameState != GameState.PlaceTower || e.getX() < 0 || e.getY() < 0) return;
+        boolean placingSuccess = applyInput(GameSimulation.INPUT_PLACE_TOWER, e.getX() / Map.BLOCK_SIZE, e.getY() / Map.BLOCK_SIZE,
+                                            towerTypeToPlace.ordinal());
         if(placingSuccess) {
             gameState = GameState.Playing;
-            cash -= getTowerCost(towerTypeToPlace);
-            game.setCash(cash);
+            game.updateOptions();
+        }
+    }
+
+    /**
+     * Places as many towers as can be afforded from a list of positions in one call.
+     * Intended for bots that choose many placements at once. Positions are tried in order,
+     * skipping any that are not open, and stop once there is no longer enough cash for another tower.
+     *
+     * @param positions Positions to try placing towers at.
+     * @param towerType Type of tower to place at every position.
+     * @return The number of towers that were placed.
+     */
+    public int placeTowers(List<Position> positions, Tower.TowerType towerType) {
+        if(gameState == GameState.GameOver) return 0;
+        int towerCost = getTowerCost(towerType);
+        int placed = 0;
+        for(Position position : positions) {
+            if(simulation.getCash() < towerCost) break;
+            if(position.x >= 0 && position.y >= 0 && applyInput(GameSimulation.INPUT_PLACE_TOWER, position.x / Map.BLOCK_SIZE,
+                                                                position.y / Map.BLOCK_SIZE, towerType.ordinal())) {
+                placed++;
+            }
         }
+        return placed;
     }
 
     /**
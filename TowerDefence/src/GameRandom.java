@@ -0,0 +1,74 @@
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * GameRandom class:
+ * A small seeded random number generator (xorshift64*). The whole state is a single
+ * long so the same seed always produces the same game and the state can be saved and restored.
+ */
+public class GameRandom {
+    /**
+     * Current state of the generator. Never 0.
+     */
+    private long state;
+
+    /**
+     * Creates the generator from a seed.
+     *
+     * @param seed Any value to start from.
+     */
+    public GameRandom(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * Restarts the sequence from a seed.
+     *
+     * @param seed Any value to start from.
+     */
+    public void setSeed(long seed) {
+        // Mix the seed so similar seeds do not give similar sequences, and avoid the all zero state.
+        state = seed * 0x9E3779B97F4A7C15L;
+        if(state == 0) state = 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Gets the current state so the generator can be restored later.
+     *
+     * @return The current state.
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Restores a state that was previously returned by getState().
+     *
+     * @param state The state to restore.
+     */
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    /**
+     * Gets the next random number from 0 (inclusive) up to bound (exclusive).
+     *
+     * @param bound The upper limit. Must be positive.
+     * @return A random number in the range.
+     */
+    public int nextInt(int bound) {
+        return (int)((nextLong() >>> 33) % bound);
+    }
+
+    /**
+     * Advances the generator and gets the next 64 bits.
+     *
+     * @return A random long.
+     */
+    public long nextLong() {
+        state ^= state >>> 12;
+        state ^= state << 25;
+        state ^= state >>> 27;
+        return state * 0x2545F4914F6CDD1DL;
+    }
+}
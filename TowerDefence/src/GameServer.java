@@ -0,0 +1,303 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * GameServer class:
+ * Runs the game as a service over TCP where every client that connects gets its own game.
+ * A single network thread uses a Selector to accept clients and read their inputs, so the
+ * number of threads does not grow with the number of clients. A shared scheduler steps every
+ * session once per TIME_BETWEEN_UPDATES, splitting the sessions between a pool with one
+ * thread per processor, and sends each client its state every STATE_INTERVAL_TICKS updates.
+ * See GameSession for the messages.
+ */
+public class GameServer {
+    /**
+     * Port used when none is given.
+     */
+    public static final int DEFAULT_PORT = 7777;
+    /**
+     * Number of updates between state messages sent to each client.
+     */
+    public static final int STATE_INTERVAL_TICKS = 5;
+    /**
+     * Time between printing how the server is keeping up.
+     */
+    private static final int STATS_INTERVAL_SECONDS = 5;
+
+    /**
+     * Port to listen on.
+     */
+    private final int port;
+    /**
+     * Waits for new clients and inputs from connected clients.
+     */
+    private Selector selector;
+    /**
+     * Every connected session. Guarded by this list.
+     */
+    private final List<GameSession> sessions;
+    /**
+     * Copy of the sessions used while stepping, rebuilt only when a session is added or removed.
+     */
+    private GameSession[] stepOrder;
+    /**
+     * True when stepOrder no longer matches the sessions. Guarded by sessions.
+     */
+    private boolean sessionsChanged;
+    /**
+     * Sessions the workers failed to send state to, waiting for the network thread to remove them.
+     */
+    private final ConcurrentLinkedQueue<GameSession> failedSessions;
+    /**
+     * Runs stepAllSessions() at a fixed rate.
+     */
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Threads that step the sessions.
+     */
+    private final ExecutorService workers;
+    /**
+     * One task per worker, each stepping its share of the sessions.
+     */
+    private final List<Callable<Void>> stepTasks;
+    /**
+     * Number of times all sessions have been stepped.
+     */
+    private long tick;
+    /**
+     * Total time spent stepping since the stats were last printed.
+     */
+    private long stepNanos;
+    /**
+     * Longest time spent on one step since the stats were last printed.
+     */
+    private long maxStepNanos;
+    /**
+     * Number of steps since the stats were last printed.
+     */
+    private int stepsSinceStats;
+    /**
+     * Value of System.nanoTime() when the stats were last printed.
+     */
+    private long lastStatsTime;
+
+    /**
+     * Creates the server ready to start.
+     *
+     * @param port Port to listen on.
+     */
+    public GameServer(int port) {
+        this.port = port;
+        sessions = new ArrayList<>();
+        stepOrder = new GameSession[0];
+        sessionsChanged = false;
+        failedSessions = new ConcurrentLinkedQueue<>();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        int workerCount = Runtime.getRuntime().availableProcessors();
+        workers = Executors.newFixedThreadPool(workerCount);
+        stepTasks = new ArrayList<>(workerCount);
+        for(int i = 0; i < workerCount; i++) {
+            final int worker = i;
+            stepTasks.add(() -> {
+                stepShare(worker, workerCount);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Starts stepping sessions and then handles the network on the calling thread until it fails.
+     *
+     * @throws IOException If the port could not be opened.
+     */
+    public void run() throws IOException {
+        selector = Selector.open();
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        System.out.println("Tower Defence server listening on port " + port);
+
+        lastStatsTime = System.nanoTime();
+        scheduler.scheduleAtFixedRate(this::stepAllSessions, GamePanel.TIME_BETWEEN_UPDATES,
+                                      GamePanel.TIME_BETWEEN_UPDATES, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::printStats, STATS_INTERVAL_SECONDS,
+                                      STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        try {
+            while(true) {
+                selector.select();
+                for(SelectionKey key : selector.selectedKeys()) {
+                    if(!key.isValid()) continue;
+                    if(key.isAcceptable()) {
+                        acceptClient(serverChannel);
+                    } else if(key.isReadable()) {
+                        GameSession session = (GameSession)key.attachment();
+                        if(!session.readInputs()) {
+                            key.cancel();
+                            removeSession(session);
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                removeFailedSessions();
+            }
+        } finally {
+            scheduler.shutdownNow();
+            workers.shutdownNow();
+            serverChannel.close();
+        }
+    }
+
+    /**
+     * Gets the number of connected sessions.
+     *
+     * @return The number of sessions.
+     */
+    public int getSessionCount() {
+        synchronized(sessions) {
+            return sessions.size();
+        }
+    }
+
+    /**
+     * Accepts every waiting client and starts a session for each.
+     *
+     * @param serverChannel The channel clients connect to.
+     * @throws IOException If the new connection could not be set up.
+     */
+    private void acceptClient(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            GameSession session = new GameSession(channel);
+            channel.register(selector, SelectionKey.OP_READ, session);
+            synchronized(sessions) {
+                sessions.add(session);
+                sessionsChanged = true;
+            }
+        }
+    }
+
+    /**
+     * Removes every session a worker could not send state to. Runs on the network thread so
+     * the selector key is cancelled by the thread that owns it.
+     */
+    private void removeFailedSessions() {
+        GameSession session;
+        while((session = failedSessions.poll()) != null) {
+            SelectionKey key = session.getChannel().keyFor(selector);
+            if(key != null) key.cancel();
+            removeSession(session);
+        }
+    }
+
+    /**
+     * Closes a session and stops stepping it.
+     *
+     * @param session The session to remove.
+     */
+    private void removeSession(GameSession session) {
+        session.close();
+        synchronized(sessions) {
+            sessions.remove(session);
+            sessionsChanged = true;
+        }
+    }
+
+    /**
+     * Steps every session once, with each worker taking its share, and waits for them all to finish.
+     * Runs on the scheduler thread. If this takes longer than TIME_BETWEEN_UPDATES the scheduler
+     * runs the next step as soon as this one ends, so the game runs slow rather than skipping.
+     */
+    private void stepAllSessions() {
+        long startTime = System.nanoTime();
+        synchronized(sessions) {
+            if(sessionsChanged) {
+                stepOrder = sessions.toArray(new GameSession[0]);
+                sessionsChanged = false;
+            }
+        }
+        try {
+            for(Future<Void> result : workers.invokeAll(stepTasks)) {
+                result.get();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch(ExecutionException e) {
+            System.out.println("ERROR: FAILED TO STEP SESSIONS");
+            e.getCause().printStackTrace();
+        }
+        tick++;
+        long elapsed = System.nanoTime() - startTime;
+        stepNanos += elapsed;
+        maxStepNanos = Math.max(maxStepNanos, elapsed);
+        stepsSinceStats++;
+    }
+
+    /**
+     * Steps every session with an index that falls to this worker. Sessions whose state could
+     * not be sent are queued for the network thread to remove, and the selector is woken so
+     * that happens straight away.
+     *
+     * @param worker Index of the worker.
+     * @param workerCount Total number of workers.
+     */
+    private void stepShare(int worker, int workerCount) {
+        boolean sendState = tick % STATE_INTERVAL_TICKS == 0;
+        GameSession[] currentOrder = stepOrder;
+        for(int i = worker; i < currentOrder.length; i += workerCount) {
+            if(!currentOrder[i].step(GamePanel.TIME_BETWEEN_UPDATES, sendState)) {
+                failedSessions.add(currentOrder[i]);
+                selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Prints the number of sessions and how long stepping them is taking. The step rate is
+     * measured against the time since the last print, since this runs on the scheduler thread
+     * between steps and so is itself delayed when stepping falls behind.
+     */
+    private void printStats() {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastStatsTime) / 1e9;
+        lastStatsTime = now;
+        if(stepsSinceStats == 0) return;
+        System.out.printf("sessions=%d steps/s=%.1f avgStepMs=%.2f maxStepMs=%.2f%n", getSessionCount(),
+                          stepsSinceStats / elapsedSeconds,
+                          stepNanos / 1e6 / stepsSinceStats, maxStepNanos / 1e6);
+        stepNanos = 0;
+        maxStepNanos = 0;
+        stepsSinceStats = 0;
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @param args Optional port to listen on.
+     * @throws IOException If the port could not be opened.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        new GameServer(port).run();
+    }
+}
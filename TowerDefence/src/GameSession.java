@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * GameSession class:
+ * One connected client of the GameServer and the game it is playing.
+ * Inputs read from the client are queued by the server's network thread and applied
+ * at the start of the session's next update, so the game itself is only ever touched
+ * by whichever thread is stepping it.
+ *
+ * Messages from the client are INPUT_MESSAGE_SIZE bytes: the input type as a byte,
+ * then the tile x, tile y and value as ints, the same as GameSimulation.applyInput().
+ * Messages to the client are STATE_MESSAGE_SIZE bytes: the tick as a long, then the
+ * cash, score, base health and number of enemies as ints, then 1 if the game is over.
+ */
+public class GameSession {
+    /**
+     * Size in bytes of each input message sent by the client.
+     */
+    public static final int INPUT_MESSAGE_SIZE = 13;
+    /**
+     * Size in bytes of each state message sent to the client.
+     */
+    public static final int STATE_MESSAGE_SIZE = 25;
+    /**
+     * Most inputs that can be waiting for the next update. Any more are ignored.
+     */
+    private static final int MAX_PENDING_INPUTS = 64;
+    /**
+     * Number of ints stored for each pending input: type, tileX, tileY, value.
+     */
+    private static final int INPUT_STRIDE = 4;
+
+    /**
+     * Connection to the client.
+     */
+    private final SocketChannel channel;
+    /**
+     * The game this client is playing.
+     */
+    private final GameSimulation simulation;
+    /**
+     * Bytes read from the client that have not formed a full message yet.
+     */
+    private final ByteBuffer readBuffer;
+    /**
+     * Reused for every state message. Anything remaining has not been sent yet.
+     */
+    private final ByteBuffer writeBuffer;
+    /**
+     * Inputs waiting for the next update, INPUT_STRIDE ints each. Guarded by this array.
+     */
+    private final int[] pendingInputs;
+    /**
+     * Number of inputs waiting for the next update. Guarded by pendingInputs.
+     */
+    private int pendingInputCount;
+    /**
+     * Copy of the pending inputs so they can be applied outside the lock.
+     */
+    private final int[] applyingInputs;
+    /**
+     * True once the connection has been closed or a write to it has failed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Starts a new game for a client that has just connected.
+     *
+     * @param channel Connection to the client, already in non-blocking mode.
+     */
+    public GameSession(SocketChannel channel) {
+        this.channel = channel;
+        simulation = new GameSimulation();
+        readBuffer = ByteBuffer.allocate(INPUT_MESSAGE_SIZE * MAX_PENDING_INPUTS);
+        writeBuffer = ByteBuffer.allocate(STATE_MESSAGE_SIZE);
+        writeBuffer.flip();
+        pendingInputs = new int[MAX_PENDING_INPUTS * INPUT_STRIDE];
+        applyingInputs = new int[MAX_PENDING_INPUTS * INPUT_STRIDE];
+        pendingInputCount = 0;
+        closed = false;
+    }
+
+    /**
+     * Reads whatever the client has sent and queues every complete input message.
+     * Called by the server's network thread when the connection has data.
+     *
+     * @return False if the client has disconnected.
+     */
+    public boolean readInputs() {
+        try {
+            if(channel.read(readBuffer) == -1) return false;
+        } catch(IOException e) {
+            return false;
+        }
+        readBuffer.flip();
+        synchronized(pendingInputs) {
+            while(readBuffer.remaining() >= INPUT_MESSAGE_SIZE) {
+                int inputType = readBuffer.get();
+                int tileX = readBuffer.getInt(), tileY = readBuffer.getInt(), value = readBuffer.getInt();
+                if(pendingInputCount == MAX_PENDING_INPUTS) continue;
+                int offset = pendingInputCount * INPUT_STRIDE;
+                pendingInputs[offset] = inputType;
+                pendingInputs[offset+1] = tileX;
+                pendingInputs[offset+2] = tileY;
+                pendingInputs[offset+3] = value;
+                pendingInputCount++;
+            }
+        }
+        readBuffer.compact();
+        return true;
+    }
+
+    /**
+     * Applies the queued inputs, updates the game, and sends the state to the client if asked to.
+     *
+     * @param deltaTime Time since last update.
+     * @param sendState True to send the state after updating.
+     * @return False if the state could not be sent because the client has disconnected.
+     */
+    public boolean step(int deltaTime, boolean sendState) {
+        if(closed) return true;
+        int inputCount;
+        synchronized(pendingInputs) {
+            inputCount = pendingInputCount;
+            System.arraycopy(pendingInputs, 0, applyingInputs, 0, inputCount * INPUT_STRIDE);
+            pendingInputCount = 0;
+        }
+        for(int i = 0; i < inputCount; i++) {
+            int offset = i * INPUT_STRIDE;
+            int inputType = applyingInputs[offset];
+            int value = applyingInputs[offset+3];
+            if(isValidInput(inputType, value)) {
+                simulation.applyInput(inputType, applyingInputs[offset+1], applyingInputs[offset+2], value);
+            }
+        }
+        simulation.update(deltaTime);
+        return !sendState || sendState();
+    }
+
+    /**
+     * Closes the connection. The session is not stepped again.
+     */
+    public void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch(IOException e) {
+            System.out.println("ERROR: FAILED TO CLOSE SESSION");
+        }
+    }
+
+    /**
+     * Checks if the connection has been closed.
+     *
+     * @return True once closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Gets the connection to the client.
+     *
+     * @return The channel.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Gets the game this client is playing.
+     *
+     * @return The simulation.
+     */
+    public GameSimulation getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * Writes the state message to the client without waiting. If the last message was only
+     * partly written its remaining bytes are sent first, and the new state is skipped until
+     * they have all gone, so the client never receives part of a message followed by another.
+     *
+     * @return False if the connection has failed.
+     */
+    private boolean sendState() {
+        try {
+            if(writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+                if(writeBuffer.hasRemaining()) return true;
+            }
+            writeBuffer.clear();
+            writeBuffer.putLong(simulation.getCurrentTick());
+            writeBuffer.putInt(simulation.getCash()).putInt(simulation.getScore()).putInt(simulation.getBaseHealth());
+            writeBuffer.putInt(simulation.getEnemyUnitManager().getActiveEnemies().size());
+            writeBuffer.put((byte)(simulation.isGameOver() ? 1 : 0));
+            writeBuffer.flip();
+            channel.write(writeBuffer);
+            return true;
+        } catch(IOException e) {
+            closed = true;
+            return false;
+        }
+    }
+
+    /**
+     * Checks an input from the client is one the game understands before applying it.
+     *
+     * @param inputType Type of the input.
+     * @param value Extra value for the input type.
+     * @return True if the input can be applied.
+     */
+    static boolean isValidInput(int inputType, int value) {
+        switch(inputType) {
+            case GameSimulation.INPUT_PLACE_TOWER:
+                return value >= 0 && value < Tower.TowerType.values().length;
+            case GameSimulation.INPUT_TARGETING_MODE:
+                return value >= 0 && value < Tower.TargetingMode.values().length;
+            case GameSimulation.INPUT_UPGRADE_TOWER:
+            case GameSimulation.INPUT_SELL_TOWER:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * GameSimulation class:
+ * Holds everything needed to play a game without anything to do with Swing:
+ * the map with its towers, the enemies, and the cash, score and base health.
+ * This is the context for one game. Everything in the game is given it, or the
+ * parts of it they need, when they are created, and nothing is shared between
+ * games, so any number of games can run in the same program at once.
+ * The GamePanel shows one of these.
+ */
+public class GameSimulation {
+    /**
+     * Input that places a tower. Value: tower type ordinal.
+     */
+    public static final int INPUT_PLACE_TOWER = 1;
+    /**
+     * Input that upgrades a tower. Value: not used.
+     */
+    public static final int INPUT_UPGRADE_TOWER = 2;
+    /**
+     * Input that sells a tower. Value: not used.
+     */
+    public static final int INPUT_SELL_TOWER = 3;
+    /**
+     * Input that changes the targeting mode of a tower. Value: targeting mode ordinal.
+     */
+    public static final int INPUT_TARGETING_MODE = 4;
+    /**
+     * Effect for a projectile hitting an enemy.
+     */
+    public static final int EFFECT_IMPACT = 1;
+    /**
+     * Effect for an explosion that damages everything within its radius.
+     */
+    public static final int EFFECT_EXPLOSION = 2;
+    /**
+     * Effect for an enemy being slowed.
+     */
+    public static final int EFFECT_SLOW = 3;
+    /**
+     * Cash available at the start of a game.
+     */
+    public static final int STARTING_CASH = 150;
+    /**
+     * Base health percent at the start of a game.
+     */
+    public static final int STARTING_BASE_HEALTH = 100;
+
+    /**
+     * Reference to the Map for managing the towers and scene elements.
+     */
+    private Map map;
+    /**
+     * Reference to the manager responsible for everything to do with enemies.
+     */
+    private EnemyUnitManager enemyUnitManager;
+    /**
+     * Told about changes to show to the player, or null if nothing is shown.
+     */
+    private GameListener listener;
+    /**
+     * Amount of cash remaining.
+     */
+    private int cash;
+    /**
+     * Amount of score that has been gained.
+     */
+    private int score;
+    /**
+     * Current total base health percent.
+     */
+    private int baseHealth;
+    /**
+     * Number of updates since the game started.
+     */
+    private long currentTick;
+    /**
+     * True once the game has been won or lost.
+     */
+    private boolean gameOver;
+
+    /**
+     * Creates the default map and enemy manager and starts a new game.
+     */
+    public GameSimulation() {
+        this(null);
+    }
+
+    /**
+     * Creates the map from the supplied data and the enemy manager, and starts a new game.
+     *
+     * @param mapData Rows of the map to play, or null for the default map.
+     */
+    public GameSimulation(String[] mapData) {
+        map = mapData == null ? new Map(this) : new Map(this, mapData);
+        List<AIWaypoint> waypointList = map.getWaypoints();
+        enemyUnitManager = new EnemyUnitManager(this, waypointList.get(waypointList.size()-1).getPosition(),
+                                                waypointList, map.getDistanceField());
+        reset();
+    }
+
+    /**
+     * Sets the listener to tell about changes.
+     *
+     * @param listener The listener, or null to stop telling anything.
+     */
+    public void setListener(GameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Resets all data back to defaults and starts a new game.
+     */
+    public void reset() {
+        cash = STARTING_CASH;
+        score = 0;
+        baseHealth = STARTING_BASE_HEALTH;
+        currentTick = 0;
+        gameOver = false;
+        map.reset();
+        enemyUnitManager.reset();
+        notifyAllChanged();
+    }
+
+    /**
+     * Updates the map and enemyUnitManager. Does nothing once the game is over.
+     *
+     * @param deltaTime Time since last update.
+     */
+    public void update(int deltaTime) {
+        if(gameOver) return;
+        map.update(deltaTime);
+        enemyUnitManager.update(deltaTime);
+        currentTick++;
+        if(!gameOver && enemyUnitManager.hasGameEnded()) {
+            gameOver = true;
+            if(listener != null) listener.gameEnded(true);
+        }
+    }
+
+    /**
+     * Applies a player input to a tower tile. All changes made by the player to the game go
+     * through this method, so a list of inputs with their ticks is enough to replay a game.
+     *
+     * @param inputType One of the INPUT constants.
+     * @param tileX X tile coordinate of the tower.
+     * @param tileY Y tile coordinate of the tower.
+     * @param value Extra value for the input type.
+     * @return True if the input changed the game.
+     */
+    public boolean applyInput(int inputType, int tileX, int tileY, int value) {
+        if(gameOver) return false;
+        Position tilePosition = new Position(tileX * Map.BLOCK_SIZE, tileY * Map.BLOCK_SIZE);
+        Tower tower = map.getTowerAt(tilePosition);
+        boolean applied = false;
+        switch(inputType) {
+            case INPUT_PLACE_TOWER:
+                Tower.TowerType towerType = Tower.TowerType.values()[value];
+                if(cash >= getTowerCost(towerType) && map.placeTower(tilePosition, towerType)) {
+                    cash -= getTowerCost(towerType);
+                    applied = true;
+                }
+                break;
+            case INPUT_UPGRADE_TOWER:
+                if(tower != null && tower.getLevel() < Tower.MAX_LEVEL && cash >= getUpgradeCost(tower)) {
+                    int upgradeCost = getUpgradeCost(tower);
+                    if(map.upgradeTower(tower)) {
+                        cash -= upgradeCost;
+                        applied = true;
+                    }
+                }
+                break;
+            case INPUT_SELL_TOWER:
+                if(tower != null) {
+                    int sellValue = getSellValue(tower);
+                    if(map.sellTower(tower)) {
+                        cash += sellValue;
+                        applied = true;
+                    }
+                }
+                break;
+            case INPUT_TARGETING_MODE:
+                if(tower != null && tower.canChangeTargetingMode()) {
+                    tower.setTargetingMode(Tower.TargetingMode.values()[value]);
+                    applied = true;
+                }
+                break;
+        }
+        if(applied && listener != null) {
+            listener.cashChanged(cash);
+        }
+        return applied;
+    }
+
+    /**
+     * Modifies the base health by a specified amount.
+     * If the health drops to 0 the game is lost.
+     *
+     * @param percentChange Amount to remove from the base health.
+     */
+    public void damageBase(int percentChange) {
+        baseHealth = Math.max(baseHealth - percentChange, 0);
+        if(listener != null) listener.baseHealthChanged(baseHealth);
+        if(baseHealth == 0 && !gameOver) {
+            gameOver = true;
+            if(listener != null) listener.gameEnded(false);
+        }
+    }
+
+    /**
+     * Adds the specified amount of cash.
+     *
+     * @param cashToGain The amount of cash to add.
+     */
+    public void gainCash(int cashToGain) {
+        cash += cashToGain;
+        if(listener != null) listener.cashChanged(cash);
+    }
+
+    /**
+     * Tells the listener about a visual effect. Nothing in the game changes.
+     *
+     * @param effectType One of the EFFECT constants.
+     * @param x X coordinate of the centre of the effect.
+     * @param y Y coordinate of the centre of the effect.
+     * @param radius Radius the effect reaches, or 0 for a small effect.
+     * @param colour Colour of the effect as 0xRRGGBB.
+     */
+    public void spawnEffect(int effectType, int x, int y, int radius, int colour) {
+        if(listener != null) listener.effectSpawned(effectType, x, y, radius, colour);
+    }
+
+    /**
+     * Increases the score based on the type of enemy.
+     *
+     * @param enemyType Gains score depending on the type of enemy.
+     */
+    public void gainScore(EnemyUnit.EnemyType enemyType) {
+        gainScore(enemyType, 1);
+    }
+
+    /**
+     * Increases the score for a number of kills of the same type of enemy at once.
+     *
+     * @param enemyType Gains score depending on the type of enemy.
+     * @param kills Number of enemies of that type that were killed.
+     */
+    public void gainScore(EnemyUnit.EnemyType enemyType, int kills) {
+        switch(enemyType) {
+            case Normal:
+            case Fast:
+                score += kills;
+            case Boss:
+                score += 2 * kills;
+        }
+        if(listener != null) listener.scoreChanged(score);
+    }
+
+    /**
+     * Gets the cost of the specified tower.
+     *
+     * @param towerType Type of the tower to get a cost for.
+     * @return Amount the specified tower costs.
+     */
+    public int getTowerCost(Tower.TowerType towerType) {
+        if(towerType == Tower.TowerType.Normal) {
+            return Tower.NORMAL_COST;
+        } else if(towerType == Tower.TowerType.AoE) {
+            return Tower.AOE_COST;
+        } else if(towerType == Tower.TowerType.Slow) {
+            return Tower.SLOW_COST;
+        } else if(towerType == Tower.TowerType.Burn) {
+            return Tower.BURN_COST;
+        } else if(towerType == Tower.TowerType.Poison) {
+            return Tower.POISON_COST;
+        } else if(towerType == Tower.TowerType.Support) {
+            return Tower.SUPPORT_COST;
+        } else if(towerType == Tower.TowerType.Shred) {
+            return Tower.SHRED_COST;
+        } else if(towerType == Tower.TowerType.Stun) {
+            return Tower.STUN_COST;
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the cost to upgrade a tower to the next level. Each level costs the
+     * price of the tower multiplied by the level it is being upgraded from.
+     *
+     * @param tower The tower to check.
+     * @return The cost of the next upgrade, or 0 if it is already at the maximum level.
+     */
+    public int getUpgradeCost(Tower tower) {
+        if(tower.getLevel() >= Tower.MAX_LEVEL) return 0;
+        return getTowerCost(tower.getTowerType()) * tower.getLevel();
+    }
+
+    /**
+     * Gets the cash given back for selling a tower, based on everything spent on buying and upgrading it.
+     *
+     * @param tower The tower to check.
+     * @return Cash gained from selling the tower.
+     */
+    public int getSellValue(Tower tower) {
+        int totalSpent = getTowerCost(tower.getTowerType());
+        for(int level = 1; level < tower.getLevel(); level++) {
+            totalSpent += getTowerCost(tower.getTowerType()) * level;
+        }
+        return totalSpent * Tower.SELL_PERCENT / 100;
+    }
+
+    /**
+     * Gets the map with all the towers.
+     *
+     * @return The map.
+     */
+    public Map getMap() {
+        return map;
+    }
+
+    /**
+     * Gets the manager responsible for everything to do with enemies.
+     *
+     * @return The enemy unit manager.
+     */
+    public EnemyUnitManager getEnemyUnitManager() {
+        return enemyUnitManager;
+    }
+
+    /**
+     * Gets the amount of cash remaining.
+     *
+     * @return The cash.
+     */
+    public int getCash() {
+        return cash;
+    }
+
+    /**
+     * Gets the amount of score that has been gained.
+     *
+     * @return The score.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Gets the current total base health percent.
+     *
+     * @return The base health.
+     */
+    public int getBaseHealth() {
+        return baseHealth;
+    }
+
+    /**
+     * Gets the number of updates since the game started.
+     *
+     * @return The current tick.
+     */
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Checks if the game has been won or lost.
+     *
+     * @return True once the game is over.
+     */
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    /**
+     * Checks if the game was won. Only meaningful once the game is over.
+     *
+     * @return True if the base survived.
+     */
+    public boolean isGameWon() {
+        return gameOver && baseHealth > 0;
+    }
+
+    /**
+     * Writes the full game state to a snapshot. The layout hash of the map comes first so the
+     * snapshot is only ever restored onto the same map. Enemies are written before the towers
+     * so that towers and projectiles can refer to enemies by their snapshot index.
+     *
+     * @param buffer Buffer to write to.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(map.getLayoutHash());
+        buffer.putLong(currentTick).putInt(cash).putInt(score).putInt(baseHealth);
+        buffer.put((byte)(gameOver ? 1 : 0));
+        enemyUnitManager.writeTo(buffer);
+        map.writeTo(buffer, enemyUnitManager);
+    }
+
+    /**
+     * Replaces the full game state with the state written by writeTo().
+     * Nothing is changed if the snapshot was taken on a different map. If the snapshot turns out
+     * to be incomplete or a tower cannot be placed once the state has started changing, the game
+     * is reset to a new game, so it is never left with a mix of the old and restored state.
+     *
+     * @param buffer Buffer to read from.
+     * @return True if the state was restored.
+     * @throws BufferUnderflowException If the snapshot ends early. The game has been reset.
+     */
+    public boolean readFrom(ByteBuffer buffer) {
+        if(buffer.getInt() != map.getLayoutHash()) {
+            System.out.println("ERROR: SNAPSHOT IS FROM A DIFFERENT MAP");
+            return false;
+        }
+        boolean restored = false;
+        try {
+            currentTick = buffer.getLong();
+            cash = buffer.getInt();
+            score = buffer.getInt();
+            baseHealth = buffer.getInt();
+            gameOver = buffer.get() != 0;
+            enemyUnitManager.readFrom(buffer);
+            restored = map.readFrom(buffer, enemyUnitManager);
+        } finally {
+            if(!restored) {
+                reset();
+            }
+        }
+        notifyAllChanged();
+        return restored;
+    }
+
+    /**
+     * Tells the listener about the current cash, score and base health.
+     */
+    private void notifyAllChanged() {
+        if(listener == null) return;
+        listener.scoreChanged(score);
+        listener.cashChanged(cash);
+        listener.baseHealthChanged(baseHealth);
+    }
+}
@@ -0,0 +1,159 @@
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * GameSnapshot class:
+ * Holds a compact binary copy of the full game state. Each class writes and reads its own
+ * fields explicitly into a ByteBuffer that is allocated once and reused for every capture,
+ * so taking a snapshot mid game does not allocate. The data starts with a magic number and
+ * a version so data from an older layout is rejected instead of being misread.
+ */
+public class GameSnapshot {
+    /**
+     * Marks the start of snapshot data ("TDSS").
+     */
+    public static final int MAGIC = 0x54445353;
+    /**
+     * Version of the layout. Must be increased whenever any writeTo() method changes.
+     */
+    public static final short VERSION = 7;
+    /**
+     * Starting size of the buffer. It doubles if a snapshot ever needs more.
+     */
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /**
+     * Buffer that snapshots are written into.
+     */
+    private ByteBuffer buffer;
+    /**
+     * Number of bytes used by the current snapshot, or 0 if nothing has been captured.
+     */
+    private int size;
+    /**
+     * Reused to work out checksums.
+     */
+    private final CRC32 crc;
+
+    /**
+     * Creates an empty snapshot with the buffer already allocated.
+     */
+    public GameSnapshot() {
+        buffer = ByteBuffer.allocate(DEFAULT_CAPACITY);
+        size = 0;
+        crc = new CRC32();
+    }
+
+    /**
+     * Creates a snapshot from bytes previously returned by toByteArray().
+     *
+     * @param data The snapshot data.
+     */
+    public GameSnapshot(byte[] data) {
+        this();
+        load(data, data.length);
+    }
+
+    /**
+     * Replaces the captured state with bytes previously returned by toByteArray(), reusing the buffer.
+     *
+     * @param data The snapshot data.
+     * @param length Number of bytes of data to use.
+     */
+    public void load(byte[] data, int length) {
+        if(length > buffer.capacity()) {
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        buffer.put(data, 0, length);
+        size = length;
+    }
+
+    /**
+     * Captures the full state of the game, replacing anything captured before.
+     *
+     * @param simulation The game to capture.
+     */
+    public void capture(GameSimulation simulation) {
+        while(true) {
+            buffer.clear();
+            try {
+                buffer.putInt(MAGIC).putShort(VERSION);
+                simulation.writeTo(buffer);
+                size = buffer.position();
+                return;
+            } catch(BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * Replaces the full state of the game with the captured state.
+     * If the snapshot is found to be damaged after the game has started changing, the game is
+     * reset to a new game rather than left part restored.
+     *
+     * @param simulation The game to restore into.
+     * @return True if the snapshot was restored, or false if there was nothing valid to restore.
+     */
+    public boolean restore(GameSimulation simulation) {
+        if(size == 0) return false;
+        ByteBuffer reader = buffer.duplicate();
+        reader.position(0);
+        reader.limit(size);
+        try {
+            if(reader.getInt() != MAGIC) {
+                System.out.println("ERROR: NOT A SNAPSHOT");
+                return false;
+            }
+            short version = reader.getShort();
+            if(version != VERSION) {
+                System.out.println("ERROR: SNAPSHOT VERSION " + version + " IS NOT SUPPORTED");
+                return false;
+            }
+            return simulation.readFrom(reader);
+        } catch(BufferUnderflowException | IndexOutOfBoundsException e) {
+            System.out.println("ERROR: SNAPSHOT IS INCOMPLETE");
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of bytes used by the captured state.
+     *
+     * @return Size of the snapshot, or 0 if nothing has been captured.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gets a checksum of the captured state. Two games in the same state always give the same
+     * checksum, so comparing them is a cheap way to find when lockstep games stop matching.
+     *
+     * @return CRC32 of the snapshot data, or 0 if nothing has been captured.
+     */
+    public int getChecksum() {
+        crc.reset();
+        crc.update(buffer.array(), 0, size);
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Copies the captured state out so it can be saved.
+     *
+     * @return A copy of the snapshot data.
+     */
+    public byte[] toByteArray() {
+        byte[] data = new byte[size];
+        ByteBuffer reader = buffer.duplicate();
+        reader.position(0);
+        reader.get(data);
+        return data;
+    }
+}
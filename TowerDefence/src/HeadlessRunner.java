@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * HeadlessRunner class:
+ * Plays whole games without a window as fast as possible and prints the result of each
+ * as one line of JSON, for scripts and nightly runs to read. A game is a map, the waves,
+ * and a plan of tower inputs to apply on given updates. Nothing here touches Swing or AWT,
+ * so it starts quickly and runs on machines without a display.
+ *
+ * Usage: java HeadlessRunner [--map file] [--waves file|endless] [--plan file]
+ *                            [--seed n | --seeds file] [--max-ticks n]
+ * The plan file has one input per line as: tick place|upgrade|sell|target tileX tileY [value]
+ * where value is a Tower.TowerType name for place and a Tower.TargetingMode name for target.
+ * Lines starting with # are ignored in the plan and seeds files. Seeds only change the waves
+ * when endless waves are used; wave scripts play the same for every seed.
+ */
+public class HeadlessRunner {
+    /**
+     * Updates a game may run before it is stopped as a timeout.
+     */
+    private static final long DEFAULT_MAX_TICKS = 1000000;
+    /**
+     * Seed used when none are given.
+     */
+    private static final long DEFAULT_SEED = 2021;
+
+    /**
+     * Runs every seed and prints a line of JSON for each.
+     * Exits with 2 for bad arguments and 1 if a file could not be loaded.
+     *
+     * @param args See the class description.
+     */
+    public static void main(String[] args) {
+        String mapFile = null, wavesFile = null, planFile = null, seedsFile = null;
+        long seed = DEFAULT_SEED, maxTicks = DEFAULT_MAX_TICKS;
+        try {
+            for(int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if(i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + option);
+                String value = args[++i];
+                switch(option) {
+                    case "--map": mapFile = value; break;
+                    case "--waves": wavesFile = value; break;
+                    case "--plan": planFile = value; break;
+                    case "--seed": seed = Long.parseLong(value); break;
+                    case "--seeds": seedsFile = value; break;
+                    case "--max-ticks": maxTicks = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+        } catch(IllegalArgumentException e) {
+            System.out.println("ERROR: " + e.getMessage());
+            System.out.println("Usage: java HeadlessRunner [--map file] [--waves file|endless] [--plan file]"
+                               + " [--seed n | --seeds file] [--max-ticks n]");
+            System.exit(2);
+        }
+
+        String[] mapData = null;
+        if(mapFile != null) {
+            mapData = Map.loadMapData(mapFile);
+            if(mapData == null) System.exit(1);
+        }
+        boolean endless = "endless".equals(wavesFile);
+        String waveScript = null;
+        List<long[]> plan = new ArrayList<>();
+        List<Long> seeds = new ArrayList<>();
+        try {
+            if(wavesFile != null && !endless) waveScript = Files.readString(Paths.get(wavesFile));
+            if(planFile != null) plan = loadPlan(planFile);
+            if(seedsFile != null) {
+                for(String line : Files.readAllLines(Paths.get(seedsFile))) {
+                    if(!line.isBlank() && !line.trim().startsWith("#")) seeds.add(Long.parseLong(line.trim()));
+                }
+            } else {
+                seeds.add(seed);
+            }
+        } catch(IOException | IllegalArgumentException e) {
+            System.out.println("ERROR LOADING RUN: " + e.getMessage());
+            System.exit(1);
+        }
+
+        for(long runSeed : seeds) {
+            GameSimulation simulation = new GameSimulation(mapData);
+            if(endless) {
+                simulation.getEnemyUnitManager().setEndlessWaves(runSeed);
+            } else {
+                simulation.getEnemyUnitManager().setWaveScript(waveScript);
+            }
+            simulation.reset();
+            System.out.println(run(simulation, plan, runSeed, maxTicks));
+        }
+    }
+
+    /**
+     * Reads a plan of inputs and sorts them by the update they are applied on.
+     *
+     * @param filePath Path to the plan file.
+     * @return Each input as tick, input type, tileX, tileY, value.
+     * @throws IOException If the file could not be read.
+     * @throws IllegalArgumentException If a line is not a valid input.
+     */
+    private static List<long[]> loadPlan(String filePath) throws IOException {
+        List<long[]> plan = new ArrayList<>();
+        List<String> lines = Files.readAllLines(Paths.get(filePath));
+        for(int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if(line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\s+");
+            if(parts.length < 4) {
+                throw new IllegalArgumentException(filePath + ":" + (i+1) + " needs tick, action, tileX and tileY");
+            }
+            int inputType, value = 0;
+            switch(parts[1]) {
+                case "place":
+                    inputType = GameSimulation.INPUT_PLACE_TOWER;
+                    value = Tower.TowerType.valueOf(parts.length > 4 ? parts[4] : "Normal").ordinal();
+                    break;
+                case "upgrade": inputType = GameSimulation.INPUT_UPGRADE_TOWER; break;
+                case "sell": inputType = GameSimulation.INPUT_SELL_TOWER; break;
+                case "target":
+                    if(parts.length < 5) throw new IllegalArgumentException(filePath + ":" + (i+1) + " needs a mode");
+                    inputType = GameSimulation.INPUT_TARGETING_MODE;
+                    value = Tower.TargetingMode.valueOf(parts[4]).ordinal();
+                    break;
+                default:
+                    throw new IllegalArgumentException(filePath + ":" + (i+1) + " unknown action " + parts[1]);
+            }
+            plan.add(new long[] { Long.parseLong(parts[0]), inputType,
+                                  Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), value });
+        }
+        plan.sort((a, b) -> Long.compare(a[0], b[0]));
+        return plan;
+    }
+
+    /**
+     * Plays one game to the end, applying the plan as the updates are reached.
+     *
+     * @param simulation The game to play, already reset.
+     * @param plan Inputs sorted by tick.
+     * @param seed Seed of the run, to include in the result.
+     * @param maxTicks Updates to run before giving up.
+     * @return The result as a line of JSON.
+     */
+    private static String run(GameSimulation simulation, List<long[]> plan, long seed, long maxTicks) {
+        Map map = simulation.getMap();
+        List<EnemyUnit> enemies = simulation.getEnemyUnitManager().getActiveEnemies();
+        int nextInput = 0, peakEnemies = 0, peakProjectiles = 0, peakTowers = 0;
+        long startTime = System.nanoTime();
+        while(!simulation.isGameOver() && simulation.getCurrentTick() < maxTicks) {
+            while(nextInput < plan.size() && plan.get(nextInput)[0] <= simulation.getCurrentTick()) {
+                long[] input = plan.get(nextInput++);
+                simulation.applyInput((int)input[1], (int)input[2], (int)input[3], (int)input[4]);
+            }
+            simulation.update(GamePanel.TIME_BETWEEN_UPDATES);
+
+            int projectiles = 0;
+            for(Tower tower : map.getActiveTowers()) {
+                projectiles += tower.getProjectileCount();
+            }
+            peakEnemies = Math.max(peakEnemies, enemies.size());
+            peakProjectiles = Math.max(peakProjectiles, projectiles);
+            peakTowers = Math.max(peakTowers, map.getActiveTowers().size());
+        }
+        double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+
+        String outcome = !simulation.isGameOver() ? "timeout" : simulation.isGameWon() ? "won" : "lost";
+        return String.format(Locale.ROOT, "{\"seed\":%d,\"outcome\":\"%s\",\"score\":%d,\"baseHealth\":%d,"
+                                          + "\"cash\":%d,\"ticks\":%d,\"ticksPerSecond\":%.1f,\"peakEnemies\":%d,"
+                                          + "\"peakProjectiles\":%d,\"peakTowers\":%d}",
+                             seed, outcome, simulation.getScore(), simulation.getBaseHealth(), simulation.getCash(),
+                             simulation.getCurrentTick(), simulation.getCurrentTick() / seconds, peakEnemies,
+                             peakProjectiles, peakTowers);
+    }
+}
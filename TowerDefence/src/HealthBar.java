@@ -7,9 +7,15 @@ import java.awt.*;
  * HealthBar class:
  * Represents a simple visual percent bar with green to
  * show how much is remaining and red to show how much
- * has been lost.
+ * has been lost. The bar is rounded up to one of STEPS
+ * lengths so each length can be kept in the sprite atlas.
  */
-public class HealthBar extends Rectangle {
+public class HealthBar extends Rectangle implements SpriteRenderer {
+    /**
+     * Number of lengths the green part of the bar can have, not counting empty.
+     */
+    public static final int STEPS = 25;
+
     /**
      * A number from 0 to 100 representing the percent.
      */
@@ -36,19 +42,42 @@ public class HealthBar extends Rectangle {
         this.percent = percent;
     }
 
+    /**
+     * Gets the percent rounded up to a step, so any health left still shows some green.
+     *
+     * @return Number of steps from 0 to STEPS.
+     */
+    public int getStep() {
+        return (Math.max(percent, 0) * STEPS + 99) / 100;
+    }
+
+    /**
+     * Draws the bar by copying the strip for its step from the sprite atlas.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param spriteAtlas Atlas to copy the sprite from.
+     */
+    public void paint(Graphics g, SpriteAtlas spriteAtlas) {
+        // The border is drawn one pixel past the width and height.
+        spriteAtlas.draw(g, SpriteAtlas.key(SpriteAtlas.SPRITE_HEALTH_BAR, 0, getStep() | width << 8 | height << 20),
+                         position.x, position.y, width + 1, height + 1, this);
+    }
+
     /**
      * Draws a filled red background to represent the missing health,
-     * then draws a percent based bar for the current health as green,
-     * and puts a black border around it.
+     * then draws a step based bar for the current health as green,
+     * and puts a black border around it, for the sprite atlas.
      *
      * @param g Reference to the Graphics object for rendering.
+     * @param palette Colours to draw with.
      */
-    public void paint(Graphics g) {
+    @Override
+    public void renderSprite(Graphics g, Palette palette) {
         g.setColor(Color.RED);
-        g.fillRect(position.x, position.y, width, height);
+        g.fillRect(0, 0, width, height);
         g.setColor(Color.GREEN);
-        g.fillRect(position.x, position.y, (int)(width*(percent/100.0)), height);
+        g.fillRect(0, 0, width * getStep() / STEPS, height);
         g.setColor(Color.BLACK);
-        g.drawRect(position.x, position.y, width, height);
+        g.drawRect(0, 0, width, height);
     }
 }
@@ -0,0 +1,98 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * InMemoryLockstepChannel class:
+ * Connects two LockstepSessions in the same process, used to check that two games kept in
+ * lockstep stay identical. Messages can be held back for a number of steps to act like a
+ * slow connection. Both ends must be used from the same thread.
+ */
+public class InMemoryLockstepChannel implements LockstepChannel {
+    /**
+     * Messages sent by the other end that have not been received.
+     */
+    private final ArrayDeque<byte[]> incoming;
+    /**
+     * Step when each incoming message can be received.
+     */
+    private final ArrayDeque<Long> incomingDueStep;
+    /**
+     * Number of steps a message is held back before it can be received.
+     */
+    private final int latencySteps;
+    /**
+     * The other end of the channel.
+     */
+    private InMemoryLockstepChannel otherEnd;
+    /**
+     * Number of times advanceStep() has been called.
+     */
+    private long step;
+
+    /**
+     * Creates one end of a channel. Use createPair() to get both ends connected.
+     *
+     * @param latencySteps Number of steps a message is held back.
+     */
+    private InMemoryLockstepChannel(int latencySteps) {
+        this.latencySteps = latencySteps;
+        incoming = new ArrayDeque<>();
+        incomingDueStep = new ArrayDeque<>();
+        step = 0;
+    }
+
+    /**
+     * Creates both ends of a channel.
+     *
+     * @param latencySteps Number of steps each message is held back before it arrives.
+     * @return The two ends, one for each player.
+     */
+    public static InMemoryLockstepChannel[] createPair(int latencySteps) {
+        InMemoryLockstepChannel first = new InMemoryLockstepChannel(latencySteps);
+        InMemoryLockstepChannel second = new InMemoryLockstepChannel(latencySteps);
+        first.otherEnd = second;
+        second.otherEnd = first;
+        return new InMemoryLockstepChannel[] { first, second };
+    }
+
+    /**
+     * Moves time forward for this end, letting held back messages arrive.
+     */
+    public void advanceStep() {
+        step++;
+    }
+
+    /**
+     * Copies the message to the other end, where it arrives after the latency.
+     *
+     * @param data Message data.
+     * @param length Number of bytes of data to send.
+     * @return Always true.
+     */
+    @Override
+    public boolean send(byte[] data, int length) {
+        otherEnd.incoming.add(Arrays.copyOf(data, length));
+        otherEnd.incomingDueStep.add(otherEnd.step + latencySteps);
+        return true;
+    }
+
+    /**
+     * Gets the oldest message that has arrived.
+     *
+     * @param into Array to copy the message into.
+     * @return Length of the message, or 0 if none has arrived.
+     */
+    @Override
+    public int receive(byte[] into) {
+        if(incoming.isEmpty() || incomingDueStep.peek() > step) {
+            return 0;
+        }
+        incomingDueStep.poll();
+        byte[] message = incoming.poll();
+        System.arraycopy(message, 0, into, 0, message.length);
+        return message.length;
+    }
+}
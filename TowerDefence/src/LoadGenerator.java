@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * LoadGenerator class:
+ * Connects many clients to a GameServer from one thread to see how the server copes.
+ * Each client places a tower as soon as it connects and upgrades it later, then reads
+ * state messages until the time is up. At the end it prints how many state messages
+ * arrived and the longest gap any client saw between two of them.
+ * Large numbers of clients on one machine need the open file limit raised (ulimit -n).
+ */
+public class LoadGenerator {
+    /**
+     * Number of updates after connecting that each client upgrades its tower.
+     */
+    private static final int UPGRADE_AFTER_TICKS = 500;
+
+    /**
+     * Connects the clients and runs them.
+     *
+     * @param args Host, port, number of clients, and number of seconds to run for.
+     * @throws IOException If a client could not connect.
+     */
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : GameServer.DEFAULT_PORT;
+        int clientCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+
+        List<Position> openTiles = new GameSimulation().getMap().getOpenTowerTiles();
+        Selector selector = Selector.open();
+        SocketChannel[] channels = new SocketChannel[clientCount];
+        ByteBuffer[] readBuffers = new ByteBuffer[clientCount];
+        long[] lastMessageTime = new long[clientCount];
+        long[] maxGap = new long[clientCount];
+        boolean[] upgraded = new boolean[clientCount];
+        int[] tileIndex = new int[clientCount];
+        ByteBuffer input = ByteBuffer.allocate(GameSession.INPUT_MESSAGE_SIZE);
+
+        long connectStart = System.nanoTime();
+        for(int i = 0; i < clientCount; i++) {
+            channels[i] = SocketChannel.open(new InetSocketAddress(host, port));
+            channels[i].socket().setTcpNoDelay(true);
+            tileIndex[i] = i % openTiles.size();
+            Position tile = openTiles.get(tileIndex[i]);
+            sendInput(channels[i], input, GameSimulation.INPUT_PLACE_TOWER, tile.x, tile.y,
+                      Tower.TowerType.values()[i % 3].ordinal());
+            channels[i].configureBlocking(false);
+            channels[i].register(selector, SelectionKey.OP_READ, i);
+            readBuffers[i] = ByteBuffer.allocate(GameSession.STATE_MESSAGE_SIZE * 16);
+        }
+        long connectMillis = (System.nanoTime() - connectStart) / 1000000;
+        System.out.println("Connected " + clientCount + " clients in " + connectMillis + "ms");
+
+        long messages = 0, bytes = 0, gameOverClients = 0;
+        long endTime = System.nanoTime() + seconds * 1000000000L;
+        long runStart = System.nanoTime();
+        while(System.nanoTime() < endTime) {
+            selector.select(100);
+            long now = System.nanoTime();
+            for(SelectionKey key : selector.selectedKeys()) {
+                int client = (Integer)key.attachment();
+                ByteBuffer buffer = readBuffers[client];
+                int read = channels[client].read(buffer);
+                if(read == -1) {
+                    key.cancel();
+                    continue;
+                }
+                bytes += read;
+                buffer.flip();
+                while(buffer.remaining() >= GameSession.STATE_MESSAGE_SIZE) {
+                    long tick = buffer.getLong();
+                    buffer.position(buffer.position() + GameSession.STATE_MESSAGE_SIZE - 9);
+                    boolean gameOver = buffer.get() != 0;
+                    messages++;
+                    if(lastMessageTime[client] != 0) {
+                        maxGap[client] = Math.max(maxGap[client], now - lastMessageTime[client]);
+                    }
+                    lastMessageTime[client] = now;
+                    if(!upgraded[client] && (tick >= UPGRADE_AFTER_TICKS || gameOver)) {
+                        upgraded[client] = true;
+                        if(gameOver) gameOverClients++;
+                        Position tile = openTiles.get(tileIndex[client]);
+                        sendInput(channels[client], input, GameSimulation.INPUT_UPGRADE_TOWER, tile.x, tile.y, 0);
+                    }
+                }
+                buffer.compact();
+            }
+            selector.selectedKeys().clear();
+        }
+        double runSeconds = (System.nanoTime() - runStart) / 1e9;
+
+        long worstGap = 0, totalGap = 0;
+        for(int i = 0; i < clientCount; i++) {
+            worstGap = Math.max(worstGap, maxGap[i]);
+            totalGap += maxGap[i];
+            channels[i].close();
+        }
+        double expectedRate = 1000.0 / (GamePanel.TIME_BETWEEN_UPDATES * GameServer.STATE_INTERVAL_TICKS);
+        System.out.printf("messages=%d (%.1f/s per client, expected %.1f) bytes/s=%.0f%n", messages,
+                          messages / runSeconds / clientCount, expectedRate, bytes / runSeconds);
+        System.out.printf("max gap between messages: average %.1fms, worst %.1fms%n",
+                          totalGap / 1e6 / clientCount, worstGap / 1e6);
+        if(gameOverClients > 0) {
+            System.out.println(gameOverClients + " games ended before the upgrade");
+        }
+    }
+
+    /**
+     * Sends one input message. The message is small enough that it is written
+     * straight away even when the connection is not blocking.
+     *
+     * @param channel Connection to send on.
+     * @param input Buffer to reuse for the message.
+     * @param inputType One of the GameSimulation INPUT constants.
+     * @param tileX X tile coordinate for the input.
+     * @param tileY Y tile coordinate for the input.
+     * @param value Extra value for the input type.
+     * @throws IOException If the message could not be sent.
+     */
+    private static void sendInput(SocketChannel channel, ByteBuffer input, int inputType,
+                                  int tileX, int tileY, int value) throws IOException {
+        input.clear();
+        input.put((byte)inputType).putInt(tileX).putInt(tileY).putInt(value);
+        input.flip();
+        while(input.hasRemaining()) {
+            channel.write(input);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * LockstepChannel interface:
+ * Carries LockstepSession messages to the other player. Messages must arrive complete
+ * and in the order they were sent. Neither method may wait for the other player.
+ */
+public interface LockstepChannel {
+    /**
+     * Sends a message to the other player.
+     *
+     * @param data Message data.
+     * @param length Number of bytes of data to send.
+     * @return False if the connection has been lost.
+     */
+    boolean send(byte[] data, int length);
+
+    /**
+     * Gets the next message from the other player if one has arrived.
+     *
+     * @param into Array to copy the message into. Must hold LockstepSession.MAX_MESSAGE_SIZE bytes.
+     * @return Length of the message, 0 if no message is waiting, or -1 if the connection has been lost.
+     */
+    int receive(byte[] into);
+}
@@ -0,0 +1,129 @@
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * LockstepHarness class:
+ * Checks that lockstep co-op keeps two games identical. Two games run in this process
+ * joined by an InMemoryLockstepChannel with some latency, each with a player placing,
+ * upgrading and selling towers, and the second player running slower at times so the
+ * first has to wait. The run passes if no checksums ever differ and both games end in
+ * the same state. A second run changes one game's cash part way through on purpose to
+ * show the desync is found on the very next update.
+ */
+public class LockstepHarness {
+    /**
+     * Number of updates between each scripted input from a player.
+     */
+    private static final int INPUT_INTERVAL_TICKS = 60;
+    /**
+     * The second player skips an update attempt every this many steps to act like a slower machine.
+     */
+    private static final int SLOW_PLAYER_INTERVAL = 7;
+
+    /**
+     * Runs both checks.
+     *
+     * @param args Number of updates to run, input delay, and latency in steps.
+     */
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        int inputDelay = args.length > 1 ? Integer.parseInt(args[1]) : LockstepSession.DEFAULT_INPUT_DELAY_TICKS;
+        int latencySteps = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        boolean matched = run(ticks, inputDelay, latencySteps, -1);
+        boolean desyncFound = run(ticks, inputDelay, latencySteps, ticks / 2);
+        System.out.println(matched && desyncFound ? "PASSED" : "FAILED");
+    }
+
+    /**
+     * Runs two games in lockstep and reports how they compared.
+     *
+     * @param ticks Number of updates to run.
+     * @param inputDelay Input delay for both players.
+     * @param latencySteps Steps each message is held back.
+     * @param breakAtTick Update where the second game is changed behind the session's back, or -1 for none.
+     * @return True if the result was as expected.
+     */
+    private static boolean run(int ticks, int inputDelay, int latencySteps, int breakAtTick) {
+        InMemoryLockstepChannel[] channels = InMemoryLockstepChannel.createPair(latencySteps);
+        LockstepSession first = new LockstepSession(new GameSimulation(), channels[0], inputDelay, true);
+        LockstepSession second = new LockstepSession(new GameSimulation(), channels[1], inputDelay, false);
+        List<Position> openTiles = first.getSimulation().getMap().getOpenTowerTiles();
+        first.start();
+        second.start();
+
+        long startTime = System.nanoTime();
+        int steps = 0, firstStalls = 0, secondStalls = 0;
+        long[] lastInputTick = { -1, -1 };
+        while(first.getSimulation().getCurrentTick() < ticks || second.getSimulation().getCurrentTick() < ticks) {
+            steps++;
+            if(first.getSimulation().getCurrentTick() < ticks) {
+                queueScriptedInput(first, openTiles, 0, lastInputTick);
+                if(!first.advance(GamePanel.TIME_BETWEEN_UPDATES)) firstStalls++;
+            }
+            if(second.getSimulation().getCurrentTick() < ticks && steps % SLOW_PLAYER_INTERVAL != 0) {
+                queueScriptedInput(second, openTiles, 1, lastInputTick);
+                if(!second.advance(GamePanel.TIME_BETWEEN_UPDATES)) secondStalls++;
+                if(second.getSimulation().getCurrentTick() == breakAtTick) {
+                    second.getSimulation().gainCash(1);
+                }
+            }
+            channels[0].advanceStep();
+            channels[1].advanceStep();
+            if(first.isDesynced() && second.isDesynced()) break;
+        }
+        // Let the last checksums arrive.
+        for(int i = 0; i <= latencySteps; i++) {
+            channels[0].advanceStep();
+            channels[1].advanceStep();
+            first.receiveMessages();
+            second.receiveMessages();
+        }
+        long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+
+        GameSnapshot firstSnapshot = new GameSnapshot(), secondSnapshot = new GameSnapshot();
+        firstSnapshot.capture(first.getSimulation());
+        secondSnapshot.capture(second.getSimulation());
+        boolean statesMatch = firstSnapshot.getChecksum() == secondSnapshot.getChecksum();
+        GameSimulation result = first.getSimulation();
+        System.out.printf("%s: ticks=%d,%d stalls=%d,%d towers=%d score=%d cash=%d health=%d in %dms%n",
+                          breakAtTick < 0 ? "normal run" : "broken at " + breakAtTick,
+                          result.getCurrentTick(), second.getSimulation().getCurrentTick(), firstStalls, secondStalls,
+                          result.getMap().getActiveTowers().size(), result.getScore(), result.getCash(),
+                          result.getBaseHealth(), elapsedMillis);
+        if(breakAtTick < 0) {
+            System.out.println("  desync=" + (first.isDesynced() || second.isDesynced()) + " statesMatch=" + statesMatch);
+            return !first.isDesynced() && !second.isDesynced() && statesMatch;
+        }
+        System.out.println("  desync found at " + first.getDesyncTick() + " and " + second.getDesyncTick());
+        // The change happens after the checksum for breakAtTick, so the next update is the first to differ.
+        return first.getDesyncTick() == breakAtTick + 1 && second.getDesyncTick() == breakAtTick + 1;
+    }
+
+    /**
+     * Queues an input from a player on a fixed schedule, with each player using different tiles.
+     *
+     * @param session The player's session.
+     * @param openTiles Tiles where towers can be placed.
+     * @param player Index of the player.
+     * @param lastInputTick Update each player last queued an input on, so waiting does not repeat it.
+     */
+    private static void queueScriptedInput(LockstepSession session, List<Position> openTiles, int player,
+                                           long[] lastInputTick) {
+        long tick = session.getSimulation().getCurrentTick();
+        if(tick % INPUT_INTERVAL_TICKS != player * INPUT_INTERVAL_TICKS / 2 || lastInputTick[player] == tick) return;
+        lastInputTick[player] = tick;
+        int step = (int)(tick / INPUT_INTERVAL_TICKS);
+        Position tile = openTiles.get((step * 5 + player * 11) % openTiles.size());
+        if(step % 4 == 2) {
+            session.queueInput(GameSimulation.INPUT_UPGRADE_TOWER, tile.x, tile.y, 0);
+        } else if(step % 4 == 3) {
+            session.queueInput(GameSimulation.INPUT_SELL_TOWER, tile.x, tile.y, 0);
+        } else {
+            session.queueInput(GameSimulation.INPUT_PLACE_TOWER, tile.x, tile.y,
+                               (step + player) % Tower.TowerType.values().length);
+        }
+    }
+}
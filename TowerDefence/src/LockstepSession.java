@@ -0,0 +1,362 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * LockstepSession class:
+ * Keeps two players' copies of the same game identical by only sending inputs. An input
+ * is not applied straight away but on the update inputDelayTicks later, which gives it time
+ * to reach the other player. Each update, once the other player's inputs for it have arrived,
+ * both games apply the first player's inputs and then the second player's and run the update,
+ * so both do exactly the same work. If the other player's inputs are late the update waits.
+ *
+ * Every message also carries a checksum of the game after an update. When the two players'
+ * checksums for the same update differ the games have stopped matching (a desync), and the
+ * first update where that happened is kept so it can be investigated.
+ *
+ * A message is: the update the inputs are for, the update the checksum is for, the checksum,
+ * the number of inputs, then each input as a type byte and three ints like GameSession uses.
+ */
+public class LockstepSession {
+    /**
+     * Input delay used when none is given. At 20ms per update this hides 60ms of latency.
+     */
+    public static final int DEFAULT_INPUT_DELAY_TICKS = 3;
+    /**
+     * Most inputs one player can make for a single update. Extra inputs are dropped.
+     */
+    public static final int MAX_INPUTS_PER_TICK = 16;
+    /**
+     * Largest message that is ever sent.
+     */
+    public static final int MAX_MESSAGE_SIZE = 13 + MAX_INPUTS_PER_TICK * GameSession.INPUT_MESSAGE_SIZE;
+    /**
+     * Number of updates of inputs and checksums remembered. Must be more than twice the largest delay.
+     */
+    private static final int HISTORY_TICKS = 128;
+    /**
+     * Number of ints stored for each input: type, tileX, tileY, value.
+     */
+    private static final int INPUT_STRIDE = 4;
+
+    /**
+     * The game kept in lockstep.
+     */
+    private final GameSimulation simulation;
+    /**
+     * Connection to the other player.
+     */
+    private final LockstepChannel channel;
+    /**
+     * Number of updates between making an input and it being applied.
+     */
+    private final int inputDelayTicks;
+    /**
+     * True for the player whose inputs are applied first each update.
+     */
+    private final boolean firstPlayer;
+    /**
+     * Used to work out the checksum after each update.
+     */
+    private final GameSnapshot checksumSnapshot;
+    /**
+     * Inputs made by this player that have not been sent yet.
+     */
+    private final int[] unsentInputs;
+    /**
+     * Number of inputs in unsentInputs.
+     */
+    private int unsentInputCount;
+    /**
+     * This player's inputs for each update, indexed by update modulo HISTORY_TICKS.
+     */
+    private final int[][] localInputs;
+    /**
+     * Number of this player's inputs for each update.
+     */
+    private final int[] localInputCount;
+    /**
+     * The other player's inputs for each update, indexed by update modulo HISTORY_TICKS.
+     */
+    private final int[][] remoteInputs;
+    /**
+     * Number of the other player's inputs for each update.
+     */
+    private final int[] remoteInputCount;
+    /**
+     * Update that each entry of remoteInputs is for, or -1 if nothing has arrived.
+     */
+    private final long[] remoteInputTick;
+    /**
+     * This player's checksum after each update.
+     */
+    private final int[] localChecksums;
+    /**
+     * Update that each entry of localChecksums is for, or -1 if none.
+     */
+    private final long[] localChecksumTick;
+    /**
+     * The other player's checksum after each update.
+     */
+    private final int[] remoteChecksums;
+    /**
+     * Update that each entry of remoteChecksums is for, or -1 if none.
+     */
+    private final long[] remoteChecksumTick;
+    /**
+     * First update where the checksums differed, or -1 if they have always matched.
+     */
+    private long desyncTick;
+    /**
+     * True once the connection has been lost.
+     */
+    private boolean disconnected;
+    /**
+     * Reused for each message sent and received.
+     */
+    private final byte[] messageData;
+    /**
+     * Wraps messageData.
+     */
+    private final ByteBuffer message;
+
+    /**
+     * Creates a session for one player. Both players must start from the same game state
+     * and use the same input delay.
+     *
+     * @param simulation The game to keep in lockstep.
+     * @param channel Connection to the other player.
+     * @param inputDelayTicks Number of updates between making an input and it being applied.
+     * @param firstPlayer True for one player and false for the other.
+     */
+    public LockstepSession(GameSimulation simulation, LockstepChannel channel, int inputDelayTicks, boolean firstPlayer) {
+        this.simulation = simulation;
+        this.channel = channel;
+        this.inputDelayTicks = Math.max(1, Math.min(inputDelayTicks, HISTORY_TICKS / 2 - 1));
+        this.firstPlayer = firstPlayer;
+        checksumSnapshot = new GameSnapshot();
+        unsentInputs = new int[MAX_INPUTS_PER_TICK * INPUT_STRIDE];
+        localInputs = new int[HISTORY_TICKS][MAX_INPUTS_PER_TICK * INPUT_STRIDE];
+        localInputCount = new int[HISTORY_TICKS];
+        remoteInputs = new int[HISTORY_TICKS][MAX_INPUTS_PER_TICK * INPUT_STRIDE];
+        remoteInputCount = new int[HISTORY_TICKS];
+        remoteInputTick = new long[HISTORY_TICKS];
+        localChecksums = new int[HISTORY_TICKS];
+        localChecksumTick = new long[HISTORY_TICKS];
+        remoteChecksums = new int[HISTORY_TICKS];
+        remoteChecksumTick = new long[HISTORY_TICKS];
+        Arrays.fill(remoteInputTick, -1);
+        Arrays.fill(localChecksumTick, -1);
+        Arrays.fill(remoteChecksumTick, -1);
+        desyncTick = -1;
+        disconnected = false;
+        messageData = new byte[MAX_MESSAGE_SIZE];
+        message = ByteBuffer.wrap(messageData);
+    }
+
+    /**
+     * Sends empty inputs for the first inputDelayTicks updates so both games can start.
+     * Must be called once before the first advance().
+     */
+    public void start() {
+        long firstTick = simulation.getCurrentTick();
+        for(long tick = firstTick; tick < firstTick + inputDelayTicks; tick++) {
+            sendInputs(tick, -1, 0);
+        }
+    }
+
+    /**
+     * Queues an input from this player. It is applied to both games inputDelayTicks updates later.
+     *
+     * @param inputType One of the GameSimulation INPUT constants.
+     * @param tileX X tile coordinate of the tower.
+     * @param tileY Y tile coordinate of the tower.
+     * @param value Extra value for the input type.
+     * @return False if too many inputs have been made for one update and this one was dropped.
+     */
+    public boolean queueInput(int inputType, int tileX, int tileY, int value) {
+        if(unsentInputCount == MAX_INPUTS_PER_TICK) {
+            return false;
+        }
+        int offset = unsentInputCount * INPUT_STRIDE;
+        unsentInputs[offset] = inputType;
+        unsentInputs[offset+1] = tileX;
+        unsentInputs[offset+2] = tileY;
+        unsentInputs[offset+3] = value;
+        unsentInputCount++;
+        return true;
+    }
+
+    /**
+     * Runs the next update if the other player's inputs for it have arrived.
+     *
+     * @param deltaTime Time for the update. Both players must use the same value.
+     * @return True if the update was run, false if still waiting for the other player.
+     */
+    public boolean advance(int deltaTime) {
+        receiveMessages();
+        long tick = simulation.getCurrentTick();
+        int slot = (int)(tick % HISTORY_TICKS);
+        if(disconnected || remoteInputTick[slot] != tick) {
+            return false;
+        }
+
+        if(firstPlayer) {
+            applyInputs(localInputs[slot], localInputCount[slot]);
+            applyInputs(remoteInputs[slot], remoteInputCount[slot]);
+        } else {
+            applyInputs(remoteInputs[slot], remoteInputCount[slot]);
+            applyInputs(localInputs[slot], localInputCount[slot]);
+        }
+        remoteInputTick[slot] = -1;
+        simulation.update(deltaTime);
+
+        long checksumTick = simulation.getCurrentTick();
+        checksumSnapshot.capture(simulation);
+        int checksum = checksumSnapshot.getChecksum();
+        int checksumSlot = (int)(checksumTick % HISTORY_TICKS);
+        localChecksums[checksumSlot] = checksum;
+        localChecksumTick[checksumSlot] = checksumTick;
+        compareChecksums(checksumTick);
+
+        sendInputs(tick + inputDelayTicks, checksumTick, checksum);
+        return true;
+    }
+
+    /**
+     * Checks if the two games have stopped matching.
+     *
+     * @return True if the checksums for any update have differed.
+     */
+    public boolean isDesynced() {
+        return desyncTick != -1;
+    }
+
+    /**
+     * Gets the first update where the two games stopped matching.
+     *
+     * @return The update, or -1 if they have always matched.
+     */
+    public long getDesyncTick() {
+        return desyncTick;
+    }
+
+    /**
+     * Checks if the connection to the other player has been lost.
+     *
+     * @return True if no more updates can run.
+     */
+    public boolean isDisconnected() {
+        return disconnected;
+    }
+
+    /**
+     * Gets the number of updates between making an input and it being applied.
+     *
+     * @return The input delay.
+     */
+    public int getInputDelayTicks() {
+        return inputDelayTicks;
+    }
+
+    /**
+     * Gets the game kept in lockstep.
+     *
+     * @return The game.
+     */
+    public GameSimulation getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * Applies a list of inputs, skipping any the game does not understand.
+     *
+     * @param inputs Inputs with INPUT_STRIDE ints each.
+     * @param inputCount Number of inputs.
+     */
+    private void applyInputs(int[] inputs, int inputCount) {
+        for(int i = 0; i < inputCount; i++) {
+            int offset = i * INPUT_STRIDE;
+            if(GameSession.isValidInput(inputs[offset], inputs[offset+3])) {
+                simulation.applyInput(inputs[offset], inputs[offset+1], inputs[offset+2], inputs[offset+3]);
+            }
+        }
+    }
+
+    /**
+     * Moves the unsent inputs to the given update and sends them with a checksum.
+     *
+     * @param inputTick Update the inputs are applied on.
+     * @param checksumTick Update the checksum is for, or -1 if there is no checksum.
+     * @param checksum The checksum.
+     */
+    private void sendInputs(long inputTick, long checksumTick, int checksum) {
+        int slot = (int)(inputTick % HISTORY_TICKS);
+        System.arraycopy(unsentInputs, 0, localInputs[slot], 0, unsentInputCount * INPUT_STRIDE);
+        localInputCount[slot] = unsentInputCount;
+
+        message.clear();
+        message.putInt((int)inputTick).putInt((int)checksumTick).putInt(checksum).put((byte)unsentInputCount);
+        for(int i = 0; i < unsentInputCount; i++) {
+            int offset = i * INPUT_STRIDE;
+            message.put((byte)unsentInputs[offset]).putInt(unsentInputs[offset+1])
+                   .putInt(unsentInputs[offset+2]).putInt(unsentInputs[offset+3]);
+        }
+        unsentInputCount = 0;
+        if(!channel.send(messageData, message.position())) {
+            disconnected = true;
+        }
+    }
+
+    /**
+     * Reads every message that has arrived, storing the inputs and checking the checksums.
+     * Called by advance(), and can be called alone to pick up the last checksums once a game has stopped.
+     */
+    public void receiveMessages() {
+        int length;
+        while((length = channel.receive(messageData)) > 0) {
+            message.clear();
+            message.limit(length);
+            long inputTick = message.getInt();
+            long checksumTick = message.getInt();
+            int checksum = message.getInt();
+            int inputCount = Math.min(message.get(), MAX_INPUTS_PER_TICK);
+            int slot = (int)(inputTick % HISTORY_TICKS);
+            for(int i = 0; i < inputCount; i++) {
+                int offset = i * INPUT_STRIDE;
+                remoteInputs[slot][offset] = message.get();
+                remoteInputs[slot][offset+1] = message.getInt();
+                remoteInputs[slot][offset+2] = message.getInt();
+                remoteInputs[slot][offset+3] = message.getInt();
+            }
+            remoteInputCount[slot] = inputCount;
+            remoteInputTick[slot] = inputTick;
+
+            if(checksumTick >= 0) {
+                int checksumSlot = (int)(checksumTick % HISTORY_TICKS);
+                remoteChecksums[checksumSlot] = checksum;
+                remoteChecksumTick[checksumSlot] = checksumTick;
+                compareChecksums(checksumTick);
+            }
+        }
+        if(length < 0) {
+            disconnected = true;
+        }
+    }
+
+    /**
+     * Compares both players' checksums for an update once both are known.
+     *
+     * @param tick The update to compare.
+     */
+    private void compareChecksums(long tick) {
+        int slot = (int)(tick % HISTORY_TICKS);
+        if(localChecksumTick[slot] != tick || remoteChecksumTick[slot] != tick) return;
+        if(localChecksums[slot] != remoteChecksums[slot] && desyncTick == -1) {
+            desyncTick = tick;
+            System.out.println("ERROR: GAMES STOPPED MATCHING AT UPDATE " + tick);
+        }
+    }
+}
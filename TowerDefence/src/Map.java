@@ -1,6 +1,13 @@
 import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.zip.CRC32;
 
 /**
  * Tower Defence
@@ -17,9 +24,14 @@ public class Map {
      */
     public static final int BLOCK_SIZE = 50;
     /**
-     * Map data to load as the map.
+     * When true towers can also be placed on any open floor to build a maze.
+     * Enemies then follow the distance field instead of the waypoints.
      */
-    private static String[] map = { "ETTW  WTTWS",
+    public static final boolean MAZE_MODE = false;
+    /**
+     * Map data used when no other map is given.
+     */
+    private static final String[] DEFAULT_MAP_DATA = { "ETTW  WTTWS",
                                     " .. TT .. ",
                                     " TT .. TT ",
                                     " .. TT .. ",
@@ -30,6 +42,10 @@ public class Map {
                                     " TT .. TT ",
                                     "W  WTTW  W" };
 
+    /**
+     * Map data this map was loaded from.
+     */
+    private String[] mapData;
     /**
      * A 2d grid of all the map objects.
      */
@@ -39,27 +55,56 @@ public class Map {
      */
     private List<AIWaypoint> waypoints;
     /**
-     * All the remaining positions that can have a tower placed on them.
+     * Every cell along the waypoint path in order from the start to the end, or null in maze mode.
+     */
+    private List<Position> pathCells;
+    /**
+     * Distances to the end used for pathing in maze mode, or null when not in maze mode.
      */
-    private List<TowerPlacementObject> openTowerPositions;
+    private DistanceField distanceField;
+    /**
+     * One bit per tile (x+y*width) that is set while the tile is an open tower position.
+     */
+    private BitSet openTowerSlots;
     /**
      * A list of all currently active towers.
      */
     private List<Tower> activeTowers;
     /**
-     * Reference to the gamePanel for passing data.
+     * The active towers that are support towers, so new towers only need checking against these for auras.
+     */
+    private List<Tower> supportTowers;
+    /**
+     * The game this map belongs to, used to give new towers their enemies.
+     */
+    private GameSimulation simulation;
+    /**
+     * Checksum of the map data and mode, so results can be grouped by the map they were played on.
+     */
+    private int layoutHash;
+
+    /**
+     * Initialises and loads the default map ready to use.
+     *
+     * @param simulation The game this map belongs to.
      */
-    private GamePanel gamePanel;
+    public Map(GameSimulation simulation) {
+        this(simulation, DEFAULT_MAP_DATA);
+    }
 
     /**
-     * Initialises and loads the map ready to use.
+     * Initialises and loads a map from the supplied data ready to use.
      *
-     * @param gamePanel Reference to the gamePanel for passing information.
+     * @param simulation The game this map belongs to.
+     * @param mapData Rows of the map in the same format as DEFAULT_MAP_DATA.
      */
-    public Map(GamePanel gamePanel) {
-        this.gamePanel = gamePanel;
-        loadMapFromArray(map);
+    public Map(GameSimulation simulation, String[] mapData) {
+        this.simulation = simulation;
+        this.mapData = mapData;
+        loadMapFromArray(mapData);
+        layoutHash = calculateLayoutHash(mapData);
         activeTowers = new ArrayList<>();
+        supportTowers = new ArrayList<>();
         reset();
     }
 
@@ -68,13 +113,17 @@ public class Map {
      */
     public void reset() {
         activeTowers.clear();
-        openTowerPositions.clear();
+        supportTowers.clear();
+        openTowerSlots.clear();
+        if(MAZE_MODE) {
+            clearMazeTowers();
+        }
 
         for(int y = 0; y < mapObjects[0].length; y++) {
             for(int x = 0; x < mapObjects.length; x++) {
                 if(mapObjects[x][y] instanceof TowerPlacementObject) {
                     TowerPlacementObject temp = (TowerPlacementObject)mapObjects[x][y];
-                    openTowerPositions.add(temp);
+                    openTowerSlots.set(x + y * mapObjects.length);
                     temp.setPlacedTower(null);
                 }
             }
@@ -82,7 +131,8 @@ public class Map {
     }
 
     /**
-     * Updates all the towers that are active.
+     * Updates all the towers that are active. Aura bonuses are already applied to the
+     * towers' cached stats when towers are placed, upgraded, or sold, so there is no tower to tower work here.
      *
      * @param deltaTime Time since last update.
      */
@@ -96,11 +146,17 @@ public class Map {
      * Draws all the map objects.
      *
      * @param g Reference to the Graphics object for rendering.
+     * @param placingTower True if the player is choosing where to place a tower, to highlight the open positions.
+     * @param spriteAtlas Atlas to copy the tower sprites from.
      */
-    public void paint(Graphics g) {
+    public void paint(Graphics g, boolean placingTower, SpriteAtlas spriteAtlas) {
         for(int y = 0; y < mapObjects[0].length; y++) {
             for(int x = 0; x < mapObjects.length; x++) {
-                mapObjects[x][y].paint(g);
+                if(mapObjects[x][y] instanceof TowerPlacementObject) {
+                    ((TowerPlacementObject)mapObjects[x][y]).paint(g, placingTower, spriteAtlas);
+                } else {
+                    mapObjects[x][y].paint(g);
+                }
             }
         }
     }
@@ -109,10 +165,11 @@ public class Map {
      * Draws all projectiles. This is separate to control the draw order.
      *
      * @param g Reference to the Graphics object for rendering.
+     * @param spriteAtlas Atlas to copy the projectile sprites from.
      */
-    public void paintProjectiles(Graphics g) {
+    public void paintProjectiles(Graphics g, SpriteAtlas spriteAtlas) {
         for(Tower tower : activeTowers) {
-            tower.paintProjectiles(g);
+            tower.paintProjectiles(g, spriteAtlas);
         }
     }
 
@@ -125,8 +182,98 @@ public class Map {
         return waypoints;
     }
 
+    /**
+     * Gets all the towers that have been placed.
+     *
+     * @return The active towers. Must not be modified.
+     */
+    public List<Tower> getActiveTowers() {
+        return activeTowers;
+    }
+
+    /**
+     * Gets the number of tiles across the map.
+     *
+     * @return Width of the map in tiles.
+     */
+    public int getWidthInTiles() {
+        return mapObjects.length;
+    }
+
+    /**
+     * Gets the number of tiles down the map.
+     *
+     * @return Height of the map in tiles.
+     */
+    public int getHeightInTiles() {
+        return mapObjects[0].length;
+    }
+
+    /**
+     * Gets a checksum of the map data and mode. Maps that play the same have the same hash.
+     *
+     * @return The layout hash.
+     */
+    public int getLayoutHash() {
+        return layoutHash;
+    }
+
+    /**
+     * Gets the map data this map was loaded from, so another game can be made with the same layout.
+     * The array must not be changed.
+     *
+     * @return Rows of the map.
+     */
+    public String[] getMapData() {
+        return mapData;
+    }
+
+    /**
+     * Gets the distance field used for maze pathing.
+     *
+     * @return The distance field, or null if not in maze mode.
+     */
+    public DistanceField getDistanceField() {
+        return distanceField;
+    }
+
+    /**
+     * Reads map data from a file with one row of the map on each line, in the same format
+     * as DEFAULT_MAP_DATA. Blank lines at the end are ignored.
+     *
+     * @param filePath Path to the file containing the map.
+     * @return The rows of the map, or null if the file could not be read or is not a valid map.
+     */
+    public static String[] loadMapData(String filePath) {
+        List<String> rows;
+        try {
+            rows = new ArrayList<>(Files.readAllLines(Paths.get(filePath)));
+        } catch(IOException e) {
+            System.out.println("ERROR OPENING MAP: " + e.getMessage());
+            return null;
+        }
+        while(!rows.isEmpty() && rows.get(rows.size()-1).isBlank()) {
+            rows.remove(rows.size()-1);
+        }
+        // S sits one past the right of the first row, so every other row must be at least that wide.
+        int width = rows.isEmpty() ? 0 : rows.get(0).length() - 1;
+        boolean valid = width > 0 && rows.get(0).endsWith("S");
+        boolean foundEnd = false;
+        for(String row : rows) {
+            valid &= row.length() >= width;
+            foundEnd |= row.indexOf('E') >= 0;
+        }
+        if(!valid || !foundEnd) {
+            System.out.println("ERROR INVALID MAP: " + filePath
+                               + " must have an E and end its first row with the S");
+            return null;
+        }
+        return rows.toArray(new String[0]);
+    }
+
     /**
      * Tests the click to find if it matches any valid position to place a tower.
+     * The click is converted straight to a tile so this does not depend on the number of tiles.
      * If it does it will place the tower and return true.
      * Otherwise it will return false.
      *
@@ -135,26 +282,272 @@ public class Map {
      * @return True if the tower was successfully placed with the click.
      */
     public boolean placeTower(Position clickPosition, Tower.TowerType towerType) {
-        // Find if there is an open tower position that can take this tower placement
-        int i = 0;
-        for(; i < openTowerPositions.size(); i++) {
-            if(openTowerPositions.get(i).isPositionInside(clickPosition)) {
-                break;
-            }
+        if(clickPosition.x < 0 || clickPosition.y < 0) {
+            return false;
         }
-        // None was found, so do nothing else.
-        if(i == openTowerPositions.size()) {
+        int x = clickPosition.x / BLOCK_SIZE, y = clickPosition.y / BLOCK_SIZE;
+        if(x >= mapObjects.length || y >= mapObjects[0].length) {
             return false;
         }
+        // Not an open tower position, so try the open floor in maze mode or do nothing else.
+        int slot = x + y * mapObjects.length;
+        if(!openTowerSlots.get(slot)) {
+            return MAZE_MODE && placeMazeTower(x, y, towerType);
+        }
         // Valid position was found, create the tower.
-        Tower newTower = new Tower(towerType, new Position(openTowerPositions.get(i).getPosition()),
-                                        openTowerPositions.get(i).getWidth(), openTowerPositions.get(i).getHeight());
+        TowerPlacementObject placement = (TowerPlacementObject)mapObjects[x][y];
+        Tower newTower = new Tower(towerType, new Position(placement.getPosition()),
+                                   placement.getWidth(), placement.getHeight(), pathCells,
+                                   simulation.getEnemyUnitManager());
+        addTower(newTower);
+        placement.setPlacedTower(newTower);
+        openTowerSlots.clear(slot);
+        return true;
+    }
+
+    /**
+     * Attempts to place a tower at every one of the click positions in a single call.
+     * Positions that are not valid are skipped.
+     *
+     * @param clickPositions Positions to place towers at.
+     * @param towerType Type of tower to be placed at every position.
+     * @return The number of towers that were successfully placed.
+     */
+    public int placeTowers(List<Position> clickPositions, Tower.TowerType towerType) {
+        int placed = 0;
+        for(Position clickPosition : clickPositions) {
+            if(placeTower(clickPosition, towerType)) {
+                placed++;
+            }
+        }
+        return placed;
+    }
+
+    /**
+     * Finds the tower that was placed at the clicked tile.
+     *
+     * @param clickPosition The mouse click position.
+     * @return The tower at the position, or null if there is no tower there.
+     */
+    public Tower getTowerAt(Position clickPosition) {
+        if(clickPosition.x < 0 || clickPosition.y < 0) {
+            return null;
+        }
+        int x = clickPosition.x / BLOCK_SIZE, y = clickPosition.y / BLOCK_SIZE;
+        if(x >= mapObjects.length || y >= mapObjects[0].length
+                || !(mapObjects[x][y] instanceof TowerPlacementObject)) {
+            return null;
+        }
+        return ((TowerPlacementObject)mapObjects[x][y]).getPlacedTower();
+    }
+
+    /**
+     * Upgrades a tower by one level.
+     *
+     * @param tower The tower to upgrade.
+     * @return True if the tower was upgraded, or false if it was already at the maximum level.
+     */
+    public boolean upgradeTower(Tower tower) {
+        return tower.upgrade();
+    }
+
+    /**
+     * Removes a tower from the map and makes its tile available again.
+     * Towers built on open floor in maze mode are swapped back to floor and reopened in the distance field.
+     *
+     * @param tower The tower to remove.
+     * @return True if the tower was found and removed.
+     */
+    public boolean sellTower(Tower tower) {
+        if(!activeTowers.remove(tower)) {
+            return false;
+        }
+        tower.removeAuraLinks();
+        supportTowers.remove(tower);
+        int x = tower.getPosition().x / BLOCK_SIZE, y = tower.getPosition().y / BLOCK_SIZE;
+        if(mapData[y].charAt(x) == 'T') {
+            ((TowerPlacementObject)mapObjects[x][y]).setPlacedTower(null);
+            openTowerSlots.set(x + y * mapObjects.length);
+        } else {
+            mapObjects[x][y] = createMapObject(mapData[y].charAt(x), x, y);
+            distanceField.unblockCell(x, y);
+        }
+        return true;
+    }
+
+    /**
+     * Writes every tower to a snapshot in the order they update.
+     *
+     * @param buffer Buffer to write to.
+     * @param enemyUnitManager Manager that numbered the enemies in the snapshot.
+     */
+    public void writeTo(ByteBuffer buffer, EnemyUnitManager enemyUnitManager) {
+        buffer.putInt(activeTowers.size());
+        for(Tower tower : activeTowers) {
+            buffer.putShort((short)(tower.getPosition().x / BLOCK_SIZE));
+            buffer.putShort((short)(tower.getPosition().y / BLOCK_SIZE));
+            buffer.put((byte)tower.getTowerType().ordinal()).put((byte)tower.getLevel());
+            tower.writeTo(buffer, enemyUnitManager);
+        }
+    }
+
+    /**
+     * Replaces every tower with the towers written by writeTo(). Towers are placed and upgraded
+     * in the same order as before so aura links and the distance field come out the same.
+     *
+     * @param buffer Buffer to read from.
+     * @param enemyUnitManager Manager that has already read the enemies from the snapshot.
+     * @return False if a tower could not be placed.
+     */
+    public boolean readFrom(ByteBuffer buffer, EnemyUnitManager enemyUnitManager) {
+        reset();
+        int towerCount = buffer.getInt();
+        for(int i = 0; i < towerCount; i++) {
+            Position tile = new Position(buffer.getShort() * BLOCK_SIZE, buffer.getShort() * BLOCK_SIZE);
+            Tower.TowerType towerType = Tower.TowerType.values()[buffer.get()];
+            int level = buffer.get();
+            if(!placeTower(tile, towerType)) {
+                System.out.println("ERROR RESTORING TOWER AT " + tile);
+                return false;
+            }
+            Tower tower = getTowerAt(tile);
+            while(tower.getLevel() < level) {
+                if(!tower.upgrade()) break;
+            }
+            tower.readFrom(buffer, enemyUnitManager);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of tower positions that do not have a tower yet.
+     *
+     * @return The number of open tower positions.
+     */
+    public int getOpenTowerSlotCount() {
+        return openTowerSlots.cardinality();
+    }
+
+    /**
+     * Gets the tile coordinates of every tower position that does not have a tower yet.
+     *
+     * @return A new list of open tower positions in tiles.
+     */
+    public List<Position> getOpenTowerTiles() {
+        List<Position> result = new ArrayList<>(openTowerSlots.cardinality());
+        for(int slot = openTowerSlots.nextSetBit(0); slot >= 0; slot = openTowerSlots.nextSetBit(slot+1)) {
+            result.add(new Position(slot % mapObjects.length, slot / mapObjects.length));
+        }
+        return result;
+    }
+
+    /**
+     * Adds a new tower to the active towers and links it with the support towers around it.
+     * A new support tower is checked against every tower, while any other new tower only
+     * needs to be checked against the support towers.
+     *
+     * @param newTower The tower that was just placed.
+     */
+    private void addTower(Tower newTower) {
+        if(newTower.getTowerType() == Tower.TowerType.Support) {
+            for(Tower tower : activeTowers) {
+                if(newTower.isAuraReaching(tower)) {
+                    newTower.addAuraTarget(tower);
+                }
+            }
+            supportTowers.add(newTower);
+        } else {
+            for(Tower supportTower : supportTowers) {
+                if(supportTower.isAuraReaching(newTower)) {
+                    supportTower.addAuraTarget(newTower);
+                }
+            }
+        }
         activeTowers.add(newTower);
-        openTowerPositions.get(i).setPlacedTower(newTower);
-        openTowerPositions.remove(i);
+    }
+
+    /**
+     * Places a tower on open floor if the distance field agrees that it will not cut off the path.
+     * The floor is swapped for a TowerPlacementObject so it draws the same as any other tower.
+     *
+     * @param x X tile coordinate.
+     * @param y Y tile coordinate.
+     * @param towerType Type of tower to be placed.
+     * @return True if the tower was successfully placed.
+     */
+    private boolean placeMazeTower(int x, int y, Tower.TowerType towerType) {
+        MapObject floor = mapObjects[x][y];
+        if(floor instanceof TowerPlacementObject || floor.getObjectType() != MapObject.ObjectType.Empty) {
+            return false;
+        }
+        if(!distanceField.tryBlockCell(x, y)) {
+            return false;
+        }
+        TowerPlacementObject placement = new TowerPlacementObject(new Position(floor.getPosition()),
+                                                                  BLOCK_SIZE, BLOCK_SIZE);
+        Tower newTower = new Tower(towerType, new Position(floor.getPosition()), BLOCK_SIZE, BLOCK_SIZE, null,
+                                   simulation.getEnemyUnitManager());
+        placement.setPlacedTower(newTower);
+        mapObjects[x][y] = placement;
+        addTower(newTower);
         return true;
     }
 
+    /**
+     * Swaps any towers that were built on the open floor back to floor and reopens them in the distance field.
+     */
+    private void clearMazeTowers() {
+        for(int y = 0; y < mapObjects[0].length; y++) {
+            for(int x = 0; x < mapObjects.length; x++) {
+                if(mapObjects[x][y] instanceof TowerPlacementObject && mapData[y].charAt(x) != 'T') {
+                    mapObjects[x][y] = createMapObject(mapData[y].charAt(x), x, y);
+                    distanceField.unblockCell(x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the distance field for maze mode. Only empty floor is walkable, plus the start (S)
+     * that sits outside the right of the normal map.
+     *
+     * @param mapData Data to generate the distance field.
+     */
+    private void loadDistanceFieldFromArray(String[] mapData) {
+        Position goal = Position.ZERO, start = Position.ZERO;
+        boolean[][] walkable = new boolean[mapData[0].length()][mapData.length];
+        for(int y = 0; y < mapData.length; y++) {
+            for(int x = 0; x < mapData[0].length(); x++) {
+                if(x < mapObjects.length) {
+                    walkable[x][y] = !(mapObjects[x][y] instanceof TowerPlacementObject)
+                                     && mapObjects[x][y].getObjectType() == MapObject.ObjectType.Empty;
+                }
+                if(x < mapData[y].length() && mapData[y].charAt(x) == 'E') goal = new Position(x,y);
+                else if(x < mapData[y].length() && mapData[y].charAt(x) == 'S') {
+                    start = new Position(x,y);
+                    walkable[x][y] = true;
+                }
+            }
+        }
+        distanceField = new DistanceField(walkable, goal, start);
+    }
+
+    /**
+     * Works out a checksum of the map data and mode.
+     *
+     * @param mapData Data the map is generated from.
+     * @return The checksum.
+     */
+    private static int calculateLayoutHash(String[] mapData) {
+        CRC32 crc = new CRC32();
+        for(String row : mapData) {
+            crc.update(row.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        crc.update(MAZE_MODE ? 1 : 0);
+        return (int)crc.getValue();
+    }
+
     /**
      * Loads the map from supplied string data.
      *
@@ -166,7 +559,7 @@ public class Map {
         if(mapData[0].contains("S")) width--;
         int height = mapData.length;
         mapObjects = new MapObject[width][height];
-        openTowerPositions = new ArrayList<>();
+        openTowerSlots = new BitSet(width*height);
 
         for(int y = 0; y < height; y++) {
             for(int x = 0; x < width; x++) {
@@ -174,6 +567,11 @@ public class Map {
             }
         }
         loadWaypointsFromArray(mapData);
+        if(MAZE_MODE) {
+            loadDistanceFieldFromArray(mapData);
+        } else {
+            loadPathCellsFromWaypoints();
+        }
     }
 
     /**
@@ -225,6 +623,36 @@ public class Map {
             }
         }
         waypoints.add(new AIWaypoint(new Position(start.x*BLOCK_SIZE,start.y*BLOCK_SIZE), nextWaypoint));
+
+        // Store how far along the path each waypoint is from the start so enemies can be ordered by progress.
+        int pathProgress = 0;
+        for(int i = waypoints.size()-1; i >= 0; i--) {
+            if(i < waypoints.size()-1) {
+                Position from = waypoints.get(i+1).getPosition(), to = waypoints.get(i).getPosition();
+                pathProgress += Math.abs(to.x - from.x) + Math.abs(to.y - from.y);
+            }
+            waypoints.get(i).setPathProgress(pathProgress);
+        }
+    }
+
+    /**
+     * Walks the waypoints from the start to the end one cell at a time to list every cell
+     * on the path in order. Towers use this to cache which parts of the path they cover.
+     */
+    private void loadPathCellsFromWaypoints() {
+        pathCells = new ArrayList<>();
+        Position current = new Position(waypoints.get(waypoints.size()-1).getPosition().x / BLOCK_SIZE,
+                                        waypoints.get(waypoints.size()-1).getPosition().y / BLOCK_SIZE);
+        pathCells.add(new Position(current));
+        for(int i = waypoints.size()-2; i >= 0; i--) {
+            Position target = waypoints.get(i).getPosition();
+            int targetX = target.x / BLOCK_SIZE, targetY = target.y / BLOCK_SIZE;
+            while(current.x != targetX || current.y != targetY) {
+                current.x += Integer.signum(targetX - current.x);
+                current.y += Integer.signum(targetY - current.y);
+                pathCells.add(new Position(current));
+            }
+        }
     }
 
     /**
@@ -240,7 +668,7 @@ public class Map {
         switch(character) {
             case '.': type = MapObject.ObjectType.Wall; break;
             case 'T': return new TowerPlacementObject(new Position(x*BLOCK_SIZE, y *BLOCK_SIZE),
-                                                      BLOCK_SIZE, BLOCK_SIZE, gamePanel);
+                                                      BLOCK_SIZE, BLOCK_SIZE);
         }
         return new MapObject(type, new Position(x*BLOCK_SIZE, y *BLOCK_SIZE), BLOCK_SIZE, BLOCK_SIZE);
     }
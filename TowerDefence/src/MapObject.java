@@ -29,6 +29,15 @@ public class MapObject extends Rectangle {
         this.objectType = objectType;
     }
 
+    /**
+     * Gets the type of object.
+     *
+     * @return The type of object.
+     */
+    public ObjectType getObjectType() {
+        return objectType;
+    }
+
     /**
      * Does nothing if it is empty. Otherwise draws a rectangle to show there is an object there.
      *
@@ -0,0 +1,702 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * MatchHistory class:
+ * Keeps every finished match in an append-only log file and answers leaderboard queries
+ * from a sorted index file that is memory mapped, so looking up the best scores only reads
+ * the few entries needed no matter how many matches are stored.
+ *
+ * Each log record is its length, a CRC32 of its bytes, then the MatchRecord. A record cut
+ * short by a crash fails the check and is dropped the next time the log is opened.
+ *
+ * The index holds two sorted lists of (key, log offset) entries: one by map and one by player.
+ * The key is the map or player hash in the high 32 bits and the score inverted in the low
+ * 32 bits, so each map's or player's matches are together with the best score first.
+ * Matches added since the index was written are kept in memory, sorted the same way, and
+ * merged into a new index file once there are enough of them. The index also stores how much
+ * of the log it covers so any newer records are found again when the history is opened.
+ *
+ * Each new index is written as the next generation (match_history.1.idx, match_history.2.idx, ...)
+ * and the newest valid one is used when the history is opened. A mapped file can not be
+ * replaced or deleted on every platform, so the old generation is only deleted if it can be,
+ * and otherwise the next time the history is opened.
+ *
+ * Not safe to use from more than one thread.
+ */
+public class MatchHistory {
+    /**
+     * Marks the start of the log ("TDMH").
+     */
+    private static final int LOG_MAGIC = 0x54444D48;
+    /**
+     * Marks the start of the index ("TDMI").
+     */
+    private static final int INDEX_MAGIC = 0x54444D49;
+    /**
+     * Version of the log and index layout.
+     */
+    private static final short VERSION = 2;
+    /**
+     * Bytes before the first record in the log: magic and version.
+     */
+    private static final int LOG_HEADER_SIZE = 6;
+    /**
+     * Bytes before each record: length and CRC32.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+    /**
+     * Bytes before the first entry in the index: magic, version, log length covered, entry count.
+     */
+    private static final int INDEX_HEADER_SIZE = 18;
+    /**
+     * Bytes for each index entry: key and log offset.
+     */
+    private static final int ENTRY_SIZE = 16;
+    /**
+     * Least number of new matches before they are merged into the index. Larger indexes wait
+     * for a quarter of their size so the total work of merging stays in proportion to the history.
+     */
+    private static final int MIN_MERGE_COUNT = 4096;
+    /**
+     * Largest record that will be read back.
+     */
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    /**
+     * Start of the name of every index file, followed by the generation.
+     */
+    private static final String INDEX_FILE_PREFIX = "match_history.";
+    /**
+     * End of the name of every index file.
+     */
+    private static final String INDEX_FILE_SUFFIX = ".idx";
+
+    /**
+     * Path of the log file.
+     */
+    private final Path logPath;
+    /**
+     * Directory holding the history files.
+     */
+    private final Path directory;
+    /**
+     * Path of the mapped index file, or null if there is no index yet.
+     */
+    private Path indexPath;
+    /**
+     * Generation of the newest index file, or 0 if none has been written.
+     */
+    private int indexGeneration;
+    /**
+     * Open log file.
+     */
+    private final FileChannel log;
+    /**
+     * Size of the log, which is where the next record goes.
+     */
+    private long logLength;
+    /**
+     * Mapped index file, or null if there is no index yet.
+     */
+    private MappedByteBuffer index;
+    /**
+     * Number of matches in the index.
+     */
+    private int indexedCount;
+    /**
+     * Matches added since the index was written: key by map and log offset, sorted when recentSorted.
+     */
+    private long[] recentMapKeys, recentMapOffsets;
+    /**
+     * Matches added since the index was written: key by player and log offset, sorted when recentSorted.
+     */
+    private long[] recentPlayerKeys, recentPlayerOffsets;
+    /**
+     * Number of matches added since the index was written.
+     */
+    private int recentCount;
+    /**
+     * True when the recent matches are in sorted order.
+     */
+    private boolean recentSorted;
+    /**
+     * Reused to write and read records.
+     */
+    private ByteBuffer recordBuffer;
+    /**
+     * Reused to check records.
+     */
+    private final CRC32 crc;
+
+    /**
+     * Opens the history in a directory, creating the files if they do not exist, and finds any
+     * matches that were added after the index was last written.
+     *
+     * @param directory Directory holding the history files.
+     * @throws IOException If the files could not be opened or are not match history files.
+     */
+    public MatchHistory(Path directory) throws IOException {
+        this.directory = directory;
+        logPath = directory.resolve("match_history.log");
+        crc = new CRC32();
+        recordBuffer = ByteBuffer.allocate(1024);
+        recentMapKeys = new long[256];
+        recentMapOffsets = new long[256];
+        recentPlayerKeys = new long[256];
+        recentPlayerOffsets = new long[256];
+        recentSorted = true;
+
+        log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logLength = log.size();
+        if(logLength == 0) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            header.putInt(LOG_MAGIC).putShort(VERSION).flip();
+            writeFully(header, 0);
+            logLength = LOG_HEADER_SIZE;
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            if(logLength >= LOG_HEADER_SIZE) {
+                readFully(header, 0);
+                header.flip();
+            }
+            if(logLength < LOG_HEADER_SIZE || header.getInt() != LOG_MAGIC || header.getShort() != VERSION) {
+                log.close();
+                throw new IOException("Not a match history log: " + logPath);
+            }
+        }
+
+        long indexedLogLength = openIndex();
+        scanLog(indexedLogLength);
+        if(recentCount >= getMergeCount()) {
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Adds a finished match to the end of the log. Call sync() to be sure it has reached the disk.
+     *
+     * @param record The match to add.
+     * @throws IOException If the log could not be written.
+     */
+    public void append(MatchRecord record) throws IOException {
+        int maxSize = RECORD_HEADER_SIZE + record.getMaxSize();
+        if(recordBuffer.capacity() < maxSize) {
+            recordBuffer = ByteBuffer.allocate(maxSize);
+        }
+        recordBuffer.clear();
+        recordBuffer.position(RECORD_HEADER_SIZE);
+        record.writeTo(recordBuffer);
+        int length = recordBuffer.position() - RECORD_HEADER_SIZE;
+        crc.reset();
+        crc.update(recordBuffer.array(), RECORD_HEADER_SIZE, length);
+        recordBuffer.putInt(0, length).putInt(4, (int)crc.getValue());
+        recordBuffer.flip();
+
+        long offset = logLength;
+        writeFully(recordBuffer, offset);
+        logLength += RECORD_HEADER_SIZE + length;
+        addRecent(record.getMapHash(), MatchRecord.hashPlayer(record.getPlayer()), record.getScore(), offset);
+        if(recentCount >= getMergeCount()) {
+            rebuildIndex();
+        }
+    }
+
+    /**
+     * Waits for everything appended to reach the disk.
+     *
+     * @throws IOException If the log could not be written.
+     */
+    public void sync() throws IOException {
+        log.force(false);
+    }
+
+    /**
+     * Gets the best matches played on a map.
+     *
+     * @param mapHash Layout hash of the map.
+     * @param count Most matches to return.
+     * @return Up to count matches, best score first.
+     * @throws IOException If the log could not be read.
+     */
+    public List<MatchRecord> getTopScoresForMap(int mapHash, int count) throws IOException {
+        sortRecent();
+        List<MatchRecord> result = new ArrayList<>(count);
+        int indexed = findFirst(INDEX_HEADER_SIZE, mapHash);
+        int indexedEnd = INDEX_HEADER_SIZE + indexedCount * ENTRY_SIZE;
+        int recent = findFirst(recentMapKeys, mapHash);
+        // Both lists are sorted best first, so take whichever is better until there are enough.
+        while(result.size() < count) {
+            boolean indexedMatches = indexed < indexedEnd && (int)(index.getLong(indexed) >> 32) == mapHash;
+            boolean recentMatches = recent < recentCount && (int)(recentMapKeys[recent] >> 32) == mapHash;
+            if(!indexedMatches && !recentMatches) break;
+            if(indexedMatches && (!recentMatches || index.getLong(indexed) <= recentMapKeys[recent])) {
+                result.add(readRecord(index.getLong(indexed + 8)));
+                indexed += ENTRY_SIZE;
+            } else {
+                result.add(readRecord(recentMapOffsets[recent]));
+                recent++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the best match a player has played on any map.
+     *
+     * @param player Name of the player.
+     * @return The match with the highest score, or null if the player has none.
+     * @throws IOException If the log could not be read.
+     */
+    public MatchRecord getBestForPlayer(String player) throws IOException {
+        sortRecent();
+        int playerHash = MatchRecord.hashPlayer(player);
+        int indexedEnd = INDEX_HEADER_SIZE + indexedCount * 2 * ENTRY_SIZE;
+        int indexed = findFirst(INDEX_HEADER_SIZE + indexedCount * ENTRY_SIZE, playerHash);
+        int recent = findFirst(recentPlayerKeys, playerHash);
+        // Other players can share the hash, so skip entries until the name matches.
+        while(true) {
+            boolean indexedMatches = indexed < indexedEnd && (int)(index.getLong(indexed) >> 32) == playerHash;
+            boolean recentMatches = recent < recentCount && (int)(recentPlayerKeys[recent] >> 32) == playerHash;
+            if(!indexedMatches && !recentMatches) return null;
+            MatchRecord record;
+            if(indexedMatches && (!recentMatches || index.getLong(indexed) <= recentPlayerKeys[recent])) {
+                record = readRecord(index.getLong(indexed + 8));
+                indexed += ENTRY_SIZE;
+            } else {
+                record = readRecord(recentPlayerOffsets[recent]);
+                recent++;
+            }
+            if(record.getPlayer().equals(player)) return record;
+        }
+    }
+
+    /**
+     * Gets the number of matches stored.
+     *
+     * @return Number of matches.
+     */
+    public int getMatchCount() {
+        return indexedCount + recentCount;
+    }
+
+    /**
+     * Merges any new matches into a new generation of the index file so they do not need finding
+     * when next opened. The new file is mapped before the old one is deleted.
+     *
+     * @throws IOException If the index could not be written.
+     */
+    public void rebuildIndex() throws IOException {
+        sortRecent();
+        Path newIndexPath = getIndexPath(indexGeneration + 1);
+        Path tempPath = newIndexPath.resolveSibling(newIndexPath.getFileName() + ".tmp");
+        int totalCount = indexedCount + recentCount;
+        try(FileChannel output = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                  StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.putInt(INDEX_MAGIC).putShort(VERSION).putLong(logLength).putInt(totalCount);
+            writeMergedSection(output, buffer, INDEX_HEADER_SIZE, recentMapKeys, recentMapOffsets);
+            writeMergedSection(output, buffer, INDEX_HEADER_SIZE + indexedCount * ENTRY_SIZE,
+                               recentPlayerKeys, recentPlayerOffsets);
+            buffer.flip();
+            while(buffer.hasRemaining()) {
+                output.write(buffer);
+            }
+            output.force(true);
+        }
+        Files.move(tempPath, newIndexPath, StandardCopyOption.ATOMIC_MOVE);
+        Path oldIndexPath = indexPath;
+        indexPath = newIndexPath;
+        indexGeneration++;
+        mapIndex();
+        recentCount = 0;
+        if(oldIndexPath != null) {
+            tryDelete(oldIndexPath);
+        }
+    }
+
+    /**
+     * Closes the log and drops the index mapping. New matches are only merged into the index once
+     * there are enough to be worth rewriting it, the same as when appending, so closing stays
+     * cheap and the next open scans the few matches after the index instead.
+     *
+     * @throws IOException If the index could not be written.
+     */
+    public void close() throws IOException {
+        if(recentCount >= getMergeCount()) {
+            rebuildIndex();
+        }
+        log.close();
+        index = null;
+    }
+
+    /**
+     * Maps the newest index file if there is a valid one, and deletes any older generations.
+     *
+     * @return Length of the log the index covers.
+     * @throws IOException If the index could not be read.
+     */
+    private long openIndex() throws IOException {
+        List<Path> oldIndexPaths = new ArrayList<>();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                INDEX_FILE_PREFIX + "*" + INDEX_FILE_SUFFIX + "*")) {
+            for(Path file : files) {
+                int generation = getIndexGeneration(file.getFileName().toString());
+                if(generation > indexGeneration) {
+                    if(indexPath != null) oldIndexPaths.add(indexPath);
+                    indexGeneration = generation;
+                    indexPath = file;
+                } else if(generation != 0 || file.getFileName().toString().endsWith(".tmp")) {
+                    oldIndexPaths.add(file);
+                }
+            }
+        }
+        for(Path oldIndexPath : oldIndexPaths) {
+            tryDelete(oldIndexPath);
+        }
+        if(indexPath == null) {
+            return LOG_HEADER_SIZE;
+        }
+        mapIndex();
+        long indexedLogLength = index.capacity() >= INDEX_HEADER_SIZE ? index.getLong(6) : -1;
+        if(index.capacity() < INDEX_HEADER_SIZE || index.getInt(0) != INDEX_MAGIC || index.getShort(4) != VERSION
+                || indexedLogLength > logLength
+                || index.capacity() != INDEX_HEADER_SIZE + (long)indexedCount * 2 * ENTRY_SIZE) {
+            System.out.println("ERROR: MATCH HISTORY INDEX IS INVALID, REBUILDING IT FROM THE LOG");
+            index = null;
+            indexPath = null;
+            indexedCount = 0;
+            return LOG_HEADER_SIZE;
+        }
+        return indexedLogLength;
+    }
+
+    /**
+     * Maps the index file and reads how many entries it has.
+     *
+     * @throws IOException If the index could not be read.
+     */
+    private void mapIndex() throws IOException {
+        try(FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        indexedCount = index.capacity() >= INDEX_HEADER_SIZE ? index.getInt(14) : 0;
+    }
+
+    /**
+     * Gets the path of an index file.
+     *
+     * @param generation Generation of the index.
+     * @return The path.
+     */
+    private Path getIndexPath(int generation) {
+        return directory.resolve(INDEX_FILE_PREFIX + generation + INDEX_FILE_SUFFIX);
+    }
+
+    /**
+     * Gets the generation from the name of an index file.
+     *
+     * @param fileName Name of the file.
+     * @return The generation, or 0 if the name is not a finished index file.
+     */
+    private static int getIndexGeneration(String fileName) {
+        if(!fileName.startsWith(INDEX_FILE_PREFIX) || !fileName.endsWith(INDEX_FILE_SUFFIX)) return 0;
+        try {
+            return Math.max(Integer.parseInt(fileName.substring(INDEX_FILE_PREFIX.length(),
+                                                                fileName.length() - INDEX_FILE_SUFFIX.length())), 0);
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes an old index file if it can be. It can not while it is still mapped on some platforms,
+     * and is then left for the next time the history is opened.
+     *
+     * @param path File to delete.
+     */
+    private static void tryDelete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch(IOException e) {
+            // Still in use, so it is deleted when the history is next opened.
+        }
+    }
+
+    /**
+     * Reads the records after the part of the log covered by the index into the recent matches.
+     * Stops at the first record that is cut short or fails its check and cuts the log there.
+     *
+     * @param fromOffset Where to start reading.
+     * @throws IOException If the log could not be read.
+     */
+    private void scanLog(long fromOffset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+        buffer.flip();
+        long offset = fromOffset, readPosition = fromOffset;
+        while(offset < logLength) {
+            if(buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt(buffer.position());
+                if(length < 0 || length > MAX_RECORD_SIZE) break;
+                if(buffer.remaining() >= RECORD_HEADER_SIZE + length) {
+                    buffer.getInt();
+                    int checksum = buffer.getInt();
+                    crc.reset();
+                    crc.update(buffer.array(), buffer.position(), length);
+                    if((int)crc.getValue() != checksum) break;
+                    ByteBuffer recordBytes = buffer.slice();
+                    recordBytes.limit(length);
+                    MatchRecord record = MatchRecord.readFrom(recordBytes);
+                    addRecent(record.getMapHash(), MatchRecord.hashPlayer(record.getPlayer()), record.getScore(), offset);
+                    buffer.position(buffer.position() + length);
+                    offset += RECORD_HEADER_SIZE + length;
+                    continue;
+                }
+            }
+            // Not enough for the next record, so read more unless the log has run out.
+            if(readPosition >= logLength) break;
+            buffer.compact();
+            int read = log.read(buffer, readPosition);
+            buffer.flip();
+            if(read <= 0) break;
+            readPosition += read;
+        }
+        if(offset < logLength) {
+            System.out.println("ERROR: DROPPED " + (logLength - offset) + " BYTES OF INCOMPLETE MATCH HISTORY");
+            log.truncate(offset);
+            logLength = offset;
+        }
+    }
+
+    /**
+     * Reads a record from the log.
+     *
+     * @param offset Offset of the record in the log.
+     * @return The record.
+     * @throws IOException If the log could not be read or the record is damaged.
+     */
+    private MatchRecord readRecord(long offset) throws IOException {
+        recordBuffer.clear();
+        recordBuffer.limit(RECORD_HEADER_SIZE);
+        readFully(recordBuffer, offset);
+        int length = recordBuffer.getInt(0);
+        if(length < 0 || length > MAX_RECORD_SIZE) {
+            throw new IOException("Damaged match history record at " + offset);
+        }
+        if(recordBuffer.capacity() < length) {
+            recordBuffer = ByteBuffer.allocate(length);
+        }
+        recordBuffer.clear();
+        recordBuffer.limit(length);
+        readFully(recordBuffer, offset + RECORD_HEADER_SIZE);
+        recordBuffer.flip();
+        return MatchRecord.readFrom(recordBuffer);
+    }
+
+    /**
+     * Adds a match to the recent matches.
+     *
+     * @param mapHash Layout hash of the map.
+     * @param playerHash Hash of the player's name.
+     * @param score Final score.
+     * @param offset Offset of the record in the log.
+     */
+    private void addRecent(int mapHash, int playerHash, int score, long offset) {
+        if(recentCount == recentMapKeys.length) {
+            int capacity = recentCount * 2;
+            recentMapKeys = Arrays.copyOf(recentMapKeys, capacity);
+            recentMapOffsets = Arrays.copyOf(recentMapOffsets, capacity);
+            recentPlayerKeys = Arrays.copyOf(recentPlayerKeys, capacity);
+            recentPlayerOffsets = Arrays.copyOf(recentPlayerOffsets, capacity);
+        }
+        recentMapKeys[recentCount] = makeKey(mapHash, score);
+        recentMapOffsets[recentCount] = offset;
+        recentPlayerKeys[recentCount] = makeKey(playerHash, score);
+        recentPlayerOffsets[recentCount] = offset;
+        recentCount++;
+        recentSorted = false;
+    }
+
+    /**
+     * Sorts the recent matches if any were added since they were last sorted.
+     */
+    private void sortRecent() {
+        if(recentSorted) return;
+        sortEntries(recentMapKeys, recentMapOffsets, recentCount);
+        sortEntries(recentPlayerKeys, recentPlayerOffsets, recentCount);
+        recentSorted = true;
+    }
+
+    /**
+     * Gets the number of recent matches that are merged into the index.
+     *
+     * @return Number of matches.
+     */
+    private int getMergeCount() {
+        return Math.max(MIN_MERGE_COUNT, indexedCount / 4);
+    }
+
+    /**
+     * Writes one section of the new index, merging the entries from the old index with the recent ones.
+     *
+     * @param output File being written.
+     * @param buffer Buffer of bytes waiting to be written.
+     * @param sectionStart Offset of the section in the old index.
+     * @param recentKeys Sorted recent keys for the section.
+     * @param recentOffsets Log offsets matching recentKeys.
+     * @throws IOException If the file could not be written.
+     */
+    private void writeMergedSection(FileChannel output, ByteBuffer buffer, int sectionStart,
+                                    long[] recentKeys, long[] recentOffsets) throws IOException {
+        int indexed = sectionStart, indexedEnd = sectionStart + indexedCount * ENTRY_SIZE;
+        int recent = 0;
+        while(indexed < indexedEnd || recent < recentCount) {
+            if(buffer.remaining() < ENTRY_SIZE) {
+                buffer.flip();
+                while(buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+                buffer.clear();
+            }
+            if(recent == recentCount || (indexed < indexedEnd && index.getLong(indexed) <= recentKeys[recent])) {
+                buffer.putLong(index.getLong(indexed)).putLong(index.getLong(indexed + 8));
+                indexed += ENTRY_SIZE;
+            } else {
+                buffer.putLong(recentKeys[recent]).putLong(recentOffsets[recent]);
+                recent++;
+            }
+        }
+    }
+
+    /**
+     * Finds the first entry in an index section with the given hash.
+     *
+     * @param sectionStart Offset of the section in the index.
+     * @param hash Map or player hash to look for.
+     * @return Offset of the first entry with a key not less than the hash's first key.
+     */
+    private int findFirst(int sectionStart, int hash) {
+        long target = makeKey(hash, Integer.MAX_VALUE);
+        int low = 0, high = indexedCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(index.getLong(sectionStart + middle * ENTRY_SIZE) < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return sectionStart + low * ENTRY_SIZE;
+    }
+
+    /**
+     * Finds the first recent entry with the given hash.
+     *
+     * @param keys Sorted recent keys.
+     * @param hash Map or player hash to look for.
+     * @return Index of the first key not less than the hash's first key.
+     */
+    private int findFirst(long[] keys, int hash) {
+        long target = makeKey(hash, Integer.MAX_VALUE);
+        int low = 0, high = recentCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(keys[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Makes a sort key where entries with the same hash are together with the highest score first.
+     *
+     * @param hash Map or player hash.
+     * @param score Score of the match, zero or more.
+     * @return The key.
+     */
+    private static long makeKey(int hash, int score) {
+        return ((long)hash << 32) | (Integer.MAX_VALUE - Math.max(score, 0));
+    }
+
+    /**
+     * Sorts entries by key, moving the offsets with them. A merge sort on the primitive arrays so
+     * millions of entries can be sorted without making an object for each.
+     *
+     * @param keys Keys to sort by.
+     * @param offsets Offsets that belong to each key.
+     * @param count Number of entries.
+     */
+    private static void sortEntries(long[] keys, long[] offsets, int count) {
+        long[] fromKeys = keys, fromOffsets = offsets;
+        long[] toKeys = new long[count], toOffsets = new long[count];
+        for(int width = 1; width < count; width *= 2) {
+            for(int start = 0; start < count; start += 2 * width) {
+                int middle = Math.min(start + width, count), end = Math.min(start + 2 * width, count);
+                int left = start, right = middle;
+                for(int i = start; i < end; i++) {
+                    if(left < middle && (right >= end || fromKeys[left] <= fromKeys[right])) {
+                        toKeys[i] = fromKeys[left];
+                        toOffsets[i] = fromOffsets[left++];
+                    } else {
+                        toKeys[i] = fromKeys[right];
+                        toOffsets[i] = fromOffsets[right++];
+                    }
+                }
+            }
+            long[] swap = fromKeys;
+            fromKeys = toKeys;
+            toKeys = swap;
+            swap = fromOffsets;
+            fromOffsets = toOffsets;
+            toOffsets = swap;
+        }
+        if(fromKeys != keys) {
+            System.arraycopy(fromKeys, 0, keys, 0, count);
+            System.arraycopy(fromOffsets, 0, offsets, 0, count);
+        }
+    }
+
+    /**
+     * Writes all of a buffer to the log.
+     *
+     * @param buffer Bytes to write.
+     * @param position Where in the log to write them.
+     * @throws IOException If the log could not be written.
+     */
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            position += log.write(buffer, position);
+        }
+    }
+
+    /**
+     * Fills a buffer from the log.
+     *
+     * @param buffer Buffer to fill up to its limit.
+     * @param position Where in the log to read from.
+     * @throws IOException If the log ends first.
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int read = log.read(buffer, position);
+            if(read < 0) throw new IOException("Match history log ended early");
+            position += read;
+        }
+    }
+}
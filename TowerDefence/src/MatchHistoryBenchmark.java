@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * MatchHistoryBenchmark class:
+ * Fills a MatchHistory with made up matches and times the leaderboard queries against it.
+ * The answers are checked against the best scores worked out while the matches were made.
+ * The history is then opened again to check it is found again from the files, and the index
+ * is deleted to time rebuilding it from the log.
+ */
+public class MatchHistoryBenchmark {
+    /**
+     * Number of different players in the made up matches.
+     */
+    private static final int PLAYER_COUNT = 10000;
+    /**
+     * Number of different maps in the made up matches.
+     */
+    private static final int MAP_COUNT = 16;
+    /**
+     * Number of times each query is repeated for timing.
+     */
+    private static final int QUERY_REPEATS = 20000;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Number of matches and the directory to store them in (a new temporary directory if not given).
+     * @throws IOException If the history files could not be used.
+     */
+    public static void main(String[] args) throws IOException {
+        int matchCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Path directory = args.length > 1 ? Paths.get(args[1]) : Files.createTempDirectory("match_history");
+        GameRandom random = new GameRandom(42);
+
+        int[] bestByPlayer = new int[PLAYER_COUNT];
+        int[] bestByMap = new int[MAP_COUNT];
+        long startTime = System.nanoTime();
+        MatchHistory history = new MatchHistory(directory);
+        for(int i = 0; i < matchCount; i++) {
+            int player = random.nextInt(PLAYER_COUNT), map = random.nextInt(MAP_COUNT);
+            int score = random.nextInt(1000000);
+            int[] towers = { random.nextInt(10), random.nextInt(10), random.nextInt(6), 1 + random.nextInt(3) };
+            history.append(new MatchRecord("player" + player, 0, map, score, random.nextInt(101),
+                                           1000 + random.nextInt(5000), score > 500000, i, towers));
+            bestByPlayer[player] = Math.max(bestByPlayer[player], score);
+            bestByMap[map] = Math.max(bestByMap[map], score);
+        }
+        history.sync();
+        System.out.printf("appended %d matches in %dms%n", matchCount, (System.nanoTime() - startTime) / 1000000);
+
+        boolean correct = checkAnswers(history, bestByPlayer, bestByMap);
+        timeQueries(history);
+        history.close();
+
+        startTime = System.nanoTime();
+        history = new MatchHistory(directory);
+        System.out.printf("reopened with %d matches in %.1fms%n", history.getMatchCount(),
+                          (System.nanoTime() - startTime) / 1e6);
+        correct &= history.getMatchCount() == matchCount && checkAnswers(history, bestByPlayer, bestByMap);
+        history.close();
+
+        try(DirectoryStream<Path> indexFiles = Files.newDirectoryStream(directory, "match_history.*.idx")) {
+            for(Path indexFile : indexFiles) {
+                Files.delete(indexFile);
+            }
+        }
+        startTime = System.nanoTime();
+        history = new MatchHistory(directory);
+        System.out.printf("rebuilt the index from the log in %dms%n", (System.nanoTime() - startTime) / 1000000);
+        correct &= history.getMatchCount() == matchCount && checkAnswers(history, bestByPlayer, bestByMap);
+        timeQueries(history);
+        history.close();
+        System.out.println("answers correct: " + correct + " (files in " + directory + ")");
+    }
+
+    /**
+     * Checks the best score for every map and a sample of players.
+     *
+     * @param history The history to check.
+     * @param bestByPlayer Best score for each player.
+     * @param bestByMap Best score for each map.
+     * @return True if every answer matched.
+     * @throws IOException If the history could not be read.
+     */
+    private static boolean checkAnswers(MatchHistory history, int[] bestByPlayer, int[] bestByMap) throws IOException {
+        for(int map = 0; map < MAP_COUNT; map++) {
+            List<MatchRecord> top = history.getTopScoresForMap(map, 10);
+            if(top.isEmpty() || top.get(0).getScore() != bestByMap[map]) return false;
+            for(int i = 1; i < top.size(); i++) {
+                if(top.get(i).getScore() > top.get(i - 1).getScore() || top.get(i).getMapHash() != map) return false;
+            }
+        }
+        for(int player = 0; player < PLAYER_COUNT; player += 97) {
+            MatchRecord best = history.getBestForPlayer("player" + player);
+            int expected = bestByPlayer[player];
+            if(best == null ? expected != 0 : best.getScore() != expected) return false;
+        }
+        return history.getBestForPlayer("nobody") == null;
+    }
+
+    /**
+     * Times the top 10 for a map and the best for a player.
+     *
+     * @param history The history to query.
+     * @throws IOException If the history could not be read.
+     */
+    private static void timeQueries(MatchHistory history) throws IOException {
+        long startTime = System.nanoTime();
+        for(int i = 0; i < QUERY_REPEATS; i++) {
+            history.getTopScoresForMap(i % MAP_COUNT, 10);
+        }
+        double topMicros = (System.nanoTime() - startTime) / 1e3 / QUERY_REPEATS;
+        startTime = System.nanoTime();
+        for(int i = 0; i < QUERY_REPEATS; i++) {
+            history.getBestForPlayer("player" + (i * 31 % PLAYER_COUNT));
+        }
+        double bestMicros = (System.nanoTime() - startTime) / 1e3 / QUERY_REPEATS;
+        System.out.printf("top 10 for a map: %.1fus, best for a player: %.1fus%n", topMicros, bestMicros);
+    }
+}
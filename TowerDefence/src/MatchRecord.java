@@ -0,0 +1,283 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * MatchRecord class:
+ * The result of one finished match as stored in the MatchHistory: who played, which
+ * waves and map it was, the score, base health and length of the match, and the towers
+ * that were on the map when it ended.
+ */
+public class MatchRecord {
+    /**
+     * Number of ints stored for each tower: tileX, tileY, type, level.
+     */
+    private static final int TOWER_STRIDE = 4;
+    /**
+     * Longest player name that is kept, in bytes.
+     */
+    private static final int MAX_PLAYER_NAME_BYTES = 255;
+
+    /**
+     * Name of the player.
+     */
+    private final String player;
+    /**
+     * Seed the waves were generated from.
+     */
+    private final long seed;
+    /**
+     * Layout hash of the map that was played.
+     */
+    private final int mapHash;
+    /**
+     * Final score.
+     */
+    private final int score;
+    /**
+     * Base health left at the end.
+     */
+    private final int baseHealth;
+    /**
+     * Number of updates the match lasted.
+     */
+    private final long durationTicks;
+    /**
+     * True if the match was won.
+     */
+    private final boolean won;
+    /**
+     * Time the match finished in milliseconds since the epoch.
+     */
+    private final long finishedAt;
+    /**
+     * Towers on the map at the end, TOWER_STRIDE ints each.
+     */
+    private final int[] towers;
+
+    /**
+     * Creates a record with every value given.
+     *
+     * @param player Name of the player.
+     * @param seed Seed the waves were generated from.
+     * @param mapHash Layout hash of the map.
+     * @param score Final score.
+     * @param baseHealth Base health left at the end.
+     * @param durationTicks Number of updates the match lasted.
+     * @param won True if the match was won.
+     * @param finishedAt Time the match finished in milliseconds since the epoch.
+     * @param towers Towers on the map at the end as tileX, tileY, type, level for each.
+     */
+    public MatchRecord(String player, long seed, int mapHash, int score, int baseHealth,
+                       long durationTicks, boolean won, long finishedAt, int[] towers) {
+        this.player = player;
+        this.seed = seed;
+        this.mapHash = mapHash;
+        this.score = score;
+        this.baseHealth = baseHealth;
+        this.durationTicks = durationTicks;
+        this.won = won;
+        this.finishedAt = finishedAt;
+        this.towers = towers;
+    }
+
+    /**
+     * Creates a record of a game that has just finished.
+     *
+     * @param simulation The finished game.
+     * @param player Name of the player.
+     * @return The record.
+     */
+    public static MatchRecord fromGame(GameSimulation simulation, String player) {
+        List<Tower> activeTowers = simulation.getMap().getActiveTowers();
+        int[] towers = new int[activeTowers.size() * TOWER_STRIDE];
+        for(int i = 0; i < activeTowers.size(); i++) {
+            Tower tower = activeTowers.get(i);
+            towers[i * TOWER_STRIDE] = tower.getPosition().x / Map.BLOCK_SIZE;
+            towers[i * TOWER_STRIDE + 1] = tower.getPosition().y / Map.BLOCK_SIZE;
+            towers[i * TOWER_STRIDE + 2] = tower.getTowerType().ordinal();
+            towers[i * TOWER_STRIDE + 3] = tower.getLevel();
+        }
+        return new MatchRecord(player, simulation.getEnemyUnitManager().getWaveSeed(),
+                               simulation.getMap().getLayoutHash(), simulation.getScore(),
+                               simulation.getBaseHealth(), simulation.getCurrentTick(), simulation.isGameWon(),
+                               System.currentTimeMillis(), towers);
+    }
+
+    /**
+     * Works out the hash used to find a player's matches in the index.
+     * Different names can share a hash, so the name in the record must still be checked.
+     *
+     * @param player Name of the player.
+     * @return The hash.
+     */
+    public static int hashPlayer(String player) {
+        int hash = 0x811C9DC5;
+        for(byte b : player.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    /**
+     * Writes the record.
+     *
+     * @param buffer Buffer to write to.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        byte[] name = player.getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(name.length, MAX_PLAYER_NAME_BYTES);
+        buffer.put((byte)nameLength).put(name, 0, nameLength);
+        buffer.putLong(seed).putInt(mapHash).putInt(score).putInt(baseHealth);
+        buffer.putLong(durationTicks).put((byte)(won ? 1 : 0)).putLong(finishedAt);
+        int towerCount = towers.length / TOWER_STRIDE;
+        buffer.putShort((short)towerCount);
+        for(int i = 0; i < towerCount; i++) {
+            int offset = i * TOWER_STRIDE;
+            buffer.putShort((short)towers[offset]).putShort((short)towers[offset+1])
+                  .put((byte)towers[offset+2]).put((byte)towers[offset+3]);
+        }
+    }
+
+    /**
+     * Reads a record written by writeTo().
+     *
+     * @param buffer Buffer to read from.
+     * @return The record.
+     */
+    public static MatchRecord readFrom(ByteBuffer buffer) {
+        byte[] name = new byte[buffer.get() & 0xFF];
+        buffer.get(name);
+        long seed = buffer.getLong();
+        int mapHash = buffer.getInt();
+        int score = buffer.getInt();
+        int baseHealth = buffer.getInt();
+        long durationTicks = buffer.getLong();
+        boolean won = buffer.get() != 0;
+        long finishedAt = buffer.getLong();
+        int[] towers = new int[(buffer.getShort() & 0xFFFF) * TOWER_STRIDE];
+        for(int i = 0; i < towers.length; i += TOWER_STRIDE) {
+            towers[i] = buffer.getShort();
+            towers[i+1] = buffer.getShort();
+            towers[i+2] = buffer.get();
+            towers[i+3] = buffer.get();
+        }
+        return new MatchRecord(new String(name, StandardCharsets.UTF_8), seed, mapHash, score,
+                               baseHealth, durationTicks, won, finishedAt, towers);
+    }
+
+    /**
+     * Gets the largest number of bytes writeTo() could need for this record.
+     *
+     * @return Size in bytes.
+     */
+    public int getMaxSize() {
+        return 1 + MAX_PLAYER_NAME_BYTES + 8 + 4 + 4 + 4 + 8 + 1 + 8 + 2 + towers.length / TOWER_STRIDE * 6;
+    }
+
+    /**
+     * Gets the name of the player.
+     *
+     * @return The player.
+     */
+    public String getPlayer() {
+        return player;
+    }
+
+    /**
+     * Gets the seed the waves were generated from.
+     *
+     * @return The seed, or 0 for the fixed example waves.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Gets the layout hash of the map that was played.
+     *
+     * @return The map hash.
+     */
+    public int getMapHash() {
+        return mapHash;
+    }
+
+    /**
+     * Gets the final score.
+     *
+     * @return The score.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Gets the base health left at the end.
+     *
+     * @return The base health.
+     */
+    public int getBaseHealth() {
+        return baseHealth;
+    }
+
+    /**
+     * Gets the number of updates the match lasted.
+     *
+     * @return The duration in updates.
+     */
+    public long getDurationTicks() {
+        return durationTicks;
+    }
+
+    /**
+     * Checks if the match was won.
+     *
+     * @return True if the match was won.
+     */
+    public boolean isWon() {
+        return won;
+    }
+
+    /**
+     * Gets the time the match finished.
+     *
+     * @return Milliseconds since the epoch.
+     */
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Gets the number of towers on the map at the end.
+     *
+     * @return Number of towers.
+     */
+    public int getTowerCount() {
+        return towers.length / TOWER_STRIDE;
+    }
+
+    /**
+     * Gets a tower that was on the map at the end.
+     *
+     * @param index Index of the tower.
+     * @return The tower as tileX, tileY, type ordinal and level.
+     */
+    public int[] getTower(int index) {
+        int offset = index * TOWER_STRIDE;
+        return new int[] { towers[offset], towers[offset+1], towers[offset+2], towers[offset+3] };
+    }
+
+    /**
+     * Describes the record for printing.
+     *
+     * @return The player, score, base health, duration and result.
+     */
+    @Override
+    public String toString() {
+        return player + " score=" + score + " baseHealth=" + baseHealth + " ticks=" + durationTicks
+                + (won ? " won" : " lost") + " towers=" + getTowerCount();
+    }
+}
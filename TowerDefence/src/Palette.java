@@ -0,0 +1,47 @@
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * Palette class:
+ * Turns colours stored as RGB ints into Color objects for drawing. The game objects only
+ * keep the ints so a game can run without AWT ever being loaded, and each Color is only
+ * made the first time it is drawn. Each window keeps its own palette and passes it to
+ * whatever needs colours. Only used from the thread that paints.
+ */
+public class Palette {
+    /**
+     * RGB value of each colour made so far.
+     */
+    private int[] rgbValues = new int[32];
+    /**
+     * The colour for each entry in rgbValues.
+     */
+    private Color[] colours = new Color[32];
+    /**
+     * Number of colours made so far.
+     */
+    private int colourCount = 0;
+
+    /**
+     * Gets the colour for an RGB value, making it the first time it is needed.
+     * There are only a handful of colours so a simple search is quickest.
+     *
+     * @param rgb Colour as 0xRRGGBB.
+     * @return The colour.
+     */
+    public Color get(int rgb) {
+        for(int i = 0; i < colourCount; i++) {
+            if(rgbValues[i] == rgb) return colours[i];
+        }
+        if(colourCount == rgbValues.length) {
+            rgbValues = Arrays.copyOf(rgbValues, colourCount * 2);
+            colours = Arrays.copyOf(colours, colourCount * 2);
+        }
+        rgbValues[colourCount] = rgb;
+        colours[colourCount] = new Color(rgb);
+        return colours[colourCount++];
+    }
+}
@@ -0,0 +1,347 @@
+import java.awt.*;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * ParticleSystem class:
+ * Shows short lived particles for projectile hits, explosions and slows. Every particle is
+ * kept in a set of fixed size arrays, one array per value, so spawning an effect never
+ * creates any objects. Unused slots are kept on a free list. Live particles are also linked
+ * together oldest first, so when every slot is in use the oldest particles are dropped to
+ * make room for new ones instead of the new effect going missing.
+ * The particles are only for show and use their own random numbers, so they never change
+ * the game. Only used from the thread that paints.
+ */
+public class ParticleSystem {
+    /**
+     * Most particles that can be alive at once.
+     */
+    public static final int CAPACITY = 2048;
+    /**
+     * Marks the end of the free list and the live list.
+     */
+    private static final int NONE = -1;
+    /**
+     * Particles for a projectile hitting an enemy.
+     */
+    private static final int IMPACT_PARTICLES = 6;
+    /**
+     * Particles for an explosion.
+     */
+    private static final int EXPLOSION_PARTICLES = 24;
+    /**
+     * Particles for an enemy being slowed.
+     */
+    private static final int SLOW_PARTICLES = 8;
+    /**
+     * Milliseconds an impact particle lasts.
+     */
+    private static final float IMPACT_LIFE = 250;
+    /**
+     * Milliseconds an explosion particle lasts.
+     */
+    private static final float EXPLOSION_LIFE = 400;
+    /**
+     * Milliseconds a slow particle lasts.
+     */
+    private static final float SLOW_LIFE = 500;
+    /**
+     * Milliseconds before running out of life that particles start to shrink.
+     */
+    private static final float FADE_TIME = 250;
+    /**
+     * Colours used for the explosion particles along with the projectile colour.
+     */
+    private static final int[] EXPLOSION_COLOURS = { 0xFFA900, 0xFF5000 };
+    /**
+     * Colour of the slow particles.
+     */
+    private static final int SLOW_COLOUR = 0x8CC8FF;
+    /**
+     * Seed for the random numbers. Particles do not need to differ between games.
+     */
+    private static final long RANDOM_SEED = 2021;
+    /**
+     * Most different colours that are each drawn in their own pass. The effects only use a
+     * handful, so any beyond this are drawn in one last pass that sets the colour per particle.
+     */
+    private static final int MAX_PAINT_COLOURS = 16;
+
+    /**
+     * X coordinate of each particle.
+     */
+    private final float[] x = new float[CAPACITY];
+    /**
+     * Y coordinate of each particle.
+     */
+    private final float[] y = new float[CAPACITY];
+    /**
+     * Horizontal speed of each particle in pixels per millisecond.
+     */
+    private final float[] velocityX = new float[CAPACITY];
+    /**
+     * Vertical speed of each particle in pixels per millisecond.
+     */
+    private final float[] velocityY = new float[CAPACITY];
+    /**
+     * Milliseconds each particle has left. Zero or less for unused slots.
+     */
+    private final float[] life = new float[CAPACITY];
+    /**
+     * Colour of each particle as 0xRRGGBB.
+     */
+    private final int[] colour = new int[CAPACITY];
+    /**
+     * Size of each particle in pixels.
+     */
+    private final int[] size = new int[CAPACITY];
+    /**
+     * Next older live particle, or the next free slot for unused slots.
+     */
+    private final int[] next = new int[CAPACITY];
+    /**
+     * Next newer live particle.
+     */
+    private final int[] previous = new int[CAPACITY];
+    /**
+     * Distinct colours found while painting, kept so painting does not create any objects.
+     */
+    private final int[] paintColours = new int[MAX_PAINT_COLOURS];
+    /**
+     * First unused slot, or NONE if all are in use.
+     */
+    private int firstFree;
+    /**
+     * Oldest live particle, or NONE if there are none.
+     */
+    private int oldest;
+    /**
+     * Newest live particle, or NONE if there are none.
+     */
+    private int newest;
+    /**
+     * Number of live particles.
+     */
+    private int particleCount;
+    /**
+     * One past the highest slot that has been used, so updates can skip the rest.
+     */
+    private int highestSlot;
+    /**
+     * Random numbers for the directions and speeds of the particles.
+     */
+    private final GameRandom random;
+
+    /**
+     * Creates an empty particle system.
+     */
+    public ParticleSystem() {
+        random = new GameRandom(RANDOM_SEED);
+        clear();
+    }
+
+    /**
+     * Removes every particle.
+     */
+    public void clear() {
+        for(int i = 0; i < CAPACITY; i++) {
+            life[i] = 0;
+            next[i] = i + 1 < CAPACITY ? i + 1 : NONE;
+        }
+        firstFree = 0;
+        oldest = NONE;
+        newest = NONE;
+        particleCount = 0;
+        highestSlot = 0;
+    }
+
+    /**
+     * Gets the number of live particles.
+     *
+     * @return The number of particles.
+     */
+    public int getParticleCount() {
+        return particleCount;
+    }
+
+    /**
+     * Spawns the particles for an effect.
+     *
+     * @param effectType One of the GameSimulation EFFECT constants.
+     * @param centreX X coordinate of the centre of the effect.
+     * @param centreY Y coordinate of the centre of the effect.
+     * @param radius Radius the effect reaches, or 0 for a small effect.
+     * @param effectColour Colour of the effect as 0xRRGGBB.
+     */
+    public void spawnEffect(int effectType, int centreX, int centreY, int radius, int effectColour) {
+        switch(effectType) {
+            case GameSimulation.EFFECT_IMPACT:
+                for(int i = 0; i < IMPACT_PARTICLES; i++) {
+                    spawnParticle(centreX, centreY, 0.05f + random.nextInt(100) / 1000f, IMPACT_LIFE,
+                                  effectColour, 3);
+                }
+                break;
+            case GameSimulation.EFFECT_EXPLOSION:
+                // Fast enough that the quickest particles reach the edge of the blast as they fade.
+                float explosionSpeed = Math.max(radius, Map.BLOCK_SIZE / 2) / EXPLOSION_LIFE;
+                for(int i = 0; i < EXPLOSION_PARTICLES; i++) {
+                    int particleColour = i % 3 == 0 ? effectColour : EXPLOSION_COLOURS[i % 2];
+                    spawnParticle(centreX, centreY, explosionSpeed * (0.4f + random.nextInt(60) / 100f),
+                                  EXPLOSION_LIFE, particleColour, 4 + random.nextInt(3));
+                }
+                break;
+            case GameSimulation.EFFECT_SLOW:
+                for(int i = 0; i < SLOW_PARTICLES; i++) {
+                    spawnParticle(centreX, centreY, 0.02f + random.nextInt(30) / 1000f, SLOW_LIFE, SLOW_COLOUR, 3);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Moves every particle and removes any that have run out of life.
+     * The first loop has no branches and only touches the arrays so it can be vectorised,
+     * and removing expired particles is done in a separate pass.
+     *
+     * @param deltaTime Time since last update.
+     */
+    public void update(int deltaTime) {
+        if(particleCount == 0) return;
+        int end = highestSlot;
+        for(int i = 0; i < end; i++) {
+            x[i] += velocityX[i] * deltaTime;
+            y[i] += velocityY[i] * deltaTime;
+            life[i] -= deltaTime;
+        }
+        // Walk from the oldest since those are the ones most likely to have expired.
+        int particle = oldest;
+        while(particle != NONE) {
+            int newer = previous[particle];
+            if(life[particle] <= 0) {
+                remove(particle);
+            }
+            particle = newer;
+        }
+    }
+
+    /**
+     * Draws every particle in one pass per colour, so the colour is set once for each colour
+     * rather than for most particles. Particles shrink over their last FADE_TIME milliseconds.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param palette Colours to draw with.
+     */
+    public void paint(Graphics g, Palette palette) {
+        int colourCount = 0;
+        boolean tooManyColours = false;
+        for(int particle = newest; particle != NONE; particle = next[particle]) {
+            if(indexOfPaintColour(colour[particle], colourCount) != NONE) continue;
+            if(colourCount < MAX_PAINT_COLOURS) {
+                paintColours[colourCount++] = colour[particle];
+            } else {
+                tooManyColours = true;
+            }
+        }
+        for(int i = 0; i < colourCount; i++) {
+            int paintColour = paintColours[i];
+            g.setColor(palette.get(paintColour));
+            for(int particle = newest; particle != NONE; particle = next[particle]) {
+                if(colour[particle] == paintColour) {
+                    paintParticle(g, particle);
+                }
+            }
+        }
+        if(tooManyColours) {
+            for(int particle = newest; particle != NONE; particle = next[particle]) {
+                if(indexOfPaintColour(colour[particle], colourCount) == NONE) {
+                    g.setColor(palette.get(colour[particle]));
+                    paintParticle(g, particle);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws one particle with the current colour.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param particle Slot of the particle to draw.
+     */
+    private void paintParticle(Graphics g, int particle) {
+        int particleSize = Math.max(1, (int)(size[particle] * Math.min(1, life[particle] / FADE_TIME)));
+        g.fillRect((int)x[particle] - particleSize / 2, (int)y[particle] - particleSize / 2,
+                   particleSize, particleSize);
+    }
+
+    /**
+     * Finds a colour among the ones found so far while painting.
+     *
+     * @param particleColour Colour to look for as 0xRRGGBB.
+     * @param colourCount Number of colours found so far.
+     * @return Index of the colour, or NONE if it has not been found.
+     */
+    private int indexOfPaintColour(int particleColour, int colourCount) {
+        for(int i = 0; i < colourCount; i++) {
+            if(paintColours[i] == particleColour) return i;
+        }
+        return NONE;
+    }
+
+    /**
+     * Spawns one particle moving in a random direction. If every slot is in use the oldest
+     * particle is dropped to make room.
+     *
+     * @param centreX X coordinate to start at.
+     * @param centreY Y coordinate to start at.
+     * @param speed Speed in pixels per millisecond.
+     * @param particleLife Milliseconds the particle lasts.
+     * @param particleColour Colour as 0xRRGGBB.
+     * @param particleSize Size in pixels.
+     */
+    private void spawnParticle(int centreX, int centreY, float speed, float particleLife,
+                               int particleColour, int particleSize) {
+        if(firstFree == NONE) {
+            remove(oldest);
+        }
+        int particle = firstFree;
+        firstFree = next[particle];
+
+        double angle = random.nextInt(360) * Math.PI / 180;
+        x[particle] = centreX;
+        y[particle] = centreY;
+        velocityX[particle] = (float)(Math.cos(angle) * speed);
+        velocityY[particle] = (float)(Math.sin(angle) * speed);
+        life[particle] = particleLife;
+        colour[particle] = particleColour;
+        size[particle] = particleSize;
+
+        previous[particle] = NONE;
+        next[particle] = newest;
+        if(newest != NONE) {
+            previous[newest] = particle;
+        } else {
+            oldest = particle;
+        }
+        newest = particle;
+        particleCount++;
+        highestSlot = Math.max(highestSlot, particle + 1);
+    }
+
+    /**
+     * Unlinks a live particle and returns its slot to the free list.
+     *
+     * @param particle Slot of the particle to remove.
+     */
+    private void remove(int particle) {
+        int older = next[particle];
+        int newer = previous[particle];
+        if(newer != NONE) next[newer] = older; else newest = older;
+        if(older != NONE) previous[older] = newer; else oldest = newer;
+        life[particle] = 0;
+        next[particle] = firstFree;
+        firstFree = particle;
+        particleCount--;
+        if(particleCount == 0) highestSlot = 0;
+    }
+}
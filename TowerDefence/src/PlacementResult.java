@@ -0,0 +1,131 @@
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * PlacementResult class:
+ * The outcome of simulating the game forward after placing a tower on one tile.
+ * Results sort best first: the most base health left, then the most score, then the most cash.
+ */
+public class PlacementResult implements Comparable<PlacementResult> {
+    /**
+     * X tile coordinate the tower was placed at.
+     */
+    private final int tileX;
+    /**
+     * Y tile coordinate the tower was placed at.
+     */
+    private final int tileY;
+    /**
+     * Base health percent at the end of the simulation.
+     */
+    private final int baseHealth;
+    /**
+     * Score at the end of the simulation.
+     */
+    private final int score;
+    /**
+     * Cash at the end of the simulation.
+     */
+    private final int cash;
+    /**
+     * Number of updates that were simulated after placing the tower.
+     */
+    private final long ticksSimulated;
+
+    /**
+     * Stores the outcome of a placement.
+     *
+     * @param tileX X tile coordinate the tower was placed at.
+     * @param tileY Y tile coordinate the tower was placed at.
+     * @param baseHealth Base health percent at the end of the simulation.
+     * @param score Score at the end of the simulation.
+     * @param cash Cash at the end of the simulation.
+     * @param ticksSimulated Number of updates that were simulated after placing the tower.
+     */
+    public PlacementResult(int tileX, int tileY, int baseHealth, int score, int cash, long ticksSimulated) {
+        this.tileX = tileX;
+        this.tileY = tileY;
+        this.baseHealth = baseHealth;
+        this.score = score;
+        this.cash = cash;
+        this.ticksSimulated = ticksSimulated;
+    }
+
+    /**
+     * Gets the X tile coordinate the tower was placed at.
+     *
+     * @return The X tile coordinate.
+     */
+    public int getTileX() {
+        return tileX;
+    }
+
+    /**
+     * Gets the Y tile coordinate the tower was placed at.
+     *
+     * @return The Y tile coordinate.
+     */
+    public int getTileY() {
+        return tileY;
+    }
+
+    /**
+     * Gets the base health percent at the end of the simulation.
+     *
+     * @return The base health.
+     */
+    public int getBaseHealth() {
+        return baseHealth;
+    }
+
+    /**
+     * Gets the score at the end of the simulation.
+     *
+     * @return The score.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Gets the cash at the end of the simulation.
+     *
+     * @return The cash.
+     */
+    public int getCash() {
+        return cash;
+    }
+
+    /**
+     * Gets the number of updates that were simulated after placing the tower.
+     * Less than asked for if the game ended first.
+     *
+     * @return The number of updates.
+     */
+    public long getTicksSimulated() {
+        return ticksSimulated;
+    }
+
+    /**
+     * Orders results so the best placement comes first.
+     *
+     * @param other The result to compare against.
+     * @return Negative if this result is better than the other.
+     */
+    @Override
+    public int compareTo(PlacementResult other) {
+        if(baseHealth != other.baseHealth) return Integer.compare(other.baseHealth, baseHealth);
+        if(score != other.score) return Integer.compare(other.score, score);
+        return Integer.compare(other.cash, cash);
+    }
+
+    /**
+     * Gets a short description of the result.
+     *
+     * @return The tile and outcome as a string.
+     */
+    @Override
+    public String toString() {
+        return "(" + tileX + "," + tileY + ") health=" + baseHealth + " score=" + score + " cash=" + cash;
+    }
+}
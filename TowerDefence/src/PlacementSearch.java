@@ -0,0 +1,130 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * PlacementSearch class:
+ * Answers "what happens if a tower is placed here now?" for every open tower position.
+ * The current game is captured once into a snapshot that every candidate shares without
+ * copying. Each thread in the pool keeps its own GameSimulation with no display, built from
+ * the same map data as the game being searched, and for each candidate restores the shared
+ * snapshot into it, places the tower, and simulates forward. Restoring reuses the thread's
+ * map, towers and enemies, so a candidate only costs the simulation itself. A thread only
+ * builds a new simulation when it is asked about a game on a different map. Nothing here touches Swing or the game being played.
+ */
+public class PlacementSearch {
+    /**
+     * Threads that simulate the candidates.
+     */
+    private final ExecutorService pool;
+    /**
+     * Simulation reused by each thread for every candidate it evaluates, or null until the first.
+     */
+    private final ThreadLocal<GameSimulation> workerSimulation;
+    /**
+     * Snapshot reused by each thread to restore the shared starting state.
+     */
+    private final ThreadLocal<GameSnapshot> workerSnapshot;
+
+    /**
+     * Creates the thread pool ready to evaluate placements.
+     *
+     * @param threadCount Number of candidates to simulate at the same time.
+     */
+    public PlacementSearch(int threadCount) {
+        pool = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "PlacementSearch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        workerSimulation = new ThreadLocal<>();
+        workerSnapshot = ThreadLocal.withInitial(GameSnapshot::new);
+    }
+
+    /**
+     * Simulates placing a tower at every open tower position and ranks the outcomes.
+     * The simulation passed in is only read while capturing the starting state, so it
+     * must not be updated until this method has returned.
+     *
+     * @param simulation The game to start from.
+     * @param towerType Type of tower to place.
+     * @param ticksToSimulate Number of updates to simulate after placing, unless the game ends first.
+     * @return Results for every position the tower could be placed and afforded at, best first.
+     */
+    public List<PlacementResult> evaluate(GameSimulation simulation, Tower.TowerType towerType, int ticksToSimulate) {
+        GameSnapshot startSnapshot = new GameSnapshot();
+        startSnapshot.capture(simulation);
+        byte[] startState = startSnapshot.toByteArray();
+        String[] mapData = simulation.getMap().getMapData();
+
+        List<Future<PlacementResult>> pending = new ArrayList<>();
+        for(Position tile : simulation.getMap().getOpenTowerTiles()) {
+            pending.add(pool.submit(() -> evaluateCandidate(startState, mapData, tile.x, tile.y, towerType,
+                                                            ticksToSimulate)));
+        }
+
+        List<PlacementResult> results = new ArrayList<>();
+        for(Future<PlacementResult> future : pending) {
+            try {
+                PlacementResult result = future.get();
+                if(result != null) {
+                    results.add(result);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return results;
+            } catch(ExecutionException e) {
+                System.out.println("ERROR: PLACEMENT EVALUATION FAILED");
+                e.getCause().printStackTrace();
+            }
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    /**
+     * Stops the threads. The search can not be used after this.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Restores the starting state into this thread's simulation, places the tower, and simulates forward.
+     *
+     * @param startState Snapshot of the game to start from, shared by all candidates.
+     * @param mapData Map data of the game the snapshot was taken from.
+     * @param tileX X tile coordinate to place the tower at.
+     * @param tileY Y tile coordinate to place the tower at.
+     * @param towerType Type of tower to place.
+     * @param ticksToSimulate Maximum number of updates to simulate.
+     * @return The outcome, or null if the tower could not be placed.
+     */
+    private PlacementResult evaluateCandidate(byte[] startState, String[] mapData, int tileX, int tileY,
+                                              Tower.TowerType towerType, int ticksToSimulate) {
+        GameSimulation fork = workerSimulation.get();
+        if(fork == null || fork.getMap().getMapData() != mapData) {
+            fork = new GameSimulation(mapData);
+            workerSimulation.set(fork);
+        }
+        GameSnapshot snapshot = workerSnapshot.get();
+        snapshot.load(startState, startState.length);
+        if(!snapshot.restore(fork)
+                || !fork.applyInput(GameSimulation.INPUT_PLACE_TOWER, tileX, tileY, towerType.ordinal())) {
+            return null;
+        }
+        long startTick = fork.getCurrentTick();
+        for(int i = 0; i < ticksToSimulate && !fork.isGameOver(); i++) {
+            fork.update(GamePanel.TIME_BETWEEN_UPDATES);
+        }
+        return new PlacementResult(tileX, tileY, fork.getBaseHealth(), fork.getScore(), fork.getCash(),
+                                   fork.getCurrentTick() - startTick);
+    }
+}
@@ -85,7 +85,10 @@ public class Position {
      * @return Distance between this position and the other position.
      */
     public double distanceTo(Position otherPosition) {
-        return Math.sqrt(Math.pow(x-otherPosition.x,2)+Math.pow(y-otherPosition.y,2));
+        // Multiplying whole numbers is exact and Math.sqrt is correctly rounded, so every machine
+        // gets the same answer. Math.pow is allowed to differ between platforms.
+        double differenceX = x-otherPosition.x, differenceY = y-otherPosition.y;
+        return Math.sqrt(differenceX*differenceX+differenceY*differenceY);
     }
 
     /**
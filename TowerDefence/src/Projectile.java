@@ -1,4 +1,5 @@
 import java.awt.*;
+import java.nio.ByteBuffer;
 
 /**
  * Tower Defence
@@ -7,7 +8,7 @@ import java.awt.*;
  * Projectile class:
  * Represents a projectile that moves toward a target and applies an effect on it.
  */
-public class Projectile extends Rectangle {
+public class Projectile extends Rectangle implements SpriteRenderer {
     /**
      * The default speed that a projectile moves at.
      */
@@ -16,6 +17,10 @@ public class Projectile extends Rectangle {
      * The width and height of each projectile.
      */
     private static final int DEFAULT_PROJECTILE_SIZE = 4;
+    /**
+     * Colour of the border around every projectile.
+     */
+    private static final int BORDER_COLOUR = 0xFFA900;
 
     /**
      * Reference to the behaviour being used for managing the projectile.
@@ -25,6 +30,10 @@ public class Projectile extends Rectangle {
      * Reference to the target that is being moved toward.
      */
     private EnemyUnit target;
+    /**
+     * Generation of the target when fired, used to notice if the target was recycled.
+     */
+    private int targetGeneration;
     /**
      * Indicates the projectile is ready to be deleted.
      */
@@ -36,11 +45,15 @@ public class Projectile extends Rectangle {
     /**
      * Colour of the projectile.
      */
-    private Color projectileColour;
+    private int projectileColour;
     /**
-     * Position used for more precise calculation of movement.
+     * X position in fixed point, used for more precise calculation of movement.
      */
-    private DoublePosition precisePosition;
+    private int preciseX;
+    /**
+     * Y position in fixed point, used for more precise calculation of movement.
+     */
+    private int preciseY;
 
     /**
      * Initialises the projectile ready to move to a target.
@@ -48,15 +61,61 @@ public class Projectile extends Rectangle {
      * @param position Position of the projectile to start.
      * @param target Enemy target to move toward.
      * @param attackTargetBehaviour Behaviour used to spawn the projectile and manage it.
-     * @param projectileColour Colour of the projectile.
+     * @param projectileColour Colour of the projectile as 0xRRGGBB.
      */
-    public Projectile(Position position, EnemyUnit target, AttackTargetBehaviour attackTargetBehaviour, Color projectileColour) {
+    public Projectile(Position position, EnemyUnit target, AttackTargetBehaviour attackTargetBehaviour, int projectileColour) {
         super(position, DEFAULT_PROJECTILE_SIZE, DEFAULT_PROJECTILE_SIZE);
         this.target = target;
+        this.targetGeneration = target.getGeneration();
         this.attackTargetBehaviour = attackTargetBehaviour;
         this.projectileColour = projectileColour;
         this.projectileSpeed = DEFAULT_PROJECTILE_SPEED;
-        precisePosition = new DoublePosition(position);
+        preciseX = FixedPoint.fromInt(position.x);
+        preciseY = FixedPoint.fromInt(position.y);
+    }
+
+    /**
+     * Creates a projectile with no target ready to have its state read from a snapshot.
+     *
+     * @param attackTargetBehaviour Behaviour used to manage the projectile.
+     */
+    private Projectile(AttackTargetBehaviour attackTargetBehaviour) {
+        super(new Position(0, 0), DEFAULT_PROJECTILE_SIZE, DEFAULT_PROJECTILE_SIZE);
+        this.attackTargetBehaviour = attackTargetBehaviour;
+        this.projectileSpeed = DEFAULT_PROJECTILE_SPEED;
+    }
+
+    /**
+     * Writes the state of the projectile to a snapshot. The target is written as its snapshot index.
+     *
+     * @param buffer Buffer to write to.
+     * @param enemyUnitManager Manager that numbered the enemies in the snapshot.
+     */
+    public void writeTo(ByteBuffer buffer, EnemyUnitManager enemyUnitManager) {
+        buffer.putInt(preciseX).putInt(preciseY);
+        buffer.putInt(enemyUnitManager.getSnapshotIndex(target)).putInt(targetGeneration);
+        buffer.put((byte)(expired ? 1 : 0)).putInt(projectileColour);
+    }
+
+    /**
+     * Creates a projectile from the state written by writeTo().
+     *
+     * @param buffer Buffer to read from.
+     * @param attackTargetBehaviour Behaviour of the tower that fired the projectile.
+     * @param enemyUnitManager Manager that has already read the enemies from the snapshot.
+     * @return The restored projectile.
+     */
+    public static Projectile readFrom(ByteBuffer buffer, AttackTargetBehaviour attackTargetBehaviour,
+                                      EnemyUnitManager enemyUnitManager) {
+        Projectile projectile = new Projectile(attackTargetBehaviour);
+        projectile.preciseX = buffer.getInt();
+        projectile.preciseY = buffer.getInt();
+        projectile.position.setPosition(FixedPoint.toInt(projectile.preciseX), FixedPoint.toInt(projectile.preciseY));
+        projectile.target = enemyUnitManager.getSnapshotEnemy(buffer.getInt());
+        projectile.targetGeneration = buffer.getInt();
+        projectile.expired = buffer.get() != 0;
+        projectile.projectileColour = buffer.getInt();
+        return projectile;
     }
 
     /**
@@ -65,30 +124,36 @@ public class Projectile extends Rectangle {
      * @param deltaTime Time since last update.
      */
     public void moveDirectlyToTarget(int deltaTime) {
-        if(target == null) {
+        if(target == null || target.getGeneration() != targetGeneration) {
             expired = true;
             return;
         }
 
-        // Calculate the change in position to apply
-        DoublePosition directionVector = new DoublePosition(target.getCentre());
-        directionVector.subtract(getPosition());
-        directionVector.toUnitVector();
-        directionVector.multiply(projectileSpeed * deltaTime / 1000);
+        // Calculate the change in position to apply. Whole number maths keeps lockstep games identical.
+        Position targetCentre = target.getCentre();
+        long moveDistance = FixedPoint.fromInt(projectileSpeed * deltaTime / 1000);
+        long directionX = FixedPoint.fromInt(targetCentre.x) - preciseX;
+        long directionY = FixedPoint.fromInt(targetCentre.y) - preciseY;
+        long distance = FixedPoint.sqrt(directionX * directionX + directionY * directionY);
+        if(distance > 0) {
+            preciseX += directionX * moveDistance / distance;
+            preciseY += directionY * moveDistance / distance;
+        }
 
         // Update the position and then store it to the int version for the rendering.
-        precisePosition.add(directionVector);
-        position = precisePosition.toIntPosition();
+        position.setPosition(FixedPoint.toInt(preciseX), FixedPoint.toInt(preciseY));
 
         // Check if the projectile has hit the target and apply the action if it has.
-        if(precisePosition.distanceTo(target.getCentre()) <= projectileSpeed * deltaTime / 1000) {
+        directionX = FixedPoint.fromInt(targetCentre.x) - preciseX;
+        directionY = FixedPoint.fromInt(targetCentre.y) - preciseY;
+        if(directionX * directionX + directionY * directionY <= moveDistance * moveDistance) {
             attackTargetBehaviour.handleProjectileHit(target);
             expired = true;
         }
     }
 
     /**
-     * A projectile will be expired if the target no longer exists,
+     * A projectile will be expired if the target no longer exists or was recycled,
      * or if the projectile has hit the target.
      *
      * @return True when the projectile should be destroyed.
@@ -98,14 +163,28 @@ public class Projectile extends Rectangle {
     }
 
     /**
-     * Draws the projectile with a border.
+     * Draws the projectile by copying its sprite from the sprite atlas.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param spriteAtlas Atlas to copy the sprite from.
+     */
+    public void paint(Graphics g, SpriteAtlas spriteAtlas) {
+        // The border is drawn one pixel past the width and height.
+        spriteAtlas.draw(g, SpriteAtlas.key(SpriteAtlas.SPRITE_PROJECTILE, projectileColour, width),
+                         position.x, position.y, width + 1, height + 1, this);
+    }
+
+    /**
+     * Draws the projectile with a border for the sprite atlas.
      *
      * @param g Reference to the Graphics object for rendering.
+     * @param palette Colours to draw with.
      */
-    public void paint(Graphics g) {
-        g.setColor(projectileColour);
-        g.fillRect(position.x, position.y, width, height);
-        g.setColor(new Color(255, 169, 0));
-        g.drawRect(position.x, position.y, width, height);
+    @Override
+    public void renderSprite(Graphics g, Palette palette) {
+        g.setColor(palette.get(projectileColour));
+        g.fillRect(0, 0, width, height);
+        g.setColor(palette.get(BORDER_COLOUR));
+        g.drawRect(0, 0, width, height);
     }
 }
@@ -0,0 +1,138 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * RenderBenchmark class:
+ * Times drawing the game the way GamePanel does, into an image instead of a window.
+ * Towers are placed on the open tiles and a crowd of tough enemies is spread along the path,
+ * and then the same frame is drawn many times with the sprite atlas turned off and on.
+ * The two frames are also compared pixel by pixel, and should be identical. Last it is
+ * drawn with the EnemyRenderer tinting crowded tiles instead of drawing every enemy.
+ */
+public class RenderBenchmark {
+    /**
+     * Background colour of the GamePanel.
+     */
+    private static final Color BACKGROUND_COLOUR = new Color(0xC7701B);
+    /**
+     * Percent of normal health the enemies are given so the towers take a while to kill them.
+     */
+    private static final int ENEMY_HEALTH_PERCENT = 2000;
+    /**
+     * Updates to run after the enemies are spawned.
+     */
+    private static final int DAMAGE_TICKS = 200;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Number of enemies to draw, and number of frames to time.
+     */
+    public static void main(String[] args) {
+        int enemyCount = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        GameSimulation simulation = new GameSimulation();
+        simulation.getEnemyUnitManager().setWaveScript("");
+        simulation.reset();
+        simulation.gainCash(100000);
+        List<Position> openTiles = simulation.getMap().getOpenTowerTiles();
+        for(int i = 0; i < openTiles.size(); i++) {
+            Position tile = openTiles.get(i);
+            simulation.applyInput(GameSimulation.INPUT_PLACE_TOWER, tile.x, tile.y, i % Tower.TowerType.values().length);
+            for(int level = 1; level <= i % Tower.MAX_LEVEL; level++) {
+                simulation.applyInput(GameSimulation.INPUT_UPGRADE_TOWER, tile.x, tile.y, 0);
+            }
+        }
+        int waypointCount = simulation.getMap().getWaypoints().size();
+        for(int i = 0; i < enemyCount; i++) {
+            simulation.getEnemyUnitManager().spawnEnemy(EnemyUnit.EnemyType.values()[i % 3], ENEMY_HEALTH_PERCENT,
+                                                        50 + i % 100, i % (waypointCount - 1));
+            if(i % 10 == 0) simulation.update(GamePanel.TIME_BETWEEN_UPDATES);
+        }
+        // Give the towers time to wear the enemies down so the health bars vary.
+        for(int i = 0; i < DAMAGE_TICKS && !simulation.isGameOver(); i++) {
+            simulation.update(GamePanel.TIME_BETWEEN_UPDATES);
+        }
+
+        int width = simulation.getMap().getWidthInTiles() * Map.BLOCK_SIZE;
+        int height = simulation.getMap().getHeightInTiles() * Map.BLOCK_SIZE;
+        BufferedImage shapesFrame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        BufferedImage atlasFrame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Palette palette = new Palette();
+        SpriteAtlas atlas = new SpriteAtlas(palette);
+        EnemyRenderer enemyRenderer = new EnemyRenderer(simulation.getMap().getWidthInTiles(),
+                                                        simulation.getMap().getHeightInTiles());
+        int projectiles = 0;
+        for(Tower tower : simulation.getMap().getActiveTowers()) {
+            projectiles += tower.getProjectileCount();
+        }
+        System.out.printf("drawing %d towers, %d enemies, %d projectiles%n",
+                          simulation.getMap().getActiveTowers().size(),
+                          simulation.getEnemyUnitManager().getActiveEnemies().size(), projectiles);
+
+        enemyRenderer.setLodEnabled(false);
+        atlas.setEnabled(false);
+        double shapesMicros = timeFrames(simulation, enemyRenderer, atlas, shapesFrame, frames);
+        atlas.setEnabled(true);
+        double atlasMicros = timeFrames(simulation, enemyRenderer, atlas, atlasFrame, frames);
+        enemyRenderer.setLodEnabled(true);
+        double lodMicros = timeFrames(simulation, enemyRenderer, atlas, new BufferedImage(width, height,
+                                      BufferedImage.TYPE_INT_RGB), frames);
+        int differentPixels = 0;
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                if(shapesFrame.getRGB(x, y) != atlasFrame.getRGB(x, y)) differentPixels++;
+            }
+        }
+        System.out.printf("shapes: %.1fus per frame, atlas: %.1fus per frame (%d sprites), %d pixels differ%n",
+                          shapesMicros, atlasMicros, atlas.getSpriteCount(), differentPixels);
+        System.out.printf("atlas with crowded tiles tinted: %.1fus per frame%n", lodMicros);
+    }
+
+    /**
+     * Draws the same frame many times.
+     *
+     * @param simulation The game to draw.
+     * @param enemyRenderer Renderer for the enemies.
+     * @param atlas Atlas to copy sprites from.
+     * @param frame Image to draw into.
+     * @param frames Number of frames to draw.
+     * @return Average time per frame in microseconds.
+     */
+    private static double timeFrames(GameSimulation simulation, EnemyRenderer enemyRenderer, SpriteAtlas atlas,
+                                     BufferedImage frame, int frames) {
+        Graphics g = frame.getGraphics();
+        long startTime = 0;
+        // The first half of the frames warm up and are not timed.
+        for(int i = -frames / 2; i < frames; i++) {
+            if(i == 0) startTime = System.nanoTime();
+            drawFrame(simulation, enemyRenderer, atlas, g, frame.getWidth(), frame.getHeight());
+        }
+        g.dispose();
+        return (System.nanoTime() - startTime) / 1e3 / frames;
+    }
+
+    /**
+     * Draws one frame in the same order as GamePanel.paint().
+     *
+     * @param simulation The game to draw.
+     * @param enemyRenderer Renderer for the enemies.
+     * @param atlas Atlas to copy sprites from.
+     * @param g Graphics to draw with.
+     * @param width Width of the frame.
+     * @param height Height of the frame.
+     */
+    private static void drawFrame(GameSimulation simulation, EnemyRenderer enemyRenderer, SpriteAtlas atlas,
+                                  Graphics g, int width, int height) {
+        g.setColor(BACKGROUND_COLOUR);
+        g.fillRect(0, 0, width, height);
+        simulation.getMap().paint(g, false, atlas);
+        simulation.getEnemyUnitManager().paint(g, enemyRenderer, atlas);
+        simulation.getMap().paintProjectiles(g, atlas);
+    }
+}
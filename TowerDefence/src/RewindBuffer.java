@@ -0,0 +1,363 @@
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * RewindBuffer class:
+ * Keeps the recent history of a game so it can be jumped back to any tick and continued
+ * from there. A full snapshot is saved every few updates as a keyframe, and every player
+ * input is saved with the tick it happened on. Only the oldest keyframe is kept in full,
+ * the others are stored as the bytes that changed from the keyframe before them, which
+ * keeps memory small because most of the state is the same between keyframes. Keyframes
+ * older than the retention window are merged into the oldest one and dropped.
+ * Seeking restores the nearest keyframe at or before the tick and replays the saved inputs
+ * up to it, so it never has to simulate more than one keyframe interval.
+ */
+public class RewindBuffer {
+    /**
+     * Number of ints saved for each input: type, tileX, tileY, value.
+     */
+    private static final int INPUT_STRIDE = 4;
+
+    /**
+     * Number of updates between keyframes.
+     */
+    private final int keyframeInterval;
+    /**
+     * Maximum number of keyframes kept, including the oldest full one.
+     */
+    private final int maxKeyframes;
+    /**
+     * Snapshot reused to capture and restore keyframes.
+     */
+    private final GameSnapshot snapshot;
+
+    /**
+     * The oldest keyframe in full, or null if nothing has been saved.
+     */
+    private byte[] baseKeyframe;
+    /**
+     * Tick the oldest keyframe was saved at.
+     */
+    private long baseTick;
+    /**
+     * The newest keyframe in full, used to work out what changed for the next one.
+     */
+    private byte[] latestKeyframe;
+    /**
+     * Ring of changes between keyframes. Entry i turns keyframe i into keyframe i+1.
+     */
+    private byte[][] keyframeDeltas;
+    /**
+     * Index in keyframeDeltas of the change from the oldest keyframe.
+     */
+    private int deltaHead;
+    /**
+     * Number of changes in keyframeDeltas.
+     */
+    private int deltaCount;
+    /**
+     * Tick that each saved input happened on, in order.
+     */
+    private long[] inputTicks;
+    /**
+     * Data for each saved input, INPUT_STRIDE ints per input.
+     */
+    private int[] inputData;
+    /**
+     * Number of saved inputs.
+     */
+    private int inputCount;
+    /**
+     * Reused when working out the changes between keyframes.
+     */
+    private final ByteArrayOutputStream deltaOutput;
+
+    /**
+     * Creates an empty rewind buffer.
+     *
+     * @param retentionTicks How many updates back the game can be rewound.
+     * @param keyframeInterval Number of updates between keyframes.
+     */
+    public RewindBuffer(int retentionTicks, int keyframeInterval) {
+        this.keyframeInterval = keyframeInterval;
+        maxKeyframes = retentionTicks / keyframeInterval + 1;
+        snapshot = new GameSnapshot();
+        keyframeDeltas = new byte[maxKeyframes][];
+        inputTicks = new long[64];
+        inputData = new int[64 * INPUT_STRIDE];
+        deltaOutput = new ByteArrayOutputStream();
+        clear();
+    }
+
+    /**
+     * Removes all saved keyframes and inputs.
+     */
+    public void clear() {
+        baseKeyframe = null;
+        latestKeyframe = null;
+        baseTick = 0;
+        for(int i = 0; i < keyframeDeltas.length; i++) {
+            keyframeDeltas[i] = null;
+        }
+        deltaHead = 0;
+        deltaCount = 0;
+        inputCount = 0;
+    }
+
+    /**
+     * Called after every update. Saves a keyframe if one is due. The first keyframe after
+     * clear() is saved straight away whatever the tick is.
+     *
+     * @param simulation The game to save.
+     */
+    public void onTick(GameSimulation simulation) {
+        long tick = simulation.getCurrentTick();
+        if(baseKeyframe == null) {
+            snapshot.capture(simulation);
+            baseKeyframe = snapshot.toByteArray();
+            latestKeyframe = baseKeyframe;
+            baseTick = tick;
+            return;
+        }
+        if((tick - baseTick) % keyframeInterval != 0) return;
+
+        snapshot.capture(simulation);
+        byte[] keyframe = snapshot.toByteArray();
+        if(deltaCount + 1 == maxKeyframes) {
+            dropOldestKeyframe();
+        }
+        keyframeDeltas[(deltaHead + deltaCount) % keyframeDeltas.length] = encodeDelta(latestKeyframe, keyframe);
+        deltaCount++;
+        latestKeyframe = keyframe;
+    }
+
+    /**
+     * Saves an input so it can be replayed after seeking.
+     *
+     * @param tick The tick the input happened on.
+     * @param inputType One of the GameSimulation INPUT constants.
+     * @param tileX X tile coordinate for the input.
+     * @param tileY Y tile coordinate for the input.
+     * @param value Extra value for the input type.
+     */
+    public void recordInput(long tick, int inputType, int tileX, int tileY, int value) {
+        if(baseKeyframe == null) return;
+        if(inputCount == inputTicks.length) {
+            long[] newTicks = new long[inputTicks.length * 2];
+            System.arraycopy(inputTicks, 0, newTicks, 0, inputCount);
+            inputTicks = newTicks;
+            int[] newData = new int[inputData.length * 2];
+            System.arraycopy(inputData, 0, newData, 0, inputCount * INPUT_STRIDE);
+            inputData = newData;
+        }
+        inputTicks[inputCount] = tick;
+        int offset = inputCount * INPUT_STRIDE;
+        inputData[offset] = inputType;
+        inputData[offset+1] = tileX;
+        inputData[offset+2] = tileY;
+        inputData[offset+3] = value;
+        inputCount++;
+    }
+
+    /**
+     * Puts the game back to how it was at a tick. Anything saved after that tick is removed,
+     * so continuing to play from there branches off from the old timeline.
+     *
+     * @param simulation The game to change.
+     * @param targetTick The tick to go to. Ticks older than the retention window go to the oldest keyframe.
+     * @return True if the game was changed. False if nothing has been saved, or if the keyframe
+     *         could not be restored, in which case GameSnapshot.restore() has reset the game.
+     */
+    public boolean seek(GameSimulation simulation, long targetTick) {
+        if(baseKeyframe == null) return false;
+        if(targetTick < baseTick) targetTick = baseTick;
+        int keyframeIndex = (int) Math.min((targetTick - baseTick) / keyframeInterval, deltaCount);
+        long keyframeTick = baseTick + (long) keyframeIndex * keyframeInterval;
+
+        byte[] keyframe = baseKeyframe;
+        for(int i = 0; i < keyframeIndex; i++) {
+            keyframe = decodeDelta(keyframe, keyframeDeltas[(deltaHead + i) % keyframeDeltas.length]);
+        }
+        snapshot.load(keyframe, keyframe.length);
+
+        if(!snapshot.restore(simulation)) return false;
+        int input = findFirstInput(keyframeTick);
+        for(long tick = keyframeTick; tick < targetTick; tick++) {
+            for(; input < inputCount && inputTicks[input] == tick; input++) {
+                int offset = input * INPUT_STRIDE;
+                simulation.applyInput(inputData[offset], inputData[offset+1],
+                                      inputData[offset+2], inputData[offset+3]);
+            }
+            simulation.update(GamePanel.TIME_BETWEEN_UPDATES);
+        }
+
+        inputCount = findFirstInput(targetTick);
+        for(int i = keyframeIndex; i < deltaCount; i++) {
+            keyframeDeltas[(deltaHead + i) % keyframeDeltas.length] = null;
+        }
+        deltaCount = keyframeIndex;
+        latestKeyframe = keyframe;
+        return true;
+    }
+
+    /**
+     * Gets the oldest tick that can be seeked to.
+     *
+     * @return The oldest tick, or -1 if nothing has been saved.
+     */
+    public long getOldestTick() {
+        return baseKeyframe == null ? -1 : baseTick;
+    }
+
+    /**
+     * Gets the number of bytes used by the saved keyframes and inputs.
+     *
+     * @return Approximate memory used by the buffer.
+     */
+    public int getMemoryUsed() {
+        if(baseKeyframe == null) return 0;
+        int total = baseKeyframe.length + inputCount * (8 + INPUT_STRIDE * 4);
+        if(latestKeyframe != baseKeyframe) total += latestKeyframe.length;
+        for(int i = 0; i < deltaCount; i++) {
+            total += keyframeDeltas[(deltaHead + i) % keyframeDeltas.length].length;
+        }
+        return total;
+    }
+
+    /**
+     * Merges the oldest change into the oldest keyframe, then drops any inputs from before it.
+     */
+    private void dropOldestKeyframe() {
+        baseKeyframe = decodeDelta(baseKeyframe, keyframeDeltas[deltaHead]);
+        keyframeDeltas[deltaHead] = null;
+        deltaHead = (deltaHead + 1) % keyframeDeltas.length;
+        deltaCount--;
+        baseTick += keyframeInterval;
+        if(deltaCount == 0) latestKeyframe = baseKeyframe;
+
+        int firstKept = findFirstInput(baseTick);
+        if(firstKept > 0) {
+            System.arraycopy(inputTicks, firstKept, inputTicks, 0, inputCount - firstKept);
+            System.arraycopy(inputData, firstKept * INPUT_STRIDE, inputData, 0, (inputCount - firstKept) * INPUT_STRIDE);
+            inputCount -= firstKept;
+        }
+    }
+
+    /**
+     * Finds the first saved input at or after a tick.
+     *
+     * @param tick The tick to search for.
+     * @return Index of the first input on or after the tick, or inputCount if there are none.
+     */
+    private int findFirstInput(long tick) {
+        int low = 0, high = inputCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(inputTicks[middle] < tick) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Encodes the changes between two keyframes. The keyframes are XORed together so unchanged
+     * bytes become zero, then stored as the new length followed by pairs of
+     * (number of zero bytes to skip, number of changed bytes, the changed bytes).
+     * Bytes past the end of either keyframe are treated as zero.
+     *
+     * @param previous The older keyframe.
+     * @param next The newer keyframe.
+     * @return The encoded changes.
+     */
+    private byte[] encodeDelta(byte[] previous, byte[] next) {
+        deltaOutput.reset();
+        writeVarInt(next.length);
+        int position = 0;
+        while(position < next.length) {
+            int zeroStart = position;
+            while(position < next.length && xorAt(previous, next, position) == 0) position++;
+            int literalStart = position;
+            // A short run of zeros costs less to keep in the literal than to start a new pair
+            int zeros = 0;
+            while(position < next.length && zeros < 3) {
+                if(xorAt(previous, next, position) == 0) zeros++;
+                else zeros = 0;
+                position++;
+            }
+            position -= zeros;
+            writeVarInt(literalStart - zeroStart);
+            writeVarInt(position - literalStart);
+            for(int i = literalStart; i < position; i++) {
+                deltaOutput.write(xorAt(previous, next, i));
+            }
+        }
+        return deltaOutput.toByteArray();
+    }
+
+    /**
+     * Applies changes made by encodeDelta() to a keyframe.
+     *
+     * @param previous The older keyframe.
+     * @param delta The encoded changes.
+     * @return The newer keyframe.
+     */
+    private static byte[] decodeDelta(byte[] previous, byte[] delta) {
+        int[] readPosition = new int[1];
+        int length = readVarInt(delta, readPosition);
+        byte[] next = new byte[length];
+        System.arraycopy(previous, 0, next, 0, Math.min(previous.length, length));
+        int position = 0;
+        while(readPosition[0] < delta.length) {
+            position += readVarInt(delta, readPosition);
+            int literalLength = readVarInt(delta, readPosition);
+            for(int i = 0; i < literalLength; i++, position++) {
+                next[position] ^= delta[readPosition[0]++];
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Gets one byte of two keyframes XORed together.
+     *
+     * @param previous The older keyframe.
+     * @param next The newer keyframe.
+     * @param index Index of the byte.
+     * @return The XORed byte.
+     */
+    private static int xorAt(byte[] previous, byte[] next, int index) {
+        int previousByte = index < previous.length ? previous[index] : 0;
+        return (previousByte ^ next[index]) & 0xFF;
+    }
+
+    /**
+     * Writes a non-negative int using 7 bits per byte.
+     *
+     * @param value The value to write.
+     */
+    private void writeVarInt(int value) {
+        while(value >= 0x80) {
+            deltaOutput.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        deltaOutput.write(value);
+    }
+
+    /**
+     * Reads an int written by writeVarInt().
+     *
+     * @param data The data to read from.
+     * @param readPosition Position to read at, moved past the value.
+     * @return The value.
+     */
+    private static int readVarInt(byte[] data, int[] readPosition) {
+        int value = 0;
+        for(int shift = 0; ; shift += 7) {
+            int next = data[readPosition[0]++];
+            value |= (next & 0x7F) << shift;
+            if((next & 0x80) == 0) return value;
+        }
+    }
+}
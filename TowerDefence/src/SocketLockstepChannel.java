@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * SocketLockstepChannel class:
+ * Carries LockstepSession messages over TCP between two machines. One player hosts and
+ * waits for the other to connect. Each message is sent with its length as a short in front.
+ * Reading does not block so the game loop can keep drawing while it waits for the other player.
+ */
+public class SocketLockstepChannel implements LockstepChannel {
+    /**
+     * Connection to the other player.
+     */
+    private final SocketChannel channel;
+    /**
+     * Bytes read that have not yet formed a full message.
+     */
+    private final ByteBuffer readBuffer;
+    /**
+     * Reused for each message sent.
+     */
+    private final ByteBuffer writeBuffer;
+    /**
+     * True once the connection has failed or been closed.
+     */
+    private boolean closed;
+
+    /**
+     * Wraps a connected channel.
+     *
+     * @param channel The connection to the other player.
+     * @throws IOException If the connection could not be set up.
+     */
+    private SocketLockstepChannel(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.socket().setTcpNoDelay(true);
+        channel.configureBlocking(false);
+        readBuffer = ByteBuffer.allocate(LockstepSession.MAX_MESSAGE_SIZE * 16);
+        writeBuffer = ByteBuffer.allocate(LockstepSession.MAX_MESSAGE_SIZE + 2);
+        closed = false;
+    }
+
+    /**
+     * Waits for the other player to connect.
+     *
+     * @param port Port to listen on.
+     * @return The connected channel.
+     * @throws IOException If the port could not be opened.
+     */
+    public static SocketLockstepChannel host(int port) throws IOException {
+        try(ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            return new SocketLockstepChannel(serverChannel.accept());
+        }
+    }
+
+    /**
+     * Connects to a player who is hosting.
+     *
+     * @param host Address of the host.
+     * @param port Port the host is listening on.
+     * @return The connected channel.
+     * @throws IOException If the host could not be reached.
+     */
+    public static SocketLockstepChannel join(String host, int port) throws IOException {
+        return new SocketLockstepChannel(SocketChannel.open(new InetSocketAddress(host, port)));
+    }
+
+    /**
+     * Sends a message, waiting for the socket to take it. Messages are tiny so this only
+     * waits if the other player has stopped reading.
+     *
+     * @param data Message data.
+     * @param length Number of bytes of data to send.
+     * @return False if the connection has been lost.
+     */
+    @Override
+    public boolean send(byte[] data, int length) {
+        if(closed) return false;
+        writeBuffer.clear();
+        writeBuffer.putShort((short)length).put(data, 0, length);
+        writeBuffer.flip();
+        try {
+            while(writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+            }
+            return true;
+        } catch(IOException e) {
+            System.out.println("ERROR: LOST CONNECTION TO OTHER PLAYER");
+            close();
+            return false;
+        }
+    }
+
+    /**
+     * Reads whatever has arrived and returns the next full message if there is one.
+     *
+     * @param into Array to copy the message into.
+     * @return Length of the message, 0 if no full message has arrived, or -1 if the connection has been lost.
+     */
+    @Override
+    public int receive(byte[] into) {
+        if(closed) return -1;
+        try {
+            if(channel.read(readBuffer) == -1) {
+                close();
+                return -1;
+            }
+        } catch(IOException e) {
+            System.out.println("ERROR: LOST CONNECTION TO OTHER PLAYER");
+            close();
+            return -1;
+        }
+        readBuffer.flip();
+        int length = 0;
+        if(readBuffer.remaining() >= 2) {
+            int messageLength = readBuffer.getShort(readBuffer.position());
+            if(readBuffer.remaining() >= 2 + messageLength) {
+                readBuffer.getShort();
+                readBuffer.get(into, 0, messageLength);
+                length = messageLength;
+            }
+        }
+        readBuffer.compact();
+        return length;
+    }
+
+    /**
+     * Closes the connection.
+     */
+    public void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch(IOException e) {
+            System.out.println("ERROR: FAILED TO CLOSE CONNECTION");
+        }
+    }
+}
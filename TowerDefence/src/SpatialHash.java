@@ -0,0 +1,169 @@
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * SpatialHash class:
+ * Buckets enemies into a grid of fixed size cells by their centre so that
+ * area queries only need to look at the few cells that overlap the area
+ * instead of every enemy. The buckets are stored with a counting sort into
+ * flat arrays so rebuilding does not allocate once the arrays are big enough.
+ */
+public class SpatialHash {
+    /**
+     * Width and height of each cell.
+     */
+    private int cellSize;
+    /**
+     * Number of cells horizontally.
+     */
+    private int columns;
+    /**
+     * Number of cells vertically.
+     */
+    private int rows;
+    /**
+     * Index into cellEnemies where each cell begins. The extra entry at the end marks where the last cell ends.
+     */
+    private int[] cellStart;
+    /**
+     * Cell that each enemy was placed in during the last rebuild, in list order.
+     */
+    private int[] enemyCells;
+    /**
+     * All the enemies sorted so that each cell's enemies are next to each other.
+     */
+    private EnemyUnit[] cellEnemies;
+    /**
+     * Number of enemies in the hash.
+     */
+    private int enemyCount;
+
+    /**
+     * Creates an empty hash covering the area. Positions outside the area are put in the nearest edge cell.
+     *
+     * @param areaWidth Width of the area to cover.
+     * @param areaHeight Height of the area to cover.
+     * @param cellSize Width and height of each cell.
+     */
+    public SpatialHash(int areaWidth, int areaHeight, int cellSize) {
+        this.cellSize = cellSize;
+        columns = Math.max(areaWidth / cellSize + 1, 1);
+        rows = Math.max(areaHeight / cellSize + 1, 1);
+        cellStart = new int[columns * rows + 1];
+        enemyCells = new int[64];
+        cellEnemies = new EnemyUnit[64];
+        enemyCount = 0;
+    }
+
+    /**
+     * Rebuilds the hash from the current positions of all the enemies.
+     *
+     * @param enemies All enemies to store in the hash.
+     */
+    public void rebuild(List<EnemyUnit> enemies) {
+        enemyCount = enemies.size();
+        if(enemyCount > cellEnemies.length) {
+            cellEnemies = new EnemyUnit[enemyCount * 2];
+            enemyCells = new int[enemyCount * 2];
+        }
+        for(int i = 0; i < cellStart.length; i++) {
+            cellStart[i] = 0;
+        }
+        // Count how many enemies are in each cell, then turn the counts into start indices.
+        for(int i = 0; i < enemyCount; i++) {
+            EnemyUnit enemyUnit = enemies.get(i);
+            int cell = getCell(getCentreX(enemyUnit), getCentreY(enemyUnit));
+            enemyCells[i] = cell;
+            cellStart[cell+1]++;
+        }
+        for(int i = 1; i < cellStart.length; i++) {
+            cellStart[i] += cellStart[i-1];
+        }
+        // Fill each cell from the back so that each start index is counted back down to the true start.
+        for(int i = enemyCount-1; i >= 0; i--) {
+            cellEnemies[--cellStart[enemyCells[i]+1]] = enemies.get(i);
+        }
+        // Now cellStart[c+1] holds the start of cell c, so shift everything down by one.
+        for(int i = 0; i < columns * rows; i++) {
+            cellStart[i] = cellStart[i+1];
+        }
+        cellStart[columns * rows] = enemyCount;
+        // Clear any references past the end so recycled enemies are not held on to.
+        for(int i = enemyCount; i < cellEnemies.length && cellEnemies[i] != null; i++) {
+            cellEnemies[i] = null;
+        }
+    }
+
+    /**
+     * Finds all enemies with a centre within the radius of a point and adds them to the result.
+     *
+     * @param x X coordinate of the centre of the area.
+     * @param y Y coordinate of the centre of the area.
+     * @param radius Radius of the area.
+     * @param result List to add all enemies found to. It is not cleared first.
+     * @return The number of enemies added.
+     */
+    public int query(int x, int y, int radius, List<EnemyUnit> result) {
+        int minColumn = clamp((x - radius) / cellSize, columns), maxColumn = clamp((x + radius) / cellSize, columns);
+        int minRow = clamp((y - radius) / cellSize, rows), maxRow = clamp((y + radius) / cellSize, rows);
+        long radiusSquared = (long)radius * radius;
+        int found = 0;
+        for(int row = minRow; row <= maxRow; row++) {
+            for(int column = minColumn; column <= maxColumn; column++) {
+                int cell = column + row * columns;
+                for(int i = cellStart[cell]; i < cellStart[cell+1]; i++) {
+                    long dx = getCentreX(cellEnemies[i]) - x, dy = getCentreY(cellEnemies[i]) - y;
+                    if(dx * dx + dy * dy <= radiusSquared) {
+                        result.add(cellEnemies[i]);
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets the cell index for a position, clamping to the edge cells.
+     *
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @return The cell index.
+     */
+    private int getCell(int x, int y) {
+        return clamp(x / cellSize, columns) + clamp(y / cellSize, rows) * columns;
+    }
+
+    /**
+     * Clamps a cell coordinate to the grid.
+     *
+     * @param value Coordinate to clamp.
+     * @param size Number of cells in that direction.
+     * @return The coordinate limited to 0 to size-1.
+     */
+    private static int clamp(int value, int size) {
+        return Math.min(Math.max(value, 0), size-1);
+    }
+
+    /**
+     * Gets the x coordinate of an enemy's centre without allocating.
+     *
+     * @param enemyUnit The enemy.
+     * @return X coordinate of the centre.
+     */
+    private static int getCentreX(EnemyUnit enemyUnit) {
+        return enemyUnit.getPosition().x + enemyUnit.getWidth()/2;
+    }
+
+    /**
+     * Gets the y coordinate of an enemy's centre without allocating.
+     *
+     * @param enemyUnit The enemy.
+     * @return Y coordinate of the centre.
+     */
+    private static int getCentreY(EnemyUnit enemyUnit) {
+        return enemyUnit.getPosition().y + enemyUnit.getHeight()/2;
+    }
+}
@@ -1,5 +1,11 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Tower Defence
@@ -7,6 +13,9 @@ import java.util.List;
  *
  * SpawnManager class:
  * Defines a manager to process commands to spawn different enemies on variable timers.
+ * Commands are compiled into SpawnStreams that all run side by side. The streams are kept
+ * in a priority queue ordered by the tick they are next due, so each update only
+ * touches the streams that actually need to spawn.
  */
 public class SpawnManager {
     /**
@@ -16,23 +25,38 @@ public class SpawnManager {
      * N,number = Spawn normal enemy for number times
      * F,number = Spawn fast enemy for number times
      * B,number = Spawn boss enemy for number times
+     * See WaveScriptCompiler for loops (L,number ... E), wave modifiers (W, H,number, S,number),
+     * and start points (P,number). Separate streams that run at the same time with |.
      */
     private static final String exampleCommand = "T,5000,N,5,F,3,B,1,"
                                                 +"T,2000,N,5,F,3,B,2,"
                                                 +"T,1500,F,5,N,3,B,10";
+    /**
+     * Most scripts kept in compiledScripts before it is emptied.
+     */
+    private static final int MAX_COMPILED_SCRIPTS = 32;
+    /**
+     * Streams compiled from each script, shared by every game so a script is only compiled once.
+     * The programs are never run, only copied for each stream.
+     */
+    private static final ConcurrentHashMap<String, WaveProgram[]> compiledScripts = new ConcurrentHashMap<>();
 
     /**
      * Reference to the unit manager to spawn enemies.
      */
     private EnemyUnitManager enemyUnitManager;
     /**
-     * List of all the commands that are being processed.
+     * All streams that still have commands, ordered by the tick they are next due.
      */
-    private List<SpawnCommand> spawnCommandList;
+    private PriorityQueue<SpawnStream> spawnStreams;
     /**
-     * Timer for delaying the time between commands.
+     * Number of updates since the commands were applied.
      */
-    private ActionTimer spawnTimer;
+    private long currentTick;
+    /**
+     * Number of streams that have been added, used to order streams that are due on the same tick.
+     */
+    private int streamsAdded;
 
     /**
      * Configures the spawn manager ready to spawn enemies.
@@ -41,8 +65,10 @@ public class SpawnManager {
      */
     public SpawnManager(EnemyUnitManager enemyUnitManager) {
         this.enemyUnitManager = enemyUnitManager;
-        spawnCommandList = new ArrayList<>();
-        spawnTimer = new ActionTimer(5);
+        spawnStreams = new PriorityQueue<>(Comparator.comparingLong(SpawnStream::getNextSpawnTick)
+                                                     .thenComparingInt(SpawnStream::getStreamOrder));
+        currentTick = 0;
+        streamsAdded = 0;
     }
 
     /**
@@ -52,48 +78,90 @@ public class SpawnManager {
     public void applyExampleCommandList() {
         clearCommands();
         addCommandsFromString(exampleCommand);
-        spawnTimer.setTimer(5);
     }
 
     /**
      * Clears all the commands.
      */
     public void clearCommands() {
-        spawnCommandList.clear();
+        spawnStreams.clear();
+        currentTick = 0;
+        streamsAdded = 0;
     }
 
     /**
-     * Updates the spawn timer and if it is triggered
-     * the next command is executed and it is prepared to
-     * wait for the next trigger.
+     * Advances one tick and triggers every stream that is due on this tick.
+     * Streams that still have commands are put back to wait for their next trigger.
      *
      * @param deltaTime Time since last update.
      */
     public void update(int deltaTime) {
-        spawnTimer.update(deltaTime);
-        if(spawnTimer.isTriggered()) {
-            spawnTimer.reset();
-            executeNextCommand();
+        currentTick++;
+        while(!spawnStreams.isEmpty() && spawnStreams.peek().getNextSpawnTick() <= currentTick) {
+            SpawnStream spawnStream = spawnStreams.poll();
+            spawnStream.trigger(currentTick);
+            if(spawnStream.hasMoreSpawnCommands()) {
+                spawnStreams.add(spawnStream);
+            }
         }
     }
 
     /**
-     * Separates commands out by splitting on commas and then generating
-     * a list of spawn commands.
+     * Adds each part of the spawn data separated by | as its own stream. The spawn data is
+     * only compiled the first time it is seen, after that the compiled streams are copied.
      *
      * @param spawnData Correctly formatted spawnData to be loaded in.
      */
     public void addCommandsFromString(String spawnData) {
-        String[] spawnDataSplit = spawnData.split(",");
-        for(int i = 0; i < spawnDataSplit.length; i+=2) {
-            if(i+1 == spawnDataSplit.length) {
-                System.out.println("ERROR INVALID SPAWN COMMAND DATA LENGTH");
-                return;
+        WaveProgram[] compiledStreams = compiledScripts.get(spawnData);
+        if(compiledStreams == null) {
+            String[] streamData = spawnData.split("\\|");
+            compiledStreams = new WaveProgram[streamData.length];
+            for(int i = 0; i < streamData.length; i++) {
+                compiledStreams[i] = new WaveProgram();
+                WaveScriptCompiler.compileAll(streamData[i], compiledStreams[i]);
+            }
+            if(compiledScripts.size() >= MAX_COMPILED_SCRIPTS) {
+                compiledScripts.clear();
             }
-            spawnCommandList.add(new SpawnCommand(
-                    SpawnCommand.convertStringToCommand(spawnDataSplit[i]),
-                    Integer.parseInt(spawnDataSplit[i+1])));
+            compiledScripts.put(spawnData, compiledStreams);
+        }
+        for(WaveProgram compiledStream : compiledStreams) {
+            addStream(new WaveProgram(compiledStream));
+        }
+    }
+
+    /**
+     * Replaces all commands with a script that is streamed from a file. Only a small part
+     * of the file is compiled at a time so scripts of any length can be used.
+     *
+     * @param filePath Path to the file containing the spawn data.
+     * @return True if the file could be opened.
+     */
+    public boolean loadCommandsFromFile(String filePath) {
+        clearCommands();
+        WaveProgram spawnProgram = new WaveProgram();
+        try {
+            BufferedReader reader = Files.newBufferedReader(Paths.get(filePath));
+            spawnProgram.setSource(new WaveScriptCompiler(reader));
+        } catch(IOException e) {
+            System.out.println("ERROR OPENING SPAWN COMMANDS: " + e.getMessage());
+            return false;
         }
+        addStream(spawnProgram);
+        return true;
+    }
+
+    /**
+     * Replaces all commands with endless procedurally generated waves.
+     *
+     * @param seed Seed used to generate the waves. The same seed always gives the same waves.
+     */
+    public void applyEndlessWaves(long seed) {
+        clearCommands();
+        WaveProgram spawnProgram = new WaveProgram();
+        spawnProgram.setSource(new EndlessWaveGenerator(seed));
+        addStream(spawnProgram);
     }
 
     /**
@@ -102,54 +170,43 @@ public class SpawnManager {
      * @return True if there are still commands to be run.
      */
     public boolean hasMoreSpawnCommands() {
-        return spawnCommandList.size() != 0;
+        return !spawnStreams.isEmpty();
     }
 
     /**
-     * Peeks the top element of the command list.
-     * Executes the command based on the specified command id, and
-     * then pops it if the command is no longer needed.
+     * Writes the tick and every stream to a snapshot.
+     *
+     * @param buffer Buffer to write to.
      */
-    private void executeNextCommand() {
-        if(spawnCommandList.size() == 0) return;
-        boolean removeCommand = true;
-        SpawnCommand currentCommand = spawnCommandList.get(0);
-
-        switch (currentCommand.getCommand()) {
-            case 1:
-            case 2:
-            case 3:
-                spawnTowerByID(currentCommand);
-                if(currentCommand.getValue() > 0) removeCommand = false;
-                break;
-            case 4:
-                spawnTimer.setTimer(currentCommand.getValue());
-                break;
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putLong(currentTick).putInt(streamsAdded).putInt(spawnStreams.size());
+        for(SpawnStream spawnStream : spawnStreams) {
+            spawnStream.writeTo(buffer);
         }
+    }
 
-        if(removeCommand) {
-            spawnCommandList.remove(0);
+    /**
+     * Replaces all streams with the state written by writeTo().
+     *
+     * @param buffer Buffer to read from.
+     */
+    public void readFrom(ByteBuffer buffer) {
+        clearCommands();
+        currentTick = buffer.getLong();
+        streamsAdded = buffer.getInt();
+        int streamCount = buffer.getInt();
+        for(int i = 0; i < streamCount; i++) {
+            spawnStreams.add(SpawnStream.readFrom(buffer, enemyUnitManager));
         }
     }
 
     /**
-     * Executes the command to spawn a tower and subtracts 1 from the
-     * number of enemies of this type to spawn.
+     * Adds a new stream that will first trigger on the next update.
      *
-     * @param command The command to execute.
-     */
-    private void spawnTowerByID(SpawnCommand command) {
-        switch (command.getCommand()) {
-            case 1:
-                enemyUnitManager.spawnEnemy(EnemyUnit.EnemyType.Normal);
-                break;
-            case 2:
-                enemyUnitManager.spawnEnemy(EnemyUnit.EnemyType.Fast);
-                break;
-            case 3:
-                enemyUnitManager.spawnEnemy(EnemyUnit.EnemyType.Boss);
-                break;
-        }
-        command.setValue(command.getValue()-1);
+     * @param spawnProgram The compiled commands for the stream.
+     */
+    private void addStream(WaveProgram spawnProgram) {
+        if(!spawnProgram.hasMoreInstructions()) return;
+        spawnStreams.add(new SpawnStream(enemyUnitManager, spawnProgram, streamsAdded++, currentTick+1));
     }
 }
@@ -0,0 +1,203 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * SpawnStream class:
+ * Defines a single independent stream of spawn commands with its own program,
+ * spawn interval, wave modifiers, and start waypoint. The SpawnManager runs
+ * many of these side by side and only steps the ones that are due.
+ */
+public class SpawnStream {
+    /**
+     * Reference to the unit manager to spawn enemies.
+     */
+    private EnemyUnitManager enemyUnitManager;
+    /**
+     * The compiled commands for this stream.
+     */
+    private WaveProgram spawnProgram;
+    /**
+     * Number of updates to wait between triggers.
+     */
+    private int intervalTicks;
+    /**
+     * The update tick when this stream should next be triggered.
+     */
+    private long nextSpawnTick;
+    /**
+     * Order the stream was added in, used to break ties so streams always run in the same order.
+     */
+    private int streamOrder;
+    /**
+     * Number of waypoints along the path from the start that enemies spawn at.
+     */
+    private int startWaypointIndex;
+    /**
+     * Percent of normal health to spawn enemies with for the current wave.
+     */
+    private int healthPercent;
+    /**
+     * Percent of normal speed to spawn enemies with for the current wave.
+     */
+    private int speedPercent;
+
+    /**
+     * Creates a stream around a program that is ready to run.
+     *
+     * @param enemyUnitManager Reference to the unit manager to spawn enemies.
+     * @param spawnProgram The compiled commands for this stream.
+     * @param streamOrder Order the stream was added in.
+     * @param firstSpawnTick The update tick when this stream is first triggered.
+     */
+    public SpawnStream(EnemyUnitManager enemyUnitManager, WaveProgram spawnProgram, int streamOrder, long firstSpawnTick) {
+        this.enemyUnitManager = enemyUnitManager;
+        this.spawnProgram = spawnProgram;
+        this.streamOrder = streamOrder;
+        this.nextSpawnTick = firstSpawnTick;
+        intervalTicks = 1;
+        startWaypointIndex = 0;
+        healthPercent = speedPercent = 100;
+    }
+
+    /**
+     * Gets the update tick when this stream should next be triggered.
+     *
+     * @return The next tick to trigger on.
+     */
+    public long getNextSpawnTick() {
+        return nextSpawnTick;
+    }
+
+    /**
+     * Gets the order the stream was added in.
+     *
+     * @return Order the stream was added in.
+     */
+    public int getStreamOrder() {
+        return streamOrder;
+    }
+
+    /**
+     * Tests if the stream still has commands to run.
+     *
+     * @return True if there are still commands to be run.
+     */
+    public boolean hasMoreSpawnCommands() {
+        return spawnProgram.hasMoreInstructions();
+    }
+
+    /**
+     * Runs the commands for one trigger and schedules the next trigger.
+     *
+     * @param currentTick The tick that the stream is being triggered on.
+     */
+    public void trigger(long currentTick) {
+        executeNextCommand();
+        nextSpawnTick = currentTick + intervalTicks;
+    }
+
+    /**
+     * Writes the stream's program and timing state to a snapshot.
+     *
+     * @param buffer Buffer to write to.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(streamOrder).putLong(nextSpawnTick).putInt(intervalTicks);
+        buffer.putInt(startWaypointIndex).putInt(healthPercent).putInt(speedPercent);
+        spawnProgram.writeTo(buffer);
+    }
+
+    /**
+     * Creates a stream from the state written by writeTo().
+     *
+     * @param buffer Buffer to read from.
+     * @param enemyUnitManager Reference to the unit manager to spawn enemies.
+     * @return The restored stream.
+     */
+    public static SpawnStream readFrom(ByteBuffer buffer, EnemyUnitManager enemyUnitManager) {
+        int streamOrder = buffer.getInt();
+        long nextSpawnTick = buffer.getLong();
+        SpawnStream spawnStream = new SpawnStream(enemyUnitManager, new WaveProgram(), streamOrder, nextSpawnTick);
+        spawnStream.intervalTicks = buffer.getInt();
+        spawnStream.startWaypointIndex = buffer.getInt();
+        spawnStream.healthPercent = buffer.getInt();
+        spawnStream.speedPercent = buffer.getInt();
+        spawnStream.spawnProgram.readFrom(buffer);
+        return spawnStream;
+    }
+
+    /**
+     * Runs instructions until one uses up this trigger. A spawn uses up a trigger for each
+     * enemy and changing the interval uses up a trigger, the same as the original command list.
+     * Loops and modifiers run immediately without waiting.
+     */
+    private void executeNextCommand() {
+        while(spawnProgram.hasMoreInstructions()) {
+            switch(spawnProgram.getOpcode()) {
+                case WaveProgram.OP_SPAWN:
+                    spawnEnemyFromProgram();
+                    return;
+                case WaveProgram.OP_INTERVAL:
+                    intervalTicks = ActionTimer.toTicks(spawnProgram.getOperand(0));
+                    spawnProgram.advance(1);
+                    return;
+                case WaveProgram.OP_LOOP:
+                    if(spawnProgram.getOperand(0) > 0 && spawnProgram.pushLoop(spawnProgram.getOperand(0))) {
+                        spawnProgram.advance(2);
+                    } else {
+                        spawnProgram.jump(spawnProgram.getOperand(1));
+                    }
+                    break;
+                case WaveProgram.OP_END_LOOP:
+                    if(spawnProgram.repeatLoop()) {
+                        spawnProgram.jump(spawnProgram.getOperand(0));
+                    } else {
+                        spawnProgram.advance(1);
+                    }
+                    break;
+                case WaveProgram.OP_HEALTH:
+                    healthPercent = spawnProgram.getOperand(0);
+                    spawnProgram.advance(1);
+                    break;
+                case WaveProgram.OP_SPEED:
+                    speedPercent = spawnProgram.getOperand(0);
+                    spawnProgram.advance(1);
+                    break;
+                case WaveProgram.OP_WAVE:
+                    healthPercent = speedPercent = 100;
+                    spawnProgram.advance(0);
+                    break;
+                case WaveProgram.OP_START_POINT:
+                    startWaypointIndex = spawnProgram.getOperand(0);
+                    spawnProgram.advance(1);
+                    break;
+                default:
+                    System.out.println("ERROR INVALID SPAWN OPCODE " + spawnProgram.getOpcode());
+                    spawnProgram.clear();
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Spawns one enemy from the current spawn instruction and moves past it
+     * once the number of enemies it asked for have all been spawned.
+     */
+    private void spawnEnemyFromProgram() {
+        int remaining = spawnProgram.getSpawnRemaining();
+        if(remaining == 0) {
+            remaining = spawnProgram.getOperand(1);
+        }
+        if(remaining > 0) {
+            EnemyUnit.EnemyType enemyType = EnemyUnit.EnemyType.values()[spawnProgram.getOperand(0)];
+            enemyUnitManager.spawnEnemy(enemyType, healthPercent, speedPercent, startWaypointIndex);
+            remaining--;
+        }
+        spawnProgram.setSpawnRemaining(remaining);
+        if(remaining == 0) {
+            spawnProgram.advance(2);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DirectColorModel;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * SpriteAtlas class:
+ * Keeps one image holding a copy of every sprite that has been drawn, so towers, enemies,
+ * projectiles and health bars are each drawn once with shapes and then only copied with
+ * drawImage. Each sprite is found by a key made from what changes how it looks, and is
+ * drawn into the atlas the first time its key is seen. The atlas is made to suit the
+ * screen so copying from it can be done by the graphics card. Each window owns its own atlas
+ * and passes it to everything it paints. Only used from the thread that paints.
+ */
+public class SpriteAtlas {
+    /**
+     * Sprite kind for a tower. Colour is the tower colour, detail is the level.
+     */
+    public static final int SPRITE_TOWER = 1;
+    /**
+     * Sprite kind for an enemy. Colour is the enemy colour, detail is the size.
+     */
+    public static final int SPRITE_ENEMY = 2;
+    /**
+     * Sprite kind for a projectile. Colour is the projectile colour, detail is the size.
+     */
+    public static final int SPRITE_PROJECTILE = 3;
+    /**
+     * Sprite kind for a health bar. Colour is not used, detail is the size and the filled step.
+     */
+    public static final int SPRITE_HEALTH_BAR = 4;
+    /**
+     * Width of the atlas image.
+     */
+    private static final int ATLAS_WIDTH = 1024;
+    /**
+     * Height of the atlas image.
+     */
+    private static final int ATLAS_HEIGHT = 512;
+    /**
+     * Most sprites the atlas can hold. Must be half the size of the key table or less.
+     */
+    private static final int MAX_SPRITES = 256;
+    /**
+     * Size of the key table. Must be a power of 2.
+     */
+    private static final int KEY_TABLE_SIZE = 512;
+
+    /**
+     * Colours the sprites are drawn with.
+     */
+    private final Palette palette;
+    /**
+     * Image holding every sprite.
+     */
+    private BufferedImage atlas;
+    /**
+     * Key of each entry in the table, or 0 if the entry is empty.
+     */
+    private long[] tableKeys;
+    /**
+     * Sprite index of each entry in the table.
+     */
+    private int[] tableSprites;
+    /**
+     * Left edge of each sprite in the atlas.
+     */
+    private int[] spriteX;
+    /**
+     * Top edge of each sprite in the atlas.
+     */
+    private int[] spriteY;
+    /**
+     * Number of sprites in the atlas.
+     */
+    private int spriteCount;
+    /**
+     * Left edge of the next sprite on the current row of the atlas.
+     */
+    private int cursorX;
+    /**
+     * Top edge of the current row of the atlas.
+     */
+    private int cursorY;
+    /**
+     * Height of the tallest sprite on the current row of the atlas.
+     */
+    private int rowHeight;
+    /**
+     * When false every sprite is drawn with shapes each time instead of being copied.
+     */
+    private boolean enabled;
+
+    /**
+     * Creates an empty atlas suited to the screen, or a plain image when there is no screen.
+     *
+     * @param palette Colours the sprites are drawn with.
+     */
+    public SpriteAtlas(Palette palette) {
+        this.palette = palette;
+        if(GraphicsEnvironment.isHeadless()) {
+            // Pixels are either opaque or fully transparent, the same as the BITMASK image used with a screen.
+            DirectColorModel bitmaskModel = new DirectColorModel(25, 0xFF0000, 0xFF00, 0xFF, 0x1000000);
+            atlas = new BufferedImage(bitmaskModel, bitmaskModel.createCompatibleWritableRaster(ATLAS_WIDTH, ATLAS_HEIGHT),
+                                      false, null);
+        } else {
+            atlas = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                    .getDefaultConfiguration().createCompatibleImage(ATLAS_WIDTH, ATLAS_HEIGHT, Transparency.BITMASK);
+        }
+        tableKeys = new long[KEY_TABLE_SIZE];
+        tableSprites = new int[KEY_TABLE_SIZE];
+        spriteX = new int[MAX_SPRITES];
+        spriteY = new int[MAX_SPRITES];
+        enabled = true;
+    }
+
+    /**
+     * Makes the key for a sprite.
+     *
+     * @param kind One of the SPRITE constants.
+     * @param colour Colour as 0xRRGGBB.
+     * @param detail Anything else that changes how the sprite looks.
+     * @return The key. Never 0.
+     */
+    public static long key(int kind, int colour, int detail) {
+        return ((long)kind << 56) | ((long)(colour & 0xFFFFFF) << 32) | (detail & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Turns copying from the atlas on or off. When off every sprite is drawn with shapes
+     * each time as it was before the atlas, for comparing the two.
+     *
+     * @param enabled True to copy sprites from the atlas.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Gets the number of sprites in the atlas.
+     *
+     * @return Number of sprites.
+     */
+    public int getSpriteCount() {
+        return spriteCount;
+    }
+
+    /**
+     * Draws a sprite by copying it from the atlas. The first time a key is seen the renderer
+     * draws it into the atlas. If the atlas is full the renderer draws it straight to g instead.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param key Key of the sprite from key().
+     * @param x Left edge to draw at.
+     * @param y Top edge to draw at.
+     * @param width Width of the sprite including any border.
+     * @param height Height of the sprite including any border.
+     * @param renderer Draws the sprite if it is not in the atlas yet.
+     */
+    public void draw(Graphics g, long key, int x, int y, int width, int height, SpriteRenderer renderer) {
+        int sprite = enabled ? findOrAdd(key, width, height, renderer) : -1;
+        if(sprite < 0) {
+            g.translate(x, y);
+            renderer.renderSprite(g, palette);
+            g.translate(-x, -y);
+            return;
+        }
+        int sourceX = spriteX[sprite], sourceY = spriteY[sprite];
+        g.drawImage(atlas, x, y, x + width, y + height, sourceX, sourceY, sourceX + width, sourceY + height, null);
+    }
+
+    /**
+     * Finds the sprite for a key, drawing it into the atlas if it is not there yet.
+     *
+     * @param key Key of the sprite.
+     * @param width Width of the sprite.
+     * @param height Height of the sprite.
+     * @param renderer Draws the sprite if it is not in the atlas yet.
+     * @return Index of the sprite, or -1 if there was no room for it.
+     */
+    private int findOrAdd(long key, int width, int height, SpriteRenderer renderer) {
+        int entry = (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & (KEY_TABLE_SIZE - 1);
+        while(tableKeys[entry] != 0) {
+            if(tableKeys[entry] == key) return tableSprites[entry];
+            entry = (entry + 1) & (KEY_TABLE_SIZE - 1);
+        }
+        if(spriteCount == MAX_SPRITES || width > ATLAS_WIDTH) return -1;
+        if(cursorX + width > ATLAS_WIDTH) {
+            cursorX = 0;
+            cursorY += rowHeight;
+            rowHeight = 0;
+        }
+        if(cursorY + height > ATLAS_HEIGHT) return -1;
+
+        Graphics2D atlasGraphics = atlas.createGraphics();
+        atlasGraphics.translate(cursorX, cursorY);
+        atlasGraphics.clipRect(0, 0, width, height);
+        renderer.renderSprite(atlasGraphics, palette);
+        atlasGraphics.dispose();
+
+        int sprite = spriteCount++;
+        spriteX[sprite] = cursorX;
+        spriteY[sprite] = cursorY;
+        cursorX += width;
+        rowHeight = Math.max(rowHeight, height);
+        tableKeys[entry] = key;
+        tableSprites[entry] = sprite;
+        return sprite;
+    }
+}
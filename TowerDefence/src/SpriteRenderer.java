@@ -0,0 +1,18 @@
+import java.awt.*;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * SpriteRenderer interface:
+ * Something that can draw its own sprite so the SpriteAtlas can keep a copy of it.
+ */
+public interface SpriteRenderer {
+    /**
+     * Draws the sprite with its top left corner at 0,0, exactly as it should look for its current sprite key.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param palette Colours to draw with.
+     */
+    void renderSprite(Graphics g, Palette palette);
+}
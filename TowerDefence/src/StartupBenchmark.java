@@ -0,0 +1,188 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * StartupBenchmark class:
+ * Times how long the game takes to start by launching it in new JVMs again and again.
+ * The game is started with Game.EXIT_AFTER_FIRST_FRAME_ARG so it reports the time from
+ * main() to its first frame and exits. The time for the whole process is also measured.
+ * With --headless the HeadlessRunner is timed playing one update instead, which needs no display.
+ *
+ * With --cds file an AppCDS archive of the loaded classes is made first by running the game
+ * once with -XX:ArchiveClassesAtExit, and the game is then timed both with and without it.
+ * The JVM can only archive classes from jars, so when this is run from a directory of classes
+ * they are first packed into file.jar and every launch uses that jar instead.
+ *
+ * Usage: java StartupBenchmark [--runs n] [--cds file] [--headless]
+ */
+public class StartupBenchmark {
+    /**
+     * Number of launches timed when --runs is not given.
+     */
+    private static final int DEFAULT_RUNS = 10;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args See the class description.
+     * @throws IOException If a JVM could not be started.
+     * @throws InterruptedException If interrupted while waiting for a JVM.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int runs = DEFAULT_RUNS;
+        String archiveFile = null;
+        boolean headless = false;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--runs") && i + 1 < args.length) runs = Integer.parseInt(args[++i]);
+            else if(args[i].equals("--cds") && i + 1 < args.length) archiveFile = args[++i];
+            else if(args[i].equals("--headless")) headless = true;
+            else {
+                System.out.println("Usage: java StartupBenchmark [--runs n] [--cds file] [--headless]");
+                System.exit(2);
+            }
+        }
+        List<String> target = headless
+                ? Arrays.asList("HeadlessRunner", "--max-ticks", "1")
+                : Arrays.asList("Game", Game.EXIT_AFTER_FIRST_FRAME_ARG);
+        String classPath = System.getProperty("java.class.path");
+        if(archiveFile != null && Files.isDirectory(Paths.get(classPath))) {
+            classPath = archiveFile + ".jar";
+            createJar(Paths.get(System.getProperty("java.class.path")), Paths.get(classPath));
+        }
+
+        timeLaunches("default", new ArrayList<>(), classPath, target, runs, !headless);
+        if(archiveFile != null) {
+            Files.deleteIfExists(Paths.get(archiveFile));
+            long startTime = System.nanoTime();
+            if(launch(List.of("-XX:ArchiveClassesAtExit=" + archiveFile), classPath, target) == null
+                    || !Files.exists(Paths.get(archiveFile))) {
+                System.out.println("ERROR: FAILED TO CREATE CDS ARCHIVE " + archiveFile);
+                System.exit(1);
+            }
+            System.out.printf("created %s (%d KB) in %dms%n", archiveFile, Files.size(Paths.get(archiveFile)) / 1024,
+                              (System.nanoTime() - startTime) / 1000000);
+            timeLaunches("appcds", List.of("-XX:SharedArchiveFile=" + archiveFile), classPath, target, runs, !headless);
+        }
+    }
+
+    /**
+     * Launches the target a number of times and prints the median times.
+     *
+     * @param label Name to print with the results.
+     * @param jvmOptions Extra options for the JVM.
+     * @param classPath Class path to run the target from.
+     * @param target Main class and its arguments.
+     * @param runs Number of launches to time.
+     * @param expectFirstFrame True if the target must report its first frame.
+     * @throws IOException If a JVM could not be started.
+     * @throws InterruptedException If interrupted while waiting for a JVM.
+     */
+    private static void timeLaunches(String label, List<String> jvmOptions, String classPath, List<String> target,
+                                     int runs, boolean expectFirstFrame) throws IOException, InterruptedException {
+        long[] processMillis = new long[runs];
+        long[] firstFrameMillis = new long[runs];
+        int firstFrameCount = 0;
+        for(int i = 0; i < runs; i++) {
+            long startTime = System.nanoTime();
+            List<String> output = launch(jvmOptions, classPath, target);
+            processMillis[i] = (System.nanoTime() - startTime) / 1000000;
+            if(output == null) {
+                System.out.println("ERROR: " + label + " launch " + i + " failed");
+                return;
+            }
+            for(String line : output) {
+                if(line.startsWith("FIRST_FRAME_MS ")) {
+                    firstFrameMillis[firstFrameCount++] = Long.parseLong(line.substring(15).trim());
+                }
+            }
+            if(expectFirstFrame && firstFrameCount != i + 1) {
+                output.forEach(System.out::println);
+                System.out.println("ERROR: " + label + " launch " + i + " never drew a frame");
+                return;
+            }
+        }
+        String firstFrame = firstFrameCount == 0 ? ""
+                : String.format(", first frame median %dms", median(Arrays.copyOf(firstFrameMillis, firstFrameCount)));
+        System.out.printf("%s: process median %dms (min %dms)%s over %d runs%n", label, median(processMillis),
+                          Arrays.stream(processMillis).min().getAsLong(), firstFrame, runs);
+    }
+
+    /**
+     * Starts a new JVM and waits for it to exit.
+     *
+     * @param jvmOptions Extra options for the JVM.
+     * @param classPath Class path to run the target from.
+     * @param target Main class and its arguments.
+     * @return Every line it printed, or null if it did not exit cleanly.
+     * @throws IOException If the JVM could not be started.
+     * @throws InterruptedException If interrupted while waiting for the JVM.
+     */
+    private static List<String> launch(List<String> jvmOptions, String classPath, List<String> target)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(classPath);
+        command.addAll(target);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        List<String> output = new ArrayList<>();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                output.add(line);
+            }
+        }
+        if(process.waitFor() != 0) {
+            output.forEach(System.out::println);
+            return null;
+        }
+        return output;
+    }
+
+    /**
+     * Packs every file in a directory of classes into a jar.
+     *
+     * @param directory Directory to pack.
+     * @param jarFile Jar to create.
+     * @throws IOException If the classes could not be read or the jar written.
+     */
+    private static void createJar(Path directory, Path jarFile) throws IOException {
+        List<Path> files;
+        try(Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        try(JarOutputStream jar = new JarOutputStream(Files.newOutputStream(jarFile))) {
+            for(Path file : files) {
+                jar.putNextEntry(new JarEntry(directory.relativize(file).toString().replace('\\', '/')));
+                Files.copy(file, jar);
+                jar.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Finds the middle value.
+     *
+     * @param values Values to search. They are sorted in place.
+     * @return The median.
+     */
+    private static long median(long[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+}
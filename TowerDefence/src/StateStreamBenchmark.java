@@ -0,0 +1,306 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * StateStreamBenchmark class:
+ * Streams a game to viewers over a local socket to measure what the state stream costs.
+ * One viewer watches from the start and a second joins part way through and starts from
+ * a keyframe. The game places, upgrades and sells towers on a schedule so every kind of
+ * change is sent. Every update a decoder on the sending side is checked against the game
+ * and at the end both viewers are checked too. Prints the average size of the changes and
+ * keyframes against a full GameSnapshot, the bandwidth at the normal update rate, and the
+ * time from sending each message to the viewer having applied it.
+ */
+public class StateStreamBenchmark {
+    /**
+     * Number of updates between each scripted input.
+     */
+    private static final int INPUT_INTERVAL_TICKS = 100;
+
+    /**
+     * Runs the game and the viewers.
+     *
+     * @param args Number of updates to run and the update when the second viewer joins.
+     * @throws IOException If the local socket could not be used.
+     * @throws InterruptedException If interrupted waiting for the viewers.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 1500;
+        int lateJoinTick = args.length > 1 ? Integer.parseInt(args[1]) : ticks / 3;
+
+        GameSimulation simulation = new GameSimulation();
+        StateStreamEncoder encoder = new StateStreamEncoder(simulation.getMap());
+        StateStreamDecoder mirror = new StateStreamDecoder(simulation.getMap());
+        GameSnapshot snapshot = new GameSnapshot();
+        List<Position> openTiles = simulation.getMap().getOpenTowerTiles();
+        Position scratch = new Position(0, 0);
+
+        ServerSocket serverSocket = new ServerSocket(0, 4, InetAddress.getLoopbackAddress());
+        List<Viewer> viewers = new ArrayList<>();
+        List<DataOutputStream> outputs = new ArrayList<>();
+        addViewer(serverSocket, viewers, outputs);
+        int joinedCount = 0;
+
+        long deltaBytes = 0, deltaCount = 0, keyframeBytes = 0, keyframeCount = 0, snapshotBytes = 0;
+        int mismatches = 0, tick = 0;
+        long nextUpdate = System.nanoTime();
+        while(tick < ticks && !simulation.isGameOver()) {
+            applyScriptedInput(simulation, tick, openTiles);
+            simulation.update(GamePanel.TIME_BETWEEN_UPDATES);
+            tick++;
+            if(tick == lateJoinTick) {
+                addViewer(serverSocket, viewers, outputs);
+            }
+
+            encoder.encodeDelta(simulation);
+            deltaBytes += encoder.getLength();
+            deltaCount++;
+            if(mirror.hasKeyframe()) {
+                mirror.decode(encoder.getData(), encoder.getLength());
+            }
+            boolean keyframeDue = encoder.isKeyframeDue();
+            if(!keyframeDue) {
+                for(int i = 0; i < joinedCount; i++) {
+                    send(outputs.get(i), encoder.getData(), encoder.getLength());
+                }
+            }
+            if(keyframeDue || joinedCount < viewers.size()) {
+                encoder.encodeKeyframe();
+                keyframeBytes += encoder.getLength();
+                keyframeCount++;
+                if(!mirror.hasKeyframe()) {
+                    mirror.decode(encoder.getData(), encoder.getLength());
+                }
+                for(int i = keyframeDue ? 0 : joinedCount; i < viewers.size(); i++) {
+                    send(outputs.get(i), encoder.getData(), encoder.getLength());
+                }
+                joinedCount = viewers.size();
+            }
+
+            if(!matches(mirror, simulation, scratch)) {
+                mismatches++;
+            }
+            snapshot.capture(simulation);
+            snapshotBytes += snapshot.getSize();
+
+            nextUpdate += GamePanel.TIME_BETWEEN_UPDATES * 1000000L;
+            long sleepNanos = nextUpdate - System.nanoTime();
+            if(sleepNanos > 0) {
+                Thread.sleep(sleepNanos / 1000000, (int)(sleepNanos % 1000000));
+            }
+        }
+
+        for(DataOutputStream output : outputs) {
+            output.writeInt(-1);
+            output.flush();
+        }
+        List<Long> latencies = new ArrayList<>();
+        boolean viewersMatch = true;
+        for(Viewer viewer : viewers) {
+            viewer.join();
+            viewersMatch &= matches(viewer.decoder, simulation, scratch);
+            for(int i = 0; i < viewer.messageCount; i++) {
+                latencies.add(viewer.latencies[i]);
+            }
+        }
+        for(DataOutputStream output : outputs) {
+            output.close();
+        }
+        serverSocket.close();
+
+        double averageDelta = deltaBytes / (double)deltaCount;
+        double updatesPerSecond = 1000.0 / GamePanel.TIME_BETWEEN_UPDATES;
+        System.out.printf("updates=%d enemies at end=%d%n", tick, mirror.getEnemyCount());
+        System.out.printf("changes: average %.1f bytes, %.1f kbit/s at %.0f updates/s%n", averageDelta,
+                          averageDelta * 8 * updatesPerSecond / 1000, updatesPerSecond);
+        System.out.printf("keyframes: %d, average %.1f bytes%n", keyframeCount, keyframeBytes / (double)keyframeCount);
+        System.out.printf("full snapshot: average %.1f bytes, %.1f kbit/s%n", snapshotBytes / (double)deltaCount,
+                          snapshotBytes / (double)deltaCount * 8 * updatesPerSecond / 1000);
+        long[] sorted = new long[latencies.size()];
+        for(int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        if(sorted.length > 0) {
+            System.out.printf("latency: p50 %.0fus, p99 %.0fus, max %.0fus over %d messages%n",
+                              sorted[sorted.length / 2] / 1e3, sorted[(int)(sorted.length * 0.99)] / 1e3,
+                              sorted[sorted.length - 1] / 1e3, sorted.length);
+        }
+        System.out.println("mismatched updates: " + mismatches + ", viewers match at end: " + viewersMatch);
+    }
+
+    /**
+     * Places, upgrades or sells a tower on a fixed schedule so towers change during the game.
+     *
+     * @param simulation The game.
+     * @param tick Current update.
+     * @param openTiles Tiles where towers can be placed.
+     */
+    private static void applyScriptedInput(GameSimulation simulation, int tick, List<Position> openTiles) {
+        if(tick % INPUT_INTERVAL_TICKS != 0 || openTiles.isEmpty()) return;
+        int step = tick / INPUT_INTERVAL_TICKS;
+        Position tile = openTiles.get(step * 7 % openTiles.size());
+        if(step % 5 == 3) {
+            simulation.applyInput(GameSimulation.INPUT_UPGRADE_TOWER, tile.x, tile.y, 0);
+        } else if(step % 5 == 4) {
+            simulation.applyInput(GameSimulation.INPUT_SELL_TOWER, tile.x, tile.y, 0);
+        } else {
+            simulation.applyInput(GameSimulation.INPUT_PLACE_TOWER, tile.x, tile.y,
+                                  step % Tower.TowerType.values().length);
+        }
+    }
+
+    /**
+     * Connects a new viewer and accepts its connection.
+     *
+     * @param serverSocket Socket the viewers connect to.
+     * @param viewers List to add the viewer to.
+     * @param outputs List to add the stream to the viewer to.
+     * @throws IOException If the viewer could not connect.
+     */
+    private static void addViewer(ServerSocket serverSocket, List<Viewer> viewers,
+                                  List<DataOutputStream> outputs) throws IOException {
+        Viewer viewer = new Viewer(serverSocket.getLocalPort());
+        viewer.start();
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        viewers.add(viewer);
+        outputs.add(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+    }
+
+    /**
+     * Sends one message with its length and the time it was sent.
+     *
+     * @param output Stream to the viewer.
+     * @param data Message data.
+     * @param length Length of the message.
+     * @throws IOException If the message could not be sent.
+     */
+    private static void send(DataOutputStream output, byte[] data, int length) throws IOException {
+        output.writeInt(length);
+        output.writeLong(System.nanoTime());
+        output.write(data, 0, length);
+        output.flush();
+    }
+
+    /**
+     * Checks that a decoder holds the same state as the game.
+     *
+     * @param decoder The decoder to check.
+     * @param simulation The game.
+     * @param scratch Position to reuse.
+     * @return True if everything matches.
+     */
+    private static boolean matches(StateStreamDecoder decoder, GameSimulation simulation, Position scratch) {
+        if(decoder.getTick() != (int)simulation.getCurrentTick() || decoder.getCash() != simulation.getCash()
+                || decoder.getScore() != simulation.getScore() || decoder.getBaseHealth() != simulation.getBaseHealth()
+                || decoder.isGameOver() != simulation.isGameOver()) {
+            return false;
+        }
+        int index = 0;
+        for(EnemyUnit enemyUnit : simulation.getEnemyUnitManager().getActiveEnemies()) {
+            if(enemyUnit.isExpired()) continue;
+            if(index >= decoder.getEnemyCount()) return false;
+            decoder.getEnemyPosition(index, scratch);
+            if(decoder.getEnemyType(index) != enemyUnit.getEnemyType()
+                    || decoder.getEnemyHealth(index) != enemyUnit.getHealth()
+                    || decoder.getEnemyMaxHealth(index) != enemyUnit.getMaxHealth()
+                    || !scratch.equals(enemyUnit.getPosition())) {
+                return false;
+            }
+            index++;
+        }
+        if(index != decoder.getEnemyCount()) return false;
+
+        Map map = simulation.getMap();
+        int towerCount = 0;
+        for(Tower tower : map.getActiveTowers()) {
+            int tileX = tower.getPosition().x / Map.BLOCK_SIZE, tileY = tower.getPosition().y / Map.BLOCK_SIZE;
+            if(decoder.getTowerType(tileX, tileY) != tower.getTowerType()
+                    || decoder.getTowerLevel(tileX, tileY) != tower.getLevel()) {
+                return false;
+            }
+            towerCount++;
+        }
+        for(int x = 0; x < map.getWidthInTiles(); x++) {
+            for(int y = 0; y < map.getHeightInTiles(); y++) {
+                if(decoder.getTowerType(x, y) != null) towerCount--;
+            }
+        }
+        return towerCount == 0;
+    }
+
+    /**
+     * A viewer that connects, reads messages into its own decoder, and records how
+     * long each message took to arrive and be applied.
+     */
+    private static class Viewer extends Thread {
+        /**
+         * Port to connect to.
+         */
+        private final int port;
+        /**
+         * The viewer's copy of the state.
+         */
+        private final StateStreamDecoder decoder;
+        /**
+         * Time from sending to applying each message in nanoseconds.
+         */
+        private long[] latencies;
+        /**
+         * Number of messages received.
+         */
+        private int messageCount;
+
+        /**
+         * Creates a viewer ready to connect.
+         *
+         * @param port Port to connect to.
+         */
+        public Viewer(int port) {
+            this.port = port;
+            decoder = new StateStreamDecoder(new GameSimulation().getMap());
+            latencies = new long[1024];
+            setDaemon(true);
+        }
+
+        /**
+         * Reads messages until the end marker arrives.
+         */
+        @Override
+        public void run() {
+            try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                byte[] data = new byte[1024];
+                int length;
+                while((length = input.readInt()) >= 0) {
+                    long sentTime = input.readLong();
+                    if(length > data.length) {
+                        data = new byte[Math.max(length, data.length * 2)];
+                    }
+                    input.readFully(data, 0, length);
+                    decoder.decode(data, length);
+                    if(messageCount == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, messageCount * 2);
+                    }
+                    latencies[messageCount++] = System.nanoTime() - sentTime;
+                }
+            } catch(IOException e) {
+                System.out.println("ERROR: VIEWER LOST CONNECTION");
+                e.printStackTrace();
+            }
+        }
+    }
+}
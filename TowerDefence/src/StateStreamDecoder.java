@@ -0,0 +1,384 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * StateStreamDecoder class:
+ * Rebuilds the state of a game from the messages made by a StateStreamEncoder.
+ * This is what a spectator or remote client holds instead of a full GameSimulation:
+ * the cash, score and base health, every enemy's type, position and health, and the
+ * tower on each tile. Changes are ignored until the first keyframe arrives.
+ */
+public class StateStreamDecoder {
+    /**
+     * Path the enemies follow, used to turn path progress back into positions.
+     */
+    private final List<AIWaypoint> waypoints;
+    /**
+     * True when enemy positions are sent as progress along the path, false for x and y.
+     */
+    private final boolean pathRelative;
+    /**
+     * Reads each message.
+     */
+    private final BitReader reader;
+    /**
+     * True once a keyframe has been read.
+     */
+    private boolean hasKeyframe;
+    /**
+     * Tick of the last message.
+     */
+    private int tick;
+    /**
+     * Current cash.
+     */
+    private int cash;
+    /**
+     * Current score.
+     */
+    private int score;
+    /**
+     * Current base health.
+     */
+    private int baseHealth;
+    /**
+     * Whether the game is over.
+     */
+    private boolean gameOver;
+    /**
+     * Number of enemies.
+     */
+    private int enemyCount;
+    /**
+     * Type of each enemy.
+     */
+    private int[] enemyType;
+    /**
+     * Path progress, or x in maze mode, of each enemy.
+     */
+    private int[] enemyPositionA;
+    /**
+     * Y of each enemy in maze mode.
+     */
+    private int[] enemyPositionB;
+    /**
+     * Health of each enemy.
+     */
+    private int[] enemyHealth;
+    /**
+     * Maximum health of each enemy.
+     */
+    private int[] enemyMaxHealth;
+    /**
+     * Tower code for each tile, see getTowerType() and getTowerLevel().
+     */
+    private final int[] towers;
+    /**
+     * Number of tiles across the map.
+     */
+    private final int mapWidth;
+    /**
+     * Indices of the enemies removed by the message being read.
+     */
+    private int[] removedIndices;
+
+    /**
+     * Creates a decoder for games on the given map.
+     *
+     * @param map The map the games are played on.
+     */
+    public StateStreamDecoder(Map map) {
+        waypoints = map.getWaypoints();
+        pathRelative = map.getDistanceField() == null;
+        reader = new BitReader();
+        mapWidth = map.getWidthInTiles();
+        towers = new int[mapWidth * map.getHeightInTiles()];
+        enemyType = new int[64];
+        enemyPositionA = new int[64];
+        enemyPositionB = new int[64];
+        enemyHealth = new int[64];
+        enemyMaxHealth = new int[64];
+        removedIndices = new int[64];
+        hasKeyframe = false;
+    }
+
+    /**
+     * Applies one message.
+     *
+     * @param data Message data.
+     * @param length Length of the message in bytes.
+     * @return True if the message was applied, false if it was changes and no keyframe has arrived yet.
+     * @throws IndexOutOfBoundsException If the message was cut short.
+     */
+    public boolean decode(byte[] data, int length) {
+        reader.setData(data, length);
+        if(reader.readBoolean()) {
+            readKeyframe();
+            hasKeyframe = true;
+            return true;
+        }
+        if(!hasKeyframe) {
+            return false;
+        }
+        readDelta();
+        return true;
+    }
+
+    /**
+     * Checks if a keyframe has been read so the state is usable.
+     *
+     * @return True once a keyframe has arrived.
+     */
+    public boolean hasKeyframe() {
+        return hasKeyframe;
+    }
+
+    /**
+     * Gets the tick of the last message.
+     *
+     * @return The tick.
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Gets the cash.
+     *
+     * @return The cash.
+     */
+    public int getCash() {
+        return cash;
+    }
+
+    /**
+     * Gets the score.
+     *
+     * @return The score.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Gets the base health.
+     *
+     * @return The base health.
+     */
+    public int getBaseHealth() {
+        return baseHealth;
+    }
+
+    /**
+     * Checks if the game is over.
+     *
+     * @return True if the game has ended.
+     */
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    /**
+     * Gets the number of enemies.
+     *
+     * @return Number of enemies.
+     */
+    public int getEnemyCount() {
+        return enemyCount;
+    }
+
+    /**
+     * Gets the type of an enemy.
+     *
+     * @param index Index of the enemy, in the same order as EnemyUnitManager.
+     * @return The enemy type.
+     */
+    public EnemyUnit.EnemyType getEnemyType(int index) {
+        return EnemyUnit.EnemyType.values()[enemyType[index]];
+    }
+
+    /**
+     * Gets the health of an enemy.
+     *
+     * @param index Index of the enemy.
+     * @return Current health.
+     */
+    public int getEnemyHealth(int index) {
+        return enemyHealth[index];
+    }
+
+    /**
+     * Gets the maximum health of an enemy.
+     *
+     * @param index Index of the enemy.
+     * @return Maximum health.
+     */
+    public int getEnemyMaxHealth(int index) {
+        return enemyMaxHealth[index];
+    }
+
+    /**
+     * Gets the position of an enemy, working it out from the path if progress was sent.
+     *
+     * @param index Index of the enemy.
+     * @param result Position to set, so no object is made for each enemy.
+     */
+    public void getEnemyPosition(int index, Position result) {
+        if(!pathRelative) {
+            result.setPosition(enemyPositionA[index], enemyPositionB[index]);
+            return;
+        }
+        int progress = enemyPositionA[index];
+        // Waypoints are stored from the end of the path back to the start.
+        for(int i = waypoints.size() - 1; i > 0; i--) {
+            AIWaypoint from = waypoints.get(i);
+            AIWaypoint to = waypoints.get(i - 1);
+            if(progress <= to.getPathProgress()) {
+                int remaining = Math.max(0, to.getPathProgress() - progress);
+                Position toPosition = to.getPosition(), fromPosition = from.getPosition();
+                result.setPosition(toPosition.x + Integer.signum(fromPosition.x - toPosition.x) * remaining,
+                                   toPosition.y + Integer.signum(fromPosition.y - toPosition.y) * remaining);
+                return;
+            }
+        }
+        result.setPosition(waypoints.get(0).getPosition().x, waypoints.get(0).getPosition().y);
+    }
+
+    /**
+     * Gets the type of tower on a tile.
+     *
+     * @param tileX X tile coordinate.
+     * @param tileY Y tile coordinate.
+     * @return The tower type, or null if the tile has no tower.
+     */
+    public Tower.TowerType getTowerType(int tileX, int tileY) {
+        int code = towers[tileX + tileY * mapWidth];
+        return code == 0 ? null : Tower.TowerType.values()[(code >> StateStreamEncoder.TOWER_LEVEL_BITS) - 1];
+    }
+
+    /**
+     * Gets the level of the tower on a tile.
+     *
+     * @param tileX X tile coordinate.
+     * @param tileY Y tile coordinate.
+     * @return The tower level, or 0 if the tile has no tower.
+     */
+    public int getTowerLevel(int tileX, int tileY) {
+        return towers[tileX + tileY * mapWidth] & ((1 << StateStreamEncoder.TOWER_LEVEL_BITS) - 1);
+    }
+
+    /**
+     * Replaces the whole state with a keyframe.
+     */
+    private void readKeyframe() {
+        tick = reader.readVarUnsigned();
+        cash = reader.readVarUnsigned();
+        score = reader.readVarUnsigned();
+        baseHealth = reader.readVarUnsigned();
+        gameOver = reader.readBoolean();
+
+        enemyCount = 0;
+        int count = reader.readVarUnsigned();
+        for(int i = 0; i < count; i++) {
+            readNewEnemy();
+        }
+
+        Arrays.fill(towers, 0);
+        int towerCount = reader.readVarUnsigned();
+        int tile = -1;
+        for(int i = 0; i < towerCount; i++) {
+            tile += reader.readVarUnsigned() + 1;
+            towers[tile] = reader.readBits(StateStreamEncoder.TOWER_CODE_BITS);
+        }
+    }
+
+    /**
+     * Applies a message of changes.
+     */
+    private void readDelta() {
+        tick += reader.readVarSigned();
+        if(reader.readBoolean()) cash = reader.readVarUnsigned();
+        if(reader.readBoolean()) score = reader.readVarUnsigned();
+        if(reader.readBoolean()) baseHealth = reader.readVarUnsigned();
+        gameOver = reader.readBoolean();
+
+        // Removed enemies are listed first, then the changes for those left in order.
+        int removedCount = reader.readVarUnsigned();
+        if(removedCount > removedIndices.length) {
+            removedIndices = new int[Math.max(removedCount, removedIndices.length * 2)];
+        }
+        int lastRemoved = -1;
+        for(int i = 0; i < removedCount; i++) {
+            lastRemoved += reader.readVarUnsigned() + 1;
+            removedIndices[i] = lastRemoved;
+        }
+        int removedRead = 0;
+        int kept = 0;
+        for(int i = 0; i < enemyCount; i++) {
+            if(removedRead < removedCount && removedIndices[removedRead] == i) {
+                removedRead++;
+                continue;
+            }
+            moveEnemy(i, kept);
+            if(reader.readBoolean()) {
+                enemyPositionA[kept] += reader.readVarSigned();
+                if(!pathRelative) enemyPositionB[kept] += reader.readVarSigned();
+            }
+            if(reader.readBoolean()) {
+                enemyHealth[kept] = reader.readVarUnsigned();
+            }
+            kept++;
+        }
+        enemyCount = kept;
+
+        int spawnCount = reader.readVarUnsigned();
+        for(int i = 0; i < spawnCount; i++) {
+            readNewEnemy();
+        }
+
+        int changeCount = reader.readVarUnsigned();
+        int tile = -1;
+        for(int i = 0; i < changeCount; i++) {
+            tile += reader.readVarUnsigned() + 1;
+            towers[tile] = reader.readBits(StateStreamEncoder.TOWER_CODE_BITS);
+        }
+    }
+
+    /**
+     * Reads a new enemy and adds it to the end.
+     */
+    private void readNewEnemy() {
+        if(enemyCount == enemyType.length) {
+            int capacity = enemyCount * 2;
+            enemyType = Arrays.copyOf(enemyType, capacity);
+            enemyPositionA = Arrays.copyOf(enemyPositionA, capacity);
+            enemyPositionB = Arrays.copyOf(enemyPositionB, capacity);
+            enemyHealth = Arrays.copyOf(enemyHealth, capacity);
+            enemyMaxHealth = Arrays.copyOf(enemyMaxHealth, capacity);
+        }
+        int index = enemyCount++;
+        enemyType[index] = reader.readBits(StateStreamEncoder.ENEMY_TYPE_BITS);
+        enemyPositionA[index] = reader.readVarSigned();
+        enemyPositionB[index] = pathRelative ? 0 : reader.readVarSigned();
+        enemyHealth[index] = reader.readVarUnsigned();
+        enemyMaxHealth[index] = reader.readVarUnsigned();
+    }
+
+    /**
+     * Moves an enemy to a lower index.
+     *
+     * @param from Index to move from.
+     * @param to Index to move to.
+     */
+    private void moveEnemy(int from, int to) {
+        if(from == to) return;
+        enemyType[to] = enemyType[from];
+        enemyPositionA[to] = enemyPositionA[from];
+        enemyPositionB[to] = enemyPositionB[from];
+        enemyHealth[to] = enemyHealth[from];
+        enemyMaxHealth[to] = enemyMaxHealth[from];
+    }
+}
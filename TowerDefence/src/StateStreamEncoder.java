@@ -0,0 +1,438 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * StateStreamEncoder class:
+ * Turns a game into a stream of small bit packed messages for spectators and remote clients.
+ * Each update only the changes since the last message are sent: enemies that were removed,
+ * how far each remaining enemy moved and its health if that changed, new enemies, towers that
+ * were placed, upgraded or sold, and the cash, score and base health if they changed.
+ * Enemies are kept in the same order as EnemyUnitManager keeps them, so they never need ids:
+ * a removal is the index it had in the last message and new enemies are always added at the end.
+ * Enemy positions are sent as their progress along the waypoint path, which is exact because
+ * the path only has straight lines between the waypoints. In maze mode there is no fixed path
+ * so the x and y are sent instead.
+ *
+ * A keyframe holds the full state instead of the changes. One is due every
+ * KEYFRAME_INTERVAL_TICKS, and one can be made at any time for a viewer that has just joined,
+ * after which that viewer can follow the changes like everyone else.
+ * StateStreamDecoder rebuilds the state from the messages.
+ */
+public class StateStreamEncoder {
+    /**
+     * Number of updates between keyframes.
+     */
+    public static final int KEYFRAME_INTERVAL_TICKS = 250;
+    /**
+     * Bits used to send an enemy type.
+     */
+    static final int ENEMY_TYPE_BITS = 2;
+    /**
+     * Bits used to send a tower as (type+1) and level, with 0 meaning no tower.
+     */
+    static final int TOWER_CODE_BITS = 5;
+    /**
+     * Bits of the tower code used for the level.
+     */
+    static final int TOWER_LEVEL_BITS = 2;
+
+    /**
+     * True when enemy positions are sent as progress along the path, false to send x and y.
+     */
+    private final boolean pathRelative;
+    /**
+     * Number of tiles across the map, used to number the tiles for towers.
+     */
+    private final int mapWidth;
+    /**
+     * Where each message is written, reused for every message.
+     */
+    private final BitWriter writer;
+    /**
+     * Enemies as of the last message, in order.
+     */
+    private EnemyUnit[] sentEnemies;
+    /**
+     * Generation of each sent enemy, so a recycled enemy is not mistaken for the one it replaced.
+     */
+    private int[] sentGeneration;
+    /**
+     * Type of each sent enemy.
+     */
+    private int[] sentType;
+    /**
+     * Path progress, or x in maze mode, of each sent enemy.
+     */
+    private int[] sentPositionA;
+    /**
+     * Y of each sent enemy in maze mode. Not used when following the path.
+     */
+    private int[] sentPositionB;
+    /**
+     * Health of each sent enemy.
+     */
+    private int[] sentHealth;
+    /**
+     * Maximum health of each sent enemy.
+     */
+    private int[] sentMaxHealth;
+    /**
+     * Number of enemies as of the last message.
+     */
+    private int sentEnemyCount;
+    /**
+     * Indices of the sent enemies that are removed in the message being written.
+     */
+    private int[] removedIndices;
+    /**
+     * Tower code for each tile as of the last message.
+     */
+    private int[] sentTowers;
+    /**
+     * Tower code for each tile now, reused while writing each message.
+     */
+    private int[] currentTowers;
+    /**
+     * Tick as of the last message.
+     */
+    private int sentTick;
+    /**
+     * Cash as of the last message.
+     */
+    private int sentCash;
+    /**
+     * Score as of the last message.
+     */
+    private int sentScore;
+    /**
+     * Base health as of the last message.
+     */
+    private int sentBaseHealth;
+    /**
+     * Whether the game was over as of the last message.
+     */
+    private boolean sentGameOver;
+    /**
+     * Number of messages since the last keyframe was made.
+     */
+    private int ticksSinceKeyframe;
+
+    /**
+     * Creates an encoder for games on the given map. Nothing has been sent yet,
+     * so the first message should be a keyframe.
+     *
+     * @param map The map the games are played on.
+     */
+    public StateStreamEncoder(Map map) {
+        pathRelative = map.getDistanceField() == null;
+        mapWidth = map.getWidthInTiles();
+        writer = new BitWriter(1024);
+        sentEnemies = new EnemyUnit[64];
+        sentGeneration = new int[64];
+        sentType = new int[64];
+        sentPositionA = new int[64];
+        sentPositionB = new int[64];
+        sentHealth = new int[64];
+        sentMaxHealth = new int[64];
+        removedIndices = new int[64];
+        sentTowers = new int[mapWidth * map.getHeightInTiles()];
+        currentTowers = new int[sentTowers.length];
+        ticksSinceKeyframe = KEYFRAME_INTERVAL_TICKS;
+    }
+
+    /**
+     * Writes the changes since the last message and remembers the new state.
+     * Must be called once after every update, even if only keyframes are being sent.
+     *
+     * @param simulation The game to send.
+     */
+    public void encodeDelta(GameSimulation simulation) {
+        writer.reset();
+        writer.writeBoolean(false);
+        ticksSinceKeyframe++;
+
+        int tick = (int)simulation.getCurrentTick();
+        writer.writeVarSigned(tick - sentTick);
+        sentTick = tick;
+        writeIfChanged(simulation.getCash(), sentCash);
+        sentCash = simulation.getCash();
+        writeIfChanged(simulation.getScore(), sentScore);
+        sentScore = simulation.getScore();
+        writeIfChanged(simulation.getBaseHealth(), sentBaseHealth);
+        sentBaseHealth = simulation.getBaseHealth();
+        writer.writeBoolean(simulation.isGameOver());
+        sentGameOver = simulation.isGameOver();
+
+        writeEnemyChanges(simulation.getEnemyUnitManager().getActiveEnemies());
+        writeTowerChanges(simulation.getMap().getActiveTowers());
+    }
+
+    /**
+     * Writes the full state as of the last call to encodeDelta(). Replaces the changes
+     * that were written, so send the changes to existing viewers before calling this.
+     */
+    public void encodeKeyframe() {
+        writer.reset();
+        writer.writeBoolean(true);
+        ticksSinceKeyframe = 0;
+
+        writer.writeVarUnsigned(sentTick);
+        writer.writeVarUnsigned(sentCash);
+        writer.writeVarUnsigned(sentScore);
+        writer.writeVarUnsigned(sentBaseHealth);
+        writer.writeBoolean(sentGameOver);
+
+        writer.writeVarUnsigned(sentEnemyCount);
+        for(int i = 0; i < sentEnemyCount; i++) {
+            writeNewEnemy(i);
+        }
+
+        int towerCount = 0;
+        for(int code : sentTowers) {
+            if(code != 0) towerCount++;
+        }
+        writer.writeVarUnsigned(towerCount);
+        int lastTile = -1;
+        for(int tile = 0; tile < sentTowers.length; tile++) {
+            if(sentTowers[tile] == 0) continue;
+            writer.writeVarUnsigned(tile - lastTile - 1);
+            writer.writeBits(sentTowers[tile], TOWER_CODE_BITS);
+            lastTile = tile;
+        }
+    }
+
+    /**
+     * Checks if it is time to send everyone a keyframe.
+     *
+     * @return True if KEYFRAME_INTERVAL_TICKS messages have been sent since the last keyframe.
+     */
+    public boolean isKeyframeDue() {
+        return ticksSinceKeyframe >= KEYFRAME_INTERVAL_TICKS;
+    }
+
+    /**
+     * Gets the array holding the last message. Only the first getLength() bytes are used,
+     * and it is overwritten by the next message.
+     *
+     * @return The message data.
+     */
+    public byte[] getData() {
+        return writer.getData();
+    }
+
+    /**
+     * Gets the length of the last message.
+     *
+     * @return Length in bytes.
+     */
+    public int getLength() {
+        return writer.getLength();
+    }
+
+    /**
+     * Writes a flag saying if a value changed, followed by the value if it did.
+     *
+     * @param value The value now.
+     * @param sentValue The value as of the last message.
+     */
+    private void writeIfChanged(int value, int sentValue) {
+        writer.writeBoolean(value != sentValue);
+        if(value != sentValue) {
+            writer.writeVarUnsigned(value);
+        }
+    }
+
+    /**
+     * Matches the active enemies against the enemies that were sent, then writes the removed
+     * enemies, the changes to the remaining enemies, and the new enemies.
+     *
+     * @param activeEnemies The active enemies in order.
+     */
+    private void writeEnemyChanges(List<EnemyUnit> activeEnemies) {
+        int removedCount = 0;
+        int keptCount = 0;
+        int active = 0;
+        int activeSize = activeEnemies.size();
+        // Find which sent enemies are gone. Enemies keep their order so one pass over both lists is enough.
+        for(int i = 0; i < sentEnemyCount; i++) {
+            EnemyUnit sentEnemy = sentEnemies[i];
+            while(active < activeSize && activeEnemies.get(active).isExpired()
+                    && activeEnemies.get(active) != sentEnemy) {
+                active++;
+            }
+            if(active < activeSize && activeEnemies.get(active) == sentEnemy
+                    && sentEnemy.getGeneration() == sentGeneration[i]) {
+                active++;
+                if(!sentEnemy.isExpired()) {
+                    keptCount++;
+                    continue;
+                }
+            }
+            if(removedCount == removedIndices.length) {
+                removedIndices = Arrays.copyOf(removedIndices, removedCount * 2);
+            }
+            removedIndices[removedCount++] = i;
+        }
+
+        writer.writeVarUnsigned(removedCount);
+        int lastRemoved = -1;
+        for(int i = 0; i < removedCount; i++) {
+            writer.writeVarUnsigned(removedIndices[i] - lastRemoved - 1);
+            lastRemoved = removedIndices[i];
+        }
+
+        // Write the changes for the enemies that are still there and move them down over the removed ones.
+        int nextRemoved = 0;
+        int kept = 0;
+        for(int i = 0; i < sentEnemyCount; i++) {
+            if(nextRemoved < removedCount && removedIndices[nextRemoved] == i) {
+                nextRemoved++;
+                continue;
+            }
+            EnemyUnit enemyUnit = sentEnemies[i];
+            copySentEnemy(i, kept);
+            int positionA = getPositionA(enemyUnit), positionB = getPositionB(enemyUnit);
+            boolean moved = positionA != sentPositionA[kept] || positionB != sentPositionB[kept];
+            writer.writeBoolean(moved);
+            if(moved) {
+                writer.writeVarSigned(positionA - sentPositionA[kept]);
+                if(!pathRelative) writer.writeVarSigned(positionB - sentPositionB[kept]);
+                sentPositionA[kept] = positionA;
+                sentPositionB[kept] = positionB;
+            }
+            boolean healthChanged = enemyUnit.getHealth() != sentHealth[kept];
+            writer.writeBoolean(healthChanged);
+            if(healthChanged) {
+                writer.writeVarUnsigned(enemyUnit.getHealth());
+                sentHealth[kept] = enemyUnit.getHealth();
+            }
+            kept++;
+        }
+        for(int i = kept; i < sentEnemyCount; i++) {
+            sentEnemies[i] = null;
+        }
+        sentEnemyCount = keptCount;
+
+        // Anything after the last matched enemy is new.
+        int spawnCount = 0;
+        for(int i = active; i < activeSize; i++) {
+            if(!activeEnemies.get(i).isExpired()) spawnCount++;
+        }
+        writer.writeVarUnsigned(spawnCount);
+        for(int i = active; i < activeSize; i++) {
+            EnemyUnit enemyUnit = activeEnemies.get(i);
+            if(enemyUnit.isExpired()) continue;
+            int index = addSentEnemy(enemyUnit);
+            writeNewEnemy(index);
+        }
+    }
+
+    /**
+     * Writes everything about a sent enemy, for new enemies and keyframes.
+     *
+     * @param index Index of the sent enemy.
+     */
+    private void writeNewEnemy(int index) {
+        writer.writeBits(sentType[index], ENEMY_TYPE_BITS);
+        writer.writeVarSigned(sentPositionA[index]);
+        if(!pathRelative) writer.writeVarSigned(sentPositionB[index]);
+        writer.writeVarUnsigned(sentHealth[index]);
+        writer.writeVarUnsigned(sentMaxHealth[index]);
+    }
+
+    /**
+     * Writes every tile where the tower changed.
+     *
+     * @param activeTowers All the towers on the map.
+     */
+    private void writeTowerChanges(List<Tower> activeTowers) {
+        Arrays.fill(currentTowers, 0);
+        for(Tower tower : activeTowers) {
+            int tile = tower.getPosition().x / Map.BLOCK_SIZE + tower.getPosition().y / Map.BLOCK_SIZE * mapWidth;
+            currentTowers[tile] = ((tower.getTowerType().ordinal() + 1) << TOWER_LEVEL_BITS) | tower.getLevel();
+        }
+        int changeCount = 0;
+        for(int tile = 0; tile < currentTowers.length; tile++) {
+            if(currentTowers[tile] != sentTowers[tile]) changeCount++;
+        }
+        writer.writeVarUnsigned(changeCount);
+        int lastTile = -1;
+        for(int tile = 0; tile < currentTowers.length; tile++) {
+            if(currentTowers[tile] == sentTowers[tile]) continue;
+            writer.writeVarUnsigned(tile - lastTile - 1);
+            writer.writeBits(currentTowers[tile], TOWER_CODE_BITS);
+            lastTile = tile;
+        }
+        int[] swap = sentTowers;
+        sentTowers = currentTowers;
+        currentTowers = swap;
+    }
+
+    /**
+     * Adds a new enemy to the end of the sent enemies.
+     *
+     * @param enemyUnit The new enemy.
+     * @return Index of the enemy.
+     */
+    private int addSentEnemy(EnemyUnit enemyUnit) {
+        if(sentEnemyCount == sentEnemies.length) {
+            int capacity = sentEnemyCount * 2;
+            sentEnemies = Arrays.copyOf(sentEnemies, capacity);
+            sentGeneration = Arrays.copyOf(sentGeneration, capacity);
+            sentType = Arrays.copyOf(sentType, capacity);
+            sentPositionA = Arrays.copyOf(sentPositionA, capacity);
+            sentPositionB = Arrays.copyOf(sentPositionB, capacity);
+            sentHealth = Arrays.copyOf(sentHealth, capacity);
+            sentMaxHealth = Arrays.copyOf(sentMaxHealth, capacity);
+        }
+        int index = sentEnemyCount++;
+        sentEnemies[index] = enemyUnit;
+        sentGeneration[index] = enemyUnit.getGeneration();
+        sentType[index] = enemyUnit.getEnemyType().ordinal();
+        sentPositionA[index] = getPositionA(enemyUnit);
+        sentPositionB[index] = getPositionB(enemyUnit);
+        sentHealth[index] = enemyUnit.getHealth();
+        sentMaxHealth[index] = enemyUnit.getMaxHealth();
+        return index;
+    }
+
+    /**
+     * Moves a sent enemy to a lower index.
+     *
+     * @param from Index to move from.
+     * @param to Index to move to.
+     */
+    private void copySentEnemy(int from, int to) {
+        if(from == to) return;
+        sentEnemies[to] = sentEnemies[from];
+        sentGeneration[to] = sentGeneration[from];
+        sentType[to] = sentType[from];
+        sentPositionA[to] = sentPositionA[from];
+        sentPositionB[to] = sentPositionB[from];
+        sentHealth[to] = sentHealth[from];
+        sentMaxHealth[to] = sentMaxHealth[from];
+    }
+
+    /**
+     * Gets the first part of the position that is sent for an enemy.
+     *
+     * @param enemyUnit The enemy.
+     * @return Progress along the path, or x in maze mode.
+     */
+    private int getPositionA(EnemyUnit enemyUnit) {
+        return pathRelative ? enemyUnit.getPathProgress() : enemyUnit.getPosition().x;
+    }
+
+    /**
+     * Gets the second part of the position that is sent for an enemy.
+     *
+     * @param enemyUnit The enemy.
+     * @return Y in maze mode, or 0 when following the path.
+     */
+    private int getPositionB(EnemyUnit enemyUnit) {
+        return pathRelative ? 0 : enemyUnit.getPosition().y;
+    }
+}
@@ -29,6 +29,7 @@ public class TargetChooserAllInRangeBehaviour implements TargetChooserBehaviour{
      */
     @Override
     public List<EnemyUnit> chooseTargets() {
-        return TowerAI.getTargetsInRange(towerReference.getCentre(), towerReference.getRange());
+        return TowerAI.getTargetsInRange(towerReference.getEnemyUnitManager().getActiveEnemies(),
+                                         towerReference.getCentre(), towerReference.getRange());
     }
 }
@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * TargetChooserIndexedBehaviour class:
+ * Base for the behaviours that choose a single target using the TargetIndex that
+ * the EnemyUnitManager builds once per update, instead of searching every enemy.
+ */
+abstract class TargetChooserIndexedBehaviour implements TargetChooserBehaviour {
+    /**
+     * Reference to the tower that will be using this behaviour.
+     */
+    private Tower towerReference;
+
+    /**
+     * Creates the behaviour ready to use.
+     *
+     * @param towerReference Reference to the tower that will be using this behaviour.
+     */
+    public TargetChooserIndexedBehaviour(Tower towerReference) {
+        this.towerReference = towerReference;
+    }
+
+    /**
+     * Gets a list with up to one enemy chosen from the index.
+     *
+     * @return A list with one or no enemy targets.
+     */
+    @Override
+    public List<EnemyUnit> chooseTargets() {
+        List<EnemyUnit> targetList = new ArrayList<>();
+        EnemyUnit singleTarget = chooseTarget(towerReference.getEnemyUnitManager().getTargetIndex(), towerReference);
+        if(singleTarget != null) {
+            targetList.add(singleTarget);
+        }
+        return targetList;
+    }
+
+    /**
+     * Chooses a single target from the index.
+     *
+     * @param targetIndex The index of enemies for this update.
+     * @param tower The tower choosing a target.
+     * @return The chosen enemy, or null if there are none in range.
+     */
+    protected abstract EnemyUnit chooseTarget(TargetIndex targetIndex, Tower tower);
+}
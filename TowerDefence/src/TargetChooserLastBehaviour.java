@@ -0,0 +1,29 @@
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * TargetChooserLastBehaviour class:
+ * Defines a behaviour that chooses the enemy least far along the path on the part of the path the tower covers.
+ */
+class TargetChooserLastBehaviour extends TargetChooserIndexedBehaviour {
+    /**
+     * Creates the behaviour ready to use.
+     *
+     * @param towerReference Reference to the tower that will be using this behaviour.
+     */
+    public TargetChooserLastBehaviour(Tower towerReference) {
+        super(towerReference);
+    }
+
+    /**
+     * Gets the enemy least far along the path in range.
+     *
+     * @param targetIndex The index of enemies for this update.
+     * @param tower The tower choosing a target.
+     * @return The chosen enemy, or null if there are none in range.
+     */
+    @Override
+    protected EnemyUnit chooseTarget(TargetIndex targetIndex, Tower tower) {
+        return targetIndex.findLast(tower);
+    }
+}
@@ -31,7 +31,9 @@ class TargetChooserSingleBehaviour implements TargetChooserBehaviour {
     @Override
     public List<EnemyUnit> chooseTargets() {
         List<EnemyUnit> targetList = new ArrayList<>();
-        EnemyUnit singleTarget = TowerAI.getClosestTargetInRange(towerReference.getCentre(),towerReference.getRange());
+        List<EnemyUnit> allEnemies = towerReference.getEnemyUnitManager().getActiveEnemies();
+        EnemyUnit singleTarget = TowerAI.getClosestTargetInRange(allEnemies, towerReference.getCentre(),
+                                                                 towerReference.getRange());
         if(singleTarget != null) {
             targetList.add(singleTarget);
         }
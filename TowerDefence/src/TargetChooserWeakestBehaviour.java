@@ -0,0 +1,29 @@
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * TargetChooserWeakestBehaviour class:
+ * Defines a behaviour that chooses the enemy with the least health on the part of the path the tower covers.
+ */
+class TargetChooserWeakestBehaviour extends TargetChooserIndexedBehaviour {
+    /**
+     * Creates the behaviour ready to use.
+     *
+     * @param towerReference Reference to the tower that will be using this behaviour.
+     */
+    public TargetChooserWeakestBehaviour(Tower towerReference) {
+        super(towerReference);
+    }
+
+    /**
+     * Gets the enemy with the least health in range.
+     *
+     * @param targetIndex The index of enemies for this update.
+     * @param tower The tower choosing a target.
+     * @return The chosen enemy, or null if there are none in range.
+     */
+    @Override
+    protected EnemyUnit chooseTarget(TargetIndex targetIndex, Tower tower) {
+        return targetIndex.findWeakest(tower);
+    }
+}
@@ -0,0 +1,343 @@
+import java.util.List;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * TargetIndex class:
+ * Orders all the active enemies by how far along the path they are once per update
+ * so that every tower can share it. Towers find the enemies on the parts of the path
+ * they cover with a binary search, and the strongest, weakest, or fastest enemy in a
+ * part of the path comes from segment trees built over the same order.
+ * In maze mode there is no fixed path, so it falls back to checking every enemy.
+ */
+public class TargetIndex {
+    /**
+     * Segment tree that finds the enemy with the most health.
+     */
+    private static final int TREE_STRONGEST = 0;
+    /**
+     * Segment tree that finds the enemy with the least health.
+     */
+    private static final int TREE_WEAKEST = 1;
+    /**
+     * Segment tree that finds the fastest enemy.
+     */
+    private static final int TREE_FASTEST = 2;
+
+    /**
+     * Enemies sorted from the least to the most progress along the path.
+     */
+    private EnemyUnit[] enemies;
+    /**
+     * Progress along the path for each enemy in the same order, saved during the rebuild.
+     */
+    private int[] progress;
+    /**
+     * Health for each enemy in the same order, saved when the trees are built.
+     */
+    private int[] health;
+    /**
+     * Current speed for each enemy in the same order, saved when the trees are built.
+     */
+    private int[] speed;
+    /**
+     * Number of enemies in the index.
+     */
+    private int enemyCount;
+    /**
+     * Segment trees holding indices into enemies. Leaves start at enemyCount.
+     */
+    private int[][] trees;
+    /**
+     * True when the segment trees match the current order.
+     */
+    private boolean treesBuilt;
+    /**
+     * Every active enemy, used when falling back to a full search.
+     */
+    private List<EnemyUnit> activeEnemies;
+
+    /**
+     * Creates an empty index.
+     */
+    public TargetIndex() {
+        enemies = new EnemyUnit[64];
+        progress = new int[64];
+        health = new int[64];
+        speed = new int[64];
+        trees = new int[3][128];
+        enemyCount = 0;
+        treesBuilt = false;
+    }
+
+    /**
+     * Sorts the active enemies by their progress. Enemies are added newest first, which is
+     * usually already close to sorted, so an insertion sort only has a few swaps to do.
+     * The segment trees are only built when a tower first needs them.
+     *
+     * @param activeEnemies All enemies that are active.
+     */
+    public void rebuild(List<EnemyUnit> activeEnemies) {
+        this.activeEnemies = activeEnemies;
+        if(activeEnemies.size() > enemies.length) {
+            int capacity = activeEnemies.size() * 2;
+            enemies = new EnemyUnit[capacity];
+            progress = new int[capacity];
+            health = new int[capacity];
+            speed = new int[capacity];
+            trees = new int[3][capacity * 2];
+        }
+        enemyCount = 0;
+        for(int i = activeEnemies.size()-1; i >= 0; i--) {
+            EnemyUnit enemyUnit = activeEnemies.get(i);
+            if(enemyUnit.isExpired()) continue;
+            int enemyProgress = enemyUnit.getPathProgress();
+            int insertAt = enemyCount;
+            while(insertAt > 0 && progress[insertAt-1] > enemyProgress) {
+                enemies[insertAt] = enemies[insertAt-1];
+                progress[insertAt] = progress[insertAt-1];
+                insertAt--;
+            }
+            enemies[insertAt] = enemyUnit;
+            progress[insertAt] = enemyProgress;
+            enemyCount++;
+        }
+        for(int i = enemyCount; i < enemies.length && enemies[i] != null; i++) {
+            enemies[i] = null;
+        }
+        treesBuilt = false;
+    }
+
+    /**
+     * Finds the enemy furthest along the path that the tower covers.
+     *
+     * @param tower The tower choosing a target.
+     * @return The target, or null if there is none in range.
+     */
+    public EnemyUnit findFirst(Tower tower) {
+        if(!tower.hasPathCoverage()) return findLinear(tower, TREE_STRONGEST, true);
+        int[] intervals = tower.getCoverageIntervals();
+        for(int i = tower.getCoverageIntervalLength()-2; i >= 0; i -= 2) {
+            int start = lowerBound(getIntervalStart(intervals[i]));
+            for(int j = lowerBound(getIntervalEnd(intervals[i+1]))-1; j >= start; j--) {
+                if(!enemies[j].isExpired()) return enemies[j];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the enemy least far along the path that the tower covers.
+     *
+     * @param tower The tower choosing a target.
+     * @return The target, or null if there is none in range.
+     */
+    public EnemyUnit findLast(Tower tower) {
+        if(!tower.hasPathCoverage()) return findLinear(tower, TREE_WEAKEST, true);
+        int[] intervals = tower.getCoverageIntervals();
+        for(int i = 0; i < tower.getCoverageIntervalLength(); i += 2) {
+            int end = lowerBound(getIntervalEnd(intervals[i+1]));
+            for(int j = lowerBound(getIntervalStart(intervals[i])); j < end; j++) {
+                if(!enemies[j].isExpired()) return enemies[j];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the enemy with the most health that the tower covers.
+     *
+     * @param tower The tower choosing a target.
+     * @return The target, or null if there is none in range.
+     */
+    public EnemyUnit findStrongest(Tower tower) {
+        return findBest(tower, TREE_STRONGEST);
+    }
+
+    /**
+     * Finds the enemy with the least health that the tower covers.
+     *
+     * @param tower The tower choosing a target.
+     * @return The target, or null if there is none in range.
+     */
+    public EnemyUnit findWeakest(Tower tower) {
+        return findBest(tower, TREE_WEAKEST);
+    }
+
+    /**
+     * Finds the fastest enemy that the tower covers.
+     *
+     * @param tower The tower choosing a target.
+     * @return The target, or null if there is none in range.
+     */
+    public EnemyUnit findFastest(Tower tower) {
+        return findBest(tower, TREE_FASTEST);
+    }
+
+    /**
+     * Queries a segment tree for each part of the path the tower covers and keeps the best result.
+     * If the best has died since the index was built the part of the path is searched in full instead.
+     *
+     * @param tower The tower choosing a target.
+     * @param tree Which segment tree to use.
+     * @return The target, or null if there is none in range.
+     */
+    private EnemyUnit findBest(Tower tower, int tree) {
+        if(!tower.hasPathCoverage()) return findLinear(tower, tree, false);
+        if(!treesBuilt) buildTrees();
+
+        int[] intervals = tower.getCoverageIntervals();
+        int best = -1;
+        for(int i = 0; i < tower.getCoverageIntervalLength(); i += 2) {
+            int start = lowerBound(getIntervalStart(intervals[i]));
+            int end = lowerBound(getIntervalEnd(intervals[i+1]));
+            if(start >= end) continue;
+            int candidate = queryTree(tree, start, end);
+            if(enemies[candidate].isExpired()) {
+                candidate = -1;
+                for(int j = start; j < end; j++) {
+                    if(!enemies[j].isExpired() && (candidate == -1 || isBetter(tree, j, candidate))) {
+                        candidate = j;
+                    }
+                }
+            }
+            if(candidate != -1 && (best == -1 || isBetter(tree, candidate, best))) {
+                best = candidate;
+            }
+        }
+        return best == -1 ? null : enemies[best];
+    }
+
+    /**
+     * Checks the centre of every active enemy against the tower's range. Used in maze mode where the path is not fixed.
+     *
+     * @param tower The tower choosing a target.
+     * @param tree Which value to compare when not comparing progress.
+     * @param compareProgress True to compare by progress, using TREE_STRONGEST for the most progress
+     *                        and TREE_WEAKEST for the least.
+     * @return The target, or null if there is none in range.
+     */
+    private EnemyUnit findLinear(Tower tower, int tree, boolean compareProgress) {
+        if(activeEnemies == null) return null;
+        Position centre = tower.getCentre();
+        EnemyUnit bestResult = null;
+        int bestValue = 0;
+        for(EnemyUnit enemyUnit : activeEnemies) {
+            if(enemyUnit.isExpired()) continue;
+            long dx = enemyUnit.getPosition().x + enemyUnit.getWidth() / 2 - centre.x;
+            long dy = enemyUnit.getPosition().y + enemyUnit.getHeight() / 2 - centre.y;
+            if(dx * dx + dy * dy > tower.getRangeSquared()) continue;
+
+            int value;
+            if(compareProgress) value = enemyUnit.getPathProgress();
+            else if(tree == TREE_FASTEST) value = enemyUnit.getCurrentSpeed();
+            else value = enemyUnit.getHealth();
+            if(tree == TREE_WEAKEST) value = -value;
+            if(bestResult == null || value > bestValue) {
+                bestResult = enemyUnit;
+                bestValue = value;
+            }
+        }
+        return bestResult;
+    }
+
+    /**
+     * Builds all the segment trees bottom up from the current order.
+     */
+    private void buildTrees() {
+        for(int i = 0; i < enemyCount; i++) {
+            health[i] = enemies[i].getHealth();
+            speed[i] = enemies[i].getCurrentSpeed();
+            for(int tree = 0; tree < trees.length; tree++) {
+                trees[tree][enemyCount + i] = i;
+            }
+        }
+        for(int tree = 0; tree < trees.length; tree++) {
+            int[] nodes = trees[tree];
+            for(int node = enemyCount-1; node > 0; node--) {
+                nodes[node] = isBetter(tree, nodes[node*2], nodes[node*2+1]) ? nodes[node*2] : nodes[node*2+1];
+            }
+        }
+        treesBuilt = true;
+    }
+
+    /**
+     * Finds the best enemy between two indices in the order.
+     *
+     * @param tree Which segment tree to use.
+     * @param start First index (inclusive).
+     * @param end Last index (exclusive). Must be greater than start.
+     * @return Index of the best enemy in the range.
+     */
+    private int queryTree(int tree, int start, int end) {
+        int[] nodes = trees[tree];
+        int best = -1;
+        for(start += enemyCount, end += enemyCount; start < end; start /= 2, end /= 2) {
+            if((start & 1) == 1) {
+                if(best == -1 || isBetter(tree, nodes[start], best)) best = nodes[start];
+                start++;
+            }
+            if((end & 1) == 1) {
+                end--;
+                if(best == -1 || isBetter(tree, nodes[end], best)) best = nodes[end];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Compares two enemies for a segment tree. Ties go to the enemy further along the path.
+     *
+     * @param tree Which segment tree the comparison is for.
+     * @param a Index of the first enemy.
+     * @param b Index of the second enemy.
+     * @return True if a should be chosen over b.
+     */
+    private boolean isBetter(int tree, int a, int b) {
+        int valueA, valueB;
+        switch(tree) {
+            case TREE_STRONGEST: valueA = health[a]; valueB = health[b]; break;
+            case TREE_WEAKEST: valueA = -health[a]; valueB = -health[b]; break;
+            default: valueA = speed[a]; valueB = speed[b]; break;
+        }
+        return valueA > valueB || (valueA == valueB && a > b);
+    }
+
+    /**
+     * Finds the first index with progress at or above a value.
+     *
+     * @param value Progress to search for.
+     * @return Index of the first enemy with at least that progress, or enemyCount if there are none.
+     */
+    private int lowerBound(int value) {
+        int low = 0, high = enemyCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(progress[middle] < value) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Gets the lowest progress that counts as being on a path cell. An enemy is on the
+     * cell its progress is closest to.
+     *
+     * @param pathCellIndex Index of the cell along the path.
+     * @return The lowest progress on that cell (inclusive).
+     */
+    private static int getIntervalStart(int pathCellIndex) {
+        return pathCellIndex * Map.BLOCK_SIZE - Map.BLOCK_SIZE / 2;
+    }
+
+    /**
+     * Gets the progress just past the end of a path cell.
+     *
+     * @param pathCellIndex Index of the cell along the path.
+     * @return The highest progress on that cell (exclusive).
+     */
+    private static int getIntervalEnd(int pathCellIndex) {
+        return (pathCellIndex + 1) * Map.BLOCK_SIZE - Map.BLOCK_SIZE / 2;
+    }
+}
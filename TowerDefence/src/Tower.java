@@ -1,5 +1,7 @@
 import java.awt.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -11,7 +13,7 @@ import java.util.List;
  * colour, how often they fire, behaviours for choosing targets,
  * and firing at those targets. Each tower manages their own collection of
  */
-public class Tower extends Rectangle {
+public class Tower extends Rectangle implements SpriteRenderer {
     /**
      * Cost of the normal tower.
      */
@@ -24,14 +26,87 @@ public class Tower extends Rectangle {
      * Cost of the slow tower.
      */
     public static final int SLOW_COST = 70;
+    /**
+     * Cost of the burn tower.
+     */
+    public static final int BURN_COST = 80;
+    /**
+     * Cost of the poison tower.
+     */
+    public static final int POISON_COST = 90;
+    /**
+     * Cost of the support tower.
+     */
+    public static final int SUPPORT_COST = 100;
+    /**
+     * Cost of the shred tower.
+     */
+    public static final int SHRED_COST = 110;
+    /**
+     * Cost of the stun tower.
+     */
+    public static final int STUN_COST = 120;
+    /**
+     * Highest level a tower can be upgraded to.
+     */
+    public static final int MAX_LEVEL = 3;
+    /**
+     * Percent of everything spent on a tower that is given back when it is sold.
+     */
+    public static final int SELL_PERCENT = 70;
+
+    /**
+     * Percent of the base range for each level, indexed by level-1.
+     */
+    private static final int[] LEVEL_RANGE_PERCENT = { 100, 115, 130 };
+    /**
+     * Percent of the base time between shots for each level, indexed by level-1.
+     */
+    private static final int[] LEVEL_INTERVAL_PERCENT = { 100, 85, 70 };
+    /**
+     * Percent of the base damage and debuff duration for each level, indexed by level-1.
+     */
+    private static final int[] LEVEL_POWER_PERCENT = { 100, 150, 200 };
+    /**
+     * Distance between tower centres that a support tower's aura reaches. Covers the eight surrounding tiles.
+     */
+    private static final int AURA_RADIUS = 75;
+    /**
+     * Percent extra range a support tower gives for each level, indexed by level-1.
+     */
+    private static final int[] AURA_RANGE_PERCENT = { 10, 15, 20 };
+    /**
+     * Percent faster firing a support tower gives for each level, indexed by level-1.
+     */
+    private static final int[] AURA_FIRE_RATE_PERCENT = { 15, 25, 35 };
+    /**
+     * Most bonus percent a tower can get from all the auras affecting it added together.
+     */
+    private static final int MAX_AURA_BONUS_PERCENT = 60;
 
     /**
      * Types of towers that can be created.
      * Normal: Fires single shots at individual enemies that deal damage on hit.
      * AoE: Fires single shots at individual enemies that explode on hit to damage all enemies nearby.
      * Slow: Fires multiple shots at all nearby enemies applying a slow debuff on hits.
+     * Burn: Fires single shots at individual enemies that add a stack of burning on hit.
+     * Poison: Fires multiple shots at all nearby enemies that poison them on hit.
+     * Support: Does not fire, but increases the range and fire rate of the towers around it.
+     * Shred: Fires single shots at individual enemies that add a stack of armor shred on hit.
+     * Stun: Fires single shots at individual enemies that stop them moving for a short time.
      */
-    public enum TowerType { Normal, AoE, Slow }
+    public enum TowerType { Normal, AoE, Slow, Burn, Poison, Support, Shred, Stun }
+
+    /**
+     * Ways that towers firing at a single enemy can choose their target.
+     * Closest: The enemy closest to the tower.
+     * First: The enemy furthest along the path.
+     * Last: The enemy least far along the path.
+     * Strongest: The enemy with the most health.
+     * Weakest: The enemy with the least health.
+     * Fastest: The enemy moving the fastest.
+     */
+    public enum TargetingMode { Closest, First, Last, Strongest, Weakest, Fastest }
 
     /**
      * Type of the tower.
@@ -45,22 +120,123 @@ public class Tower extends Rectangle {
      * Behaviour used for choosing valid targets to use the attack target behaviour on.
      */
     private TargetChooserBehaviour targetChooserBehaviour;
+    /**
+     * How the tower chooses a target when it fires at a single enemy.
+     */
+    private TargetingMode targetingMode;
+    /**
+     * True when the tower fires at a single enemy and can change its targeting mode.
+     */
+    private boolean singleTarget;
+    /**
+     * The enemy a single target tower is locked on to, or null if it needs to search for one.
+     */
+    private EnemyUnit currentTarget;
+    /**
+     * Generation of the current target when it was chosen, so a recycled enemy is not kept as the target.
+     */
+    private int currentTargetGeneration;
+    /**
+     * List reused to fire at the current target without searching.
+     */
+    private List<EnemyUnit> currentTargetList;
     /**
      * Colour to draw the tower with.
      */
-    private Color drawColour;
+    private int drawColour;
+    /**
+     * Current upgrade level starting from 1.
+     */
+    private int level;
+    /**
+     * Range at level 1.
+     */
+    private int baseRange;
+    /**
+     * Time between shots at level 1.
+     */
+    private int baseFiringInterval;
+    /**
+     * Damage dealt on hit at level 1.
+     */
+    private int baseDamage;
+    /**
+     * Time debuffs applied on hit last for at level 1, or 0 if the tower does not apply debuffs.
+     */
+    private int baseEffectDuration;
     /**
-     * Range of the tower that it can attack from.
+     * Range of the tower that it can attack from. Cached by recalculateStats().
      */
     private int range;
     /**
-     * Timer between projectile firing.
+     * Range squared so range checks do not need a square root. Cached by recalculateStats().
+     */
+    private int rangeSquared;
+    /**
+     * Time between shots. Cached by recalculateStats().
+     */
+    private int firingInterval;
+    /**
+     * Number of updates between shots. Cached by recalculateStats().
+     */
+    private int firingIntervalTicks;
+    /**
+     * Damage dealt on hit. Cached by recalculateStats().
+     */
+    private int damage;
+    /**
+     * Time debuffs applied on hit last for. Cached by recalculateStats().
+     */
+    private int effectDuration;
+    /**
+     * Estimated damage per second against a single target. Cached by recalculateStats().
+     */
+    private int damagePerSecond;
+    /**
+     * Radius around the point of impact that projectiles deal damage in, or 0 for single target attacks.
+     */
+    private int blastRadius;
+    /**
+     * Number of updates remaining until the next shot.
+     */
+    private int ticksUntilFire;
+    /**
+     * Cells along the path from the start to the end, or null if the path is not fixed.
+     */
+    private List<Position> pathCells;
+    /**
+     * Pairs of first and last indices into pathCells for each run of path cells that are in range.
+     * Cached by recalculateStats().
      */
-    private ActionTimer firingTimer;
+    private int[] coverageIntervals;
+    /**
+     * Number of ints in coverageIntervals that are used.
+     */
+    private int coverageIntervalLength;
     /**
      * List of all active projectiles.
      */
     private List<Projectile> activeProjectiles;
+    /**
+     * Support towers whose aura reaches this tower.
+     */
+    private List<Tower> auraSources;
+    /**
+     * Towers that this support tower's aura reaches. Always empty for other tower types.
+     */
+    private List<Tower> auraTargets;
+    /**
+     * Total percent extra range from all aura sources, before the cap is applied.
+     */
+    private int auraRangeBonus;
+    /**
+     * Total percent faster firing from all aura sources, before the cap is applied.
+     */
+    private int auraFireRateBonus;
+    /**
+     * Manager of the enemies this tower attacks.
+     */
+    private EnemyUnitManager enemyUnitManager;
 
     /**
      * Initialises the tower based on the tower type.
@@ -69,51 +245,267 @@ public class Tower extends Rectangle {
      * @param position Position of the tower.
      * @param width Width of the tower.
      * @param height Height of the tower.
+     * @param pathCells Cells along the path from the start to the end, or null if the path is not fixed.
+     * @param enemyUnitManager Manager of the enemies this tower attacks.
      */
-    public Tower(TowerType towerType, Position position, int width, int height) {
+    public Tower(TowerType towerType, Position position, int width, int height, List<Position> pathCells,
+                 EnemyUnitManager enemyUnitManager) {
         super(position, width, height);
         this.towerType = towerType;
+        this.enemyUnitManager = enemyUnitManager;
+        this.pathCells = pathCells;
+        level = 1;
+        coverageIntervals = new int[8];
+        auraSources = new ArrayList<>();
+        auraTargets = new ArrayList<>();
         configureTower();
+        recalculateStats();
+        ticksUntilFire = firingIntervalTicks;
         activeProjectiles = new ArrayList<>();
+        currentTargetList = new ArrayList<>(1);
     }
 
     /**
-     * Updates the firing timer to fire additional projectiles,
+     * Counts down to the next shot to fire additional projectiles,
      * and updates all active projectiles controlled by the tower.
      *
      * @param deltaTime Time since last update.
      */
     public void update(int deltaTime) {
-        firingTimer.update(deltaTime);
-        if(firingTimer.isTriggered()) {
+        if(attackTargetBehaviour == null) return;
+        ticksUntilFire--;
+        if(ticksUntilFire <= 0) {
             fire();
-            firingTimer.reset();
+            ticksUntilFire = firingIntervalTicks;
         }
         updateProjectiles(deltaTime);
     }
 
     /**
-     * Draws a tower made up of multiple rectangles.
+     * Increases the level of the tower by one if it is not already at the maximum
+     * and recalculates all the stats that depend on the level. Upgrading a support
+     * tower passes the difference in its aura on to the towers it reaches.
+     *
+     * @return True if the tower was upgraded.
+     */
+    public boolean upgrade() {
+        if(level >= MAX_LEVEL) return false;
+        level++;
+        if(towerType == TowerType.Support) {
+            int rangeChange = AURA_RANGE_PERCENT[level-1] - AURA_RANGE_PERCENT[level-2];
+            int fireRateChange = AURA_FIRE_RATE_PERCENT[level-1] - AURA_FIRE_RATE_PERCENT[level-2];
+            for(Tower target : auraTargets) {
+                target.changeAuraBonus(rangeChange, fireRateChange);
+            }
+        }
+        recalculateStats();
+        ticksUntilFire = Math.min(ticksUntilFire, firingIntervalTicks);
+        return true;
+    }
+
+    /**
+     * Writes the state that is not decided by the type and level to a snapshot,
+     * including the current target and all projectiles in flight.
+     *
+     * @param buffer Buffer to write to.
+     * @param enemyUnitManager Manager that numbered the enemies in the snapshot.
+     */
+    public void writeTo(ByteBuffer buffer, EnemyUnitManager enemyUnitManager) {
+        buffer.put((byte)targetingMode.ordinal()).putInt(ticksUntilFire);
+        buffer.putInt(enemyUnitManager.getSnapshotIndex(currentTarget)).putInt(currentTargetGeneration);
+        buffer.putInt(activeProjectiles.size());
+        for(Projectile projectile : activeProjectiles) {
+            projectile.writeTo(buffer, enemyUnitManager);
+        }
+    }
+
+    /**
+     * Replaces the state written by writeTo(). The tower must already have the right type and level.
+     *
+     * @param buffer Buffer to read from.
+     * @param enemyUnitManager Manager that has already read the enemies from the snapshot.
+     */
+    public void readFrom(ByteBuffer buffer, EnemyUnitManager enemyUnitManager) {
+        setTargetingMode(TargetingMode.values()[buffer.get()]);
+        ticksUntilFire = buffer.getInt();
+        currentTarget = enemyUnitManager.getSnapshotEnemy(buffer.getInt());
+        currentTargetGeneration = buffer.getInt();
+        activeProjectiles.clear();
+        int projectileCount = buffer.getInt();
+        for(int i = 0; i < projectileCount; i++) {
+            activeProjectiles.add(Projectile.readFrom(buffer, attackTargetBehaviour, enemyUnitManager));
+        }
+    }
+
+    /**
+     * Tests if the tower fires at a single enemy so that it can change how it chooses its target.
+     *
+     * @return True if the targeting mode can be changed.
+     */
+    public boolean canChangeTargetingMode() {
+        return singleTarget;
+    }
+
+    /**
+     * Gets how the tower chooses a target.
+     *
+     * @return The current targeting mode.
+     */
+    public TargetingMode getTargetingMode() {
+        return targetingMode;
+    }
+
+    /**
+     * Changes how the tower chooses a target. Does nothing for towers that fire at every enemy in range.
+     *
+     * @param targetingMode The new targeting mode.
+     */
+    public void setTargetingMode(TargetingMode targetingMode) {
+        if(!singleTarget) return;
+        this.targetingMode = targetingMode;
+        currentTarget = null;
+        switch(targetingMode) {
+            case Closest: targetChooserBehaviour = new TargetChooserSingleBehaviour(this); break;
+            case First: targetChooserBehaviour = new TargetChooserFirstBehaviour(this); break;
+            case Last: targetChooserBehaviour = new TargetChooserLastBehaviour(this); break;
+            case Strongest: targetChooserBehaviour = new TargetChooserStrongestBehaviour(this); break;
+            case Weakest: targetChooserBehaviour = new TargetChooserWeakestBehaviour(this); break;
+            case Fastest: targetChooserBehaviour = new TargetChooserFastestBehaviour(this); break;
+        }
+    }
+
+    /**
+     * Tests if the tower has cached which parts of a fixed path it covers.
+     *
+     * @return True if the coverage intervals can be used, or false in maze mode.
+     */
+    public boolean hasPathCoverage() {
+        return pathCells != null;
+    }
+
+    /**
+     * Tests if this is a support tower with an aura that reaches the other tower.
+     *
+     * @param other The tower to test.
+     * @return True if the other tower should be boosted by this tower.
+     */
+    public boolean isAuraReaching(Tower other) {
+        if(towerType != TowerType.Support || other == this || other.towerType == TowerType.Support) {
+            return false;
+        }
+        int dx = other.position.x + other.width/2 - (position.x + width/2);
+        int dy = other.position.y + other.height/2 - (position.y + height/2);
+        return dx * dx + dy * dy <= AURA_RADIUS * AURA_RADIUS;
+    }
+
+    /**
+     * Links this support tower to a tower its aura reaches and applies the bonus to it.
+     *
+     * @param target The tower to boost.
+     */
+    public void addAuraTarget(Tower target) {
+        auraTargets.add(target);
+        target.auraSources.add(this);
+        target.changeAuraBonus(AURA_RANGE_PERCENT[level-1], AURA_FIRE_RATE_PERCENT[level-1]);
+    }
+
+    /**
+     * Removes every aura link to and from this tower so it can be removed from the map.
+     * Only the towers that were linked have their stats recalculated.
+     */
+    public void removeAuraLinks() {
+        for(Tower target : auraTargets) {
+            target.auraSources.remove(this);
+            target.changeAuraBonus(-AURA_RANGE_PERCENT[level-1], -AURA_FIRE_RATE_PERCENT[level-1]);
+        }
+        auraTargets.clear();
+        for(Tower source : auraSources) {
+            source.auraTargets.remove(this);
+        }
+        auraSources.clear();
+    }
+
+    /**
+     * Gets the current upgrade level.
+     *
+     * @return The level starting from 1.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Gets the number of projectiles this tower has in flight.
+     *
+     * @return Number of active projectiles.
+     */
+    public int getProjectileCount() {
+        return activeProjectiles.size();
+    }
+
+    /**
+     * Gets the type of this tower.
+     *
+     * @return The type of tower.
+     */
+    public TowerType getTowerType() {
+        return towerType;
+    }
+
+    /**
+     * Draws the tower by copying its sprite for this colour and level from the sprite atlas.
      *
      * @param g Reference to the Graphics object for rendering.
+     * @param spriteAtlas Atlas to copy the sprite from.
      */
-    public void paint(Graphics g) {
-        g.setColor(drawColour);
-        g.fillRect(position.x+5, position.y+5, width/6, height/6);
-        g.fillRect(position.x+width-5-width/6, position.y+5, width/6, height/6);
-        g.fillRect(position.x+width/2-width/12, position.y+5, width/6, height/6);
-        g.fillRect(position.x+5,position.y+5+height/6, width-10, height/3);
-        g.fillRect(position.x + width/2 - width/4, position.y+5+height/6+height/3,width/2,height/3 );
+    public void paint(Graphics g, SpriteAtlas spriteAtlas) {
+        spriteAtlas.draw(g, SpriteAtlas.key(SpriteAtlas.SPRITE_TOWER, drawColour, level),
+                         position.x, position.y, width, height, this);
+    }
+
+    /**
+     * Draws a tower made up of multiple rectangles for the sprite atlas.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param palette Colours to draw with.
+     */
+    @Override
+    public void renderSprite(Graphics g, Palette palette) {
+        g.setColor(palette.get(drawColour));
+        g.fillRect(5, 5, width/6, height/6);
+        g.fillRect(width-5-width/6, 5, width/6, height/6);
+        g.fillRect(width/2-width/12, 5, width/6, height/6);
+        g.fillRect(5,5+height/6, width-10, height/3);
+        g.fillRect(width/2 - width/4, 5+height/6+height/3,width/2,height/3 );
+        // One pip for each upgrade above level 1.
+        g.setColor(Color.WHITE);
+        for(int i = 1; i < level; i++) {
+            g.fillRect(width/2 - width/4 + 3 + (i-1)*8, height-8, 5, 5);
+        }
+    }
+
+    /**
+     * Draws the range of the tower as a circle. Used to show which tower is selected.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     */
+    public void paintRange(Graphics g) {
+        Position centre = getCentre();
+        int radius = towerType == TowerType.Support ? AURA_RADIUS : range;
+        g.setColor(Color.WHITE);
+        g.drawOval(centre.x - radius, centre.y - radius, radius * 2, radius * 2);
+        g.drawRect(position.x, position.y, width-1, height-1);
     }
 
     /**
      * Draws all the projectiles to the screen.
      *
      * @param g Reference to the Graphics object for rendering.
+     * @param spriteAtlas Atlas to copy the sprites from.
      */
-    public void paintProjectiles(Graphics g) {
+    public void paintProjectiles(Graphics g, SpriteAtlas spriteAtlas) {
         for(Projectile projectile : activeProjectiles) {
-            projectile.paint(g);
+            projectile.paint(g, spriteAtlas);
         }
     }
 
@@ -126,14 +518,138 @@ public class Tower extends Rectangle {
         return range;
     }
 
+    /**
+     * Gets the range squared for comparing against squared distances.
+     *
+     * @return The range multiplied by itself.
+     */
+    public int getRangeSquared() {
+        return rangeSquared;
+    }
+
+    /**
+     * Gets the time between shots.
+     *
+     * @return Time between shots in milliseconds.
+     */
+    public int getFiringInterval() {
+        return firingInterval;
+    }
+
+    /**
+     * Gets the number of updates between shots.
+     *
+     * @return Number of updates between shots.
+     */
+    public int getFiringIntervalTicks() {
+        return firingIntervalTicks;
+    }
+
+    /**
+     * Gets the damage dealt on hit.
+     *
+     * @return Damage dealt to each enemy that is hit.
+     */
+    public int getDamage() {
+        return damage;
+    }
+
+    /**
+     * Gets the time debuffs applied on hit last for.
+     *
+     * @return Duration of debuffs applied on hit.
+     */
+    public int getEffectDuration() {
+        return effectDuration;
+    }
+
+    /**
+     * Gets an estimate of the damage per second against a single target, including damage over time.
+     *
+     * @return Estimated damage per second.
+     */
+    public int getDamagePerSecond() {
+        return damagePerSecond;
+    }
+
+    /**
+     * Gets the runs of path cells that are in range as pairs of first and last indices
+     * along the path from the start. Only the first getCoverageIntervalLength() ints are used.
+     *
+     * @return The cached coverage intervals.
+     */
+    public int[] getCoverageIntervals() {
+        return coverageIntervals;
+    }
+
+    /**
+     * Gets the number of ints used in the array from getCoverageIntervals(). Always 0 when the path is not fixed.
+     *
+     * @return Twice the number of coverage intervals.
+     */
+    public int getCoverageIntervalLength() {
+        return coverageIntervalLength;
+    }
+
+    /**
+     * Gets the radius around the point of impact that projectiles deal damage in.
+     *
+     * @return The blast radius, or 0 for towers that only hit their target.
+     */
+    public int getBlastRadius() {
+        return blastRadius;
+    }
+
+    /**
+     * Gets the manager of the enemies this tower attacks.
+     *
+     * @return The enemy unit manager.
+     */
+    public EnemyUnitManager getEnemyUnitManager() {
+        return enemyUnitManager;
+    }
+
     /**
      * Finds all valid nearby targets using the targetChooserBehaviour,
      * and then fires projectiles at all the valid targets using the
      * attackTargetBehaviour to spawn the projectiles.
+     * Towers that fire at a single enemy keep the same target while it is alive and
+     * in range, so the search only runs when the target is lost.
      */
     private void fire() {
-        List<EnemyUnit> newTargets = targetChooserBehaviour.chooseTargets();
-        activeProjectiles.addAll(attackTargetBehaviour.fireProjectiles(newTargets));
+        if(!singleTarget) {
+            List<EnemyUnit> newTargets = targetChooserBehaviour.chooseTargets();
+            activeProjectiles.addAll(attackTargetBehaviour.fireProjectiles(newTargets));
+            return;
+        }
+
+        if(!isCurrentTargetValid()) {
+            List<EnemyUnit> newTargets = targetChooserBehaviour.chooseTargets();
+            currentTarget = newTargets.isEmpty() ? null : newTargets.get(0);
+            if(currentTarget == null) return;
+            currentTargetGeneration = currentTarget.getGeneration();
+        }
+        currentTargetList.clear();
+        currentTargetList.add(currentTarget);
+        activeProjectiles.addAll(attackTargetBehaviour.fireProjectiles(currentTargetList));
+    }
+
+    /**
+     * Tests if the current target can still be fired at. It must not have died, reached the end,
+     * or been recycled into a new enemy, and its centre must still be in range, measured the
+     * same way as when TowerAI or the TargetIndex chose it.
+     *
+     * @return True if the current target should be kept.
+     */
+    private boolean isCurrentTargetValid() {
+        if(currentTarget == null || currentTarget.isExpired()
+                || currentTarget.getGeneration() != currentTargetGeneration) {
+            return false;
+        }
+        Position targetPosition = currentTarget.getPosition();
+        long dx = targetPosition.x + currentTarget.getWidth() / 2 - (position.x + width/2);
+        long dy = targetPosition.y + currentTarget.getHeight() / 2 - (position.y + height/2);
+        return dx * dx + dy * dy <= rangeSquared;
     }
 
     /**
@@ -152,31 +668,159 @@ public class Tower extends Rectangle {
         }
     }
 
+    /**
+     * Adds to the total aura bonuses and recalculates the stats that depend on them.
+     *
+     * @param rangeChange Change to the percent extra range.
+     * @param fireRateChange Change to the percent faster firing.
+     */
+    private void changeAuraBonus(int rangeChange, int fireRateChange) {
+        auraRangeBonus += rangeChange;
+        auraFireRateBonus += fireRateChange;
+        recalculateStats();
+        ticksUntilFire = Math.min(ticksUntilFire, firingIntervalTicks);
+    }
+
+    /**
+     * Recalculates all the stats that depend on the level or auras so they never need to be worked
+     * out when firing. Also re-caches which parts of the path are covered by the range.
+     */
+    private void recalculateStats() {
+        int rangePercent = 100 + Math.min(auraRangeBonus, MAX_AURA_BONUS_PERCENT);
+        int fireRatePercent = 100 + Math.min(auraFireRateBonus, MAX_AURA_BONUS_PERCENT);
+        range = baseRange * LEVEL_RANGE_PERCENT[level-1] / 100 * rangePercent / 100;
+        rangeSquared = range * range;
+        firingInterval = baseFiringInterval * LEVEL_INTERVAL_PERCENT[level-1] / fireRatePercent;
+        firingIntervalTicks = ActionTimer.toTicks(firingInterval);
+        damage = baseDamage * LEVEL_POWER_PERCENT[level-1] / 100;
+        effectDuration = baseEffectDuration * LEVEL_POWER_PERCENT[level-1] / 100;
+        damagePerSecond = calculateDamagePerSecond();
+        recalculateCoverage();
+    }
+
+    /**
+     * Estimates damage per second against a single target from the cached stats. Damage over time
+     * assumes the target is hit every shot, so burn builds up as many stacks as last between shots.
+     *
+     * @return Estimated damage per second.
+     */
+    private int calculateDamagePerSecond() {
+        int result = damage * 1000 / firingInterval;
+        if(towerType == TowerType.Burn) {
+            int stacks = Math.min(Math.max(effectDuration / firingInterval, 1), Debuff.getMaxStacks(Debuff.DebuffType.Burn));
+            result += Debuff.BURN_DAMAGE_PER_SECOND * stacks;
+        } else if(towerType == TowerType.Poison) {
+            result += Debuff.POISON_DAMAGE_PER_SECOND * Math.min(effectDuration, firingInterval) / firingInterval;
+        }
+        return result;
+    }
+
+    /**
+     * Finds every run of path cells with a centre in range and stores them as pairs of indices.
+     */
+    private void recalculateCoverage() {
+        coverageIntervalLength = 0;
+        if(pathCells == null) return;
+
+        Position centre = getCentre();
+        boolean inRun = false;
+        for(int i = 0; i < pathCells.size(); i++) {
+            Position cell = pathCells.get(i);
+            int dx = cell.x * Map.BLOCK_SIZE + Map.BLOCK_SIZE/2 - centre.x;
+            int dy = cell.y * Map.BLOCK_SIZE + Map.BLOCK_SIZE/2 - centre.y;
+            boolean inRange = dx * dx + dy * dy <= rangeSquared;
+            if(inRange && !inRun) {
+                if(coverageIntervalLength + 2 > coverageIntervals.length) {
+                    coverageIntervals = Arrays.copyOf(coverageIntervals, coverageIntervals.length * 2);
+                }
+                coverageIntervals[coverageIntervalLength] = i;
+                coverageIntervalLength += 2;
+            }
+            if(inRange) {
+                coverageIntervals[coverageIntervalLength-1] = i;
+            }
+            inRun = inRange;
+        }
+    }
+
     /**
      * Configures the towers to have the correct properties and behaviours based on their type.
      */
     private void configureTower() {
+        attackTargetBehaviour = null;
+        targetChooserBehaviour = null;
+        targetingMode = TargetingMode.Closest;
+        singleTarget = false;
+        blastRadius = 0;
+        baseDamage = 0;
+        baseEffectDuration = 0;
         switch(towerType) {
             case Normal:
-                drawColour = Color.CYAN;
-                firingTimer = new ActionTimer(300);
+                drawColour = 0x00FFFF;
+                baseFiringInterval = 300;
                 attackTargetBehaviour = new AttackSingleTargetBehaviour(this);
                 targetChooserBehaviour = new TargetChooserSingleBehaviour(this);
-                range = 200;
+                singleTarget = true;
+                baseRange = 200;
+                baseDamage = 15;
                 break;
             case AoE:
-                drawColour = Color.ORANGE;
-                firingTimer = new ActionTimer(1000);
+                drawColour = 0xFFC800;
+                baseFiringInterval = 1000;
                 attackTargetBehaviour = new AttackAoEAtTargetBehaviour(this);
                 targetChooserBehaviour = new TargetChooserSingleBehaviour(this);
-                range = 300;
+                singleTarget = true;
+                baseRange = 300;
+                baseDamage = 70;
+                blastRadius = 75;
                 break;
             case Slow:
-                drawColour = Color.BLUE;
-                firingTimer = new ActionTimer(1000);
+                drawColour = 0x0000FF;
+                baseFiringInterval = 1000;
                 attackTargetBehaviour = new AttackSlowTargetBehaviour(this);
                 targetChooserBehaviour = new TargetChooserAllInRangeBehaviour(this);
-                range = 150;
+                baseRange = 150;
+                baseEffectDuration = 3000;
+                break;
+            case Burn:
+                drawColour = 0xFF0000;
+                baseFiringInterval = 800;
+                attackTargetBehaviour = new AttackDebuffTargetBehaviour(this, Debuff.DebuffType.Burn, 0xC82800);
+                targetChooserBehaviour = new TargetChooserSingleBehaviour(this);
+                singleTarget = true;
+                baseRange = 200;
+                baseEffectDuration = 4000;
+                break;
+            case Poison:
+                drawColour = 0x5AAA28;
+                baseFiringInterval = 1500;
+                attackTargetBehaviour = new AttackDebuffTargetBehaviour(this, Debuff.DebuffType.Poison, 0x286E14);
+                targetChooserBehaviour = new TargetChooserAllInRangeBehaviour(this);
+                baseRange = 150;
+                baseEffectDuration = 2000;
+                break;
+            case Support:
+                drawColour = 0xFF00FF;
+                baseFiringInterval = 1000;
+                baseRange = 0;
+                break;
+            case Shred:
+                drawColour = 0x969696;
+                baseFiringInterval = 600;
+                attackTargetBehaviour = new AttackDebuffTargetBehaviour(this, Debuff.DebuffType.ArmorShred, 0x505050);
+                targetChooserBehaviour = new TargetChooserSingleBehaviour(this);
+                singleTarget = true;
+                baseRange = 200;
+                baseEffectDuration = 3000;
+                break;
+            case Stun:
+                drawColour = 0xFFFFFF;
+                baseFiringInterval = 2000;
+                attackTargetBehaviour = new AttackDebuffTargetBehaviour(this, Debuff.DebuffType.Stun, 0xFFFF96);
+                targetChooserBehaviour = new TargetChooserSingleBehaviour(this);
+                singleTarget = true;
+                baseRange = 150;
+                baseEffectDuration = 600;
                 break;
         }
     }
@@ -12,13 +12,13 @@ public class TowerAI {
     /**
      * Gets a list of all valid enemies within the specified range.
      *
+     * @param allEnemies All the active enemies to search.
      * @param fromPosition Position to test from.
      * @param range Range to search for targets within.
      * @return A list of all enemies within range of the position.
      */
-    public static List<EnemyUnit> getTargetsInRange(Position fromPosition, int range) {
+    public static List<EnemyUnit> getTargetsInRange(List<EnemyUnit> allEnemies, Position fromPosition, int range) {
         List<EnemyUnit> result = new ArrayList<>();
-        List<EnemyUnit> allEnemies = EnemyUnitManager.getInstance().getActiveEnemies();
         for(EnemyUnit enemyUnit : allEnemies) {
             if(fromPosition.distanceTo(enemyUnit.getPosition()) <= range) {
                 result.add(enemyUnit);
@@ -28,19 +28,23 @@ public class TowerAI {
     }
 
     /**
-     * Searches all active enemies for the closest target in range.
+     * Searches all active enemies for the target with the closest centre in range. Distances are
+     * measured to the centre of each enemy, the same as a tower checking it can keep its target.
      *
+     * @param allEnemies All the active enemies to search.
      * @param fromPosition Position to test from.
      * @param range Range to search for targets within.
      * @return A single enemy unit that is the closest enemy, or null if there are none in range.
      */
-    public static EnemyUnit getClosestTargetInRange(Position fromPosition, int range) {
-        List<EnemyUnit> allEnemies = EnemyUnitManager.getInstance().getActiveEnemies();
+    public static EnemyUnit getClosestTargetInRange(List<EnemyUnit> allEnemies, Position fromPosition, int range) {
+        long rangeSquared = (long)range * range;
         EnemyUnit bestResult = null;
-        double bestDistance = 0;
+        long bestDistance = 0;
         for(EnemyUnit enemyUnit : allEnemies) {
-            double distanceToEnemy = fromPosition.distanceTo(enemyUnit.getPosition());
-            if(distanceToEnemy <= range) {
+            long dx = enemyUnit.getPosition().x + enemyUnit.getWidth() / 2 - fromPosition.x;
+            long dy = enemyUnit.getPosition().y + enemyUnit.getHeight() / 2 - fromPosition.y;
+            long distanceToEnemy = dx * dx + dy * dy;
+            if(distanceToEnemy <= rangeSquared) {
                 if(bestResult == null || distanceToEnemy < bestDistance) {
                     bestResult = enemyUnit;
                     bestDistance = distanceToEnemy;
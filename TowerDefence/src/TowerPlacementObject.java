@@ -13,10 +13,6 @@ public class TowerPlacementObject extends MapObject {
      * Reference to the tower that has been placed on this object.
      */
     private Tower placedTower;
-    /**
-     * Reference to the game panel to check state.
-     */
-    private GamePanel gamePanel;
 
     /**
      * Prepares the object ready for drawing and interaction.
@@ -24,11 +20,9 @@ public class TowerPlacementObject extends MapObject {
      * @param position Position to draw the object.
      * @param width Width of the object.
      * @param height Height of the object.
-     * @param gamePanel Reference to the game panel to check state.
      */
-    public TowerPlacementObject(Position position, int width, int height, GamePanel gamePanel) {
+    public TowerPlacementObject(Position position, int width, int height) {
         super(ObjectType.TowerSpawn, position, width, height);
-        this.gamePanel = gamePanel;
     }
 
     /**
@@ -40,21 +34,31 @@ public class TowerPlacementObject extends MapObject {
         this.placedTower = placedTower;
     }
 
+    /**
+     * Gets the tower that has been placed on this object.
+     *
+     * @return The placed tower, or null if there is no tower.
+     */
+    public Tower getPlacedTower() {
+        return placedTower;
+    }
+
     /**
      * Draws either the tower if one has been added to this object.
      * Or draws a marker to show a tower can be placed. Shows as green
      * if in the tower placement phase or orange otherwise.
      *
      * @param g Reference to the Graphics object for rendering.
+     * @param placingTower True if the player is choosing where to place a tower.
+     * @param spriteAtlas Atlas to copy the tower sprite from.
      */
-    @Override
-    public void paint(Graphics g) {
+    public void paint(Graphics g, boolean placingTower, SpriteAtlas spriteAtlas) {
         super.paint(g);
 
         if(placedTower != null) {
-            placedTower.paint(g);
+            placedTower.paint(g, spriteAtlas);
         } else {
-            g.setColor(gamePanel.getGameState() == GamePanel.GameState.PlaceTower ? Color.GREEN : Color.ORANGE);
+            g.setColor(placingTower ? Color.GREEN : Color.ORANGE);
             g.drawRect(position.x+1, position.y+1, width-2, height-2);
             g.setFont(new Font("Arial",Font.BOLD, 20));
             g.drawString("T", position.x+width/2-5, position.y+height/2+5);
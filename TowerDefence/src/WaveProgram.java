@@ -0,0 +1,337 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * WaveProgram class:
+ * Stores a compiled wave script as a compact array of ints along with the
+ * program counter and loop state needed to step through it.
+ * Instructions are an opcode followed by a fixed number of operands.
+ * When the program is attached to a WaveSource it is refilled from the
+ * source one chunk at a time so very long scripts are never fully held in memory.
+ */
+public class WaveProgram {
+    /**
+     * Sets the time between spawns. Operands: time.
+     */
+    public static final int OP_INTERVAL = 1;
+    /**
+     * Spawns a number of enemies one per trigger. Operands: enemy type ordinal, count.
+     */
+    public static final int OP_SPAWN = 2;
+    /**
+     * Begins a loop. Operands: repeat count, address after the matching OP_END_LOOP.
+     */
+    public static final int OP_LOOP = 3;
+    /**
+     * Ends a loop and jumps back while repeats remain. Operands: address of the loop body.
+     */
+    public static final int OP_END_LOOP = 4;
+    /**
+     * Sets the health percent modifier for the rest of the wave. Operands: percent.
+     */
+    public static final int OP_HEALTH = 5;
+    /**
+     * Sets the speed percent modifier for the rest of the wave. Operands: percent.
+     */
+    public static final int OP_SPEED = 6;
+    /**
+     * Marks the start of a new wave, clearing all modifiers. Operands: none.
+     */
+    public static final int OP_WAVE = 7;
+    /**
+     * Sets the waypoint enemies spawn at, counted along the path from the start. Operands: index.
+     */
+    public static final int OP_START_POINT = 8;
+    /**
+     * Maximum number of loops that can be nested inside each other.
+     */
+    public static final int MAX_LOOP_DEPTH = 8;
+    /**
+     * Number of ints to try and keep compiled ahead when refilling from a streamed source.
+     */
+    private static final int STREAM_CHUNK_SIZE = 256;
+    /**
+     * Snapshot marker for a program with no source left to compile from.
+     */
+    private static final byte SOURCE_NONE = 0;
+    /**
+     * Snapshot marker for a program generating endless waves.
+     */
+    private static final byte SOURCE_ENDLESS = 1;
+    /**
+     * Snapshot marker for a program streaming from a source that can not be saved, such as a file reader.
+     */
+    private static final byte SOURCE_UNSAVED = 2;
+
+    /**
+     * The compiled instructions.
+     */
+    private int[] code;
+    /**
+     * Number of valid ints in code.
+     */
+    private int length;
+    /**
+     * Index of the next instruction to execute.
+     */
+    private int pc;
+    /**
+     * Enemies still to spawn from the current OP_SPAWN, or 0 if it has not started.
+     */
+    private int spawnRemaining;
+    /**
+     * Repeats remaining for each active loop.
+     */
+    private int[] loopCounters;
+    /**
+     * Number of loops currently active.
+     */
+    private int loopDepth;
+    /**
+     * Source to compile more instructions from when this runs out, or null if fully compiled.
+     */
+    private WaveSource source;
+
+    /**
+     * Creates an empty program.
+     */
+    public WaveProgram() {
+        code = new int[64];
+        loopCounters = new int[MAX_LOOP_DEPTH];
+    }
+
+    /**
+     * Creates a program ready to run the instructions already compiled into another program.
+     * The other program is not changed, so it can be copied again without compiling the script again.
+     *
+     * @param compiled Program to copy the instructions from. Any source attached to it is not copied.
+     */
+    public WaveProgram(WaveProgram compiled) {
+        code = Arrays.copyOf(compiled.code, Math.max(compiled.length, 64));
+        length = compiled.length;
+        loopCounters = new int[MAX_LOOP_DEPTH];
+    }
+
+    /**
+     * Removes all instructions and execution state, and detaches any streamed source.
+     */
+    public void clear() {
+        length = 0;
+        pc = 0;
+        spawnRemaining = 0;
+        loopDepth = 0;
+        source = null;
+    }
+
+    /**
+     * Attaches a source that will be compiled from lazily whenever the program runs out of instructions.
+     *
+     * @param source The source to pull more instructions from.
+     */
+    public void setSource(WaveSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Appends a single int to the end of the program.
+     *
+     * @param value The opcode or operand to append.
+     */
+    public void emit(int value) {
+        if(length == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[length++] = value;
+    }
+
+    /**
+     * Replaces a previously emitted int. Used to patch jump addresses.
+     *
+     * @param address Index to replace.
+     * @param value New value.
+     */
+    public void patch(int address, int value) {
+        code[address] = value;
+    }
+
+    /**
+     * Removes everything emitted after the specified length.
+     *
+     * @param newLength Length to cut the program back to.
+     */
+    public void truncate(int newLength) {
+        length = newLength;
+    }
+
+    /**
+     * Gets the number of ints that have been emitted.
+     *
+     * @return Length of the program.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Tests if there are still instructions to run, compiling more from the source if needed.
+     *
+     * @return True if there is at least one more instruction.
+     */
+    public boolean hasMoreInstructions() {
+        if(pc < length) return true;
+        refillFromSource();
+        return pc < length;
+    }
+
+    /**
+     * Gets the opcode of the instruction at the program counter.
+     *
+     * @return The current opcode.
+     */
+    public int getOpcode() {
+        return code[pc];
+    }
+
+    /**
+     * Gets an operand of the current instruction.
+     *
+     * @param index 0 for the first operand after the opcode.
+     * @return The operand value.
+     */
+    public int getOperand(int index) {
+        return code[pc + 1 + index];
+    }
+
+    /**
+     * Moves the program counter past the current instruction.
+     *
+     * @param operandCount Number of operands the current instruction has.
+     */
+    public void advance(int operandCount) {
+        pc += 1 + operandCount;
+    }
+
+    /**
+     * Moves the program counter to a specific address.
+     *
+     * @param address The address to continue from.
+     */
+    public void jump(int address) {
+        pc = address;
+    }
+
+    /**
+     * Gets the number of enemies still to spawn from the current spawn instruction.
+     *
+     * @return Enemies remaining, or 0 if the spawn instruction has not started.
+     */
+    public int getSpawnRemaining() {
+        return spawnRemaining;
+    }
+
+    /**
+     * Sets the number of enemies still to spawn from the current spawn instruction.
+     *
+     * @param spawnRemaining Enemies remaining.
+     */
+    public void setSpawnRemaining(int spawnRemaining) {
+        this.spawnRemaining = spawnRemaining;
+    }
+
+    /**
+     * Starts a new loop with the specified number of repeats.
+     *
+     * @param repeats Total number of times the loop body will run.
+     * @return False if loops are nested too deeply.
+     */
+    public boolean pushLoop(int repeats) {
+        if(loopDepth == MAX_LOOP_DEPTH) return false;
+        loopCounters[loopDepth++] = repeats;
+        return true;
+    }
+
+    /**
+     * Counts down the innermost loop, removing it once it has no repeats left.
+     *
+     * @return True if the loop body should run again.
+     */
+    public boolean repeatLoop() {
+        if(loopDepth == 0) return false;
+        if(--loopCounters[loopDepth-1] > 0) return true;
+        loopDepth--;
+        return false;
+    }
+
+    /**
+     * Writes the compiled instructions and execution state to a snapshot. Endless wave
+     * generators are saved so they continue where they were. Other streamed sources
+     * can not be saved, so only the instructions already compiled from them are kept.
+     *
+     * @param buffer Buffer to write to.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(length);
+        for(int i = 0; i < length; i++) {
+            buffer.putInt(code[i]);
+        }
+        buffer.putInt(pc).putInt(spawnRemaining).putInt(loopDepth);
+        for(int i = 0; i < loopDepth; i++) {
+            buffer.putInt(loopCounters[i]);
+        }
+        if(source instanceof EndlessWaveGenerator) {
+            buffer.put(SOURCE_ENDLESS);
+            ((EndlessWaveGenerator)source).writeTo(buffer);
+        } else {
+            buffer.put(source == null ? SOURCE_NONE : SOURCE_UNSAVED);
+        }
+    }
+
+    /**
+     * Replaces the instructions and execution state with the state written by writeTo().
+     *
+     * @param buffer Buffer to read from.
+     */
+    public void readFrom(ByteBuffer buffer) {
+        clear();
+        int newLength = buffer.getInt();
+        if(newLength > code.length) {
+            code = new int[newLength];
+        }
+        for(int i = 0; i < newLength; i++) {
+            code[i] = buffer.getInt();
+        }
+        length = newLength;
+        pc = buffer.getInt();
+        spawnRemaining = buffer.getInt();
+        loopDepth = buffer.getInt();
+        for(int i = 0; i < loopDepth; i++) {
+            loopCounters[i] = buffer.getInt();
+        }
+        byte sourceType = buffer.get();
+        if(sourceType == SOURCE_ENDLESS) {
+            source = EndlessWaveGenerator.readFrom(buffer);
+        } else if(sourceType == SOURCE_UNSAVED) {
+            System.out.println("WARNING: STREAMED SPAWN COMMANDS CAN NOT BE RESTORED PAST THE COMPILED INSTRUCTIONS");
+        }
+    }
+
+    /**
+     * Once every compiled instruction has run the buffer is emptied and the next chunk is
+     * compiled from the source. Refilling only happens outside loops so no address is lost.
+     */
+    private void refillFromSource() {
+        if(source == null || loopDepth != 0) return;
+        length = 0;
+        pc = 0;
+        boolean moreStatements = true;
+        while(moreStatements && length < STREAM_CHUNK_SIZE) {
+            moreStatements = source.compileNextStatement(this);
+        }
+        if(length == 0) {
+            source = null;
+        }
+    }
+}
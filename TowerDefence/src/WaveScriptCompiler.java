@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * WaveScriptCompiler class:
+ * Reads a wave script one token at a time and compiles it into a WaveProgram.
+ * Tokens are separated by commas or whitespace. Structure of each command is:
+ * T,number = Set interval frequency for spawning to number
+ * N,number = Spawn normal enemy for number times
+ * F,number = Spawn fast enemy for number times
+ * B,number = Spawn boss enemy for number times
+ * L,number = Repeat everything up to the matching E for number times
+ * E        = End of the most recent L
+ * H,number = Spawn with number percent health for the rest of the wave
+ * S,number = Spawn with number percent speed for the rest of the wave
+ * W        = Start a new wave, resetting H and S back to 100
+ * P,number = Spawn at the waypoint number steps along the path from the start (0 is the start)
+ */
+public class WaveScriptCompiler implements WaveSource {
+    /**
+     * Source of characters to read tokens from.
+     */
+    private Reader source;
+    /**
+     * Reused buffer to build each token in.
+     */
+    private StringBuilder tokenBuilder;
+    /**
+     * True once the end of the source has been reached or an error was found.
+     */
+    private boolean finished;
+
+    /**
+     * Prepares to compile from a stream of characters. Only as much as is needed is ever read.
+     *
+     * @param source Source of the wave script.
+     */
+    public WaveScriptCompiler(Reader source) {
+        this.source = source;
+        tokenBuilder = new StringBuilder();
+        finished = false;
+    }
+
+    /**
+     * Compiles a whole script held in a String.
+     *
+     * @param spawnData Correctly formatted spawn data to compile.
+     * @param program Program to append the compiled instructions to.
+     */
+    public static void compileAll(String spawnData, WaveProgram program) {
+        WaveScriptCompiler compiler = new WaveScriptCompiler(new StringReader(spawnData));
+        boolean moreStatements = true;
+        while(moreStatements) {
+            moreStatements = compiler.compileNextStatement(program);
+        }
+    }
+
+    /**
+     * Compiles the next top level statement. A loop is compiled including its entire body.
+     * Anything emitted by a statement that fails to compile is removed again.
+     *
+     * @param program Program to append the compiled instructions to.
+     * @return True if a statement was compiled, false if the end was reached or there was an error.
+     */
+    @Override
+    public boolean compileNextStatement(WaveProgram program) {
+        if(finished) return false;
+        String token = readToken();
+        if(token == null) {
+            finish();
+            return false;
+        }
+        int statementStart = program.getLength();
+        if(!compileStatement(token, program, 0)) {
+            program.truncate(statementStart);
+            finish();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compiles one statement starting with the command token that has already been read.
+     *
+     * @param command The command token.
+     * @param program Program to append the compiled instructions to.
+     * @param loopDepth How many loops this statement is inside of.
+     * @return True if the statement compiled successfully.
+     */
+    private boolean compileStatement(String command, WaveProgram program, int loopDepth) {
+        switch(command) {
+            case "N": return compileSpawn(EnemyUnit.EnemyType.Normal, program);
+            case "F": return compileSpawn(EnemyUnit.EnemyType.Fast, program);
+            case "B": return compileSpawn(EnemyUnit.EnemyType.Boss, program);
+            case "T": return compileWithValue(WaveProgram.OP_INTERVAL, program);
+            case "H": return compileWithValue(WaveProgram.OP_HEALTH, program);
+            case "S": return compileWithValue(WaveProgram.OP_SPEED, program);
+            case "P": return compileWithValue(WaveProgram.OP_START_POINT, program);
+            case "W":
+                program.emit(WaveProgram.OP_WAVE);
+                return true;
+            case "L": return compileLoop(program, loopDepth);
+        }
+        System.out.println("ERROR INVALID SPAWN COMMAND: " + command);
+        return false;
+    }
+
+    /**
+     * Compiles a spawn instruction for the specified enemy type.
+     *
+     * @param enemyType Type of enemy to spawn.
+     * @param program Program to append the compiled instructions to.
+     * @return True if the statement compiled successfully.
+     */
+    private boolean compileSpawn(EnemyUnit.EnemyType enemyType, WaveProgram program) {
+        Integer count = readValue();
+        if(count == null) return false;
+        program.emit(WaveProgram.OP_SPAWN);
+        program.emit(enemyType.ordinal());
+        program.emit(count);
+        return true;
+    }
+
+    /**
+     * Compiles an instruction that takes a single value.
+     *
+     * @param opcode The instruction to emit.
+     * @param program Program to append the compiled instructions to.
+     * @return True if the statement compiled successfully.
+     */
+    private boolean compileWithValue(int opcode, WaveProgram program) {
+        Integer value = readValue();
+        if(value == null) return false;
+        program.emit(opcode);
+        program.emit(value);
+        return true;
+    }
+
+    /**
+     * Compiles a loop with all statements up to the matching E, then patches the jump
+     * address so a loop with no repeats can skip straight past its body.
+     *
+     * @param program Program to append the compiled instructions to.
+     * @param loopDepth How many loops this loop is inside of.
+     * @return True if the loop compiled successfully.
+     */
+    private boolean compileLoop(WaveProgram program, int loopDepth) {
+        if(loopDepth == WaveProgram.MAX_LOOP_DEPTH) {
+            System.out.println("ERROR SPAWN COMMAND LOOPS NESTED TOO DEEPLY");
+            return false;
+        }
+        Integer repeats = readValue();
+        if(repeats == null) return false;
+        program.emit(WaveProgram.OP_LOOP);
+        program.emit(repeats);
+        int endAddressSlot = program.getLength();
+        program.emit(0);
+        int bodyAddress = program.getLength();
+
+        String token = readToken();
+        while(token != null && !token.equals("E")) {
+            if(!compileStatement(token, program, loopDepth+1)) return false;
+            token = readToken();
+        }
+        if(token == null) {
+            System.out.println("ERROR SPAWN COMMAND LOOP IS MISSING E");
+            return false;
+        }
+        program.emit(WaveProgram.OP_END_LOOP);
+        program.emit(bodyAddress);
+        program.patch(endAddressSlot, program.getLength());
+        return true;
+    }
+
+    /**
+     * Reads the next token and converts it to a number.
+     *
+     * @return The number, or null if it was missing or not a number.
+     */
+    private Integer readValue() {
+        String token = readToken();
+        if(token == null) {
+            System.out.println("ERROR INVALID SPAWN COMMAND DATA LENGTH");
+            return null;
+        }
+        try {
+            return Integer.parseInt(token);
+        } catch(NumberFormatException e) {
+            System.out.println("ERROR INVALID SPAWN COMMAND VALUE: " + token);
+            return null;
+        }
+    }
+
+    /**
+     * Reads characters up to the next comma or whitespace.
+     *
+     * @return The next non-empty token, or null if the end of the source was reached.
+     */
+    private String readToken() {
+        tokenBuilder.setLength(0);
+        try {
+            int c = source.read();
+            while(c != -1) {
+                if(c == ',' || Character.isWhitespace(c)) {
+                    if(tokenBuilder.length() > 0) break;
+                } else {
+                    tokenBuilder.append((char)c);
+                }
+                c = source.read();
+            }
+        } catch(IOException e) {
+            System.out.println("ERROR READING SPAWN COMMANDS: " + e.getMessage());
+        }
+        return tokenBuilder.length() == 0 ? null : tokenBuilder.toString();
+    }
+
+    /**
+     * Marks the compiler as finished and releases the source.
+     */
+    private void finish() {
+        finished = true;
+        try {
+            source.close();
+        } catch(IOException e) {
+            System.out.println("ERROR CLOSING SPAWN COMMANDS: " + e.getMessage());
+        }
+    }
+}
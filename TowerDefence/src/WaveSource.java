@@ -0,0 +1,16 @@
+/**
+ * Tower Defence
+ * Author: Peter Mitchell (2021)
+ *
+ * WaveSource interface:
+ * Defines a source that a WaveProgram can pull more compiled instructions from when it runs out.
+ */
+interface WaveSource {
+    /**
+     * Appends the next complete statement to the program.
+     *
+     * @param program Program to append the compiled instructions to.
+     * @return True if a statement was appended, false if the source has nothing more to give.
+     */
+    boolean compileNextStatement(WaveProgram program);
+}